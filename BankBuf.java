@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,8 +34,9 @@ import java.util.logging.Logger;
 public abstract class BankBuf implements Buf {
 
     private final long size_;
-    private boolean isBit64_;
-    private boolean isBigendian_;
+    private final ReadGuard guard_;
+    private volatile boolean isBit64_;
+    private volatile boolean isBigendian_;
 
     private static final Logger logger_ =
         Logger.getLogger( BankBuf.class.getName() );
@@ -50,6 +52,11 @@ public abstract class BankBuf implements Buf {
         size_ = size;
         isBit64_ = isBit64;
         isBigendian_ = isBigendian;
+        guard_ = new ReadGuard() {
+            protected void release() throws IOException {
+                releaseResources();
+            }
+        };
     }
 
     /**
@@ -93,34 +100,58 @@ public abstract class BankBuf implements Buf {
     }
 
     public int readUnsignedByte( Pointer ptr ) throws IOException {
-        long pos = ptr.getAndIncrement( 1 );
-        Bank bank = getBank( pos, 1 );
-        return bank.byteBuffer_.get( bank.adjust( pos ) ) & 0xff;
+        guard_.enter();
+        try {
+            long pos = ptr.getAndIncrement( 1 );
+            Bank bank = getBank( pos, 1 );
+            return bank.byteBuffer_.get( bank.adjust( pos ) ) & 0xff;
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public int readInt( Pointer ptr ) throws IOException {
-        long pos = ptr.getAndIncrement( 4 );
-        Bank bank = getBank( pos, 4 );
-        return bank.byteBuffer_.getInt( bank.adjust( pos ) );
+        guard_.enter();
+        try {
+            long pos = ptr.getAndIncrement( 4 );
+            Bank bank = getBank( pos, 4 );
+            return bank.byteBuffer_.getInt( bank.adjust( pos ) );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public long readOffset( Pointer ptr ) throws IOException {
-        int nbyte = isBit64_ ? 8 : 4;
-        long pos = ptr.getAndIncrement( nbyte );
-        Bank bank = getBank( pos, nbyte );
-        int apos = bank.adjust( pos );
-        return isBit64_ ? bank.byteBuffer_.getLong( apos )
-                        : (long) bank.byteBuffer_.getInt( apos );
+        guard_.enter();
+        try {
+            int nbyte = isBit64_ ? 8 : 4;
+            long pos = ptr.getAndIncrement( nbyte );
+            Bank bank = getBank( pos, nbyte );
+            int apos = bank.adjust( pos );
+            return isBit64_ ? bank.byteBuffer_.getLong( apos )
+                            : (long) bank.byteBuffer_.getInt( apos );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public String readAsciiString( Pointer ptr, int nbyte ) throws IOException {
-        long offset = ptr.getAndIncrement( nbyte );
-        Bank bank = getBank( offset, nbyte );
-        return Bufs.readAsciiString( bank.byteBuffer_, bank.adjust( offset ),
-                                     nbyte );
+        guard_.enter();
+        try {
+            long offset = ptr.getAndIncrement( nbyte );
+            Bank bank = getBank( offset, nbyte );
+            return Bufs.readAsciiString( bank.byteBuffer_,
+                                         bank.adjust( offset ), nbyte );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public synchronized void setBit64( boolean isBit64 ) {
+    public void setBit64( boolean isBit64 ) {
         isBit64_ = isBit64;
     }
 
@@ -128,7 +159,7 @@ public abstract class BankBuf implements Buf {
         return isBit64_;
     }
 
-    public synchronized void setEncoding( boolean bigend ) {
+    public void setEncoding( boolean bigend ) {
         isBigendian_ = bigend;
         for ( Bank bank : getExistingBanks() ) {
             bank.setEncoding( isBigendian_ );
@@ -141,41 +172,80 @@ public abstract class BankBuf implements Buf {
 
     public void readDataBytes( long offset, int count, byte[] array )
             throws IOException {
-        Bank bank = getBank( offset, count );
-        Bufs.readBytes( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count );
+            Bufs.readBytes( bank.dataBuffer_, bank.adjust( offset ),
+                            count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public void readDataShorts( long offset, int count, short[] array )
             throws IOException {
-        Bank bank = getBank( offset, count * 2 );
-        Bufs.readShorts( bank.dataBuffer_, bank.adjust( offset ),
-                         count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count * 2 );
+            Bufs.readShorts( bank.dataBuffer_, bank.adjust( offset ),
+                             count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public void readDataInts( long offset, int count, int[] array )
             throws IOException {
-        Bank bank = getBank( offset, count * 4 );
-        Bufs.readInts( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count * 4 );
+            Bufs.readInts( bank.dataBuffer_, bank.adjust( offset ),
+                           count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public void readDataLongs( long offset, int count, long[] array )
             throws IOException {
-        Bank bank = getBank( offset, count * 8 );
-        Bufs.readLongs( bank.dataBuffer_, bank.adjust( offset ), count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count * 8 );
+            Bufs.readLongs( bank.dataBuffer_, bank.adjust( offset ),
+                            count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public void readDataFloats( long offset, int count, float[] array )
             throws IOException {
-        Bank bank = getBank( offset, count * 4 );
-        Bufs.readFloats( bank.dataBuffer_, bank.adjust( offset ),
-                         count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count * 4 );
+            Bufs.readFloats( bank.dataBuffer_, bank.adjust( offset ),
+                             count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public void readDataDoubles( long offset, int count, double[] array )
             throws IOException {
-        Bank bank = getBank( offset, count * 8 );
-        Bufs.readDoubles( bank.dataBuffer_, bank.adjust( offset ),
-                          count, array );
+        guard_.enter();
+        try {
+            Bank bank = getBank( offset, count * 8 );
+            Bufs.readDoubles( bank.dataBuffer_, bank.adjust( offset ),
+                              count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public InputStream createInputStream( final long offset ) {
@@ -193,7 +263,20 @@ public abstract class BankBuf implements Buf {
                 return Bufs.createByteBufferInputStream( bbuf );
             }
         };
-        return new SequenceInputStream( inEn );
+        return guard_.guardStream( new SequenceInputStream( inEn ) );
+    }
+
+    public void close() throws IOException {
+        guard_.close();
+    }
+
+    /**
+     * Releases any resources owned by this buf.
+     * Called once, after the buf has been closed and
+     * any reads in progress at that time have finished.
+     * The default implementation does nothing.
+     */
+    protected void releaseResources() throws IOException {
     }
 
     public Buf fillNewBuf( long count, InputStream in ) throws IOException {
@@ -225,7 +308,7 @@ public abstract class BankBuf implements Buf {
                 count -= nr;
             }
         }
-        return Bufs.createBuf( bbuf, isBit64_, isBigendian_ );
+        return new SimpleNioBuf( bbuf, isBit64_, isBigendian_, true );
     }
 
     /**
@@ -284,6 +367,8 @@ public abstract class BankBuf implements Buf {
 
     /**
      * Returns a BankBuf based on supplied file channel.
+     * The channel is owned by the returned buf; closing the buf
+     * closes the channel and unmaps any banks mapped from it.
      *
      * @param  channel   readable file containing data
      * @param  size    number of bytes in channel
@@ -411,11 +496,10 @@ public abstract class BankBuf implements Buf {
                     int n =  (int)(ends_[ ibank ] - offset);                    
                     while ( count > 0 ) {
 
-                    	ByteBuffer bbuf = banks_[ ibank ].byteBuffer_;
-                        synchronized ( bbuf ) {
-                            bbuf.position( bankOff );
-                            bbuf.get( tmp, tmpOff, n );
-                        }
+                        ByteBuffer bbuf =
+                            banks_[ ibank ].byteBuffer_.duplicate();
+                        bbuf.position( bankOff );
+                        bbuf.get( tmp, tmpOff, n );
                         count -= n;
                         tmpOff += n;
                         bankOff = 0;
@@ -473,7 +557,7 @@ public abstract class BankBuf implements Buf {
         private final FileChannel channel_;
         private final long size_;
         private final long bankSize_;
-        private final Bank[] banks_;
+        private final AtomicReferenceArray<Bank> banks_;
 
         /**
          * Constructor.
@@ -492,7 +576,7 @@ public abstract class BankBuf implements Buf {
             size_ = size;
             bankSize_ = bankSize;
             int nbank = (int) ( ( ( size - 1 ) / bankSize ) + 1 );
-            banks_ = new Bank[ nbank ];
+            banks_ = new AtomicReferenceArray<Bank>( nbank );
         }
 
         public Bank getBank( long offset, int count ) throws IOException {
@@ -520,12 +604,10 @@ public abstract class BankBuf implements Buf {
                 
                 while ( count > 0 ){
                 	
-                    ByteBuffer bbuf = getBankByIndex( ibank ).byteBuffer_;
-                    
-                    synchronized ( bbuf ){
-                        bbuf.position( bankOff );
-                        bbuf.get( tmp, tmpOff, n );
-                    }
+                    ByteBuffer bbuf =
+                        getBankByIndex( ibank ).byteBuffer_.duplicate();
+                    bbuf.position( bankOff );
+                    bbuf.get( tmp, tmpOff, n );
                     
                     count -= n;
                     tmpOff += n;
@@ -540,8 +622,8 @@ public abstract class BankBuf implements Buf {
 
         public List<Bank> getExistingBanks() {
             List<Bank> list = new ArrayList<Bank>();
-            for ( int ib = 0; ib < banks_.length; ib++ ) {
-                Bank bank = banks_[ ib ];
+            for ( int ib = 0; ib < banks_.length(); ib++ ) {
+                Bank bank = banks_.get( ib );
                 if ( bank != null ) {
                     list.add( bank );
                 }
@@ -553,7 +635,7 @@ public abstract class BankBuf implements Buf {
             return new Iterator<Bank>() {
                 int ibank = (int) ( offset / bankSize_ );
                 public boolean hasNext() {
-                    return ibank < banks_.length;
+                    return ibank < banks_.length();
                 }
                 public Bank next() {
                     try {
@@ -570,21 +652,43 @@ public abstract class BankBuf implements Buf {
             };
         }
 
+        @Override
+        protected void releaseResources() throws IOException {
+            for ( int ib = 0; ib < banks_.length(); ib++ ) {
+                Bank bank = banks_.getAndSet( ib, null );
+                if ( bank != null ) {
+                    Bufs.unmap( bank.byteBuffer_ );
+                }
+            }
+            channel_.close();
+        }
+
         /**
          * Lazily obtains and returns a numbered bank.  Will not return null.
+         * If several threads map the same bank at once, only one mapping
+         * is kept and the others are unmapped straight away,
+         * so that every mapping is released when this buf is closed.
          *
          * @param  ibank  bank index
          */
         private Bank getBankByIndex( int ibank ) throws IOException {
-            if ( banks_[ ibank ] == null ) {
+            Bank bank = banks_.get( ibank );
+            if ( bank == null ) {
                 long start = ibank * bankSize_;
                 long end = Math.min( ( ( ibank + 1 ) * bankSize_ ), size_ );
                 int leng = (int) ( end - start );
                 ByteBuffer bbuf =
                     channel_.map( FileChannel.MapMode.READ_ONLY, start, leng );
-                banks_[ ibank ] = new Bank( bbuf, start, isBigendian() );
+                Bank newBank = new Bank( bbuf, start, isBigendian() );
+                if ( banks_.compareAndSet( ibank, null, newBank ) ) {
+                    bank = newBank;
+                }
+                else {
+                    Bufs.unmap( bbuf );
+                    bank = banks_.get( ibank );
+                }
             }
-            return banks_[ ibank ];
+            return bank;
         }
     }
 
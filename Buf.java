@@ -1,5 +1,6 @@
 package uk.ac.bristol.star.cdf.record;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -12,10 +13,14 @@ import java.io.InputStream;
  * All of the <code>read*</code> methods are safe for use from multiple
  * threads concurrently.
  *
+ * <p>When a buf is no longer required it can be closed,
+ * which releases any file descriptors or mapped memory it holds
+ * without waiting for garbage collection.
+ *
  * @author   Mark Taylor
  * @since    18 Jun 2013
  */
-public interface Buf {
+public interface Buf extends Closeable {
 
     /**
      * Returns the extent of this buf in bytes.
@@ -93,10 +98,9 @@ public interface Buf {
      * <code>readData*</code> methods.
      *
      * <p>As currently specified, there are only two possibiliies,
-     * Big-Endian and Little-Endian.  Interface and implementation would
-     * need to be reworked somewhat to accommodate the 
-     * (presumably, rarely seen in this day and age)
-     * D_FLOAT and G_FLOAT encodings supported by the CDF standard.
+     * Big-Endian and Little-Endian.  The VAX F_FLOAT, D_FLOAT and G_FLOAT
+     * floating point encodings supported by the CDF standard
+     * are handled by wrapping a little-endian buf in a {@link VaxBuf}.
      *
      * <p>This method should be called before any of the <code>readData*</code>
      * methods are invoked.
@@ -194,4 +198,20 @@ public interface Buf {
      *          from <code>in</code>
      */
     Buf fillNewBuf( long count, InputStream in ) throws IOException;
+
+    /**
+     * Releases resources associated with this buf.
+     * Open file channels are closed, and memory-mapped or direct buffers
+     * allocated by the implementation are unmapped.
+     * Buffers supplied by the caller at construction time are not unmapped.
+     * Subsequent <code>read*</code> calls will fail with a
+     * {@link java.nio.channels.ClosedChannelException}.
+     * Calling this method more than once has no further effect.
+     *
+     * <p>This method may be called while other threads are reading
+     * from this buf or from input streams it has supplied.
+     * Reads already in progress complete normally, and memory is
+     * released only when the last of them has finished.
+     */
+    void close() throws IOException;
 }
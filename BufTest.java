@@ -6,15 +6,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.bristol.star.cdf.record.BankBuf;
 import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.Bufs;
 import uk.ac.bristol.star.cdf.record.Pointer;
 import uk.ac.bristol.star.cdf.record.SimpleNioBuf;
+import uk.ac.bristol.star.cdf.record.VaxBuf;
 
 public class BufTest {
 
@@ -129,21 +137,209 @@ public class BufTest {
         assert buf.readUnsignedByte( p ) == 1;
     }
 
+    // Checks that closed bufs release their resources and refuse reads.
+    public void testClose() throws IOException {
+        File tmpFile = File.createTempFile( "data", ".bin" );
+        tmpFile.deleteOnExit();
+        FileOutputStream fout = new FileOutputStream( tmpFile );
+        fout.write( new byte[ 1000 ] );
+        fout.close();
+
+        Buf fileBuf = Bufs.createBuf( tmpFile, false, true );
+        assert fileBuf.readInt( new Pointer( 0 ) ) == 0;
+        fileBuf.close();
+        fileBuf.close();
+        assertClosed( fileBuf );
+
+        FileChannel inchan = new FileInputStream( tmpFile ).getChannel();
+        Buf bankBuf = BankBuf.createMultiBankBuf( inchan, 1000, 300,
+                                                  false, true );
+        long[] larray = new long[ 100 ];
+        bankBuf.readDataLongs( 200, 100, larray );
+        bankBuf.close();
+        assert ! inchan.isOpen();
+        assertClosed( bankBuf );
+
+        Buf nioBuf = new SimpleNioBuf( ByteBuffer.allocate( 100 ),
+                                       false, true );
+        nioBuf.close();
+        assertClosed( nioBuf );
+        tmpFile.delete();
+    }
+
+    // Checks that closing mapped bufs while other threads are reading
+    // from them makes the readers fail cleanly rather than crash.
+    public void testConcurrentClose()
+            throws IOException, InterruptedException {
+        File tmpFile = File.createTempFile( "data", ".bin" );
+        tmpFile.deleteOnExit();
+        FileOutputStream fout = new FileOutputStream( tmpFile );
+        int nbyte = 1 << 20;
+        fout.write( new byte[ nbyte ] );
+        fout.close();
+        for ( int itry = 0; itry < 20; itry++ ) {
+            checkConcurrentClose( Bufs.createBuf( tmpFile, false, true ) );
+            FileChannel inchan = new FileInputStream( tmpFile ).getChannel();
+            checkConcurrentClose( BankBuf
+                                 .createMultiBankBuf( inchan, nbyte,
+                                                      nbyte / 4,
+                                                      false, true ) );
+        }
+        tmpFile.delete();
+    }
+
+    private static void checkConcurrentClose( final Buf buf )
+            throws IOException, InterruptedException {
+        int nthread = 4;
+        final CountDownLatch startLatch = new CountDownLatch( nthread );
+        final AtomicInteger nClosed = new AtomicInteger();
+        Thread[] threads = new Thread[ nthread ];
+        for ( int it = 0; it < nthread; it++ ) {
+            threads[ it ] = new Thread() {
+                public void run() {
+                    double[] darray = new double[ 1 << 16 ];
+                    byte[] barray = new byte[ 4096 ];
+                    InputStream in = buf.createInputStream( 0 );
+                    startLatch.countDown();
+                    try {
+                        while ( true ) {
+                            buf.readDataDoubles( 0, darray.length, darray );
+                            in.read( barray );
+                        }
+                    }
+                    catch ( ClosedChannelException e ) {
+                        nClosed.incrementAndGet();
+                    }
+                    catch ( IOException e ) {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+            threads[ it ].start();
+        }
+        startLatch.await();
+        buf.close();
+        for ( Thread th : threads ) {
+            th.join();
+        }
+        assert nClosed.get() == nthread;
+        assertClosed( buf );
+    }
+
+    private static void assertClosed( Buf buf ) {
+        try {
+            buf.readDataDoubles( 0, 2, new double[ 2 ] );
+            assert false;
+        }
+        catch ( ClosedChannelException e ) {
+        }
+        catch ( IOException e ) {
+            assert false;
+        }
+    }
+
+    // Checks VAX floating point decoding against values encoded here.
+    public void testVax() throws IOException {
+        byte[] one4 = { (byte) 0x80, 0x40, 0, 0 };
+        byte[] oneD = { (byte) 0x80, 0x40, 0, 0, 0, 0, 0, 0 };
+        byte[] oneG = { 0x10, 0x40, 0, 0, 0, 0, 0, 0 };
+        assert readFloat( createVaxBuf( one4, false ) ) == 1f;
+        assert readDouble( createVaxBuf( oneD, false ) ) == 1.0;
+        assert readDouble( createVaxBuf( oneG, true ) ) == 1.0;
+
+        Random rnd = new Random( 23001 );
+        int n = 1000;
+        float[] floats = new float[ n ];
+        double[] dDoubles = new double[ n ];
+        double[] gDoubles = new double[ n ];
+        ByteBuffer fbb = ByteBuffer.allocate( 4 * n )
+                                   .order( ByteOrder.LITTLE_ENDIAN );
+        ByteBuffer dbb = ByteBuffer.allocate( 8 * n )
+                                   .order( ByteOrder.LITTLE_ENDIAN );
+        ByteBuffer gbb = ByteBuffer.allocate( 8 * n )
+                                   .order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < n; i++ ) {
+
+            // F_FLOAT: IEEE bits with exponent bias 2 higher, words swapped.
+            float f = (float) ( rnd.nextGaussian()
+                              * Math.pow( 10, rnd.nextInt( 60 ) - 30 ) );
+            floats[ i ] = f;
+            fbb.putInt( Integer.rotateLeft( Float.floatToIntBits( f )
+                                          + ( 2 << 23 ), 16 ) );
+
+            // D_FLOAT: 8-bit exponent, 55-bit fraction.
+            double d = rnd.nextGaussian()
+                     * Math.pow( 10, rnd.nextInt( 60 ) - 30 );
+            dDoubles[ i ] = d;
+            long dbits = Double.doubleToLongBits( d );
+            long dexp = ( ( dbits >>> 52 ) & 0x7ff ) - 894;
+            long dvax = ( dbits & 0x8000000000000000L )
+                      | ( dexp << 55 )
+                      | ( ( dbits & 0x000fffffffffffffL ) << 3 );
+            dbb.putLong( reverseWords( dvax ) );
+
+            // G_FLOAT: IEEE bits with exponent bias 2 higher, words swapped.
+            double g = rnd.nextGaussian()
+                     * Math.pow( 10, rnd.nextInt( 600 ) - 300 );
+            gDoubles[ i ] = g;
+            gbb.putLong( reverseWords( Double.doubleToLongBits( g )
+                                     + ( 2L << 52 ) ) );
+        }
+        float[] fout = new float[ n ];
+        double[] dout = new double[ n ];
+        double[] gout = new double[ n ];
+        createVaxBuf( fbb.array(), false ).readDataFloats( 0, n, fout );
+        createVaxBuf( dbb.array(), false ).readDataDoubles( 0, n, dout );
+        createVaxBuf( gbb.array(), true ).readDataDoubles( 0, n, gout );
+        assert Arrays.equals( floats, fout );
+        assert Arrays.equals( dDoubles, dout );
+        assert Arrays.equals( gDoubles, gout );
+    }
+
+    private static Buf createVaxBuf( byte[] bytes, boolean isG ) {
+        return new VaxBuf( new SimpleNioBuf( ByteBuffer.wrap( bytes ),
+                                                 false, true ), isG );
+    }
+
+    private static long reverseWords( long x ) {
+        return ( x << 48 )
+             | ( ( x << 16 ) & 0x0000ffff00000000L )
+             | ( ( x >>> 16 ) & 0x00000000ffff0000L )
+             | ( x >>> 48 );
+    }
+
+    private static float readFloat( Buf buf ) throws IOException {
+        float[] a = new float[ 1 ];
+        buf.readDataFloats( 0, 1, a );
+        return a[ 0 ];
+    }
+
+    private static double readDouble( Buf buf ) throws IOException {
+        double[] a = new double[ 1 ];
+        buf.readDataDoubles( 0, 1, a );
+        return a[ 0 ];
+    }
+
     private static boolean checkAssertions() {
         assertionsOn_ = true;
         return true;
     }
 
-    private static void runTests() throws IOException {
+    private static void runTests()
+            throws IOException, InterruptedException {
         assert checkAssertions();
         if ( ! assertionsOn_ ) {
             throw new RuntimeException( "Assertions disabled - bit pointless" );
         }
         BufTest test = new BufTest();
         test.testBufs();
+        test.testVax();
+        test.testClose();
+        test.testConcurrentClose();
     }
 
-    public static void main( String[] args ) throws IOException {
+    public static void main( String[] args )
+            throws IOException, InterruptedException {
         runTests();
     }
 }
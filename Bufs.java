@@ -5,8 +5,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +23,9 @@ public class Bufs {
     /** Preferred maximum size for a bank buffer.  */
     private static final int BANK_SIZE = 1 << 30;
     private static Logger logger_ = Logger.getLogger( Bufs.class.getName() );
+    private static Object unsafe_;
+    private static Method invokeCleanerMethod_;
+    private static boolean unmapFailed_;
 
     /**
      * Private constructor prevents instantiation.
@@ -55,6 +61,10 @@ public class Bufs {
 
     /**
      * Creates a buf based on a file.
+     * The file is memory-mapped.  For files of up to 2Gb the file
+     * descriptor is released immediately; otherwise it is held open
+     * until the buf is closed.
+     * Closing the returned buf unmaps the file.
      *
      * @param  file  file containing data
      * @param   isBit64  64bit-ness of buf
@@ -66,10 +76,17 @@ public class Bufs {
         FileChannel channel = new FileInputStream( file ).getChannel();
         long leng = file.length();
         if ( leng <= Integer.MAX_VALUE ) {
+
+            // A mapping remains valid after its channel is closed.
             int ileng = (int) leng;
-            ByteBuffer bbuf =
-                channel.map( FileChannel.MapMode.READ_ONLY, 0, ileng );
-            return createBuf( bbuf, isBit64, isBigendian );
+            ByteBuffer bbuf;
+            try {
+                bbuf = channel.map( FileChannel.MapMode.READ_ONLY, 0, ileng );
+            }
+            finally {
+                channel.close();
+            }
+            return new SimpleNioBuf( bbuf, isBit64, isBigendian, true );
         }
         else {
             return BankBuf.createMultiBankBuf( channel, leng, BANK_SIZE,
@@ -77,6 +94,60 @@ public class Bufs {
         }
     }
 
+    /**
+     * Attempts to release the memory associated with a mapped or direct
+     * NIO buffer immediately, rather than when it is garbage collected.
+     * The buffer must not be used after this call.
+     * This relies on unsupported JVM internals; if it fails,
+     * the buffer is left for the garbage collector.
+     *
+     * @param  bbuf  buffer to release; must not be a slice or duplicate
+     */
+    static void unmap( ByteBuffer bbuf ) {
+        if ( bbuf == null || ! bbuf.isDirect() ) {
+            return;
+        }
+        Method invokeCleaner = getInvokeCleanerMethod();
+        if ( invokeCleaner != null ) {
+            try {
+                invokeCleaner.invoke( unsafe_, bbuf );
+            }
+            catch ( Exception e ) {
+                logger_.log( Level.FINE, "Failed to unmap buffer", e );
+            }
+        }
+    }
+
+    /**
+     * Returns the <code>sun.misc.Unsafe.invokeCleaner</code> method,
+     * which is used to release direct buffers.
+     *
+     * @return  method to be invoked on <code>unsafe_</code>,
+     *          or null if unavailable
+     */
+    private static synchronized Method getInvokeCleanerMethod() {
+        if ( invokeCleanerMethod_ == null && ! unmapFailed_ ) {
+            try {
+                Class<?> clazz = Class.forName( "sun.misc.Unsafe" );
+                Field field = clazz.getDeclaredField( "theUnsafe" );
+                field.setAccessible( true );
+                unsafe_ = field.get( null );
+                invokeCleanerMethod_ =
+                    clazz.getMethod( "invokeCleaner", ByteBuffer.class );
+            }
+            catch ( Throwable e ) {
+
+                // Java 8 and earlier have no invokeCleaner method, and
+                // other JVMs may not provide it; leave it to the GC.
+                unmapFailed_ = true;
+                logger_.log( Level.CONFIG,
+                             "Can't unmap buffers, left to garbage collector",
+                             e );
+            }
+        }
+        return invokeCleanerMethod_;
+    }
+
     /**
      * Decompresses part of an input Buf into an output Buf.
      *
@@ -122,9 +193,12 @@ public class Bufs {
     // single value or multiple values.  This is because NIO Buffer
     // classes have absolute read methods for scalar reads, but only
     // relative read methods for array reads (i.e. you need to position
-    // a pointer and then do the read).  For thread safety we need to
-    // synchronize in that case to make sure somebody else doesn't
-    // reposition before the read takes place.
+    // a pointer and then do the read).  For thread safety the array
+    // reads position a private duplicate of the buffer rather than
+    // the shared one, so no locks are held during the read.
+    // That matters because reading a mapped buffer can page fault,
+    // and a thread holding a monitor meanwhile would block other
+    // readers (or pin the carrier thread of a virtual thread).
     //
     // For the array reads, we also recast the ByteBuffer to a Buffer of
     // the appropriate type for the data being read.
@@ -132,8 +206,7 @@ public class Bufs {
     // Both these steps are taken on the assumption that the bulk reads
     // are more efficient than multiple byte reads perhaps followed by
     // bit manipulation where required.  The NIO javadocs suggest that
-    // assumption is true, but I haven't tested it.  Doing it the other
-    // way would avoid the need for synchronization.
+    // assumption is true, but I haven't tested it.
 
     /**
      * Utility method to read a fixed length ASCII string from an NIO buffer.
@@ -146,10 +219,7 @@ public class Bufs {
      */
     static String readAsciiString( ByteBuffer bbuf, int ioff, int nbyte ) {
         byte[] abuf = new byte[ nbyte ];
-        synchronized ( bbuf ) {
-            bbuf.position( ioff );
-            bbuf.get( abuf, 0, nbyte );
-        }
+        positioned( bbuf, ioff ).get( abuf, 0, nbyte );
         StringBuffer sbuf = new StringBuffer( nbyte );
         for ( int i = 0; i < nbyte; i++ ) {
             byte b = abuf[ i ];
@@ -177,10 +247,7 @@ public class Bufs {
             a[ 0 ] = bbuf.get( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).get( a, 0, count );
         }
     }
 
@@ -198,10 +265,7 @@ public class Bufs {
             a[ 0 ] = bbuf.getShort( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asShortBuffer().get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).asShortBuffer().get( a, 0, count );
         }
     }
 
@@ -219,10 +283,7 @@ public class Bufs {
             a[ 0 ] = bbuf.getInt( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asIntBuffer().get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).asIntBuffer().get( a, 0, count );
         }
     }
 
@@ -240,10 +301,7 @@ public class Bufs {
             a[ 0 ] = bbuf.getLong( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asLongBuffer().get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).asLongBuffer().get( a, 0, count );
         }
     }
 
@@ -261,10 +319,7 @@ public class Bufs {
             a[ 0 ] = bbuf.getFloat( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asFloatBuffer().get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).asFloatBuffer().get( a, 0, count );
         }
     }
 
@@ -283,13 +338,25 @@ public class Bufs {
             a[ 0 ] = bbuf.getDouble( ioff );
         }
         else {
-            synchronized ( bbuf ) {
-                bbuf.position( ioff );
-                bbuf.asDoubleBuffer().get( a, 0, count );
-            }
+            positioned( bbuf, ioff ).asDoubleBuffer().get( a, 0, count );
         }
     }
 
+    /**
+     * Returns a view of an NIO buffer with its own position,
+     * set to a given value.  The byte order is preserved.
+     *
+     * @param  bbuf  buffer
+     * @param  ioff  position
+     * @return  new positioned buffer sharing bbuf's content
+     */
+    private static ByteBuffer positioned( ByteBuffer bbuf, int ioff ) {
+        ByteBuffer dup = bbuf.duplicate();
+        dup.order( bbuf.order() );
+        dup.position( ioff );
+        return dup;
+    }
+
     /**
      * Input stream that reads from an NIO buffer.
      * You'd think there was an implementation of this in the J2SE somewhere,
@@ -0,0 +1,478 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares open CdfContent instances between users of the same file.
+ * Opening a CDF involves mapping the file, reading its metadata,
+ * and possibly uncompressing it; when the same files are opened
+ * repeatedly, for instance by a server handling many requests,
+ * this cache lets all of them use a single open instance.
+ *
+ * <p>Files are identified by canonical path, and an open instance is
+ * only reused if the file's size and modification time are unchanged.
+ * A caller {@link #acquire acquire}s a {@link Handle} and must
+ * {@link Handle#close close} it when finished.
+ * The content is reference counted, and is only closed when it has
+ * been evicted and no handles to it remain open.
+ * If several threads acquire the same uncached file at once,
+ * only one of them opens it, and the others wait for the result.
+ *
+ * <p>Unused entries are evicted when the cache holds more than a
+ * maximum number of files, least recently used first,
+ * or when they have been unused for longer than a given idle time.
+ * There is no background thread; eviction is done during calls to
+ * <code>acquire</code> and handle <code>close</code>,
+ * or explicitly by calling {@link #evictIdle}.
+ *
+ * <p>This class is thread-safe.  It uses {@link ReentrantLock}s and
+ * latches rather than monitors, so virtual threads waiting for a file
+ * being opened by another thread do not pin their carriers.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class CdfCache implements Closeable {
+
+    private final int maxSize_;
+    private final long maxIdleMillis_;
+    private final ReadOptions readOptions_;
+    private final Map<String,Entry> map_;
+    private long nHit_;
+    private long nMiss_;
+    private boolean isClosed_;
+    private final Lock lock_ = new ReentrantLock();
+
+    private static final Logger logger_ =
+        Logger.getLogger( CdfCache.class.getName() );
+
+    /**
+     * Constructs a cache with default read options.
+     *
+     * @param  maxSize  maximum number of unused files retained
+     * @param  maxIdleMillis  time in milliseconds after which an unused
+     *                        file is evicted
+     */
+    public CdfCache( int maxSize, long maxIdleMillis ) {
+        this( maxSize, maxIdleMillis, new ReadOptions() );
+    }
+
+    /**
+     * Constructs a cache with given read options.
+     *
+     * @param  maxSize  maximum number of unused files retained
+     * @param  maxIdleMillis  time in milliseconds after which an unused
+     *                        file is evicted
+     * @param  readOptions  options used for all CdfContents opened by
+     *                      this cache; a copy is taken
+     */
+    public CdfCache( int maxSize, long maxIdleMillis,
+                     ReadOptions readOptions ) {
+        maxSize_ = maxSize;
+        maxIdleMillis_ = maxIdleMillis;
+        readOptions_ = new ReadOptions( readOptions );
+        map_ = new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+    }
+
+    /**
+     * Returns a handle giving access to the content of a CDF file.
+     * If an open instance for the unchanged file is already cached
+     * it is shared, otherwise the file is opened.
+     * The returned handle must be closed when no longer required.
+     *
+     * @param  file  CDF file
+     * @return  new handle, not shared with any other caller
+     * @throws  IOException  if the file cannot be opened,
+     *                       or this cache has been closed
+     */
+    public Handle acquire( File file ) throws IOException {
+        String path = file.getCanonicalPath();
+        long length = file.length();
+        long mtime = file.lastModified();
+        Entry entry;
+        boolean isOpener;
+        List<Entry> closeList = new ArrayList<Entry>();
+        lock_.lock();
+        try {
+            if ( isClosed_ ) {
+                throw new IOException( "CdfCache closed" );
+            }
+            entry = map_.get( path );
+
+            // If the file has changed, retire the old entry;
+            // it will be closed once its last handle is released.
+            if ( entry != null &&
+                 ( entry.length_ != length || entry.mtime_ != mtime ) ) {
+                map_.remove( path );
+                entry.isRetired_ = true;
+                if ( entry.refCount_ == 0 ) {
+                    closeList.add( entry );
+                }
+                entry = null;
+            }
+            if ( entry == null ) {
+                entry = new Entry( length, mtime );
+                map_.put( path, entry );
+                isOpener = true;
+                nMiss_++;
+            }
+            else {
+                isOpener = false;
+                nHit_++;
+            }
+            entry.refCount_++;
+        }
+        finally {
+            lock_.unlock();
+        }
+        closeEntries( closeList );
+
+        // Open the file outside the lock, so that other files can be
+        // acquired meanwhile; other callers for this file will wait.
+        if ( isOpener ) {
+            CdfContent content = null;
+            IOException error = null;
+            try {
+                content = new CdfContent( new CdfReader( file ),
+                                          readOptions_ );
+            }
+            catch ( IOException e ) {
+                error = e;
+            }
+            catch ( RuntimeException e ) {
+                error = new IOException( "Failed to open " + file, e );
+            }
+            finally {
+
+                // Waiters must be released, and a failed entry removed,
+                // even if an Error is on its way up the stack.
+                if ( content == null ) {
+                    if ( error == null ) {
+                        error = new IOException( "Failed to open " + file );
+                    }
+                    lock_.lock();
+                    try {
+                        if ( map_.get( path ) == entry ) {
+                            map_.remove( path );
+                        }
+                        entry.refCount_--;
+                    }
+                    finally {
+                        lock_.unlock();
+                    }
+                }
+                entry.setResult( content, error );
+            }
+        }
+        CdfContent content;
+        try {
+            content = entry.awaitContent();
+        }
+        catch ( IOException e ) {
+            if ( ! isOpener ) {
+                lock_.lock();
+                try {
+                    entry.refCount_--;
+                }
+                finally {
+                    lock_.unlock();
+                }
+            }
+            throw e;
+        }
+        evictIdle();
+        return new Handle( entry, content );
+    }
+
+    /**
+     * Evicts and closes unused entries that have been idle for longer
+     * than the maximum idle time, or that exceed the maximum cache size.
+     * This is called automatically during other operations,
+     * but may also be called periodically by the user.
+     */
+    public void evictIdle() {
+        List<Entry> closeList = new ArrayList<Entry>();
+        lock_.lock();
+        try {
+            long now = System.currentTimeMillis();
+            int nUnused = 0;
+            for ( Entry entry : map_.values() ) {
+                if ( entry.refCount_ == 0 ) {
+                    nUnused++;
+                }
+            }
+
+            // Iteration is in least recently used order.
+            for ( Iterator<Entry> it = map_.values().iterator();
+                  it.hasNext(); ) {
+                Entry entry = it.next();
+                if ( entry.refCount_ == 0 &&
+                     ( nUnused > maxSize_ ||
+                       now - entry.lastUsed_ > maxIdleMillis_ ) ) {
+                    it.remove();
+                    nUnused--;
+                    closeList.add( entry );
+                }
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
+        closeEntries( closeList );
+    }
+
+    /**
+     * Returns the number of files currently held by this cache,
+     * whether in use or not.
+     *
+     * @return  cache size
+     */
+    public int getSize() {
+        lock_.lock();
+        try {
+            return map_.size();
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of acquisitions that reused an open file.
+     *
+     * @return  hit count
+     */
+    public long getHitCount() {
+        lock_.lock();
+        try {
+            return nHit_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of acquisitions that had to open a file.
+     *
+     * @return  miss count
+     */
+    public long getMissCount() {
+        lock_.lock();
+        try {
+            return nMiss_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Closes this cache.  Unused files are closed immediately,
+     * and files in use are closed when their last handle is released.
+     * Subsequent calls to <code>acquire</code> will fail.
+     */
+    public void close() {
+        List<Entry> closeList = new ArrayList<Entry>();
+        lock_.lock();
+        try {
+            isClosed_ = true;
+            for ( Entry entry : map_.values() ) {
+                entry.isRetired_ = true;
+                if ( entry.refCount_ == 0 ) {
+                    closeList.add( entry );
+                }
+            }
+            map_.clear();
+        }
+        finally {
+            lock_.unlock();
+        }
+        closeEntries( closeList );
+    }
+
+    @Override
+    public String toString() {
+        lock_.lock();
+        try {
+            return "CdfCache(size=" + map_.size() + ", hits=" + nHit_
+                 + ", misses=" + nMiss_ + ")";
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Releases one reference to a cache entry.
+     *
+     * @param  entry  entry
+     */
+    private void release( Entry entry ) {
+        boolean doClose;
+        lock_.lock();
+        try {
+            entry.refCount_--;
+            entry.lastUsed_ = System.currentTimeMillis();
+            doClose = entry.refCount_ == 0 && entry.isRetired_;
+        }
+        finally {
+            lock_.unlock();
+        }
+        if ( doClose ) {
+            entry.closeContent();
+        }
+        evictIdle();
+    }
+
+    /**
+     * Closes the content of a list of entries.
+     *
+     * @param  entries  entries no longer referenced by the cache or
+     *                  by any handle
+     */
+    private static void closeEntries( List<Entry> entries ) {
+        for ( Entry entry : entries ) {
+            entry.closeContent();
+        }
+    }
+
+    /**
+     * Provides access to a shared CdfContent.
+     * Each handle must be closed once it is no longer required;
+     * the content must not be used after that.
+     */
+    public class Handle implements Closeable {
+
+        private final Entry entry_;
+        private final CdfContent content_;
+        private final AtomicBoolean isClosed_;
+
+        /**
+         * Constructor.
+         *
+         * @param  entry  cache entry
+         * @param  content  content
+         */
+        private Handle( Entry entry, CdfContent content ) {
+            entry_ = entry;
+            content_ = content;
+            isClosed_ = new AtomicBoolean();
+        }
+
+        /**
+         * Returns the shared content.
+         * This must not be closed by the caller.
+         *
+         * @return  content
+         */
+        public CdfContent getContent() {
+            return content_;
+        }
+
+        /**
+         * Releases this handle's reference to the shared content.
+         * Calling this method more than once has no further effect.
+         */
+        public void close() {
+            if ( isClosed_.compareAndSet( false, true ) ) {
+                release( entry_ );
+            }
+        }
+    }
+
+    /**
+     * Cache entry for one file.
+     * The reference count, last use time and retired flag are guarded
+     * by the owning cache's lock.  The outcome of opening the file
+     * is published through a latch.
+     */
+    private static class Entry {
+        final long length_;
+        final long mtime_;
+        int refCount_;
+        long lastUsed_;
+        boolean isRetired_;
+        private final CountDownLatch doneLatch_;
+        private final AtomicReference<CdfContent> contentRef_;
+        private volatile IOException error_;
+
+        /**
+         * Constructor.
+         *
+         * @param  length  file length
+         * @param  mtime   file modification time
+         */
+        Entry( long length, long mtime ) {
+            length_ = length;
+            mtime_ = mtime;
+            lastUsed_ = System.currentTimeMillis();
+            doneLatch_ = new CountDownLatch( 1 );
+            contentRef_ = new AtomicReference<CdfContent>();
+        }
+
+        /**
+         * Records the outcome of opening the file,
+         * and wakes up any threads waiting for it.
+         *
+         * @param  content  content, or null on failure
+         * @param  error   failure, or null on success
+         */
+        void setResult( CdfContent content, IOException error ) {
+            contentRef_.set( content );
+            error_ = error;
+            doneLatch_.countDown();
+        }
+
+        /**
+         * Waits until the file has been opened, and returns the content.
+         *
+         * @return  content
+         * @throws  IOException  if the file could not be opened
+         */
+        CdfContent awaitContent() throws IOException {
+            try {
+                doneLatch_.await();
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            IOException error = error_;
+            if ( error != null ) {
+                throw new IOException( error.getMessage(), error );
+            }
+            return contentRef_.get();
+        }
+
+        /**
+         * Closes the content, if it has been opened and not yet closed.
+         */
+        void closeContent() {
+            CdfContent content = contentRef_.getAndSet( null );
+            if ( content != null ) {
+                try {
+                    content.close();
+                }
+                catch ( IOException e ) {
+                    logger_.log( Level.WARNING, "Error closing CDF", e );
+                }
+            }
+        }
+    }
+}
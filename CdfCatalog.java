@@ -0,0 +1,949 @@
+package uk.ac.bristol.star.cdf.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import uk.ac.bristol.star.cdf.AttributeEntry;
+import uk.ac.bristol.star.cdf.CdfContent;
+import uk.ac.bristol.star.cdf.CdfFormatException;
+import uk.ac.bristol.star.cdf.CdfReader;
+import uk.ac.bristol.star.cdf.DataType;
+import uk.ac.bristol.star.cdf.EpochFormatter;
+import uk.ac.bristol.star.cdf.GlobalAttribute;
+import uk.ac.bristol.star.cdf.UnixTimeConverter;
+import uk.ac.bristol.star.cdf.ValidityTester;
+import uk.ac.bristol.star.cdf.Variable;
+
+/**
+ * Catalogue of the metadata of many CDF files,
+ * which can be saved to and restored from a compact index file.
+ * For each file it records the variable names, data types,
+ * dimensions and record counts, the values of selected global
+ * attributes, and the first and last values of the time variable,
+ * that is the first variable of type EPOCH, EPOCH16 or TIME_TT2000.
+ * Times are stored as Unix milliseconds whatever the original type.
+ * Fill and pad values, and values outside the range given by the
+ * time variable's FILLVAL, VALIDMIN and VALIDMAX attributes,
+ * are skipped, so the times are those of the first and last records
+ * with known times.
+ *
+ * <p>The {@link #update update} method scans directory trees,
+ * reading files in parallel; only metadata and the first and last
+ * time values are read.  Files already catalogued whose size and
+ * modification time have not changed are not read again,
+ * so repeated updates of a large archive are cheap.
+ * Files that cannot be read are logged and omitted.
+ *
+ * <p>Intended to be used from the commandline via the <code>main</code>
+ * method, or programmatically.  This class is thread-safe.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class CdfCatalog {
+
+    private final String[] attNames_;
+    private final Map<String,FileEntry> entries_;
+    private final Lock lock_;
+    private Map<String,FileEntry[]> varIndex_;
+
+    /** Global attributes recorded by default. */
+    public static final String[] DEFAULT_ATTRIBUTES = {
+        "Logical_source", "Data_type", "Source_name", "Mission_group",
+    };
+
+    private static final int MAGIC = 0x4a434346;  // "JCCF"
+    private static final int VERSION = 1;
+    private static final Logger logger_ =
+        Logger.getLogger( CdfCatalog.class.getName() );
+
+    /**
+     * Constructs an empty catalogue recording the default attributes.
+     */
+    public CdfCatalog() {
+        this( DEFAULT_ATTRIBUTES );
+    }
+
+    /**
+     * Constructs an empty catalogue recording given attributes.
+     *
+     * @param  attNames  names of global attributes to record
+     */
+    public CdfCatalog( String[] attNames ) {
+        attNames_ = attNames.clone();
+        entries_ = new LinkedHashMap<String,FileEntry>();
+        lock_ = new ReentrantLock();
+    }
+
+    /**
+     * Returns the names of the global attributes recorded.
+     *
+     * @return  attribute names
+     */
+    public String[] getAttributeNames() {
+        return attNames_.clone();
+    }
+
+    /**
+     * Brings this catalogue up to date with the CDF files
+     * (files with names ending ".cdf") in some directory trees.
+     * New and changed files are read in parallel using the supplied
+     * executor, and entries for files that no longer exist
+     * under the given roots are removed.
+     *
+     * @param  roots  directories to scan recursively, or individual files
+     * @param  executor  executor service for reading files
+     * @return  number of files read
+     */
+    public int update( File[] roots, ExecutorService executor )
+            throws IOException, InterruptedException {
+
+        // Find the files and work out which need to be read.
+        List<File> files = new ArrayList<File>();
+        for ( File root : roots ) {
+            addCdfFiles( root, files );
+        }
+        List<String> rootPaths = new ArrayList<String>();
+        for ( File root : roots ) {
+            rootPaths.add( root.getAbsolutePath() );
+        }
+        Map<String,File> found = new HashMap<String,File>();
+        List<File> todo = new ArrayList<File>();
+        lock_.lock();
+        try {
+            for ( File f : files ) {
+                String path = f.getAbsolutePath();
+                found.put( path, f );
+                FileEntry entry = entries_.get( path );
+                if ( entry == null || entry.length_ != f.length() ||
+                     entry.mtime_ != f.lastModified() ) {
+                    todo.add( f );
+                }
+            }
+            for ( Iterator<String> it = entries_.keySet().iterator();
+                  it.hasNext(); ) {
+                String path = it.next();
+                if ( ! found.containsKey( path ) &&
+                     isUnder( path, rootPaths ) ) {
+                    it.remove();
+                }
+            }
+            varIndex_ = null;
+        }
+        finally {
+            lock_.unlock();
+        }
+
+        // Read them in parallel.
+        List<Future<FileEntry>> futures = new ArrayList<Future<FileEntry>>();
+        for ( final File f : todo ) {
+            futures.add( executor.submit( new Callable<FileEntry>() {
+                public FileEntry call() {
+                    try {
+                        return readEntry( f );
+                    }
+                    catch ( Throwable e ) {
+                        logger_.log( Level.WARNING,
+                                     "Failed to catalogue " + f, e );
+                        return null;
+                    }
+                }
+            } ) );
+        }
+        for ( int i = 0; i < futures.size(); i++ ) {
+            FileEntry entry;
+            try {
+                entry = futures.get( i ).get();
+            }
+            catch ( ExecutionException e ) {
+                entry = null;
+            }
+            String path = todo.get( i ).getAbsolutePath();
+            lock_.lock();
+            try {
+                if ( entry != null ) {
+                    entries_.put( path, entry );
+                }
+                else {
+                    entries_.remove( path );
+                }
+                varIndex_ = null;
+            }
+            finally {
+                lock_.unlock();
+            }
+        }
+        return todo.size();
+    }
+
+    /**
+     * Returns all the entries in this catalogue.
+     *
+     * @return  entries
+     */
+    public FileEntry[] getEntries() {
+        lock_.lock();
+        try {
+            return entries_.values().toArray( new FileEntry[ 0 ] );
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the entry for a given file.
+     *
+     * @param  file  file
+     * @return  entry, or null if not catalogued
+     */
+    public FileEntry getEntry( File file ) {
+        lock_.lock();
+        try {
+            return entries_.get( file.getAbsolutePath() );
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the entries for files which contain a given variable
+     * and whose time ranges overlap a given interval.
+     * Files with no time range are not included.
+     * Results are in order of start time.
+     *
+     * @param  varName  variable name
+     * @param  t0  start of interval in Unix milliseconds, inclusive
+     * @param  t1  end of interval in Unix milliseconds, inclusive
+     * @return  matching entries
+     */
+    public FileEntry[] findFiles( String varName, double t0, double t1 ) {
+        FileEntry[] cands = getVariableEntries( varName );
+
+        // Candidates are sorted by start time, so only those before
+        // the binary search point can start before t1.
+        int lo = 0;
+        int hi = cands.length;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( cands[ mid ].tStart_ <= t1 ) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        List<FileEntry> list = new ArrayList<FileEntry>();
+        for ( int i = 0; i < lo; i++ ) {
+            if ( cands[ i ].tEnd_ >= t0 ) {
+                list.add( cands[ i ] );
+            }
+        }
+        return list.toArray( new FileEntry[ 0 ] );
+    }
+
+    /**
+     * Returns the entries for files which contain a given variable,
+     * in order of start time; files without times come last.
+     *
+     * @param  varName  variable name
+     * @return  matching entries
+     */
+    public FileEntry[] findFiles( String varName ) {
+        return getVariableEntries( varName ).clone();
+    }
+
+    /**
+     * Writes this catalogue to an index file.
+     * The file is written to a temporary file which is then renamed,
+     * so that readers never see a partly written index.
+     *
+     * @param  file  destination file
+     */
+    public void writeIndex( File file ) throws IOException {
+        FileEntry[] entries = getEntries();
+
+        // Strings such as variable and type names are heavily repeated,
+        // so write a table of them and refer to them by index.
+        Map<String,Integer> strMap = new LinkedHashMap<String,Integer>();
+        for ( String att : attNames_ ) {
+            stringIndex( strMap, att );
+        }
+        for ( FileEntry entry : entries ) {
+            stringIndex( strMap, entry.path_ );
+            for ( VarInfo var : entry.vars_ ) {
+                stringIndex( strMap, var.name_ );
+                stringIndex( strMap, var.typeName_ );
+            }
+            for ( String val : entry.attValues_ ) {
+                stringIndex( strMap, val );
+            }
+        }
+        File tmp = new File( file.getPath() + ".tmp" );
+        OutputStream fout = new FileOutputStream( tmp );
+        try {
+            DataOutputStream out =
+                new DataOutputStream(
+                    new BufferedOutputStream(
+                        new GZIPOutputStream( fout ) ) );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( strMap.size() );
+            for ( String s : strMap.keySet() ) {
+                out.writeUTF( s );
+            }
+            out.writeInt( attNames_.length );
+            for ( String att : attNames_ ) {
+                out.writeInt( strMap.get( att ) );
+            }
+            out.writeInt( entries.length );
+            for ( FileEntry entry : entries ) {
+                out.writeInt( strMap.get( entry.path_ ) );
+                out.writeLong( entry.length_ );
+                out.writeLong( entry.mtime_ );
+                out.writeDouble( entry.tStart_ );
+                out.writeDouble( entry.tEnd_ );
+                for ( String val : entry.attValues_ ) {
+                    out.writeInt( val == null ? -1 : strMap.get( val ) );
+                }
+                out.writeInt( entry.vars_.length );
+                for ( VarInfo var : entry.vars_ ) {
+                    out.writeInt( strMap.get( var.name_ ) );
+                    out.writeInt( strMap.get( var.typeName_ ) );
+                    out.writeInt( var.nrec_ );
+                    out.writeByte( var.dims_.length );
+                    for ( int dim : var.dims_ ) {
+                        out.writeInt( dim );
+                    }
+                }
+            }
+            out.close();
+        }
+        finally {
+            fout.close();
+        }
+        if ( ! tmp.renameTo( file ) ) {
+            file.delete();
+            if ( ! tmp.renameTo( file ) ) {
+                throw new IOException( "Failed to rename " + tmp
+                                     + " to " + file );
+            }
+        }
+    }
+
+    /**
+     * Reads a catalogue from an index file written by
+     * {@link #writeIndex writeIndex}.
+     *
+     * @param  file  index file
+     * @return  catalogue
+     * @throws  CdfFormatException  if the file is not a catalogue index
+     */
+    public static CdfCatalog readIndex( File file ) throws IOException {
+        InputStream fin = new FileInputStream( file );
+        try {
+            DataInputStream in =
+                new DataInputStream(
+                    new BufferedInputStream(
+                        new GZIPInputStream( fin ) ) );
+            if ( in.readInt() != MAGIC ) {
+                throw new CdfFormatException( "Not a catalogue index: "
+                                            + file );
+            }
+            int version = in.readInt();
+            if ( version != VERSION ) {
+                throw new CdfFormatException( "Unsupported index version "
+                                            + version );
+            }
+            String[] strs = new String[ in.readInt() ];
+            for ( int is = 0; is < strs.length; is++ ) {
+                strs[ is ] = in.readUTF();
+            }
+            String[] attNames = new String[ in.readInt() ];
+            for ( int ia = 0; ia < attNames.length; ia++ ) {
+                attNames[ ia ] = strs[ in.readInt() ];
+            }
+            CdfCatalog catalog = new CdfCatalog( attNames );
+            int nent = in.readInt();
+            for ( int ie = 0; ie < nent; ie++ ) {
+                String path = strs[ in.readInt() ];
+                long length = in.readLong();
+                long mtime = in.readLong();
+                double tStart = in.readDouble();
+                double tEnd = in.readDouble();
+                String[] attValues = new String[ attNames.length ];
+                for ( int ia = 0; ia < attNames.length; ia++ ) {
+                    int is = in.readInt();
+                    attValues[ ia ] = is < 0 ? null : strs[ is ];
+                }
+                VarInfo[] vars = new VarInfo[ in.readInt() ];
+                for ( int iv = 0; iv < vars.length; iv++ ) {
+                    String name = strs[ in.readInt() ];
+                    String typeName = strs[ in.readInt() ];
+                    int nrec = in.readInt();
+                    int[] dims = new int[ in.readByte() ];
+                    for ( int id = 0; id < dims.length; id++ ) {
+                        dims[ id ] = in.readInt();
+                    }
+                    vars[ iv ] = new VarInfo( name, typeName, dims, nrec );
+                }
+                catalog.entries_.put( path,
+                                      new FileEntry( path, length, mtime,
+                                                     vars, attNames,
+                                                     attValues,
+                                                     tStart, tEnd ) );
+            }
+            return catalog;
+        }
+        finally {
+            fin.close();
+        }
+    }
+
+    /**
+     * Returns the entries containing a given variable,
+     * building the variable index if required.
+     *
+     * @param  varName  variable name
+     * @return  entries sorted by start time; not to be modified
+     */
+    private FileEntry[] getVariableEntries( String varName ) {
+        lock_.lock();
+        try {
+            if ( varIndex_ == null ) {
+                Map<String,List<FileEntry>> lists =
+                    new HashMap<String,List<FileEntry>>();
+                for ( FileEntry entry : entries_.values() ) {
+                    for ( VarInfo var : entry.vars_ ) {
+                        List<FileEntry> list = lists.get( var.name_ );
+                        if ( list == null ) {
+                            list = new ArrayList<FileEntry>();
+                            lists.put( var.name_, list );
+                        }
+                        list.add( entry );
+                    }
+                }
+                Comparator<FileEntry> byStart = new Comparator<FileEntry>() {
+                    public int compare( FileEntry e1, FileEntry e2 ) {
+                        return Double.compare( e1.tStart_, e2.tStart_ );
+                    }
+                };
+                varIndex_ = new HashMap<String,FileEntry[]>();
+                for ( Map.Entry<String,List<FileEntry>> e :
+                      lists.entrySet() ) {
+                    FileEntry[] array =
+                        e.getValue().toArray( new FileEntry[ 0 ] );
+                    Arrays.sort( array, byStart );
+                    varIndex_.put( e.getKey(), array );
+                }
+            }
+            FileEntry[] entries = varIndex_.get( varName );
+            return entries == null ? new FileEntry[ 0 ] : entries;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Reads the catalogue entry for a file.
+     *
+     * @param  file  CDF file
+     * @return  entry
+     */
+    private FileEntry readEntry( File file ) throws IOException {
+        long length = file.length();
+        long mtime = file.lastModified();
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        try {
+            Variable[] vars = content.getVariables();
+            VarInfo[] infos = new VarInfo[ vars.length ];
+            Variable tvar = null;
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                Variable var = vars[ iv ];
+                infos[ iv ] = new VarInfo( var.getName(),
+                                           var.getDataType().getName(),
+                                           var.getShaper().getDimSizes(),
+                                           var.getRecordCount() );
+                DataType dtype = var.getDataType();
+                if ( tvar == null && var.getRecordCount() > 0 &&
+                     ( dtype == DataType.EPOCH ||
+                       dtype == DataType.EPOCH16 ||
+                       dtype.isTt2000() ) ) {
+                    tvar = var;
+                }
+            }
+            String[] attValues = new String[ attNames_.length ];
+            for ( GlobalAttribute att : content.getGlobalAttributes() ) {
+                int ia = Arrays.asList( attNames_ ).indexOf( att.getName() );
+                if ( ia >= 0 ) {
+                    for ( AttributeEntry ent : att.getEntries() ) {
+                        if ( ent != null && attValues[ ia ] == null ) {
+                            attValues[ ia ] = ent.toString();
+                        }
+                    }
+                }
+            }
+            double tStart = Double.NaN;
+            double tEnd = Double.NaN;
+            if ( tvar != null ) {
+
+                // Use the first and last records with known times.
+                ValidityTester tester =
+                    ValidityTester
+                   .createTester( tvar, content.getVariableAttributes() );
+                Object work = tvar.createRawValueArray();
+                int nrec = tvar.getRecordCount();
+                double ta = Double.NaN;
+                int ia = 0;
+                while ( ia < nrec && Double.isNaN( ta ) ) {
+                    ta = readUnixMillis( tvar, tester, ia++, work );
+                }
+                double tb = ta;
+                for ( int ib = nrec - 1; ib >= ia; ib-- ) {
+                    double t = readUnixMillis( tvar, tester, ib, work );
+                    if ( ! Double.isNaN( t ) ) {
+                        tb = t;
+                        break;
+                    }
+                }
+
+                // Take the lower of the first and last as the start,
+                // in case the times run backwards.
+                if ( ! Double.isNaN( ta ) ) {
+                    tStart = ta <= tb ? ta : tb;
+                    tEnd = ta <= tb ? tb : ta;
+                }
+            }
+            return new FileEntry( file.getAbsolutePath(), length, mtime,
+                                  infos, attNames_, attValues,
+                                  tStart, tEnd );
+        }
+        finally {
+            content.close();
+        }
+    }
+
+    /**
+     * Reads the first element of a record of a time variable as
+     * a Unix time in milliseconds.
+     * Fill and pad values, and values the tester rejects,
+     * give an unknown time.
+     *
+     * @param  tvar  variable of type EPOCH, EPOCH16 or TIME_TT2000
+     * @param  tester  validity tester for tvar
+     * @param  irec  record index
+     * @param  work  raw value array workspace for tvar
+     * @return  Unix milliseconds, or NaN if unknown
+     */
+    private static double readUnixMillis( Variable tvar,
+                                          ValidityTester tester, int irec,
+                                          Object work )
+            throws IOException {
+        tvar.readRawRecord( irec, work );
+        DataType dtype = tvar.getDataType();
+        if ( UnixTimeConverter.isSpecialTime( dtype, work, 0 ) ||
+             ! tester.isValid( work, 0 ) ) {
+            return Double.NaN;
+        }
+        else if ( dtype.isTt2000() ) {
+            return UnixTimeConverter
+                  .tt2000ToUnixNanos( ((long[]) work)[ 0 ] ) * 1e-6;
+        }
+        else if ( dtype == DataType.EPOCH16 ) {
+            long[] nanos = new long[ 1 ];
+            UnixTimeConverter.epoch16ToUnixNanos( (double[]) work, 0,
+                                                  nanos, 0, 1 );
+            return nanos[ 0 ] * 1e-6;
+        }
+        else {
+            return ((double[]) work)[ 0 ] + EpochFormatter.AD0_UNIX_MILLIS;
+        }
+    }
+
+    /**
+     * Adds the CDF files in a directory tree to a list.
+     *
+     * @param  file  file or directory
+     * @param  list  list to which files are added
+     */
+    private static void addCdfFiles( File file, List<File> list ) {
+        if ( file.isDirectory() ) {
+            File[] children = file.listFiles();
+            if ( children != null ) {
+                Arrays.sort( children );
+                for ( File child : children ) {
+                    addCdfFiles( child, list );
+                }
+            }
+        }
+        else if ( file.isFile() &&
+                  file.getName().toLowerCase().endsWith( ".cdf" ) ) {
+            list.add( file );
+        }
+    }
+
+    /**
+     * Indicates whether a path is one of, or under one of, a list of roots.
+     *
+     * @param  path  absolute file path
+     * @param  rootPaths  absolute root paths
+     * @return  true iff path is within one of the roots
+     */
+    private static boolean isUnder( String path, List<String> rootPaths ) {
+        for ( String root : rootPaths ) {
+            if ( path.equals( root ) ||
+                 path.startsWith( root + File.separator ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a string to a string table if it is not already present.
+     * The value is the string's index in the table.
+     *
+     * @param  map  string table
+     * @param  s   string, may be null
+     */
+    private static void stringIndex( Map<String,Integer> map, String s ) {
+        if ( s != null && ! map.containsKey( s ) ) {
+            map.put( s, map.size() );
+        }
+    }
+
+    /**
+     * Does the work for the command line tool, handling arguments.
+     * Sucess is indicated by the return value.
+     *
+     * @param  args   command-line arguments
+     * @return   0 for success, non-zero for failure
+     */
+    public static int runMain( String[] args )
+            throws IOException, InterruptedException {
+
+        // Usage string.
+        String usage = new StringBuffer()
+           .append( "\n   Usage: " )
+           .append( CdfCatalog.class.getName() )
+           .append( " [-help]" )
+           .append( " [-verbose]" )
+           .append( " [-threads <n>]" )
+           .append( " [-var <name>]" )
+           .append( " <index-file>" )
+           .append( " <dir> ..." )
+           .append( "\n" )
+           .toString();
+
+        // Process arguments.
+        List<String> argList = new ArrayList<String>( Arrays.asList( args ) );
+        int nthread = Runtime.getRuntime().availableProcessors();
+        String varName = null;
+        File indexFile = null;
+        List<File> roots = new ArrayList<File>();
+        int verb = 0;
+        for ( Iterator<String> it = argList.iterator(); it.hasNext(); ) {
+            String arg = it.next();
+            if ( arg.startsWith( "-h" ) ) {
+                it.remove();
+                System.out.println( usage );
+                return 0;
+            }
+            else if ( arg.equals( "-verbose" ) || arg.equals( "-v" ) ) {
+                it.remove();
+                verb++;
+            }
+            else if ( arg.equals( "+verbose" ) || arg.equals( "+v" ) ) {
+                it.remove();
+                verb--;
+            }
+            else if ( arg.equals( "-threads" ) && it.hasNext() ) {
+                it.remove();
+                nthread = Integer.parseInt( it.next() );
+                it.remove();
+            }
+            else if ( arg.equals( "-var" ) && it.hasNext() ) {
+                it.remove();
+                varName = it.next();
+                it.remove();
+            }
+            else if ( ! arg.startsWith( "-" ) ) {
+                it.remove();
+                if ( indexFile == null ) {
+                    indexFile = new File( arg );
+                }
+                else {
+                    roots.add( new File( arg ) );
+                }
+            }
+        }
+
+        // Validate arguments.
+        if ( ! argList.isEmpty() ) {
+            System.err.println( "Unused args: " + argList );
+            System.err.println( usage );
+            return 1;
+        }
+        if ( indexFile == null ) {
+            System.err.println( usage );
+            return 1;
+        }
+
+        // Configure and run.
+        LogUtil.setVerbosity( verb );
+        CdfCatalog catalog = indexFile.exists() ? readIndex( indexFile )
+                                                : new CdfCatalog();
+        if ( ! roots.isEmpty() ) {
+            ExecutorService executor = Executors.newFixedThreadPool( nthread );
+            try {
+                int nread = catalog.update( roots.toArray( new File[ 0 ] ),
+                                            executor );
+                logger_.info( "Read " + nread + " files, "
+                            + catalog.getEntries().length + " catalogued" );
+            }
+            finally {
+                executor.shutdown();
+            }
+            catalog.writeIndex( indexFile );
+        }
+        if ( varName != null ) {
+            for ( FileEntry entry : catalog.findFiles( varName ) ) {
+                System.out.println( entry );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Main method.  Use -help for arguments.
+     */
+    public static void main( String[] args )
+            throws IOException, InterruptedException {
+        int status = runMain( args );
+        if ( status != 0 ) {
+            System.exit( status );
+        }
+    }
+
+    /**
+     * Catalogue information about one file.
+     */
+    public static class FileEntry {
+
+        private final String path_;
+        private final long length_;
+        private final long mtime_;
+        private final VarInfo[] vars_;
+        private final String[] attNames_;
+        private final String[] attValues_;
+        private final double tStart_;
+        private final double tEnd_;
+
+        /**
+         * Constructor.
+         *
+         * @param  path  absolute file path
+         * @param  length  file length in bytes
+         * @param  mtime  file modification time
+         * @param  vars   variable information
+         * @param  attNames  recorded attribute names
+         * @param  attValues  attribute values, null where absent
+         * @param  tStart   first time in Unix milliseconds, or NaN
+         * @param  tEnd    last time in Unix milliseconds, or NaN
+         */
+        FileEntry( String path, long length, long mtime, VarInfo[] vars,
+                   String[] attNames, String[] attValues,
+                   double tStart, double tEnd ) {
+            path_ = path;
+            length_ = length;
+            mtime_ = mtime;
+            vars_ = vars;
+            attNames_ = attNames;
+            attValues_ = attValues;
+            tStart_ = tStart;
+            tEnd_ = tEnd;
+        }
+
+        /**
+         * Returns the catalogued file.
+         *
+         * @return  file
+         */
+        public File getFile() {
+            return new File( path_ );
+        }
+
+        /**
+         * Returns the file length when catalogued.
+         *
+         * @return  length in bytes
+         */
+        public long getLength() {
+            return length_;
+        }
+
+        /**
+         * Returns the file modification time when catalogued.
+         *
+         * @return  modification time in milliseconds
+         */
+        public long getLastModified() {
+            return mtime_;
+        }
+
+        /**
+         * Returns information about each variable in the file.
+         *
+         * @return  variable information
+         */
+        public VarInfo[] getVariables() {
+            return vars_.clone();
+        }
+
+        /**
+         * Returns information about a named variable.
+         *
+         * @param  name  variable name
+         * @return  variable information, or null if absent
+         */
+        public VarInfo getVariable( String name ) {
+            for ( VarInfo var : vars_ ) {
+                if ( var.name_.equals( name ) ) {
+                    return var;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the value of one of the recorded global attributes.
+         *
+         * @param  attName  attribute name
+         * @return  formatted value of the first entry,
+         *          or null if absent or not recorded
+         */
+        public String getAttribute( String attName ) {
+            int ia = Arrays.asList( attNames_ ).indexOf( attName );
+            return ia >= 0 ? attValues_[ ia ] : null;
+        }
+
+        /**
+         * Returns the first value of the time variable.
+         *
+         * @return  Unix milliseconds, or NaN if unknown
+         */
+        public double getStartMillis() {
+            return tStart_;
+        }
+
+        /**
+         * Returns the last value of the time variable.
+         *
+         * @return  Unix milliseconds, or NaN if unknown
+         */
+        public double getEndMillis() {
+            return tEnd_;
+        }
+
+        @Override
+        public String toString() {
+            return path_;
+        }
+    }
+
+    /**
+     * Catalogue information about a variable.
+     */
+    public static class VarInfo {
+
+        private final String name_;
+        private final String typeName_;
+        private final int[] dims_;
+        private final int nrec_;
+
+        /**
+         * Constructor.
+         *
+         * @param  name  variable name
+         * @param  typeName  data type name
+         * @param  dims  dimension sizes
+         * @param  nrec  record count
+         */
+        VarInfo( String name, String typeName, int[] dims, int nrec ) {
+            name_ = name;
+            typeName_ = typeName;
+            dims_ = dims;
+            nrec_ = nrec;
+        }
+
+        /**
+         * Returns the variable name.
+         *
+         * @return  name
+         */
+        public String getName() {
+            return name_;
+        }
+
+        /**
+         * Returns the name of the variable's data type.
+         *
+         * @return  data type name
+         */
+        public String getTypeName() {
+            return typeName_;
+        }
+
+        /**
+         * Returns the dimension sizes of each record.
+         *
+         * @return  dimension sizes
+         */
+        public int[] getDims() {
+            return dims_.clone();
+        }
+
+        /**
+         * Returns the number of records.
+         *
+         * @return  record count
+         */
+        public int getRecordCount() {
+            return nrec_;
+        }
+
+        @Override
+        public String toString() {
+            return name_ + " " + typeName_ + Arrays.toString( dims_ )
+                 + " (" + nrec_ + ")";
+        }
+    }
+}
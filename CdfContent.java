@@ -1,10 +1,18 @@
 package uk.ac.bristol.star.cdf;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import uk.ac.bristol.star.cdf.record.AttributeDescriptorRecord;
 import uk.ac.bristol.star.cdf.record.AttributeEntryDescriptorRecord;
 import uk.ac.bristol.star.cdf.record.Buf;
@@ -19,15 +27,24 @@ import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
  * Provides all the data and metadata in a CDF file in a high-level
  * read-only easy to use form.
  *
+ * <p>Closing this object closes the underlying CdfReader.
+ *
  * @author   Mark Taylor
  * @since    20 Jun 2013
  */
-public class CdfContent {
+public class CdfContent implements Closeable {
 
+    private final CdfReader crdr_;
     private final CdfInfo cdfInfo_;
     private final GlobalAttribute[] globalAtts_;
     private final VariableAttribute[] variableAtts_;
     private final Variable[] variables_;
+    private final Lock lock_;
+    private final List<FutureTask<Variable>> warmUpTasks_;
+    private final Lock warmUpLock_;
+    private final Condition warmUpDone_;
+    private int nActiveWarmUps_;
+    private boolean isClosed_;
 
     /**
      * Constructs a CdfContent from a CdfReader.
@@ -37,6 +54,25 @@ public class CdfContent {
      * @param  crdr  object which knows how to read CDF records
      */
     public CdfContent( CdfReader crdr ) throws IOException {
+        this( crdr, new ReadOptions() );
+    }
+
+    /**
+     * Constructs a CdfContent from a CdfReader with given read options.
+     * This reads the attribute metadata and entries and variable metadata.
+     * Record data for variables is not read at construction time.
+     *
+     * @param  crdr  object which knows how to read CDF records
+     * @param  readOptions  options for representing data values;
+     *                      a copy is taken
+     */
+    public CdfContent( CdfReader crdr, ReadOptions readOptions )
+            throws IOException {
+        crdr_ = crdr;
+        lock_ = new ReentrantLock();
+        warmUpTasks_ = new ArrayList<FutureTask<Variable>>();
+        warmUpLock_ = new ReentrantLock();
+        warmUpDone_ = warmUpLock_.newCondition();
 
         // Get basic information from reader.
         Buf buf = crdr.getBuf();
@@ -52,7 +88,8 @@ public class CdfContent {
         boolean rowMajor = Record.hasBit( cdr.flags, 0 );
         int[] rDimSizes = gdr.rDimSizes;
         int leapSecondLastUpdated = gdr.leapSecondLastUpdated;
-        cdfInfo_ = new CdfInfo( rowMajor, rDimSizes, leapSecondLastUpdated );
+        cdfInfo_ = new CdfInfo( rowMajor, rDimSizes, leapSecondLastUpdated,
+                                readOptions );
 
         // Read the rVariable and zVariable records.
         VariableDescriptorRecord[] rvdrs =
@@ -141,6 +178,197 @@ public class CdfContent {
         return cdfInfo_;
     }
 
+    /**
+     * Brings this object up to date with the underlying file,
+     * if it has grown since it was read.
+     * This is intended for following files which are still being
+     * appended to, for instance by an acquisition system.
+     *
+     * <p>If the file has grown, the GDR and VDRs are re-read,
+     * and the record count and record maps of each variable are updated.
+     * Record maps are extended incrementally, so only the
+     * newly written part of each variable's index is examined.
+     * Attributes are not re-read.
+     * Variable objects already obtained from this object remain
+     * valid and are updated in place.
+     * The buffers used before the refresh are then released,
+     * so reads from other threads that overlap a refresh
+     * may fail with an IOException.
+     *
+     * @return  true iff the file had grown and this object has been updated
+     * @throws  CdfFormatException  if the list of variables has changed
+     * @see   CdfReader#refresh
+     */
+    public boolean refresh() throws IOException {
+        lock_.lock();
+        try {
+            return doRefresh();
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Does the work for {@link #refresh} while holding the lock.
+     *
+     * @return  true iff this object has been updated
+     */
+    private boolean doRefresh() throws IOException {
+        if ( ! crdr_.refresh() ) {
+            return false;
+        }
+        Buf buf = crdr_.getBuf();
+        RecordFactory recordFact = crdr_.getRecordFactory();
+        GlobalDescriptorRecord gdr =
+            recordFact.createRecord( buf, crdr_.getCdr().gdrOffset,
+                                     GlobalDescriptorRecord.class );
+        VariableDescriptorRecord[] rvdrs =
+            walkVariableList( buf, recordFact, gdr.nrVars, gdr.rVdrHead );
+        VariableDescriptorRecord[] zvdrs =
+            walkVariableList( buf, recordFact, gdr.nzVars, gdr.zVdrHead );
+        VariableDescriptorRecord[] vdrs = arrayConcat( rvdrs, zvdrs );
+        if ( vdrs.length != variables_.length ) {
+            throw new CdfFormatException( "Variable count changed ("
+                                        + variables_.length + " -> "
+                                        + vdrs.length + ")" );
+        }
+        for ( int iv = 0; iv < vdrs.length; iv++ ) {
+            variables_[ iv ].refresh( vdrs[ iv ] );
+        }
+        crdr_.releaseSupersededBufs();
+        return true;
+    }
+
+    /**
+     * Prepares variables for reading record data in the background.
+     * For each variable a task calling {@link Variable#prepareRecords}
+     * is submitted to the given executor, so that record indexes are
+     * built, and compressed data uncompressed, while the caller
+     * gets on with other things such as browsing metadata.
+     * A thread that reads a variable before its task has completed
+     * waits only for that variable.
+     *
+     * <p>Failures in the background tasks are reported by the
+     * returned futures; they do not otherwise affect later reads,
+     * which will simply retry the preparation.
+     * Tasks which have not started when this object is closed
+     * are cancelled.
+     *
+     * @param  executor  executor on which to run preparation tasks
+     * @param  vars   variables to prepare, or null for all variables;
+     *                tasks are submitted in the given order
+     * @return  one future per variable, completing when it is prepared
+     */
+    public List<Future<Variable>> warmUp( Executor executor,
+                                          Variable[] vars ) {
+        if ( vars == null ) {
+            vars = variables_;
+        }
+        List<Future<Variable>> futures =
+            new ArrayList<Future<Variable>>( vars.length );
+        for ( final Variable var : vars ) {
+            FutureTask<Variable> task =
+                    new FutureTask<Variable>( new Callable<Variable>() {
+                public Variable call() throws IOException {
+                    warmUpLock_.lock();
+                    try {
+                        if ( isClosed_ ) {
+                            throw new IOException( "CdfContent closed" );
+                        }
+                        nActiveWarmUps_++;
+                    }
+                    finally {
+                        warmUpLock_.unlock();
+                    }
+                    try {
+                        var.prepareRecords();
+                        return var;
+                    }
+                    finally {
+                        warmUpLock_.lock();
+                        try {
+                            nActiveWarmUps_--;
+                            warmUpDone_.signalAll();
+                        }
+                        finally {
+                            warmUpLock_.unlock();
+                        }
+                    }
+                }
+            } ) {
+                @Override
+                protected void done() {
+                    warmUpLock_.lock();
+                    try {
+                        warmUpTasks_.remove( this );
+                    }
+                    finally {
+                        warmUpLock_.unlock();
+                    }
+                }
+            };
+            warmUpLock_.lock();
+            try {
+                warmUpTasks_.add( task );
+            }
+            finally {
+                warmUpLock_.unlock();
+            }
+            futures.add( task );
+            executor.execute( task );
+        }
+        return futures;
+    }
+
+    /**
+     * Releases the resources held by this object and its CdfReader,
+     * including memory used for uncompressed variable data.
+     * Subsequent attempts to read variable data will fail
+     * with an IOException.
+     * Calling this method more than once has no further effect.
+     *
+     * <p>Pending tasks submitted by {@link #warmUp warmUp} are cancelled,
+     * and any that are already running are waited for,
+     * before resources are released.
+     * Reads in progress in other threads complete normally.
+     *
+     * @see  CdfReader#close
+     */
+    public void close() throws IOException {
+        lock_.lock();
+        try {
+            List<FutureTask<Variable>> tasks;
+            warmUpLock_.lock();
+            try {
+                isClosed_ = true;
+                tasks = new ArrayList<FutureTask<Variable>>( warmUpTasks_ );
+            }
+            finally {
+                warmUpLock_.unlock();
+            }
+            for ( FutureTask<Variable> task : tasks ) {
+                task.cancel( false );
+            }
+            warmUpLock_.lock();
+            try {
+                while ( nActiveWarmUps_ > 0 ) {
+                    warmUpDone_.awaitUninterruptibly();
+                }
+            }
+            finally {
+                warmUpLock_.unlock();
+            }
+            for ( Variable var : variables_ ) {
+                var.close();
+            }
+            crdr_.close();
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
     /**
      * Follows a linked list of Variable Descriptor Records
      * and returns an array of them.
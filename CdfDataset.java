@@ -0,0 +1,993 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Presents an ordered sequence of CDF files, such as a mission's
+ * daily files, as a single dataset.
+ * Each variable is presented as one continuous {@link DatasetVariable},
+ * whose records are the records of that variable in each file in turn,
+ * with global record numbering.
+ * Files in which a variable does not appear contribute no records to it.
+ *
+ * <p>Files are opened lazily when their data is required,
+ * using a {@link CdfCache} which limits the number of files held open
+ * at once.  The first time each file is opened, a summary is recorded
+ * of its per-variable record counts and of the first and last values of
+ * its time variable, so that later queries on record positions or
+ * time ranges need not open it again.
+ * Operations needing the record layout of the whole dataset,
+ * such as {@link DatasetVariable#getRecordCount}, visit each
+ * file once to obtain this summary.
+ *
+ * <p>Time-range queries assume that the files are in time order,
+ * and that the time variable's values increase through each file.
+ * Times are values of the time variable in its native units,
+ * that is milliseconds for EPOCH, seconds for EPOCH16 or
+ * nanoseconds for TIME_TT2000.  Integer time variables such as
+ * TIME_TT2000 are compared as exact long values; the
+ * <code>long</code>-valued query methods can be used to specify
+ * times to the nearest nanosecond, which doubles cannot do for
+ * current TIME_TT2000 values.
+ * Fill and pad values of the time variable, and values outside the
+ * range given by its FILLVAL, VALIDMIN and VALIDMAX attributes,
+ * are treated as unknown times; the time range of a file is given
+ * by its first and last records with known times.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class CdfDataset implements Closeable {
+
+    private final File[] files_;
+    private final String timeVarName_;
+    private final CdfCache cache_;
+    private final FileSummary[] summaries_;
+    private final Map<String,long[]> startsMap_;
+    private final Lock lock_;
+
+    /**
+     * Constructs a dataset with default options.
+     * The time variable is the first variable in each file
+     * that has records and is of type EPOCH, EPOCH16 or TIME_TT2000.
+     *
+     * @param  files  ordered list of CDF files
+     * @param  maxOpen  maximum number of files held open while not in use
+     */
+    public CdfDataset( File[] files, int maxOpen ) {
+        this( files, maxOpen, null, new ReadOptions() );
+    }
+
+    /**
+     * Constructs a dataset with a given time variable and read options.
+     *
+     * @param  files  ordered list of CDF files
+     * @param  maxOpen  maximum number of files held open while not in use
+     * @param  timeVarName  name of the variable giving record times,
+     *                      or null for the first variable in each file
+     *                      that has records and is of type
+     *                      EPOCH, EPOCH16 or TIME_TT2000
+     * @param  readOptions  options used for reading all files;
+     *                      a copy is taken
+     */
+    public CdfDataset( File[] files, int maxOpen, String timeVarName,
+                       ReadOptions readOptions ) {
+        files_ = files.clone();
+        timeVarName_ = timeVarName;
+        cache_ = new CdfCache( maxOpen, Long.MAX_VALUE, readOptions );
+        summaries_ = new FileSummary[ files_.length ];
+        startsMap_ = new HashMap<String,long[]>();
+        lock_ = new ReentrantLock();
+    }
+
+    /**
+     * Returns the files in a directory whose names match a glob pattern,
+     * in name order.  The pattern may contain wildcards
+     * <code>*</code> and <code>?</code> in its final path element only,
+     * for instance "<code>data/wi_h0_mfi_*.cdf</code>".
+     *
+     * @param  glob  file path glob pattern
+     * @return  matching files, sorted by name
+     * @throws  IOException  if the directory cannot be listed
+     */
+    public static File[] globFiles( String glob ) throws IOException {
+        File gfile = new File( glob );
+        File dir = gfile.getParentFile();
+        if ( dir == null ) {
+            dir = new File( "." );
+        }
+        StringBuffer rbuf = new StringBuffer();
+        for ( String part : gfile.getName().split( "((?<=[*?])|(?=[*?]))" ) ) {
+            if ( "*".equals( part ) ) {
+                rbuf.append( ".*" );
+            }
+            else if ( "?".equals( part ) ) {
+                rbuf.append( "." );
+            }
+            else if ( part.length() > 0 ) {
+                rbuf.append( Pattern.quote( part ) );
+            }
+        }
+        Pattern regex = Pattern.compile( rbuf.toString() );
+        File[] dirFiles = dir.listFiles();
+        if ( dirFiles == null ) {
+            throw new IOException( "Cannot list directory " + dir );
+        }
+        List<File> list = new ArrayList<File>();
+        for ( File f : dirFiles ) {
+            if ( f.isFile() && regex.matcher( f.getName() ).matches() ) {
+                list.add( f );
+            }
+        }
+        File[] files = list.toArray( new File[ 0 ] );
+        Arrays.sort( files );
+        return files;
+    }
+
+    /**
+     * Returns the files making up this dataset.
+     *
+     * @return  ordered file list
+     */
+    public File[] getFiles() {
+        return files_.clone();
+    }
+
+    /**
+     * Returns the number of files in this dataset.
+     *
+     * @return  file count
+     */
+    public int getFileCount() {
+        return files_.length;
+    }
+
+    /**
+     * Returns the names of the variables in the first file.
+     * This opens the first file if it has not yet been opened.
+     *
+     * @return  variable names
+     */
+    public String[] getVariableNames() throws IOException {
+        if ( files_.length == 0 ) {
+            return new String[ 0 ];
+        }
+        CdfCache.Handle handle = cache_.acquire( files_[ 0 ] );
+        try {
+            Variable[] vars = handle.getContent().getVariables();
+            String[] names = new String[ vars.length ];
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                names[ iv ] = vars[ iv ].getName();
+            }
+            return names;
+        }
+        finally {
+            handle.close();
+        }
+    }
+
+    /**
+     * Returns a dataset variable by name.
+     * Its metadata is taken from the first file in which it appears.
+     *
+     * @param  name  variable name
+     * @return  dataset variable, or null if it appears in no file
+     */
+    public DatasetVariable getVariable( String name ) throws IOException {
+        for ( int ifile = 0; ifile < files_.length; ifile++ ) {
+            if ( getSummary( ifile ).getRecordCount( name ) >= 0 ) {
+                CdfCache.Handle handle = cache_.acquire( files_[ ifile ] );
+                try {
+                    Variable var =
+                        findVariable( handle.getContent(), name );
+                    if ( var != null ) {
+                        return new DatasetVariable( var );
+                    }
+                }
+                finally {
+                    handle.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first value of the time variable in a given file.
+     *
+     * @param  ifile  file index
+     * @return  first time, or NaN if unknown
+     */
+    public double getFirstTime( int ifile ) throws IOException {
+        return getSummary( ifile ).tFirst_;
+    }
+
+    /**
+     * Returns the last value of the time variable in a given file.
+     *
+     * @param  ifile  file index
+     * @return  last time, or NaN if unknown
+     */
+    public double getLastTime( int ifile ) throws IOException {
+        return getSummary( ifile ).tLast_;
+    }
+
+    /**
+     * Returns the indices of the files whose time ranges overlap
+     * a given interval.  Files with no known time range are excluded.
+     * The first such file is located by bisection over the file list,
+     * so only the files probed by the search and the files in range
+     * need to be opened.
+     *
+     * @param  tmin  start of interval, inclusive
+     * @param  tmax  end of interval, inclusive
+     * @return  ascending array of file indices
+     */
+    public int[] getFilesInTimeRange( double tmin, double tmax )
+            throws IOException {
+        return getFilesInTimeRange( new TimeRange( tmin, tmax ) );
+    }
+
+    /**
+     * Returns the indices of the files whose time ranges overlap
+     * an interval given as exact integer times.
+     * This is like {@link #getFilesInTimeRange(double,double)},
+     * but does not lose precision for integer time variables
+     * like TIME_TT2000.
+     *
+     * @param  tmin  start of interval, inclusive
+     * @param  tmax  end of interval, inclusive
+     * @return  ascending array of file indices
+     */
+    public int[] getFilesInTimeRange( long tmin, long tmax )
+            throws IOException {
+        return getFilesInTimeRange( new TimeRange( tmin, tmax ) );
+    }
+
+    /**
+     * Returns the indices of the files whose time ranges overlap
+     * a given interval.
+     *
+     * @param  range  time interval
+     * @return  ascending array of file indices
+     */
+    private int[] getFilesInTimeRange( TimeRange range ) throws IOException {
+        int nfile = files_.length;
+
+        // Find a file index before which every file with a known
+        // time range ends before tmin.  Unknown files are skipped
+        // over, taking the next known file as the probe.
+        int lo = 0;
+        int hi = nfile;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            int ik = mid;
+            while ( ik < hi && ! getSummary( ik ).hasTimes() ) {
+                ik++;
+            }
+            if ( ik < hi &&
+                 getSummary( ik ).compareLast( range, false ) < 0 ) {
+                lo = ik + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+
+        // Collect overlapping files until one starts after tmax.
+        int[] ifiles = new int[ nfile - lo ];
+        int n = 0;
+        for ( int ifile = lo; ifile < nfile; ifile++ ) {
+            FileSummary summary = getSummary( ifile );
+            if ( summary.hasTimes() ) {
+                if ( summary.compareFirst( range, true ) > 0 ) {
+                    break;
+                }
+                if ( summary.compareLast( range, false ) >= 0 ) {
+                    ifiles[ n++ ] = ifile;
+                }
+            }
+        }
+        return Arrays.copyOf( ifiles, n );
+    }
+
+    /**
+     * Returns the number of files whose summaries have been recorded
+     * so far, that is the number of entries in the file list
+     * which have been opened by this dataset.
+     *
+     * @return  summarized file count
+     */
+    public int getSummarizedFileCount() {
+        lock_.lock();
+        try {
+            int n = 0;
+            for ( FileSummary summary : summaries_ ) {
+                if ( summary != null ) {
+                    n++;
+                }
+            }
+            return n;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the range of global record indices of the time variable
+     * whose values fall within a given interval.
+     * The files overlapping the interval are found as for
+     * {@link #getFilesInTimeRange}, and the first and last of those
+     * are searched by bisection.
+     * Converting to global record indices needs the record counts
+     * of all the files, so the first call summarizes every file.
+     *
+     * @param  tmin  start of interval, inclusive
+     * @param  tmax  end of interval, inclusive
+     * @return  2-element array giving the first record index (inclusive)
+     *          and last record index (exclusive) of the range;
+     *          if no records are in range the two are equal
+     */
+    public long[] getTimeRecordRange( double tmin, double tmax )
+            throws IOException {
+        return getTimeRecordRange( new TimeRange( tmin, tmax ) );
+    }
+
+    /**
+     * Returns the range of global record indices of the time variable
+     * whose values fall within an interval given as exact integer times.
+     * This is like {@link #getTimeRecordRange(double,double)},
+     * but does not lose precision for integer time variables
+     * like TIME_TT2000.
+     *
+     * @param  tmin  start of interval, inclusive
+     * @param  tmax  end of interval, inclusive
+     * @return  2-element array giving the first record index (inclusive)
+     *          and last record index (exclusive) of the range;
+     *          if no records are in range the two are equal
+     */
+    public long[] getTimeRecordRange( long tmin, long tmax )
+            throws IOException {
+        return getTimeRecordRange( new TimeRange( tmin, tmax ) );
+    }
+
+    /**
+     * Returns the range of global record indices of the time variable
+     * whose values fall within a given interval.
+     *
+     * @param  range  time interval
+     * @return  2-element (start, end) record index array
+     */
+    private long[] getTimeRecordRange( TimeRange range ) throws IOException {
+        int[] ifiles = getFilesInTimeRange( range );
+        if ( ifiles.length == 0 ) {
+            return new long[] { 0, 0 };
+        }
+        int ifirst = ifiles[ 0 ];
+        int ilast = ifiles[ ifiles.length - 1 ];
+        String tname = getSummary( ifirst ).tName_;
+        long[] starts = getFileStarts( tname );
+        long lo = starts[ ifirst ] + searchTime( ifirst, range, false );
+        long hi = starts[ ilast ] + searchTime( ilast, range, true );
+        return new long[] { lo, Math.max( lo, hi ) };
+    }
+
+    /**
+     * Closes all the files opened by this dataset.
+     * Subsequent data reads will fail.
+     */
+    public void close() {
+        cache_.close();
+    }
+
+    /**
+     * Returns the index of the first record in a file whose time
+     * is not less than the start, or if <code>after</code> is set,
+     * greater than the end, of a given interval.
+     * Records with unknown times are skipped over,
+     * taking the next known record as the probe,
+     * and are not included at the edges of the range.
+     *
+     * @param  ifile  file index
+     * @param  range  time interval
+     * @param  after  false to find the first time &gt;=tmin,
+     *                true to find the first time &gt;tmax
+     * @return  local record index
+     */
+    private int searchTime( int ifile, TimeRange range, boolean after )
+            throws IOException {
+        String tname = getSummary( ifile ).tName_;
+        CdfCache.Handle handle = cache_.acquire( files_[ ifile ] );
+        try {
+            CdfContent content = handle.getContent();
+            TimeReader rdr =
+                new TimeReader( findVariable( content, tname ), content );
+            int lo = 0;
+            int hi = rdr.getRecordCount();
+            while ( lo < hi ) {
+                int mid = ( lo + hi ) >>> 1;
+                int ik = mid;
+                while ( ik < hi && ! rdr.readTime( ik ) ) {
+                    ik++;
+                }
+                int c = ik < hi ? rdr.compare( range, after ) : 1;
+                if ( after ? c <= 0 : c < 0 ) {
+                    lo = ik + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+
+            // Exclude any unknown times at the edge of the range.
+            if ( after ) {
+                while ( lo > 0 && ! rdr.readTime( lo - 1 ) ) {
+                    lo--;
+                }
+            }
+            else {
+                int nrec = rdr.getRecordCount();
+                while ( lo < nrec && ! rdr.readTime( lo ) ) {
+                    lo++;
+                }
+            }
+            return lo;
+        }
+        finally {
+            handle.close();
+        }
+    }
+
+    /**
+     * Returns the global index of the first record of a variable
+     * in each file.  This requires the summary of every file.
+     *
+     * @param  name  variable name
+     * @return  array with an element for each file, followed by
+     *          the total record count
+     */
+    private long[] getFileStarts( String name ) throws IOException {
+        lock_.lock();
+        try {
+            long[] starts = startsMap_.get( name );
+            if ( starts != null ) {
+                return starts;
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
+        long[] starts = new long[ files_.length + 1 ];
+        for ( int ifile = 0; ifile < files_.length; ifile++ ) {
+            int nrec = getSummary( ifile ).getRecordCount( name );
+            starts[ ifile + 1 ] = starts[ ifile ] + Math.max( nrec, 0 );
+        }
+        lock_.lock();
+        try {
+            startsMap_.put( name, starts );
+        }
+        finally {
+            lock_.unlock();
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the summary for a file, opening it if necessary.
+     * The summary is calculated without holding the lock,
+     * so more than one thread may calculate it, with the same result.
+     *
+     * @param  ifile  file index
+     * @return  summary
+     */
+    private FileSummary getSummary( int ifile ) throws IOException {
+        lock_.lock();
+        try {
+            if ( summaries_[ ifile ] != null ) {
+                return summaries_[ ifile ];
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
+        FileSummary summary;
+        CdfCache.Handle handle = cache_.acquire( files_[ ifile ] );
+        try {
+            summary = new FileSummary( handle.getContent() );
+        }
+        finally {
+            handle.close();
+        }
+        lock_.lock();
+        try {
+            summaries_[ ifile ] = summary;
+        }
+        finally {
+            lock_.unlock();
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the variable in a CDF with a given name.
+     *
+     * @param  content  CDF content
+     * @param  name   variable name
+     * @return  variable, or null if absent
+     */
+    private static Variable findVariable( CdfContent content, String name ) {
+        for ( Variable var : content.getVariables() ) {
+            if ( var.getName().equals( name ) ) {
+                return var;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the time variable in a CDF.
+     *
+     * @param  content  CDF content
+     * @param  name   time variable name, or null to look by data type
+     *                for a variable with records
+     * @return  time variable, or null if none is suitable
+     */
+    private static Variable findTimeVariable( CdfContent content,
+                                              String name ) {
+        if ( name != null ) {
+            return findVariable( content, name );
+        }
+        for ( Variable var : content.getVariables() ) {
+            if ( isTimeType( var.getDataType() ) &&
+                 var.getRecordCount() > 0 ) {
+                return var;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indicates whether a data type can be used for a time variable.
+     *
+     * @param  dtype  data type
+     * @return  true for EPOCH, EPOCH16 and TIME_TT2000
+     */
+    private static boolean isTimeType( DataType dtype ) {
+        return dtype == DataType.EPOCH || dtype == DataType.EPOCH16
+            || dtype.isTt2000();
+    }
+
+    /**
+     * Compares a time value with one end of a time interval.
+     *
+     * @param  isLong  true to compare long values, false for doubles
+     * @param  lval   time as a long, used if isLong
+     * @param  dval   time as a double, used if not isLong
+     * @param  range  time interval
+     * @param  isMax  true to compare with the end of the interval,
+     *                false for the start
+     * @return  negative, zero or positive as the time is less than,
+     *          equal to or greater than the interval end
+     */
+    private static int compareTime( boolean isLong, long lval, double dval,
+                                    TimeRange range, boolean isMax ) {
+        if ( isLong ) {
+            long bound = isMax ? range.lmax_ : range.lmin_;
+            return lval < bound ? -1 : ( lval > bound ? 1 : 0 );
+        }
+        else {
+            double bound = isMax ? range.dmax_ : range.dmin_;
+            return dval < bound ? -1 : ( dval > bound ? 1 : 0 );
+        }
+    }
+
+    /**
+     * A variable presented as the concatenation of the variables with
+     * the same name in each file of a dataset.
+     */
+    public class DatasetVariable {
+
+        private final String name_;
+        private final DataType dataType_;
+        private final Shaper shaper_;
+        private final int recLeng_;
+
+        /**
+         * Constructor.
+         *
+         * @param  template  variable from one of the files
+         */
+        private DatasetVariable( Variable template ) {
+            name_ = template.getName();
+            dataType_ = template.getDataType();
+            shaper_ = template.getShaper();
+            recLeng_ = template.getShapedRecordLength();
+        }
+
+        /**
+         * Returns this variable's name.
+         *
+         * @return  name
+         */
+        public String getName() {
+            return name_;
+        }
+
+        /**
+         * Returns the data type, as for the first file containing
+         * this variable.
+         *
+         * @return  data type
+         */
+        public DataType getDataType() {
+            return dataType_;
+        }
+
+        /**
+         * Returns the shaper, as for the first file containing
+         * this variable.
+         *
+         * @return  shaper
+         */
+        public Shaper getShaper() {
+            return shaper_;
+        }
+
+        /**
+         * Returns the number of array elements per record in arrays
+         * filled by {@link #readShapedRecords readShapedRecords}.
+         *
+         * @return  shaped record length
+         */
+        public int getShapedRecordLength() {
+            return recLeng_;
+        }
+
+        /**
+         * Returns the total number of records in all files.
+         *
+         * @return  record count
+         */
+        public long getRecordCount() throws IOException {
+            return getFileStarts( name_ )[ files_.length ];
+        }
+
+        /**
+         * Returns the global index of this variable's first record
+         * in a given file.
+         *
+         * @param  ifile  file index
+         * @return  global record index
+         */
+        public long getFileStart( int ifile ) throws IOException {
+            return getFileStarts( name_ )[ ifile ];
+        }
+
+        /**
+         * Creates an array suitable for use as the destination of
+         * {@link #readShapedRecords readShapedRecords}.
+         *
+         * @param  nrec  number of records
+         * @return  destination array
+         */
+        public Object createShapedValueArray( int nrec ) {
+            return Array.newInstance( dataType_.getArrayElementClass(),
+                                      nrec * recLeng_ );
+        }
+
+        /**
+         * Reads a run of records, which may span any number of files,
+         * into a supplied array, as for
+         * {@link Variable#readShapedRecords(int,int,boolean,Object,
+         *                                   Object,int)
+         *        Variable.readShapedRecords}.
+         *
+         * @param  irec  global index of first record
+         * @param  nrec  number of records
+         * @param  rowMajor  required majority of output array
+         * @param  dest  destination array
+         * @param  destOffset  index in dest at which the first element
+         *                     is written
+         * @throws  IllegalArgumentException  if the record range is
+         *          out of bounds
+         * @throws  CdfFormatException  if the variable's data type or
+         *          record shape differs between files
+         */
+        public void readShapedRecords( long irec, int nrec, boolean rowMajor,
+                                       Object dest, int destOffset )
+                throws IOException {
+            long[] starts = getFileStarts( name_ );
+            if ( irec < 0 || nrec < 0 ||
+                 irec + nrec > starts[ files_.length ] ) {
+                throw new IllegalArgumentException( "Bad record range" );
+            }
+            int ifile = Arrays.binarySearch( starts, irec );
+            ifile = ifile >= 0 ? ifile : -ifile - 2;
+            int off = destOffset;
+            while ( nrec > 0 ) {
+
+                // Skip files with no records (which share a start index).
+                while ( starts[ ifile + 1 ] <= irec ) {
+                    ifile++;
+                }
+                int jrec = (int) ( irec - starts[ ifile ] );
+                int n = (int) Math.min( nrec, starts[ ifile + 1 ] - irec );
+                CdfCache.Handle handle = cache_.acquire( files_[ ifile ] );
+                try {
+                    Variable var = findVariable( handle.getContent(), name_ );
+                    if ( var.getDataType().getArrayElementClass() !=
+                         dataType_.getArrayElementClass() ||
+                         var.getShapedRecordLength() != recLeng_ ) {
+                        throw new CdfFormatException(
+                            "Variable " + name_ + " in " + files_[ ifile ]
+                          + " inconsistent with earlier files" );
+                    }
+                    var.readShapedRecords( jrec, n, rowMajor,
+                                           var.createRawValueArray(),
+                                           dest, off );
+                }
+                finally {
+                    handle.close();
+                }
+                irec += n;
+                nrec -= n;
+                off += n * recLeng_;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name_ + " (" + files_.length + " files)";
+        }
+    }
+
+    /**
+     * Per-file information that is recorded the first time a file
+     * is opened.
+     */
+    private class FileSummary {
+        final Map<String,Integer> nrecMap_;
+        final String tName_;
+        final boolean isLongTime_;
+        final long lFirst_;
+        final long lLast_;
+        final double tFirst_;
+        final double tLast_;
+
+        /**
+         * Constructor.
+         *
+         * @param  content  content of file
+         */
+        FileSummary( CdfContent content ) throws IOException {
+            nrecMap_ = new HashMap<String,Integer>();
+            for ( Variable var : content.getVariables() ) {
+                nrecMap_.put( var.getName(), var.getRecordCount() );
+            }
+            Variable tvar = findTimeVariable( content, timeVarName_ );
+            TimeReader rdr = tvar != null && TimeReader.isSupported( tvar )
+                           ? new TimeReader( tvar, content )
+                           : null;
+
+            // Take the first and last records with known times.
+            int nrec = rdr == null ? 0 : rdr.getRecordCount();
+            int ifirst = 0;
+            while ( ifirst < nrec && ! rdr.readTime( ifirst ) ) {
+                ifirst++;
+            }
+            if ( ifirst < nrec ) {
+                long lFirst = rdr.lval_;
+                double tFirst = rdr.dval_;
+                int ilast = nrec - 1;
+                while ( ilast > ifirst && ! rdr.readTime( ilast ) ) {
+                    ilast--;
+                }
+                isLongTime_ = rdr.isLong_;
+                lFirst_ = lFirst;
+                tFirst_ = tFirst;
+                lLast_ = rdr.lval_;
+                tLast_ = rdr.dval_;
+                tName_ = tvar.getName();
+            }
+            else {
+                isLongTime_ = false;
+                lFirst_ = 0;
+                lLast_ = 0;
+                tFirst_ = Double.NaN;
+                tLast_ = Double.NaN;
+                tName_ = null;
+            }
+        }
+
+        /**
+         * Indicates whether this file has a known time range.
+         *
+         * @return  true iff first and last times are known
+         */
+        boolean hasTimes() {
+            return tName_ != null;
+        }
+
+        /**
+         * Compares this file's first time with one end of an interval.
+         *
+         * @param  range  time interval
+         * @param  isMax  true for the end of the interval, false for start
+         * @return  sign of the first time minus the interval end
+         */
+        int compareFirst( TimeRange range, boolean isMax ) {
+            return compareTime( isLongTime_, lFirst_, tFirst_, range, isMax );
+        }
+
+        /**
+         * Compares this file's last time with one end of an interval.
+         *
+         * @param  range  time interval
+         * @param  isMax  true for the end of the interval, false for start
+         * @return  sign of the last time minus the interval end
+         */
+        int compareLast( TimeRange range, boolean isMax ) {
+            return compareTime( isLongTime_, lLast_, tLast_, range, isMax );
+        }
+
+        /**
+         * Returns the number of records for a named variable.
+         *
+         * @param  name  variable name
+         * @return  record count, or -1 if absent
+         */
+        int getRecordCount( String name ) {
+            Integer nrec = nrecMap_.get( name );
+            return nrec == null ? -1 : nrec.intValue();
+        }
+    }
+
+    /**
+     * Time interval, inclusive at both ends, for comparison with both
+     * integer and floating point time values.
+     */
+    private static class TimeRange {
+        final double dmin_;
+        final double dmax_;
+        final long lmin_;
+        final long lmax_;
+
+        /**
+         * Constructs a range from double values.
+         * For comparison with integer times, the ends are rounded
+         * inwards, so the same integers are included.
+         *
+         * @param  tmin  start, inclusive
+         * @param  tmax  end, inclusive
+         */
+        TimeRange( double tmin, double tmax ) {
+            dmin_ = tmin;
+            dmax_ = tmax;
+            lmin_ = (long) Math.ceil( tmin );
+            lmax_ = (long) Math.floor( tmax );
+        }
+
+        /**
+         * Constructs a range from exact integer values.
+         *
+         * @param  tmin  start, inclusive
+         * @param  tmax  end, inclusive
+         */
+        TimeRange( long tmin, long tmax ) {
+            dmin_ = tmin;
+            dmax_ = tmax;
+            lmin_ = tmin;
+            lmax_ = tmax;
+        }
+    }
+
+    /**
+     * Reads the first time value from records of a time variable,
+     * noting whether it is a known time.
+     */
+    private static class TimeReader {
+        final Variable tvar_;
+        final DataType dtype_;
+        final LongReader longReader_;
+        final DoubleReader doubleReader_;
+        final ValidityTester tester_;
+        final boolean isLong_;
+        final Object work_;
+        long lval_;
+        double dval_;
+
+        /**
+         * Constructor.
+         *
+         * @param  tvar  time variable, for which isSupported is true
+         * @param  content  content of the file containing tvar
+         */
+        TimeReader( Variable tvar, CdfContent content ) {
+            tvar_ = tvar;
+            dtype_ = tvar.getDataType();
+            longReader_ = dtype_.getLongReader();
+            doubleReader_ = dtype_.getDoubleReader();
+            tester_ = ValidityTester
+                     .createTester( tvar, content.getVariableAttributes() );
+            isLong_ = longReader_ != null;
+            work_ = tvar.createRawValueArray();
+        }
+
+        /**
+         * Indicates whether a variable's values can be read as times.
+         *
+         * @param  tvar  variable
+         * @return  true for EPOCH16 and numeric variables
+         */
+        static boolean isSupported( Variable tvar ) {
+            DataType dtype = tvar.getDataType();
+            return dtype == DataType.EPOCH16
+                || dtype.getLongReader() != null
+                || dtype.getDoubleReader() != null;
+        }
+
+        /**
+         * Returns the number of records in the time variable.
+         *
+         * @return  record count
+         */
+        int getRecordCount() {
+            return tvar_.getRecordCount();
+        }
+
+        /**
+         * Reads the time of a given record.  If it is known,
+         * it is stored in the <code>lval_</code> (for integer times)
+         * and <code>dval_</code> members.
+         *
+         * @param  irec  record index
+         * @return  true iff the time is known, that is not a fill
+         *          or pad value and within the variable's valid range
+         */
+        boolean readTime( int irec ) throws IOException {
+            tvar_.readRawRecord( irec, work_ );
+            if ( UnixTimeConverter.isSpecialTime( dtype_, work_, 0 ) ||
+                 ! tester_.isValid( work_, 0 ) ) {
+                return false;
+            }
+            if ( isLong_ ) {
+                lval_ = longReader_.getLong( work_, 0 );
+                dval_ = lval_;
+            }
+            else if ( dtype_ == DataType.EPOCH16 ) {
+                double[] secPicos = (double[]) work_;
+                dval_ = secPicos[ 0 ] + secPicos[ 1 ] * 1e-12;
+            }
+            else {
+                dval_ = doubleReader_.getDouble( work_, 0 );
+            }
+            return true;
+        }
+
+        /**
+         * Compares the most recently read known time with one end
+         * of an interval.
+         *
+         * @param  range  time interval
+         * @param  isMax  true for the end of the interval, false for start
+         * @return  sign of the time minus the interval end
+         */
+        int compare( TimeRange range, boolean isMax ) {
+            return compareTime( isLong_, lval_, dval_, range, isMax );
+        }
+    }
+}
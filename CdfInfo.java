@@ -10,6 +10,7 @@ public class CdfInfo {
     private final boolean rowMajor_;
     private final int[] rDimSizes_;
     private final int leapSecondLastUpdated_;
+    private final ReadOptions readOptions_;
 
     /**
      * Constructor.
@@ -21,9 +22,25 @@ public class CdfInfo {
      */
     public CdfInfo( boolean rowMajor, int[] rDimSizes,
                     int leapSecondLastUpdated ) {
+        this( rowMajor, rDimSizes, leapSecondLastUpdated, new ReadOptions() );
+    }
+
+    /**
+     * Constructor with read options.
+     *
+     * @param  rowMajor  true for row majority, false for column majority
+     * @param  rDimSizes   array of dimension sizes for rVariables
+     * @param  leapSecondLastUpdated  value of the GDR LeapSecondLastUpdated
+     *         field
+     * @param  readOptions  options for reading data values;
+     *                      a copy is taken
+     */
+    public CdfInfo( boolean rowMajor, int[] rDimSizes,
+                    int leapSecondLastUpdated, ReadOptions readOptions ) {
         rowMajor_ = rowMajor;
         rDimSizes_ = rDimSizes;
         leapSecondLastUpdated_ = leapSecondLastUpdated;
+        readOptions_ = new ReadOptions( readOptions );
     }
 
     /**
@@ -56,4 +73,34 @@ public class CdfInfo {
     public int getLeapSecondLastUpdated() {
         return leapSecondLastUpdated_;
     }
+
+    /**
+     * Returns the options used for reading data values.
+     *
+     * @return  read options; a copy, so changing it has no effect
+     */
+    public ReadOptions getReadOptions() {
+        return new ReadOptions( readOptions_ );
+    }
+
+    /**
+     * Indicates whether unsigned integer data is read into
+     * same-width arrays.
+     *
+     * @return  compact unsigned read option
+     * @see  ReadOptions#isCompactUnsigned
+     */
+    public boolean isCompactUnsigned() {
+        return readOptions_.isCompactUnsigned();
+    }
+
+    /**
+     * Returns the representation used for character data values.
+     *
+     * @return  character data read option
+     * @see  ReadOptions#getCharMode
+     */
+    public ReadOptions.CharMode getCharMode() {
+        return readOptions_.getCharMode();
+    }
 }
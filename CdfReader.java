@@ -1,10 +1,16 @@
 package uk.ac.bristol.star.cdf;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import uk.ac.bristol.star.cdf.record.Buf;
 import uk.ac.bristol.star.cdf.record.Bufs;
@@ -16,6 +22,7 @@ import uk.ac.bristol.star.cdf.record.NumericEncoding;
 import uk.ac.bristol.star.cdf.record.Pointer;
 import uk.ac.bristol.star.cdf.record.Record;
 import uk.ac.bristol.star.cdf.record.RecordFactory;
+import uk.ac.bristol.star.cdf.record.VaxBuf;
 
 /**
  * Examines a CDF file and provides methods to access its records.
@@ -36,30 +43,82 @@ import uk.ac.bristol.star.cdf.record.RecordFactory;
  * use the record factory got from {@link #getRecordFactory} to turn
  * it into a typed Record object.
  *
+ * <p>When it is no longer required, a reader should be closed
+ * to release its file descriptor and mapped memory promptly.
+ * Reads from objects obtained from a closed reader will fail
+ * with an IOException.
+ *
  * @author   Mark Taylor
  * @since    19 Jun 2013
  */
-public class CdfReader {
+public class CdfReader implements Closeable {
 
-    private final CdfDescriptorRecord cdr_;
-    private final Buf buf_;
+    private final File file_;
+    private final CdfVariant variant_;
     private final RecordFactory recordFactory_;
+    private volatile CdfDescriptorRecord cdr_;
+    private volatile Buf buf_;
+    private long rawLength_;
+    private final List<Buf> ownedBufs_;
+    private int nSuperseded_;
+    private boolean isClosed_;
+    private final Lock lock_;
 
     private static final Logger logger_ =
         Logger.getLogger( CdfReader.class.getName() );
 
     /** 
      * Constructs a CdfReader from a buffer containing its byte data.
+     * The buffer is closed when this reader is closed.
      *
      * @param   buf  buffer containing CDF file
      */
     public CdfReader( Buf buf ) throws IOException {
+        this( buf, null );
+    }
+
+    /**
+     * Constructs a CdfReader from a readable file containing its byte data.
+     *
+     * @param  file  CDF file
+     */
+    public CdfReader( File file ) throws IOException {
+        this( Bufs.createBuf( file, true, true ), file );
+    }
+
+    /**
+     * Constructs a CdfReader from a buffer, optionally associated with
+     * the file from which it was read.
+     *
+     * @param   buf  buffer containing CDF file
+     * @param   file  file containing the buffer data, or null
+     */
+    private CdfReader( Buf buf, File file ) throws IOException {
+        file_ = file;
+        lock_ = new ReentrantLock();
+        ownedBufs_ = new ArrayList<Buf>();
+        ownedBufs_.add( buf );
+        variant_ = readVariant( buf );
+
+        // The lengths of some fields differ according to CDF version.
+        // Construct a record factory that does it right.
+        recordFactory_ = new RecordFactory( variant_.nameLeng_ );
+        readContent( buf, variant_ );
+    }
+
+    /**
+     * Reads the magic numbers at the start of a buffer to determine
+     * the CDF format variant, and prepares the buffer accordingly.
+     *
+     * @param  buf  buffer containing CDF file
+     * @return  variant
+     */
+    private static CdfVariant readVariant( Buf buf ) throws IOException {
         Pointer ptr = new Pointer( 0 );
 
         // Read the CDF magic number bytes.
         int magic1 = buf.readInt( ptr );
         int magic2 = buf.readInt( ptr );
-        int offsetRec0 = (int) ptr.get();
 
         // Work out from that what variant (if any) of the CDF format
         // this file implements.
@@ -84,10 +143,21 @@ public class CdfReader {
         // Note that no operations for which this makes a difference have
         // yet taken place.
         buf.setBit64( variant.bit64_ );
+        return variant;
+    }
 
-        // The lengths of some fields differ according to CDF version.
-        // Construct a record factory that does it right.
-        recordFactory_ = new RecordFactory( variant.nameLeng_ );
+    /**
+     * Reads the CDF Descriptor Record from a buffer, uncompressing
+     * the record stream first if required, and sets up this reader's
+     * buffer and CDR accordingly.
+     *
+     * @param  buf  buffer containing CDF file, including magic numbers
+     * @param  variant  format variant determined from magic numbers
+     */
+    private void readContent( Buf buf, CdfVariant variant )
+            throws IOException {
+        rawLength_ = buf.getLength();
+        int offsetRec0 = CdfVariant.MAGIC_LENGTH;
 
         // Read the CDF Descriptor Record.  This may be the first record,
         // or it may be in a compressed form along with the rest of
@@ -130,32 +200,146 @@ public class CdfReader {
             };
             buf = Bufs.uncompress( padCompress, buf, ccr.getDataOffset(),
                                    ccr.uSize + prepad );
+            ownedBufs_.add( buf );
         }
-        cdr_ = recordFactory_.createRecord( buf, offsetRec0,
-                                            CdfDescriptorRecord.class );
+        CdfDescriptorRecord cdr =
+            recordFactory_.createRecord( buf, offsetRec0,
+                                         CdfDescriptorRecord.class );
 
         // Interrogate CDR for required information.
-        boolean isSingleFile = Record.hasBit( cdr_.flags, 1 );
+        boolean isSingleFile = Record.hasBit( cdr.flags, 1 );
         if ( ! isSingleFile ) {
             throw new CdfFormatException( "Multi-file CDFs not supported" );
         }
         NumericEncoding encoding =
-            NumericEncoding.getEncoding( cdr_.encoding );
+            NumericEncoding.getEncoding( cdr.encoding );
         Boolean bigEndian = encoding.isBigendian();
-        if ( bigEndian == null ) {
+        if ( bigEndian != null ) {
+            buf.setEncoding( bigEndian.booleanValue() );
+        }
+        else if ( encoding.isVax() ) {
+            buf = new VaxBuf( buf, encoding.isGFloat() );
+        }
+        else {
             throw new CdfFormatException( "Unsupported encoding " + encoding );
         }
-        buf.setEncoding( bigEndian.booleanValue() );
+        cdr_ = cdr;
         buf_ = buf;
     }
 
     /**
-     * Constructs a CdfReader from a readable file containing its byte data.
+     * Checks whether the file on which this reader is based has grown
+     * since it was last read, and if so remaps it so that the new data
+     * can be seen.  This is intended for following files which are
+     * still being appended to, for instance by an acquisition system.
      *
-     * @param  file  CDF file
+     * <p>Following a successful refresh, the {@link #getBuf} and
+     * {@link #getCdr} methods will return updated values.
+     * Objects previously obtained from this reader remain usable,
+     * but reflect the state of the file when they were obtained;
+     * use {@link CdfContent#refresh} to bring the high-level view of
+     * the file up to date.
+     * Superseded buffers are held until this reader is closed,
+     * or until a CdfContent refresh releases them.
+     *
+     * <p>If this reader was not constructed from a file,
+     * nothing happens and false is returned.
+     *
+     * @return  true iff the file had grown and has been remapped
      */
-    public CdfReader( File file ) throws IOException {
-        this( Bufs.createBuf( file, true, true ) );
+    public boolean refresh() throws IOException {
+        lock_.lock();
+        try {
+            if ( isClosed_ ) {
+                throw new ClosedChannelException();
+            }
+            if ( file_ == null || file_.length() == rawLength_ ) {
+                return false;
+            }
+            Buf buf = Bufs.createBuf( file_, true, true );
+            int ibuf = ownedBufs_.size();
+            ownedBufs_.add( buf );
+            CdfVariant variant = readVariant( buf );
+            if ( variant.nameLeng_ != variant_.nameLeng_ ||
+                 variant.bit64_ != variant_.bit64_ ) {
+                throw new CdfFormatException( "CDF format variant "
+                                            + "has changed" );
+            }
+            readContent( buf, variant );
+            nSuperseded_ = ibuf;
+            return true;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Closes the buffers superseded by earlier calls to {@link #refresh}.
+     * This is called by {@link CdfContent#refresh} once it has moved
+     * all its variables to the current buffer.
+     * Records obtained from this reader before the most recent refresh
+     * can no longer be read.
+     */
+    void releaseSupersededBufs() throws IOException {
+        lock_.lock();
+        try {
+            List<Buf> superseded = ownedBufs_.subList( 0, nSuperseded_ );
+            IOException error = null;
+            for ( Buf buf : superseded ) {
+                try {
+                    buf.close();
+                }
+                catch ( IOException e ) {
+                    error = e;
+                }
+            }
+            superseded.clear();
+            nSuperseded_ = 0;
+            if ( error != null ) {
+                throw error;
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Closes this reader, releasing the file descriptors and mapped
+     * or uncompressed memory held by its buffers, including any
+     * superseded by {@link #refresh}.
+     * Subsequent reads from this reader's buffers, or from objects
+     * such as Records and Variables that use them, fail with an
+     * IOException.
+     * Calling this method more than once has no further effect.
+     *
+     * <p>Reads in progress in other threads when this method is called
+     * complete normally; memory is released when they have finished.
+     */
+    public void close() throws IOException {
+        lock_.lock();
+        try {
+            if ( ! isClosed_ ) {
+                isClosed_ = true;
+                IOException error = null;
+                for ( Buf buf : ownedBufs_ ) {
+                    try {
+                        buf.close();
+                    }
+                    catch ( IOException e ) {
+                        error = e;
+                    }
+                }
+                ownedBufs_.clear();
+                if ( error != null ) {
+                    throw error;
+                }
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
     }
 
     /**
@@ -281,6 +465,10 @@ public class CdfReader {
      * Encapsulates CDF encoding details as determined from the magic number.
      */
     private static class CdfVariant {
+
+        /** Number of bytes of magic number preceding the first record. */
+        static final int MAGIC_LENGTH = 8;
+
         final String label_;
         final boolean bit64_;
         final int nameLeng_;
@@ -0,0 +1,139 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * Lightweight read-only view of a run of single-byte characters
+ * in a byte array.
+ * This is the value type used for CHAR and UCHAR data when the
+ * {@link ReadOptions.CharMode#BYTES BYTES} character mode is in effect;
+ * all the values read from one record share a single byte array,
+ * so reading character data does not create a String for every element.
+ *
+ * <p>Bytes are interpreted as ISO-8859-1.
+ * Instances are equal if they have the same characters,
+ * and <code>toString</code> returns the equivalent String.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class CharSlice implements CharSequence {
+
+    private final byte[] bytes_;
+    private final int offset_;
+    private final int length_;
+
+    /**
+     * Constructor.  The byte array is not copied.
+     *
+     * @param  bytes  byte buffer
+     * @param  offset  index of first character in buffer
+     * @param  length  number of characters
+     */
+    public CharSlice( byte[] bytes, int offset, int length ) {
+        bytes_ = bytes;
+        offset_ = offset;
+        length_ = length;
+    }
+
+    /**
+     * Returns the byte array backing this slice.
+     *
+     * @return  byte buffer; not a copy
+     */
+    public byte[] getBytes() {
+        return bytes_;
+    }
+
+    /**
+     * Returns the index in the backing array of the first character.
+     *
+     * @return  offset into byte buffer
+     */
+    public int getOffset() {
+        return offset_;
+    }
+
+    public int length() {
+        return length_;
+    }
+
+    public char charAt( int index ) {
+        if ( index < 0 || index >= length_ ) {
+            throw new IndexOutOfBoundsException( "Index " + index
+                                               + " not in 0.." + length_ );
+        }
+        return (char) ( bytes_[ offset_ + index ] & 0xff );
+    }
+
+    public CharSequence subSequence( int start, int end ) {
+        if ( start < 0 || end > length_ || start > end ) {
+            throw new IndexOutOfBoundsException( start + ".." + end
+                                               + " not in 0.." + length_ );
+        }
+        return new CharSlice( bytes_, offset_ + start, end - start );
+    }
+
+    /**
+     * Returns the hash code.
+     * This is the same as that of the equivalent String.
+     */
+    @Override
+    public int hashCode() {
+        return hash( bytes_, offset_, length_ );
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( o instanceof CharSlice ) {
+            CharSlice other = (CharSlice) o;
+            if ( other.length_ != this.length_ ) {
+                return false;
+            }
+            for ( int i = 0; i < length_; i++ ) {
+                if ( other.bytes_[ other.offset_ + i ] !=
+                     this.bytes_[ this.offset_ + i ] ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return createString( bytes_, offset_, length_ );
+    }
+
+    /**
+     * Returns the hash code of the String that would be formed from
+     * a run of single-byte characters.
+     *
+     * @param  bytes  byte buffer
+     * @param  offset  index of first character in buffer
+     * @param  length  number of characters
+     * @return   hash code of
+     *           <code>createString(bytes,offset,length)</code>
+     */
+    static int hash( byte[] bytes, int offset, int length ) {
+        int h = 0;
+        for ( int i = 0; i < length; i++ ) {
+            h = 31 * h + ( bytes[ offset + i ] & 0xff );
+        }
+        return h;
+    }
+
+    /**
+     * Creates a String from a run of single-byte characters.
+     *
+     * @param  bytes  byte buffer
+     * @param  offset  index of first character in buffer
+     * @param  length  number of characters
+     * @return   new string
+     */
+    @SuppressWarnings("deprecation")
+    static String createString( byte[] bytes, int offset, int length ) {
+        return new String( bytes, 0, offset, length );
+    }
+}
@@ -56,6 +56,24 @@ public class DataReader {
         dataType_.readValues( buf, offset, nelPerItem_, valueArray, nItem_ );
     }
 
+    /**
+     * Reads the values of a number of records stored contiguously
+     * in a data buffer into an array, end to end, in a single operation.
+     *
+     * @param  buf  data buffer
+     * @param  offset  byte offset into buf of first record's data start
+     * @param  nrec  number of records
+     * @param  valueArray  array with room for <code>nrec</code> times
+     *                     the elements of a value array, into which
+     *                     results will be read starting at index zero
+     */
+    public void readValues( Buf buf, long offset, int nrec,
+                            Object valueArray )
+            throws IOException {
+        dataType_.readValues( buf, offset, nelPerItem_, valueArray,
+                              nItem_ * nrec );
+    }
+
     /**
      * Returns the size in bytes of one record as stored in the data buffer.
      *
@@ -2,6 +2,9 @@ package uk.ac.bristol.star.cdf;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import uk.ac.bristol.star.cdf.record.Buf;
 import uk.ac.bristol.star.cdf.record.Pointer;
 
@@ -39,6 +42,22 @@ public abstract class DataType {
     public static final DataType TIME_TT2000 =
                                      new Tt2kDataType( "TIME_TT2000", -1 );
     public static final DataType UCHAR = new CharDataType( "UCHAR" );
+
+    /** UINT1 read into a same-width (byte) array; see {@link #isUnsigned}. */
+    public static final DataType UINT1_COMPACT =
+        new CompactUInt1DataType( "UINT1" );
+
+    /** UINT2 read into a same-width (short) array; see {@link #isUnsigned}. */
+    public static final DataType UINT2_COMPACT =
+        new CompactUInt2DataType( "UINT2" );
+
+    /** UINT4 read into a same-width (int) array; see {@link #isUnsigned}. */
+    public static final DataType UINT4_COMPACT =
+        new CompactUInt4DataType( "UINT4" );
+
+    private static final DataType CHAR_BYTES = new ByteCharDataType( "CHAR" );
+    private static final DataType UCHAR_BYTES =
+        new ByteCharDataType( "UCHAR" );
     
     /**
      * Constructor.
@@ -201,6 +220,64 @@ public abstract class DataType {
      */
     public abstract Object getScalar( Object valueArray, int arrayIndex );
 
+    /**
+     * Returns an object which can read items of this type from a value
+     * array as primitive double values, without creating wrapper objects.
+     * This is available for numeric types whose items are single
+     * array elements; for other types (CHAR, EPOCH16) null is returned.
+     *
+     * @return  double reader, or null
+     */
+    public DoubleReader getDoubleReader() {
+        return null;
+    }
+
+    /**
+     * Returns an object which can read items of this type from a value
+     * array as primitive long values, without creating wrapper objects.
+     * This is available for integer types (including TIME_TT2000);
+     * for other types null is returned.
+     *
+     * @return  long reader, or null
+     */
+    public LongReader getLongReader() {
+        return null;
+    }
+
+    /**
+     * Indicates whether the elements of value arrays for this type
+     * are to be interpreted as unsigned integers.
+     * This is true only for the compact unsigned types
+     * (see {@link ReadOptions#setCompactUnsigned}), whose value arrays
+     * have the same width as the stored data, so that for instance
+     * a UINT1 value of 255 is stored in a byte array element as -1.
+     * The DoubleReader and LongReader for such types,
+     * as well as the <code>getScalar</code> and formatting methods,
+     * take care of this.
+     * The standard unsigned types are widened on read,
+     * so their array elements have the correct values and this
+     * method returns false.
+     *
+     * @return  true iff array elements hold unsigned values
+     */
+    public boolean isUnsigned() {
+        return false;
+    }
+
+    /**
+     * Indicates whether this is the TIME_TT2000 data type.
+     * Variables read from a file may have their own TIME_TT2000
+     * instances, qualified by the file's last known leap second
+     * (see {@link #getDataType(int,CdfInfo)}),
+     * so this method should be used in preference to an identity
+     * comparison with {@link #TIME_TT2000}.
+     *
+     * @return  true iff this type is TIME_TT2000
+     */
+    public boolean isTt2000() {
+        return false;
+    }
+
     /**
      * Provides a string view of a scalar value obtained for this data type.
      *
@@ -238,7 +315,11 @@ public abstract class DataType {
      *
      * <p>Currently, this returns the same as <code>getDataType(int)</code>,
      * except for TIME_TT2000 columns, in which case the last known leap
-     * second may be taken into account.
+     * second may be taken into account, and for unsigned integer and
+     * character types if the corresponding read options are in effect.
+     * For the {@link ReadOptions.CharMode#DICTIONARY DICTIONARY}
+     * character mode, a new instance with its own dictionary
+     * is returned from each call.
      *
      * @param  dataType  dataType field of AEDR or VDR
      * @param  cdfInfo   specifics of CDF file
@@ -247,10 +328,33 @@ public abstract class DataType {
     public static DataType getDataType( int dataType, CdfInfo cdfInfo )
             throws CdfFormatException {
         DataType type = getDataType( dataType );
-        return type == TIME_TT2000
-             ? new Tt2kDataType( type.getName(),
-                                 cdfInfo.getLeapSecondLastUpdated() )
-             : type;
+        if ( type == TIME_TT2000 ) {
+            return new Tt2kDataType( type.getName(),
+                                     cdfInfo.getLeapSecondLastUpdated() );
+        }
+        else if ( type == CHAR || type == UCHAR ) {
+            switch ( cdfInfo.getCharMode() ) {
+                case BYTES:
+                    return type == CHAR ? CHAR_BYTES : UCHAR_BYTES;
+                case DICTIONARY:
+                    return new CharDataType( type.getName(),
+                                             new StringDictionary() );
+                default:
+                    return type;
+            }
+        }
+        else if ( cdfInfo.isCompactUnsigned() ) {
+            if ( type == UINT1 ) {
+                return UINT1_COMPACT;
+            }
+            else if ( type == UINT2 ) {
+                return UINT2_COMPACT;
+            }
+            else if ( type == UINT4 ) {
+                return UINT4_COMPACT;
+            }
+        }
+        return type;
     }
 
     /**
@@ -284,6 +388,118 @@ public abstract class DataType {
         }
     }
 
+    /** Reads double values from a byte[] value array. */
+    private static final DoubleReader BYTE_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((byte[]) array)[ index ];
+        }
+    };
+
+    /** Reads double values from a short[] value array. */
+    private static final DoubleReader SHORT_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((short[]) array)[ index ];
+        }
+    };
+
+    /** Reads double values from an int[] value array. */
+    private static final DoubleReader INT_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((int[]) array)[ index ];
+        }
+    };
+
+    /** Reads double values from a long[] value array. */
+    private static final DoubleReader LONG_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((long[]) array)[ index ];
+        }
+    };
+
+    /** Reads double values from a float[] value array. */
+    private static final DoubleReader FLOAT_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((float[]) array)[ index ];
+        }
+    };
+
+    /** Reads double values from a double[] value array. */
+    private static final DoubleReader DOUBLE_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((double[]) array)[ index ];
+        }
+    };
+
+    /** Reads unsigned double values from a byte[] value array. */
+    private static final DoubleReader UBYTE_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((byte[]) array)[ index ] & 0xff;
+        }
+    };
+
+    /** Reads unsigned double values from a short[] value array. */
+    private static final DoubleReader USHORT_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((short[]) array)[ index ] & 0xffff;
+        }
+    };
+
+    /** Reads unsigned double values from an int[] value array. */
+    private static final DoubleReader UINT_DOUBLES = new DoubleReader() {
+        public double getDouble( Object array, int index ) {
+            return ((int[]) array)[ index ] & 0xffffffffL;
+        }
+    };
+
+    /** Reads long values from a byte[] value array. */
+    private static final LongReader BYTE_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((byte[]) array)[ index ];
+        }
+    };
+
+    /** Reads long values from a short[] value array. */
+    private static final LongReader SHORT_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((short[]) array)[ index ];
+        }
+    };
+
+    /** Reads long values from an int[] value array. */
+    private static final LongReader INT_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((int[]) array)[ index ];
+        }
+    };
+
+    /** Reads long values from a long[] value array. */
+    private static final LongReader LONG_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((long[]) array)[ index ];
+        }
+    };
+
+    /** Reads unsigned long values from a byte[] value array. */
+    private static final LongReader UBYTE_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((byte[]) array)[ index ] & 0xff;
+        }
+    };
+
+    /** Reads unsigned long values from a short[] value array. */
+    private static final LongReader USHORT_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((short[]) array)[ index ] & 0xffff;
+        }
+    };
+
+    /** Reads unsigned long values from an int[] value array. */
+    private static final LongReader UINT_LONGS = new LongReader() {
+        public long getLong( Object array, int index ) {
+            return ((int[]) array)[ index ] & 0xffffffffL;
+        }
+    };
+
     /**
      * DataType for signed 1-byte integer.
      */
@@ -296,7 +512,19 @@ public abstract class DataType {
             buf.readDataBytes( offset, n, (byte[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Byte( ((byte[]) array)[ index ] );
+            return Byte.valueOf( ((byte[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((byte[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return BYTE_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return BYTE_LONGS;
         }
     }
 
@@ -312,7 +540,19 @@ public abstract class DataType {
             buf.readDataShorts( offset, n, (short[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Short( ((short[]) array)[ index ] );
+            return Short.valueOf( ((short[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((short[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return SHORT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return SHORT_LONGS;
         }
     }
 
@@ -328,7 +568,19 @@ public abstract class DataType {
             buf.readDataInts( offset, n, (int[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Integer( ((int[]) array)[ index ] );
+            return Integer.valueOf( ((int[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((int[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return INT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return INT_LONGS;
         }
     }
 
@@ -344,7 +596,19 @@ public abstract class DataType {
             buf.readDataLongs( offset, n, (long[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Long( ((long[]) array)[ index ] );
+            return Long.valueOf( ((long[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((long[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return LONG_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return LONG_LONGS;
         }
     }
 
@@ -366,7 +630,19 @@ public abstract class DataType {
             }
         }
         public Object getScalar( Object array, int index ) {
-            return new Short( ((short[]) array)[ index ] );
+            return Short.valueOf( ((short[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((short[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return SHORT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return SHORT_LONGS;
         }
     }
 
@@ -392,7 +668,19 @@ public abstract class DataType {
             }
         }
         public Object getScalar( Object array, int index ) {
-            return new Integer( ((int[]) array)[ index ] );
+            return Integer.valueOf( ((int[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((int[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return INT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return INT_LONGS;
         }
     }
 
@@ -421,7 +709,119 @@ public abstract class DataType {
             }
         }
         public Object getScalar( Object array, int index ) {
-            return new Long( ((long[]) array )[ index ] );
+            return Long.valueOf( ((long[]) array )[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((long[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return LONG_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return LONG_LONGS;
+        }
+    }
+
+    /**
+     * DataType for unsigned 1-byte integer read into a byte array.
+     * Scalar values are 2-byte signed integers, as for UINT1.
+     */
+    private static class CompactUInt1DataType extends DataType {
+        CompactUInt1DataType( String name ) {
+            super( name, 1, 1, byte.class, Short.class );
+        }
+        public void readValues( Buf buf, long offset, int nelPerItem,
+                                Object array, int n ) throws IOException {
+            buf.readDataBytes( offset, n, (byte[]) array );
+        }
+        public Object getScalar( Object array, int index ) {
+            return Short.valueOf( (short)
+                                  ( ((byte[]) array)[ index ] & 0xff ) );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((byte[]) array)[ index ] & 0xff );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return UBYTE_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return UBYTE_LONGS;
+        }
+        @Override
+        public boolean isUnsigned() {
+            return true;
+        }
+    }
+
+    /**
+     * DataType for unsigned 2-byte integer read into a short array.
+     * Scalar values are 4-byte signed integers, as for UINT2.
+     */
+    private static class CompactUInt2DataType extends DataType {
+        CompactUInt2DataType( String name ) {
+            super( name, 2, 1, short.class, Integer.class );
+        }
+        public void readValues( Buf buf, long offset, int nelPerItem,
+                                Object array, int n ) throws IOException {
+            buf.readDataShorts( offset, n, (short[]) array );
+        }
+        public Object getScalar( Object array, int index ) {
+            return Integer.valueOf( ((short[]) array)[ index ] & 0xffff );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((short[]) array)[ index ] & 0xffff );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return USHORT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return USHORT_LONGS;
+        }
+        @Override
+        public boolean isUnsigned() {
+            return true;
+        }
+    }
+
+    /**
+     * DataType for unsigned 4-byte integer read into an int array.
+     * Scalar values are 8-byte signed integers, as for UINT4.
+     */
+    private static class CompactUInt4DataType extends DataType {
+        CompactUInt4DataType( String name ) {
+            super( name, 4, 1, int.class, Long.class );
+        }
+        public void readValues( Buf buf, long offset, int nelPerItem,
+                                Object array, int n ) throws IOException {
+            buf.readDataInts( offset, n, (int[]) array );
+        }
+        public Object getScalar( Object array, int index ) {
+            return Long.valueOf( ((int[]) array)[ index ] & 0xffffffffL );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((int[]) array)[ index ] & 0xffffffffL );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return UINT_DOUBLES;
+        }
+        @Override
+        public LongReader getLongReader() {
+            return UINT_LONGS;
+        }
+        @Override
+        public boolean isUnsigned() {
+            return true;
         }
     }
 
@@ -437,7 +837,15 @@ public abstract class DataType {
             buf.readDataFloats( offset, n, (float[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Float( ((float[]) array)[ index ] );
+            return Float.valueOf( ((float[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((float[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return FLOAT_DOUBLES;
         }
     }
 
@@ -453,7 +861,15 @@ public abstract class DataType {
             buf.readDataDoubles( offset, n, (double[]) array );
         }
         public Object getScalar( Object array, int index ) {
-            return new Double( ((double[]) array)[ index ] );
+            return Double.valueOf( ((double[]) array)[ index ] );
+        }
+        @Override
+        public String formatArrayValue( Object array, int index ) {
+            return String.valueOf( ((double[]) array)[ index ] );
+        }
+        @Override
+        public DoubleReader getDoubleReader() {
+            return DOUBLE_DOUBLES;
         }
     }
 
@@ -470,22 +886,20 @@ public abstract class DataType {
             formatter_ = new EpochFormatter( leapSecondLastUpdated );
         }
         @Override
+        public boolean isTt2000() {
+            return true;
+        }
+        @Override
         public Object getDefaultPadValueArray() {
             return dfltPad_;
         }
         @Override
         public String formatScalarValue( Object value ) {
-            synchronized ( formatter_ ) {
-                return formatter_
-                      .formatTimeTt2000( ((Long) value).longValue() );
-            }
+            return formatter_.formatTimeTt2000( ((Long) value).longValue() );
         }
         @Override
         public String formatArrayValue( Object array, int index ) {
-            synchronized ( formatter_ ) {
-                return formatter_
-                      .formatTimeTt2000( ((long[]) array)[ index ] );
-            }
+            return formatter_.formatTimeTt2000( ((long[]) array)[ index ] );
         }
         @Override
         public int hashCode() {
@@ -511,19 +925,42 @@ public abstract class DataType {
      * Output is as numElem-character String.
      */
     private static class CharDataType extends DataType {
+        private final StringDictionary dict_;
+
+        /**
+         * Constructs a type which creates a new String for each value.
+         *
+         * @param  name  type name
+         */
         CharDataType( String name ) {
+            this( name, null );
+        }
+
+        /**
+         * Constructs a type which may share String values.
+         *
+         * @param  name  type name
+         * @param  dict  dictionary of shared values, or null
+         */
+        CharDataType( String name, StringDictionary dict ) {
             super( name, 1, 1, String.class, String.class,
                    new String[] { null }, true );
+            dict_ = dict;
         }
         public void readValues( Buf buf, long offset, int nelPerItem,
                                 Object array, int n ) throws IOException {
             String[] sarray = (String[]) array;
             byte[] cbuf = new byte[ nelPerItem * n ];
             buf.readDataBytes( offset, nelPerItem * n, cbuf );
-            for ( int i = 0; i < n; i++ ) {
-                @SuppressWarnings("deprecation")
-                String s = new String( cbuf, i * nelPerItem, nelPerItem );
-                sarray[ i ] = s;
+            if ( dict_ == null ) {
+                for ( int i = 0; i < n; i++ ) {
+                    @SuppressWarnings("deprecation")
+                    String s = new String( cbuf, i * nelPerItem, nelPerItem );
+                    sarray[ i ] = s;
+                }
+            }
+            else {
+                dict_.getStrings( cbuf, nelPerItem, sarray, n );
             }
         }
         public Object getScalar( Object array, int index ) {
@@ -531,6 +968,145 @@ public abstract class DataType {
         }
     }
 
+    /**
+     * DataType for 1-byte character.
+     * Output is as numElem-character CharSlice,
+     * with all the values from one read sharing a byte array.
+     */
+    private static class ByteCharDataType extends DataType {
+        ByteCharDataType( String name ) {
+            super( name, 1, 1, CharSlice.class, CharSlice.class,
+                   new CharSlice[] { null }, true );
+        }
+        public void readValues( Buf buf, long offset, int nelPerItem,
+                                Object array, int n ) throws IOException {
+            CharSlice[] carray = (CharSlice[]) array;
+            byte[] cbuf = new byte[ nelPerItem * n ];
+            buf.readDataBytes( offset, nelPerItem * n, cbuf );
+            for ( int i = 0; i < n; i++ ) {
+                carray[ i ] =
+                    new CharSlice( cbuf, i * nelPerItem, nelPerItem );
+            }
+        }
+        public Object getScalar( Object array, int index ) {
+            return ((CharSlice[]) array)[ index ];
+        }
+    }
+
+    /**
+     * Turns byte runs into Strings, using the same String instance for
+     * each occurrence of the same bytes.
+     * The number of distinct values retained is bounded;
+     * once it is reached, new values are not shared.
+     * Instances are thread-safe.
+     */
+    private static class StringDictionary {
+        private static final int MAX_SIZE = 4096;
+        private byte[][] keys_ = new byte[ 64 ][];
+        private String[] values_ = new String[ 64 ];
+        private int count_;
+        private final Lock lock_ = new ReentrantLock();
+
+        /**
+         * Populates an array with String values for fixed-length
+         * runs of bytes.
+         *
+         * @param  cbuf  buffer containing n*nel bytes
+         * @param  nel   number of bytes per value
+         * @param  sarray  array to receive n strings
+         * @param  n    number of values
+         */
+        void getStrings( byte[] cbuf, int nel, String[] sarray, int n ) {
+            lock_.lock();
+            try {
+                for ( int i = 0; i < n; i++ ) {
+                    sarray[ i ] = getString( cbuf, i * nel, nel );
+                }
+            }
+            finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Returns the String for a run of bytes.
+         * Must be called while holding the lock.
+         *
+         * @param  cbuf  byte buffer
+         * @param  off   offset of first byte
+         * @param  nel   number of bytes
+         * @return  string value
+         */
+        private String getString( byte[] cbuf, int off, int nel ) {
+            int mask = keys_.length - 1;
+            for ( int ik = CharSlice.hash( cbuf, off, nel ) & mask; ;
+                  ik = ( ik + 1 ) & mask ) {
+                byte[] key = keys_[ ik ];
+                if ( key == null ) {
+                    @SuppressWarnings("deprecation")
+                    String s = new String( cbuf, off, nel );
+                    if ( count_ < MAX_SIZE ) {
+                        keys_[ ik ] = Arrays.copyOfRange( cbuf, off,
+                                                          off + nel );
+                        values_[ ik ] = s;
+                        if ( ++count_ * 2 > keys_.length ) {
+                            rehash();
+                        }
+                    }
+                    return s;
+                }
+                else if ( matches( key, cbuf, off, nel ) ) {
+                    return values_[ ik ];
+                }
+            }
+        }
+
+        /**
+         * Doubles the size of the hash table.
+         */
+        private void rehash() {
+            byte[][] oldKeys = keys_;
+            String[] oldValues = values_;
+            int size = oldKeys.length * 2;
+            int mask = size - 1;
+            keys_ = new byte[ size ][];
+            values_ = new String[ size ];
+            for ( int io = 0; io < oldKeys.length; io++ ) {
+                byte[] key = oldKeys[ io ];
+                if ( key != null ) {
+                    int ik = CharSlice.hash( key, 0, key.length ) & mask;
+                    while ( keys_[ ik ] != null ) {
+                        ik = ( ik + 1 ) & mask;
+                    }
+                    keys_[ ik ] = key;
+                    values_[ ik ] = oldValues[ io ];
+                }
+            }
+        }
+
+        /**
+         * Tests whether a key matches a run of bytes.
+         *
+         * @param  key  key bytes
+         * @param  cbuf  byte buffer
+         * @param  off   offset of first byte
+         * @param  nel   number of bytes
+         * @return  true iff the key has the same content as the run
+         */
+        private static boolean matches( byte[] key, byte[] cbuf,
+                                        int off, int nel ) {
+            if ( key.length != nel ) {
+                return false;
+            }
+            for ( int i = 0; i < nel; i++ ) {
+                if ( key[ i ] != cbuf[ off + i ] ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     /**
      * DataType for 8-byte floating point epoch.
      */
@@ -541,15 +1117,11 @@ public abstract class DataType {
         }
         @Override
         public String formatScalarValue( Object value ) {
-            synchronized ( formatter_ ) {
-                return formatter_.formatEpoch( ((Double) value).doubleValue() );
-            }
+            return formatter_.formatEpoch( ((Double) value).doubleValue() );
         }
         @Override
         public String formatArrayValue( Object array, int index ) {
-            synchronized ( formatter_ ) {
-                return formatter_.formatEpoch( ((double[]) array)[ index ] );
-            }
+            return formatter_.formatEpoch( ((double[]) array)[ index ] );
         }
     }
 
@@ -573,17 +1145,13 @@ public abstract class DataType {
         @Override
         public String formatScalarValue( Object value ) {
             double[] v2 = (double[]) value;
-            synchronized ( formatter_ ) {
-                return formatter_.formatEpoch16( v2[ 0 ], v2[ 1 ] );
-            }
+            return formatter_.formatEpoch16( v2[ 0 ], v2[ 1 ] );
         }
         @Override
         public String formatArrayValue( Object array, int index ) {
             double[] darray = (double[]) array;
-            synchronized ( formatter_ ) {
-                return formatter_.formatEpoch16( darray[ index ],
-                                                 darray[ index + 1 ] );
-            }
+            return formatter_.formatEpoch16( darray[ index ],
+                                             darray[ index + 1 ] );
         }
     }
 }
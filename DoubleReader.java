@@ -0,0 +1,25 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * Reads numeric values from a value array as primitive doubles,
+ * without the overhead of creating wrapper objects.
+ * Instances are obtained from {@link DataType#getDoubleReader}.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public interface DoubleReader {
+
+    /**
+     * Returns the value at a given position in a value array as a double.
+     *
+     * <p>The <code>arrayIndex</code> argument is the index into the
+     * array object, not necessarily the item index -
+     * see the {@link DataType#getArrayIndex DataType.getArrayIndex} method.
+     *
+     * @param   valueArray  array filled with data for the relevant data type
+     * @param   arrayIndex  index into array at which the item is found
+     * @return  numeric value
+     */
+    double getDouble( Object valueArray, int arrayIndex );
+}
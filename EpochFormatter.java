@@ -12,7 +12,19 @@ import java.util.logging.Logger;
 
 /**
  * Does string formatting of epoch values in various representations.
- * The methods of this object are not in general thread-safe.
+ *
+ * <p>As well as methods returning Strings, there are methods which
+ * write the formatted characters into a supplied <code>char[]</code>,
+ * <code>byte[]</code> (ASCII) or <code>StringBuilder</code>;
+ * these do not allocate any objects in the usual case.
+ * Dates are calculated arithmetically in the proleptic Gregorian calendar,
+ * and leap seconds are written as second 60.
+ * Dates outside the range 1582-10-15 to 9999-12-31, which can only
+ * occur for EPOCH and EPOCH16 values, are formatted using a
+ * <code>java.text.DateFormat</code> as before, so use the Julian
+ * calendar in early years.
+ *
+ * <p>The methods of this object are thread-safe.
  *
  * @author   Mark Taylor
  * @since    21 Jun 2013
@@ -24,11 +36,27 @@ public class EpochFormatter {
     private final DateFormat epochSecFormat_ =
         createDateFormat( "yyyy-MM-dd'T'HH:mm:ss" );
     private final int iMaxValidTtScaler_;
+
+    // Racy hint only; any value gives a correct scaler lookup.
     private int iLastTtScaler_ = -1;
 
     private static final TimeZone UTC = TimeZone.getTimeZone( "UTC" );
     private static final long HALF_DAY = 1000 * 60 * 60 * 12;
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long GREGORIAN_START_UNIX_MILLIS = -12219292800000L;
+    private static final long YEAR10K_UNIX_MILLIS = 253402300800000L;
     private static final TtScaler[] TT_SCALERS = TtScaler.getTtScalers();
+    private static final char[] TT2000_PAD_CHARS =
+        "9999-12-31T23:59:59.999999999".toCharArray();
+    private static final char[] TT2000_PAD1_CHARS =
+        "0000-01-01T00:00:00.000000000".toCharArray();
+    private static final char[] BAD_CHARS = "??".toCharArray();
+    private static final ThreadLocal<char[]> scratch_ =
+            new ThreadLocal<char[]>() {
+        protected char[] initialValue() {
+            return new char[ MAX_LENGTH ];
+        }
+    };
     private static final long LAST_KNOWN_LEAP_UNIX_MILLIS =
         getLastKnownLeapUnixMillis( TT_SCALERS );
     private static final Logger logger_ =
@@ -44,6 +72,13 @@ public class EpochFormatter {
     /** 0 A.D. in Unix milliseconds as used by EPOCH/EPOCH16 data types. */
     public static final long AD0_UNIX_MILLIS = getAd0UnixMillis();
 
+    /**
+     * Maximum number of characters written by any of the formatting methods.
+     * Usual lengths are 23 for EPOCH, 32 for EPOCH16
+     * and 29 for TIME_TT2000.
+     */
+    public static final int MAX_LENGTH = 40;
+
     /**
      * Constructs a formatter without leap second awareness.
      */
@@ -102,9 +137,56 @@ public class EpochFormatter {
      * @return   date string
      */
     public String formatEpoch( double epoch ) {
+        char[] buf = scratch_.get();
+        return new String( buf, 0, formatEpoch( epoch, buf, 0 ) );
+    }
+
+    /**
+     * Formats a CDF EPOCH value as an ISO-8601 date into a char array.
+     *
+     * @param  epoch  EPOCH value
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
+     */
+    public int formatEpoch( double epoch, char[] buf, int off ) {
         long unixMillis = (long) ( epoch + AD0_UNIX_MILLIS );
-        Date date = new Date( unixMillis );
-        return epochMilliFormat_.format( date );
+        if ( isFastDate( unixMillis ) ) {
+            return writeDateTime( unixMillis, false, true, buf, off );
+        }
+        else {
+            Date date = new Date( unixMillis );
+            synchronized ( epochMilliFormat_ ) {
+                return writeString( epochMilliFormat_.format( date ),
+                                    buf, off );
+            }
+        }
+    }
+
+    /**
+     * Formats a CDF EPOCH value as an ISO-8601 date into a byte array
+     * as ASCII characters.
+     *
+     * @param  epoch  EPOCH value
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of bytes written
+     */
+    public int formatEpoch( double epoch, byte[] buf, int off ) {
+        char[] cbuf = scratch_.get();
+        return copyAscii( cbuf, formatEpoch( epoch, cbuf, 0 ), buf, off );
+    }
+
+    /**
+     * Formats a CDF EPOCH value as an ISO-8601 date,
+     * appending it to a StringBuilder.
+     *
+     * @param  epoch  EPOCH value
+     * @param  sbuf   destination buffer
+     */
+    public void formatEpoch( double epoch, StringBuilder sbuf ) {
+        char[] cbuf = scratch_.get();
+        sbuf.append( cbuf, 0, formatEpoch( epoch, cbuf, 0 ) );
     }
 
     /**
@@ -115,19 +197,70 @@ public class EpochFormatter {
      * @return  date string
      */
     public String formatEpoch16( double epoch1, double epoch2 ) {
+        char[] buf = scratch_.get();
+        return new String( buf, 0, formatEpoch16( epoch1, epoch2, buf, 0 ) );
+    }
+
+    /**
+     * Formats a CDF EPOCH16 value as an ISO-8601 date into a char array.
+     *
+     * @param   epoch1  first element of EPOCH16 pair (seconds since 0AD)
+     * @param   epoch2  second element of EPOCH16 pair (additional picoseconds)
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
+     */
+    public int formatEpoch16( double epoch1, double epoch2,
+                              char[] buf, int off ) {
         long unixMillis = (long) ( epoch1 * 1000 ) + AD0_UNIX_MILLIS;
-        Date date = new Date( unixMillis );
         long plusPicos = (long) epoch2;
         if ( plusPicos < 0 || plusPicos >= 1e12 ) {
-            return "??";
+            return writeChars( BAD_CHARS, buf, off );
+        }
+        int n;
+        if ( isFastDate( unixMillis ) ) {
+            n = writeDateTime( unixMillis, false, false, buf, off );
         }
-        String result = new StringBuffer( 32 )
-            .append( epochSecFormat_.format( date ) )
-            .append( '.' )
-            .append( prePadWithZeros( plusPicos, 12 ) )
-            .toString();
-        assert result.length() == 32;
-        return result;
+        else {
+            Date date = new Date( unixMillis );
+            synchronized ( epochSecFormat_ ) {
+                n = writeString( epochSecFormat_.format( date ), buf, off );
+            }
+        }
+        buf[ off + n++ ] = '.';
+        n += writeDigits( plusPicos, 12, buf, off + n );
+        return n;
+    }
+
+    /**
+     * Formats a CDF EPOCH16 value as an ISO-8601 date into a byte array
+     * as ASCII characters.
+     *
+     * @param   epoch1  first element of EPOCH16 pair (seconds since 0AD)
+     * @param   epoch2  second element of EPOCH16 pair (additional picoseconds)
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of bytes written
+     */
+    public int formatEpoch16( double epoch1, double epoch2,
+                              byte[] buf, int off ) {
+        char[] cbuf = scratch_.get();
+        return copyAscii( cbuf, formatEpoch16( epoch1, epoch2, cbuf, 0 ),
+                          buf, off );
+    }
+
+    /**
+     * Formats a CDF EPOCH16 value as an ISO-8601 date,
+     * appending it to a StringBuilder.
+     *
+     * @param   epoch1  first element of EPOCH16 pair (seconds since 0AD)
+     * @param   epoch2  second element of EPOCH16 pair (additional picoseconds)
+     * @param  sbuf   destination buffer
+     */
+    public void formatEpoch16( double epoch1, double epoch2,
+                               StringBuilder sbuf ) {
+        char[] cbuf = scratch_.get();
+        sbuf.append( cbuf, 0, formatEpoch16( epoch1, epoch2, cbuf, 0 ) );
     }
 
     /**
@@ -137,17 +270,30 @@ public class EpochFormatter {
      * @return  date string
      */
     public String formatTimeTt2000( long timeTt2k ) {
+        char[] buf = scratch_.get();
+        return new String( buf, 0, formatTimeTt2000( timeTt2k, buf, 0 ) );
+    }
+
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date into a char array.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
+     */
+    public int formatTimeTt2000( long timeTt2k, char[] buf, int off ) {
 
         // Special case - see "Variable Pad Values" section
         // (sec 2.3.20 at v3.4, and footnote) of CDF Users Guide.
         if ( timeTt2k == Long.MIN_VALUE ) {
-            return "9999-12-31T23:59:59.999999999";
+            return writeChars( TT2000_PAD_CHARS, buf, off );
         }
 
         // Second special case - not sure if this is documented, but
         // advised by Michael Liu in email to MBT 12 Aug 2013.
         else if ( timeTt2k == Long.MIN_VALUE + 1 ) {
-            return "0000-01-01T00:00:00.000000000";
+            return writeChars( TT2000_PAD1_CHARS, buf, off );
         }
 
         // Split the raw long value into a millisecond base and
@@ -184,27 +330,44 @@ public class EpochFormatter {
         long unixMillis = (long) scaler.tt2kToUnixMillis( tt2kMillis );
         int leapMillis = scaler.millisIntoLeapSecond( tt2kMillis );
 
-        // Format the unix time as an ISO-8601 date.
-        // In most (99.999998%) cases this is straightforward.
-        final String txt;
-        if ( leapMillis < 0 ) {
-            Date date = new Date( unixMillis );
-            txt = epochMilliFormat_.format( date );
+        // If we fall during a leap second, format the previous second
+        // and write its seconds field as 60 rather than 59.
+        boolean isLeap = leapMillis >= 0;
+        if ( isLeap ) {
+            unixMillis -= 1000;
         }
+        int n = writeDateTime( unixMillis, isLeap, true, buf, off );
 
-        // However if we happen to fall during a leap second, we have to
-        // do some special (and not particularly elegant) handling to
-        // produce the right string, since the java DateFormat
-        // implementation can't(?) be persuaded to cope with 61 seconds
-        // in a minute.
-        else {
-            Date date = new Date( unixMillis - 1000 );
-            txt = epochMilliFormat_.format( date )
-                 .replaceFirst( ":59\\.", ":60." );
-        }
+        // Append the nanoseconds part.
+        n += writeDigits( plusNanos, 6, buf, off + n );
+        return n;
+    }
 
-        // Append the nanoseconds part and return.
-        return txt + prePadWithZeros( plusNanos, 6 );
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date into a byte array
+     * as ASCII characters.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of bytes written
+     */
+    public int formatTimeTt2000( long timeTt2k, byte[] buf, int off ) {
+        char[] cbuf = scratch_.get();
+        return copyAscii( cbuf, formatTimeTt2000( timeTt2k, cbuf, 0 ),
+                          buf, off );
+    }
+
+    /**
+     * Formats a CDF TIME_TT2000 value as an ISO-8601 date,
+     * appending it to a StringBuilder.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @param  sbuf   destination buffer
+     */
+    public void formatTimeTt2000( long timeTt2k, StringBuilder sbuf ) {
+        char[] cbuf = scratch_.get();
+        sbuf.append( cbuf, 0, formatTimeTt2000( timeTt2k, cbuf, 0 ) );
     }
 
     /**
@@ -260,31 +423,142 @@ public class EpochFormatter {
     }
 
     /**
-     * Pads a numeric value with zeros to return a fixed length string
-     * representing a given numeric value.
+     * Indicates whether a given time can be formatted by
+     * {@link #writeDateTime}.
+     *
+     * @param  unixMillis  milliseconds since the Unix epoch
+     * @return  true iff date is in the range 1582-10-15 to 9999-12-31
+     */
+    private static boolean isFastDate( long unixMillis ) {
+        return unixMillis >= GREGORIAN_START_UNIX_MILLIS
+            && unixMillis < YEAR10K_UNIX_MILLIS;
+    }
+
+    /**
+     * Writes an ISO-8601 date and time of the form
+     * <code>yyyy-MM-ddTHH:mm:ss</code>, optionally followed by
+     * <code>.SSS</code>, into a char array.
+     * The date is calculated in the proleptic Gregorian calendar.
      *
-     * @param  value  number
-     * @param  leng   number of characters in result
-     * @return   leng-character string containing value
-     *           padded at start with zeros
+     * @param  unixMillis  milliseconds since the Unix epoch;
+     *                     must satisfy {@link #isFastDate}
+     * @param  isLeap   if true, a seconds field of 59 is written as 60
+     * @param  withMillis  whether to write the milliseconds field
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
      */
-    private static String prePadWithZeros( long value, int leng ) {
-        String txt = Long.toString( value );
-        int nz = leng - txt.length();
-        if ( nz == 0 ) {
-            return txt;
+    private static int writeDateTime( long unixMillis, boolean isLeap,
+                                      boolean withMillis,
+                                      char[] buf, int off ) {
+        long days = unixMillis / DAY_MILLIS;
+        int dayMillis = (int) ( unixMillis % DAY_MILLIS );
+        if ( dayMillis < 0 ) {
+            days--;
+            dayMillis += DAY_MILLIS;
         }
-        else if ( nz < 0 ) {
-            throw new IllegalArgumentException();
+
+        // Civil date from day number; see H. Hinnant,
+        // "chrono-Compatible Low-Level Date Algorithms".
+        // Dates here are all later than 0000-03-01, so z is positive.
+        long z = days + 719468;
+        long era = z / 146097;
+        int doe = (int) ( z - era * 146097 );
+        int yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;
+        int doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );
+        int mp = ( 5 * doy + 2 ) / 153;
+        int day = doy - ( 153 * mp + 2 ) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) ( yoe + era * 400 ) + ( month <= 2 ? 1 : 0 );
+
+        int msec = dayMillis % 1000;
+        int sec = ( dayMillis / 1000 ) % 60;
+        if ( isLeap && sec == 59 ) {
+            sec = 60;
         }
-        else {
-            StringBuffer sbuf = new StringBuffer( leng );
-            for ( int i = 0; i < nz; i++ ) {
-                sbuf.append( '0' );
-            }
-            sbuf.append( txt );
-            return sbuf.toString();
+        int min = ( dayMillis / 60000 ) % 60;
+        int hour = dayMillis / 3600000;
+
+        int i = off;
+        i += writeDigits( year, 4, buf, i );
+        buf[ i++ ] = '-';
+        i += writeDigits( month, 2, buf, i );
+        buf[ i++ ] = '-';
+        i += writeDigits( day, 2, buf, i );
+        buf[ i++ ] = 'T';
+        i += writeDigits( hour, 2, buf, i );
+        buf[ i++ ] = ':';
+        i += writeDigits( min, 2, buf, i );
+        buf[ i++ ] = ':';
+        i += writeDigits( sec, 2, buf, i );
+        if ( withMillis ) {
+            buf[ i++ ] = '.';
+            i += writeDigits( msec, 3, buf, i );
+        }
+        return i - off;
+    }
+
+    /**
+     * Writes a non-negative integer as a fixed number of decimal digits,
+     * padded at the start with zeros, into a char array.
+     *
+     * @param  value  value, less than 10^leng
+     * @param  leng   number of characters to write
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return  leng
+     */
+    private static int writeDigits( long value, int leng,
+                                    char[] buf, int off ) {
+        for ( int i = off + leng - 1; i >= off; i-- ) {
+            buf[ i ] = (char) ( '0' + (int) ( value % 10 ) );
+            value /= 10;
+        }
+        return leng;
+    }
+
+    /**
+     * Copies a char array into a destination char array.
+     *
+     * @param  chars  source characters
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
+     */
+    private static int writeChars( char[] chars, char[] buf, int off ) {
+        System.arraycopy( chars, 0, buf, off, chars.length );
+        return chars.length;
+    }
+
+    /**
+     * Copies a string into a char array.
+     *
+     * @param  txt  string
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return   number of characters written
+     */
+    private static int writeString( String txt, char[] buf, int off ) {
+        int leng = txt.length();
+        txt.getChars( 0, leng, buf, off );
+        return leng;
+    }
+
+    /**
+     * Copies ASCII characters from a char array into a byte array.
+     *
+     * @param  cbuf  source characters
+     * @param  leng  number of characters to copy
+     * @param  buf   destination buffer
+     * @param  off   offset into buf at which to start writing
+     * @return  leng
+     */
+    private static int copyAscii( char[] cbuf, int leng,
+                                  byte[] buf, int off ) {
+        for ( int i = 0; i < leng; i++ ) {
+            buf[ off + i ] = (byte) cbuf[ i ];
         }
+        return leng;
     }
 
     /**
@@ -0,0 +1,482 @@
+package uk.ac.bristol.star.cdf;
+
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses ISO-8601 date strings to epoch values in the various
+ * CDF time representations.  This is the inverse of {@link EpochFormatter}.
+ *
+ * <p>Accepted strings have the form
+ * <code>yyyy-MM-dd[(T| )HH:mm[:ss[.f...]]][Z]</code>,
+ * optionally surrounded by whitespace.
+ * Any number of fractional second digits may be given;
+ * digits beyond the precision of the target type are ignored.
+ * Unparseable strings provoke an IllegalArgumentException.
+ *
+ * <p>TIME_TT2000 parsing is leap second aware: a seconds field of 60
+ * is accepted only during an actual leap second as given by
+ * {@link TtScaler#getTtScalers}.
+ * For dates since 1972, <code>parseTimeTt2000(formatTimeTt2000(t))==t</code>.
+ * EPOCH and EPOCH16 take no account of leap seconds,
+ * so a seconds field of 60 is just equivalent to the start of
+ * the following minute.
+ *
+ * <p>Dates are calculated in the proleptic Gregorian calendar,
+ * except that, as for EpochFormatter, dates before 1582-10-15 use
+ * the Julian calendar.
+ *
+ * <p>Parsing does not create any objects in the usual case.
+ * The methods of this object are thread-safe.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class EpochParser {
+
+    // Racy hint only; any value gives a correct scaler lookup.
+    private int iLastTtScaler_ = -1;
+
+    private static final TtScaler[] TT_SCALERS = TtScaler.getTtScalers();
+    private static final TimeZone UTC = TimeZone.getTimeZone( "UTC" );
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long GREGORIAN_START_UNIX_MILLIS = -12219292800000L;
+    private static final long MAX_TT2K_MILLIS = Long.MAX_VALUE / 1000000 - 1;
+    private static final long MIN_TT2K_MILLIS = Long.MIN_VALUE / 1000000 + 1;
+    private static final int NFIELD = 8;
+    private static final int F_YEAR = 0;
+    private static final int F_MONTH = 1;
+    private static final int F_DAY = 2;
+    private static final int F_HOUR = 3;
+    private static final int F_MIN = 4;
+    private static final int F_SEC = 5;
+    private static final int F_NANO = 6;
+    private static final int F_SUBNANO_PICO = 7;
+    private static final ThreadLocal<int[]> fields_ =
+            new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[ NFIELD ];
+        }
+    };
+
+    /**
+     * Constructor.
+     */
+    public EpochParser() {
+    }
+
+    /**
+     * Parses an ISO-8601 date as a CDF TIME_TT2000 value.
+     * The strings written by {@link EpochFormatter#formatTimeTt2000}
+     * for the fill and pad values are parsed as those values.
+     *
+     * @param  txt  ISO-8601 date string
+     * @return   TIME_TT2000 value
+     * @throws  IllegalArgumentException  if txt cannot be parsed,
+     *          or is out of range for TIME_TT2000
+     */
+    public long parseTimeTt2000( CharSequence txt ) {
+        int[] fields = fields_.get();
+        readFields( txt, fields );
+        return toTimeTt2000( fields, txt );
+    }
+
+    /**
+     * Parses an array of ISO-8601 dates as CDF TIME_TT2000 values.
+     * This is more efficient than parsing them one at a time,
+     * especially if they are sorted.
+     *
+     * @param  in   input array of ISO-8601 date strings
+     * @param  inOff  index of first element of in to parse
+     * @param  out  output array of TIME_TT2000 values
+     * @param  outOff  index of first element of out to write
+     * @param  n   number of values to parse
+     * @throws  IllegalArgumentException  if any string cannot be parsed
+     */
+    public void parseTimeTt2000( CharSequence[] in, int inOff,
+                                 long[] out, int outOff, int n ) {
+        int[] fields = fields_.get();
+        for ( int i = 0; i < n; i++ ) {
+            CharSequence txt = in[ inOff + i ];
+            readFields( txt, fields );
+            out[ outOff + i ] = toTimeTt2000( fields, txt );
+        }
+    }
+
+    /**
+     * Parses an ISO-8601 date as a CDF EPOCH value.
+     *
+     * @param  txt  ISO-8601 date string
+     * @return   EPOCH value (milliseconds since 0 AD)
+     * @throws  IllegalArgumentException  if txt cannot be parsed
+     */
+    public double parseEpoch( CharSequence txt ) {
+        int[] fields = fields_.get();
+        readFields( txt, fields );
+        return toEpoch( fields );
+    }
+
+    /**
+     * Parses an array of ISO-8601 dates as CDF EPOCH values.
+     *
+     * @param  in   input array of ISO-8601 date strings
+     * @param  inOff  index of first element of in to parse
+     * @param  out  output array of EPOCH values
+     * @param  outOff  index of first element of out to write
+     * @param  n   number of values to parse
+     * @throws  IllegalArgumentException  if any string cannot be parsed
+     */
+    public void parseEpoch( CharSequence[] in, int inOff,
+                            double[] out, int outOff, int n ) {
+        int[] fields = fields_.get();
+        for ( int i = 0; i < n; i++ ) {
+            readFields( in[ inOff + i ], fields );
+            out[ outOff + i ] = toEpoch( fields );
+        }
+    }
+
+    /**
+     * Parses an ISO-8601 date as a CDF EPOCH16 value.
+     * The result is written as two elements of a supplied array:
+     * seconds since 0 AD, and additional picoseconds.
+     *
+     * @param  txt  ISO-8601 date string
+     * @param  out  array into which to write the EPOCH16 pair
+     * @param  outOff  index of out at which to write the first element
+     * @throws  IllegalArgumentException  if txt cannot be parsed
+     */
+    public void parseEpoch16( CharSequence txt, double[] out, int outOff ) {
+        int[] fields = fields_.get();
+        readFields( txt, fields );
+        long unixSec = getUnixMillis( fields ) / 1000;
+        out[ outOff ] = unixSec - EpochFormatter.AD0_UNIX_MILLIS / 1000;
+        out[ outOff + 1 ] = fields[ F_NANO ] * 1000.0
+                          + fields[ F_SUBNANO_PICO ];
+    }
+
+    /**
+     * Converts parsed date fields to a TIME_TT2000 value.
+     *
+     * @param  fields  date fields
+     * @param  txt   original text, used for error messages
+     * @return  TIME_TT2000 value
+     */
+    private long toTimeTt2000( int[] fields, CharSequence txt ) {
+        int year = fields[ F_YEAR ];
+        if ( year == 9999 &&
+             fields[ F_MONTH ] == 12 && fields[ F_DAY ] == 31 &&
+             fields[ F_HOUR ] == 23 && fields[ F_MIN ] == 59 &&
+             fields[ F_SEC ] == 59 && fields[ F_NANO ] == 999999999 ) {
+            return Long.MIN_VALUE;
+        }
+        if ( year == 0 &&
+             fields[ F_MONTH ] == 1 && fields[ F_DAY ] == 1 &&
+             fields[ F_HOUR ] == 0 && fields[ F_MIN ] == 0 &&
+             fields[ F_SEC ] == 0 && fields[ F_NANO ] == 0 ) {
+            return Long.MIN_VALUE + 1;
+        }
+
+        // A leap second is one TT second after the preceding second 59.
+        boolean isLeap = fields[ F_SEC ] == 60;
+        if ( isLeap ) {
+            fields[ F_SEC ] = 59;
+        }
+        long unixMillis = getUnixMillis( fields );
+        int nano = fields[ F_NANO ];
+        unixMillis += nano / 1000000;
+        long tt2kMillis = unixToTt2kMillis( unixMillis );
+        if ( isLeap ) {
+            tt2kMillis += 1000;
+            int is = getScalerIndex( tt2kMillis );
+            if ( TT_SCALERS[ is ].millisIntoLeapSecond( tt2kMillis ) < 0 ) {
+                throw new IllegalArgumentException( "Not a leap second: "
+                                                  + txt );
+            }
+        }
+        if ( tt2kMillis > MAX_TT2K_MILLIS || tt2kMillis < MIN_TT2K_MILLIS ) {
+            throw new IllegalArgumentException( "Out of TIME_TT2000 range: "
+                                              + txt );
+        }
+        return tt2kMillis * 1000000 + nano % 1000000;
+    }
+
+    /**
+     * Converts parsed date fields to an EPOCH value.
+     *
+     * @param  fields  date fields
+     * @return  EPOCH value
+     */
+    private static double toEpoch( int[] fields ) {
+        long unixMillis = getUnixMillis( fields );
+        return ( unixMillis - EpochFormatter.AD0_UNIX_MILLIS )
+             + fields[ F_NANO ] * 1e-6 + fields[ F_SUBNANO_PICO ] * 1e-9;
+    }
+
+    /**
+     * Converts a UTC time which is not during a leap second to
+     * TT milliseconds since J2000.
+     *
+     * @param  unixMillis  UTC milliseconds since the Unix epoch
+     * @return  TT milliseconds since J2000
+     */
+    private long unixToTt2kMillis( long unixMillis ) {
+
+        // Start with a guess good to a minute or so, and iterate until
+        // the scaler used for the conversion is the one valid for the
+        // result.  The TT range of a leap second maps to the same UTC
+        // times as the following second, so skip over leap scalers.
+        // This normally converges after one or two steps; it may not
+        // where the TT-UTC relation is discontinuous before 1972.
+        int is = getScalerIndex( unixMillis
+                               - (long) TtScaler.J2000_UNIXMILLIS );
+        long tt2kMillis = 0;
+        for ( int iter = 0; iter < 4; iter++ ) {
+            TtScaler scaler = TT_SCALERS[ is ];
+            double dTt = scaler.unixToTt2kMillis( unixMillis );
+            tt2kMillis = (long) Math.floor( dTt + 0.5 );
+
+            // Where TT-UTC drifts, nudge the result so that it converts
+            // back to the same millisecond as used by EpochFormatter.
+            if ( ! scaler.hasFixedOffset() ) {
+                tt2kMillis += unixMillis
+                            - (long) scaler.tt2kToUnixMillis( tt2kMillis );
+            }
+            int is1 = getScalerIndex( tt2kMillis );
+            if ( TT_SCALERS[ is1 ].millisIntoLeapSecond( tt2kMillis ) >= 0 ) {
+                is1++;
+            }
+            if ( is1 == is ) {
+                return tt2kMillis;
+            }
+            is = is1;
+        }
+        return tt2kMillis;
+    }
+
+    /**
+     * Returns the index into the TT_SCALERS array of the TtScaler
+     * instance that is valid for a given time.
+     *
+     * @param  tt2kMillis  TT time since J2000 in milliseconds
+     * @return  index into TT_SCALERS
+     */
+    private int getScalerIndex( long tt2kMillis ) {
+        int index = TtScaler
+                   .getScalerIndex( tt2kMillis, TT_SCALERS, iLastTtScaler_ );
+        iLastTtScaler_ = index;
+        return index;
+    }
+
+    /**
+     * Returns the Unix time in whole seconds corresponding to
+     * the date and time fields, ignoring fractional seconds.
+     *
+     * @param  fields  date fields
+     * @return  milliseconds since the Unix epoch, a multiple of 1000
+     */
+    private static long getUnixMillis( int[] fields ) {
+        int year = fields[ F_YEAR ];
+        int month = fields[ F_MONTH ];
+        int day = fields[ F_DAY ];
+        long timeMillis = fields[ F_HOUR ] * 3600000L
+                        + fields[ F_MIN ] * 60000L
+                        + fields[ F_SEC ] * 1000L;
+
+        // Days from civil date; see H. Hinnant,
+        // "chrono-Compatible Low-Level Date Algorithms".
+        int y = month <= 2 ? year - 1 : year;
+        int era = ( y >= 0 ? y : y - 399 ) / 400;
+        int yoe = y - era * 400;
+        int doy = ( 153 * ( month > 2 ? month - 3 : month + 9 ) + 2 ) / 5
+                + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097L + doe - 719468;
+        long unixMillis = days * DAY_MILLIS + timeMillis;
+
+        // Early dates are interpreted as Julian, as by java.util.Date.
+        if ( unixMillis < GREGORIAN_START_UNIX_MILLIS ) {
+            GregorianCalendar cal = new GregorianCalendar( UTC, Locale.UK );
+            cal.clear();
+            cal.set( year, month - 1, day, 0, 0, 0 );
+            unixMillis = cal.getTimeInMillis() + timeMillis;
+        }
+        return unixMillis;
+    }
+
+    /**
+     * Parses an ISO-8601 date string into an array of fields.
+     *
+     * @param  txt  date string
+     * @param  fields  NFIELD-element array to receive year, month, day,
+     *                 hour, minute, second, nanosecond and additional
+     *                 picosecond values
+     * @throws  IllegalArgumentException  if txt cannot be parsed
+     */
+    private static void readFields( CharSequence txt, int[] fields ) {
+        int leng = txt.length();
+        int end = leng;
+        while ( end > 0 && txt.charAt( end - 1 ) <= ' ' ) {
+            end--;
+        }
+        if ( end > 0 && txt.charAt( end - 1 ) == 'Z' ) {
+            end--;
+        }
+        int i = 0;
+        while ( i < end && txt.charAt( i ) <= ' ' ) {
+            i++;
+        }
+        for ( int j = 0; j < NFIELD; j++ ) {
+            fields[ j ] = 0;
+        }
+
+        // Date.
+        fields[ F_YEAR ] = readDigits( txt, i, 4, end );
+        i += 4;
+        i = readSeparator( txt, i, '-', end );
+        fields[ F_MONTH ] = readDigits( txt, i, 2, end );
+        i += 2;
+        i = readSeparator( txt, i, '-', end );
+        fields[ F_DAY ] = readDigits( txt, i, 2, end );
+        i += 2;
+
+        // Time.
+        if ( i < end ) {
+            char c = txt.charAt( i );
+            if ( c != 'T' && c != ' ' ) {
+                throw badDate( txt );
+            }
+            i++;
+            fields[ F_HOUR ] = readDigits( txt, i, 2, end );
+            i += 2;
+            i = readSeparator( txt, i, ':', end );
+            fields[ F_MIN ] = readDigits( txt, i, 2, end );
+            i += 2;
+            if ( i < end ) {
+                i = readSeparator( txt, i, ':', end );
+                fields[ F_SEC ] = readDigits( txt, i, 2, end );
+                i += 2;
+
+                // Fractional seconds; up to 12 digits are significant.
+                if ( i < end ) {
+                    i = readSeparator( txt, i, '.', end );
+                    if ( i >= end ) {
+                        throw badDate( txt );
+                    }
+                    int nano = 0;
+                    int pico = 0;
+                    int nd = end - i;
+                    for ( int id = 0; i < end; id++, i++ ) {
+                        int d = txt.charAt( i ) - '0';
+                        if ( d < 0 || d > 9 ) {
+                            throw badDate( txt );
+                        }
+                        if ( id < 9 ) {
+                            nano = nano * 10 + d;
+                        }
+                        else if ( id < 12 ) {
+                            pico = pico * 10 + d;
+                        }
+                    }
+                    for ( int id = nd; id < 9; id++ ) {
+                        nano *= 10;
+                    }
+                    for ( int id = Math.max( nd, 9 ); id < 12; id++ ) {
+                        pico *= 10;
+                    }
+                    fields[ F_NANO ] = nano;
+                    fields[ F_SUBNANO_PICO ] = pico;
+                }
+            }
+        }
+
+        // Validate.
+        int month = fields[ F_MONTH ];
+        int day = fields[ F_DAY ];
+        if ( month < 1 || month > 12 ||
+             day < 1 || day > getMonthDays( fields[ F_YEAR ], month ) ||
+             fields[ F_HOUR ] > 23 || fields[ F_MIN ] > 59 ||
+             fields[ F_SEC ] > 60 ) {
+            throw badDate( txt );
+        }
+    }
+
+    /**
+     * Reads a fixed number of decimal digits from a string.
+     *
+     * @param  txt  string
+     * @param  off  index of first digit
+     * @param  ndigit  number of digits
+     * @param  end   index after last usable character of txt
+     * @return  non-negative integer value
+     * @throws  IllegalArgumentException  if the digits are not present
+     */
+    private static int readDigits( CharSequence txt, int off, int ndigit,
+                                   int end ) {
+        if ( off + ndigit > end ) {
+            throw badDate( txt );
+        }
+        int value = 0;
+        for ( int i = off; i < off + ndigit; i++ ) {
+            int d = txt.charAt( i ) - '0';
+            if ( d < 0 || d > 9 ) {
+                throw badDate( txt );
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Checks that a given separator character is present in a string.
+     *
+     * @param  txt  string
+     * @param  off  index of separator
+     * @param  sep  required separator character
+     * @param  end   index after last usable character of txt
+     * @return  off + 1
+     * @throws  IllegalArgumentException  if the separator is not present
+     */
+    private static int readSeparator( CharSequence txt, int off, char sep,
+                                      int end ) {
+        if ( off >= end || txt.charAt( off ) != sep ) {
+            throw badDate( txt );
+        }
+        return off + 1;
+    }
+
+    /**
+     * Returns the number of days in a month.
+     *
+     * @param  year  year
+     * @param  month  month (1-based)
+     * @return  number of days in month
+     */
+    private static int getMonthDays( int year, int month ) {
+        switch ( month ) {
+            case 2:
+                boolean isLeapYear = year % 4 == 0
+                                  && ( year % 100 != 0 || year % 400 == 0 ||
+                                       year < 1583 );
+                return isLeapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns an exception indicating an unparseable date string.
+     *
+     * @param  txt  date string
+     * @return  new exception
+     */
+    private static IllegalArgumentException badDate( CharSequence txt ) {
+        return new IllegalArgumentException( "Bad ISO-8601 date \""
+                                           + txt + "\"" );
+    }
+}
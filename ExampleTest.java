@@ -1,17 +1,73 @@
 package uk.ac.bristol.star.cdf.test;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import uk.ac.bristol.star.cdf.AttributeEntry;
+import uk.ac.bristol.star.cdf.CdfCache;
 import uk.ac.bristol.star.cdf.CdfContent;
+import uk.ac.bristol.star.cdf.CdfDataset;
+import uk.ac.bristol.star.cdf.CdfFormatException;
 import uk.ac.bristol.star.cdf.CdfReader;
+import uk.ac.bristol.star.cdf.CharSlice;
+import uk.ac.bristol.star.cdf.DataType;
+import uk.ac.bristol.star.cdf.DoubleReader;
 import uk.ac.bristol.star.cdf.GlobalAttribute;
+import uk.ac.bristol.star.cdf.LongReader;
+import uk.ac.bristol.star.cdf.ReadOptions;
+import uk.ac.bristol.star.cdf.RecordBatch;
+import uk.ac.bristol.star.cdf.RecordDedupCache;
+import uk.ac.bristol.star.cdf.RecordPublisher;
+import uk.ac.bristol.star.cdf.RecordRuns;
+import uk.ac.bristol.star.cdf.RecordStreams;
+import uk.ac.bristol.star.cdf.Shaper;
+import uk.ac.bristol.star.cdf.UnixTimeConverter;
+import uk.ac.bristol.star.cdf.ValidityTester;
 import uk.ac.bristol.star.cdf.Variable;
 import uk.ac.bristol.star.cdf.VariableAttribute;
+import uk.ac.bristol.star.cdf.VariableStats;
+import uk.ac.bristol.star.cdf.ZoneMap;
 import uk.ac.bristol.star.cdf.EpochFormatter;
+import uk.ac.bristol.star.cdf.record.Buf;
+import uk.ac.bristol.star.cdf.record.RecordFactory;
+import uk.ac.bristol.star.cdf.record.RecordMap;
+import uk.ac.bristol.star.cdf.record.SimpleNioBuf;
+import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
+import uk.ac.bristol.star.cdf.util.CdfCatalog;
 
 /**
  * Tests the contents of three of the example files
@@ -75,6 +131,41 @@ public class ExampleTest {
         assert sideways[ 2 ] == 40;
         assert sideways[ 10 ] == 1;
         assert sideways[ 199 ] == 199;
+
+        int[] slab = new int[ 12 ];
+        vars[ 2 ].hyperRead( 0, 2, 2, new int[] { 1, 3 }, new int[] { 2, 3 },
+                             new int[] { 4, 5 }, true, slab );
+        assert Arrays.equals( slab,
+                              new int[] { 23, 28, 33, 103, 108, 113,
+                                          423, 428, 433, 503, 508, 513 } );
+        vars[ 2 ].hyperRead( 1, 1, 1, new int[] { 1, 3 }, new int[] { 2, 3 },
+                             new int[] { 4, 5 }, false, slab );
+        assert Arrays.equals( Arrays.copyOf( slab, 6 ),
+                              new int[] { 223, 303, 228, 308, 233, 313 } );
+
+        // Unit stride along the last dimension, which is contiguous
+        // in this row-major file, so elements are read in runs.
+        int[] runSlab = new int[ 16 ];
+        vars[ 2 ].hyperRead( 0, 2, 2, new int[] { 1, 3 }, new int[] { 2, 4 },
+                             new int[] { 4, 1 }, true, runSlab );
+        assert Arrays.equals( runSlab,
+                              new int[] { 23, 24, 25, 26, 103, 104, 105, 106,
+                                          423, 424, 425, 426,
+                                          503, 504, 505, 506 } );
+        vars[ 2 ].hyperRead( 1, 1, 1, new int[] { 1, 3 }, new int[] { 2, 4 },
+                             new int[] { 4, 1 }, false, runSlab );
+        assert Arrays.equals( Arrays.copyOf( runSlab, 8 ),
+                              new int[] { 223, 303, 224, 304,
+                                          225, 305, 226, 306 } );
+        vars[ 2 ].hyperRead( 2, 1, 1, new int[] { 0, 0 }, new int[] { 10, 20 },
+                             new int[] { 1, 1 }, false, sideways );
+        assert Arrays.equals( sideways,
+                              (int[]) readShapedRecord( vars[ 2 ], 2,
+                                                        false ) );
+
+        Object rec2 = readShapedRecord( vars[ 2 ], 2, true );
+        assert vars[ 2 ].getDoubleReader().getDouble( rec2, 5 ) == 405.0;
+        assert vars[ 2 ].getLongReader().getLong( rec2, 199 ) == 599L;
     }
 
     public void testExample2( File ex2file ) throws IOException {
@@ -149,6 +240,33 @@ public class ExampleTest {
                               new float[] { 21f, 19.5f, 18.4f, 22f } );
         assert Arrays.equals( (float[]) readShapedRecord( tempVar, 23, false ),
                               new float[] { 21f, 18.4f, 19.5f, 22f } );
+        assert tempVar.getDoubleReader()
+                      .getDouble( new float[] { 19.5f }, 0 ) == 19.5;
+        assert tempVar.getLongReader() == null;
+
+        ValidityTester tempTester =
+            ValidityTester.createTester( tempVar, vatts );
+        assert tempTester.hasLimits();
+        assert ! tempTester.isValid( new float[] { -999.9f }, 0 );
+        assert ! tempTester.isValid( new float[] { 50.5f }, 0 );
+        assert tempTester.isValid( new float[] { 20f }, 0 );
+        BitSet valid = new BitSet();
+        float[] temps = new float[ 26 * 4 ];
+        assert tempVar.readShapedRecords( 0, 26, true,
+                                          tempVar.createRawValueArray(),
+                                          temps, 0, tempTester, valid ) == 8;
+        assert valid.cardinality() == 24 * 4;
+        assert valid.nextClearBit( 0 ) == 24 * 4;
+        ValidityTester capTester =
+            new ValidityTester( DataType.REAL4, null, null,
+                                new AttributeEntry( DataType.REAL8,
+                                                    new double[] { 20.0 },
+                                                    1 ) );
+        assert tempVar.readShapedRecord( 0, true,
+                                         tempVar.createRawValueArray(),
+                                         temps, 4, capTester, valid ) == 2;
+        assert valid.get( 4 ) && valid.get( 6 );
+        assert ! valid.get( 5 ) && ! valid.get( 7 );
 
     }
 
@@ -270,10 +388,2087 @@ public class ExampleTest {
                                              readShapedRecord( ttVar, 3 ) ) );
     }
 
+    public void testRecordRuns( File testFile ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable[] vars = content.getVariables();
+
+        // Runs agree with hasRecord, and virtual runs fill with the
+        // same values as reading record by record.
+        for ( Variable var : vars ) {
+            RecordRuns runs = var.getRecordRuns();
+            int nrec = var.getRecordCount();
+            assert runs.getRecordCount() == nrec;
+            long nreal = 0;
+            for ( int irec = 0; irec < nrec; irec++ ) {
+                assert runs.isReal( irec ) == var.hasRecord( irec );
+                nreal += var.hasRecord( irec ) ? 1 : 0;
+            }
+            assert runs.getRealRecordCount() == nreal;
+            int[] vFirsts = runs.getVirtualFirsts();
+            int[] vLasts = runs.getVirtualLasts();
+            Object work = var.createRawValueArray();
+            for ( int iv = 0; iv < runs.getVirtualRunCount(); iv++ ) {
+                int n = vLasts[ iv ] - vFirsts[ iv ] + 1;
+                Object a1 = var.createShapedValueArray( n + 1 );
+                Object a2 = var.createShapedValueArray( n + 1 );
+                int off = var.getShapedRecordLength();
+                int first = vFirsts[ iv ];
+                var.fillVirtualRecords( first, n, true, work, a1, off );
+                var.readShapedRecords( first, n, true, work, a2, off );
+                assert Arrays.deepEquals( new Object[] { a1 },
+                                          new Object[] { a2 } );
+            }
+        }
+
+        Variable tempVar = vars[ 9 ];
+        assert "Temp".equals( tempVar.getName() );
+        RecordRuns tempRuns = tempVar.getRecordRuns();
+        assert Arrays.equals( new int[] { 0, 5, 10 },
+                              tempRuns.getRealFirsts() );
+        assert Arrays.equals( new int[] { 0, 5, 12 },
+                              tempRuns.getRealLasts() );
+        assert Arrays.equals( new int[] { 1, 6 },
+                              tempRuns.getVirtualFirsts() );
+        assert Arrays.equals( new int[] { 4, 9 },
+                              tempRuns.getVirtualLasts() );
+        try {
+            tempVar.fillVirtualRecords( 4, 2, true,
+                                        tempVar.createRawValueArray(),
+                                        tempVar.createShapedValueArray( 2 ),
+                                        0 );
+            assert false;
+        }
+        catch ( IllegalArgumentException e ) {
+        }
+
+        Variable fooVar = vars[ 7 ];
+        assert ! fooVar.getRecordVariance();
+        assert fooVar.getRecordRuns().getRealRunCount() == 0;
+        assert fooVar.getRecordRuns().getVirtualRunCount() == 1;
+    }
+
+    public void testDedupCache( File testFile ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable longVar = content.getVariables()[ 2 ];
+        assert "Longitude".equals( longVar.getName() );
+        int nrec = longVar.getRecordCount();
+        Object work = longVar.createRawValueArray();
+        Object[] plain = new Object[ nrec ];
+        for ( int irec = 0; irec < nrec; irec++ ) {
+            plain[ irec ] = longVar.readShapedRecord( irec, true, work );
+        }
+        assert longVar.getDedupCache() == null;
+        longVar.setDedupCacheSize( 100 );
+        RecordDedupCache cache = longVar.getDedupCache();
+        Object[] cached = new Object[ nrec ];
+        for ( int irec = 0; irec < nrec; irec++ ) {
+            cached[ irec ] = longVar.readShapedRecord( irec, true, work );
+        }
+        assert Arrays.deepEquals( plain, cached );
+        int ndistinct = cache.getSize();
+        assert ndistinct < nrec;
+        assert cache.getMissCount() == ndistinct;
+        assert cache.getHitCount() == nrec - ndistinct;
+        for ( int i = 0; i < nrec; i++ ) {
+            for ( int j = 0; j < nrec; j++ ) {
+                boolean same =
+                    Arrays.deepEquals( new Object[] { cached[ i ] },
+                                       new Object[] { cached[ j ] } );
+                assert same == ( cached[ i ] == cached[ j ] );
+            }
+        }
+        longVar.readShapedRecord( 0, true, work );
+        assert cache.getHitCount() == nrec - ndistinct + 1;
+        longVar.setDedupCacheSize( 0 );
+        assert longVar.getDedupCache() == null;
+
+        // Readers racing to shape the same content must still share
+        // a single instance.
+        final Variable var = longVar;
+        final int nthread = 8;
+        ExecutorService executor = Executors.newFixedThreadPool( nthread );
+        try {
+            for ( int iround = 0; iround < 20; iround++ ) {
+                longVar.setDedupCacheSize( 0 );
+                longVar.setDedupCacheSize( 100 );
+                final CountDownLatch startLatch = new CountDownLatch( 1 );
+                List<Future<Object[]>> futures =
+                    new ArrayList<Future<Object[]>>();
+                for ( int it = 0; it < nthread; it++ ) {
+                    futures.add( executor.submit( new Callable<Object[]>() {
+                        public Object[] call()
+                                throws IOException, InterruptedException {
+                            int n = var.getRecordCount();
+                            Object wk = var.createRawValueArray();
+                            Object[] recs = new Object[ n ];
+                            startLatch.await();
+                            for ( int irec = 0; irec < n; irec++ ) {
+                                recs[ irec ] =
+                                    var.readShapedRecord( irec, true, wk );
+                            }
+                            return recs;
+                        }
+                    } ) );
+                }
+                startLatch.countDown();
+                Object[] recs0 = futures.get( 0 ).get();
+                for ( Future<Object[]> future : futures ) {
+                    Object[] recs = future.get();
+                    for ( int irec = 0; irec < nrec; irec++ ) {
+                        assert recs[ irec ] ==
+                               recs0[ indexOfEqual( plain, irec ) ];
+                    }
+                }
+                assert longVar.getDedupCache().getSize() == ndistinct;
+            }
+        }
+        catch ( InterruptedException e ) {
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        }
+        finally {
+            executor.shutdown();
+        }
+        longVar.setDedupCacheSize( 0 );
+    }
+
+    /**
+     * Returns the index of the first element of an array whose content
+     * equals that of a given element.
+     *
+     * @param  values  array of array values
+     * @param  i  index of element to match
+     * @return  index of first element equal to values[i]
+     */
+    private static int indexOfEqual( Object[] values, int i ) {
+        for ( int j = 0; j < i; j++ ) {
+            if ( Arrays.deepEquals( new Object[] { values[ j ] },
+                                    new Object[] { values[ i ] } ) ) {
+                return j;
+            }
+        }
+        return i;
+    }
+
+    public void testCache( File ex1, File ex2, final File testFile )
+            throws IOException, InterruptedException {
+        final CdfCache cache = new CdfCache( 1, 60000 );
+        CdfCache.Handle h1 = cache.acquire( testFile );
+        CdfCache.Handle h2 = cache.acquire( testFile );
+        assert h1.getContent() == h2.getContent();
+        assert cache.getMissCount() == 1;
+        assert cache.getHitCount() == 1;
+        h1.close();
+        h1.close();
+        Variable longVar = h2.getContent().getVariables()[ 2 ];
+        Object work = longVar.createRawValueArray();
+        longVar.readRawRecord( 0, work );
+        h2.close();
+
+        // Least recently used unused files are evicted beyond max size,
+        // and closed.
+        CdfCache.Handle h3 = cache.acquire( ex1 );
+        CdfCache.Handle h4 = cache.acquire( ex2 );
+        h3.close();
+        h4.close();
+        assert cache.getSize() == 1;
+        try {
+            longVar.readRawRecord( 0, work );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+
+        // Concurrent acquisitions of the same file open it only once.
+        int nthread = 8;
+        final CdfCache.Handle[] handles = new CdfCache.Handle[ nthread ];
+        Thread[] threads = new Thread[ nthread ];
+        for ( int it = 0; it < nthread; it++ ) {
+            final int it0 = it;
+            threads[ it ] = new Thread() {
+                public void run() {
+                    try {
+                        handles[ it0 ] = cache.acquire( testFile );
+                    }
+                    catch ( IOException e ) {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+        }
+        long nmiss = cache.getMissCount();
+        runAll( threads );
+        assert cache.getMissCount() == nmiss + 1;
+        CdfContent content0 = handles[ 0 ].getContent();
+        for ( CdfCache.Handle handle : handles ) {
+            assert handle.getContent() == content0;
+        }
+
+        // Concurrent closes of all but one handle leave the content open,
+        // even under eviction pressure.
+        final CdfCache.Handle lastHandle = handles[ nthread - 1 ];
+        for ( int it = 0; it < nthread; it++ ) {
+            final CdfCache.Handle handle = handles[ it ];
+            threads[ it ] = new Thread() {
+                public void run() {
+                    if ( handle != lastHandle ) {
+                        handle.close();
+                        handle.close();
+                    }
+                }
+            };
+        }
+        runAll( threads );
+        cache.acquire( ex1 ).close();
+        cache.acquire( ex2 ).close();
+        longVar = content0.getVariables()[ 2 ];
+        longVar.readRawRecord( 0, work );
+
+        // Once the last handle is closed the file is evictable.
+        lastHandle.close();
+        cache.acquire( ex1 ).close();
+        cache.acquire( ex2 ).close();
+        try {
+            longVar.readRawRecord( 0, work );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+
+        try {
+            cache.acquire( new File( testFile.getParentFile(), "none.cdf" ) );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+        cache.close();
+        try {
+            cache.acquire( testFile );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+    }
+
+    /**
+     * Checks that an Error thrown while opening a file does not leave
+     * other callers waiting for the same file, or a stale cache entry.
+     */
+    public void testCacheError( final File testFile )
+            throws IOException, InterruptedException {
+        final CdfCache cache = new CdfCache( 4, 60000 );
+
+        // The file length is read by Bufs while opening.
+        final File badFile = new File( testFile.getPath() ) {
+            @Override
+            public long length() {
+                for ( StackTraceElement el :
+                      Thread.currentThread().getStackTrace() ) {
+                    if ( el.getClassName().endsWith( ".Bufs" ) ) {
+                        try {
+                            Thread.sleep( 100 );
+                        }
+                        catch ( InterruptedException e ) {
+                        }
+                        throw new Error( "Simulated failure" );
+                    }
+                }
+                return super.length();
+            }
+        };
+        int nthread = 4;
+        ExecutorService executor =
+            Executors.newFixedThreadPool( nthread, new ThreadFactory() {
+                public Thread newThread( Runnable r ) {
+                    Thread th = new Thread( r );
+                    th.setDaemon( true );
+                    return th;
+                }
+            } );
+        List<Future<CdfCache.Handle>> futures =
+            new ArrayList<Future<CdfCache.Handle>>();
+        for ( int it = 0; it < nthread; it++ ) {
+            futures.add( executor.submit( new Callable<CdfCache.Handle>() {
+                public CdfCache.Handle call() throws IOException {
+                    return cache.acquire( badFile );
+                }
+            } ) );
+        }
+        int nError = 0;
+        for ( Future<CdfCache.Handle> future : futures ) {
+            try {
+                future.get( 10, TimeUnit.SECONDS );
+                assert false;
+            }
+            catch ( TimeoutException e ) {
+                throw new AssertionError( "Cache waiter hung" );
+            }
+            catch ( ExecutionException e ) {
+                Throwable cause = e.getCause();
+                if ( cause instanceof Error ) {
+                    nError++;
+                }
+                else {
+                    assert cause instanceof IOException;
+                }
+            }
+        }
+        executor.shutdown();
+        assert nError >= 1;
+        assert cache.getSize() == 0;
+
+        // The failed entry is gone, so the file can now be opened.
+        CdfCache.Handle handle = cache.acquire( testFile );
+        handle.getContent().getVariables()[ 2 ]
+              .readRawRecord( 0, handle.getContent().getVariables()[ 2 ]
+                                       .createRawValueArray() );
+        handle.close();
+        cache.close();
+    }
+
+    private static void runAll( Thread[] threads )
+            throws InterruptedException {
+        for ( Thread th : threads ) {
+            th.start();
+        }
+        for ( Thread th : threads ) {
+            th.join();
+        }
+    }
+
+    public void testWarmUp( File testFile )
+            throws IOException, InterruptedException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable[] vars = content.getVariables();
+        for ( Variable var : vars ) {
+            assert ! var.isRecordsPrepared();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        List<Future<Variable>> futures =
+            content.warmUp( executor, new Variable[] { vars[ 2 ] } );
+        assert futures.size() == 1;
+        awaitAll( futures );
+        assert vars[ 2 ].isRecordsPrepared();
+        assert ! vars[ 3 ].isRecordsPrepared();
+        futures = content.warmUp( executor, null );
+        assert futures.size() == vars.length;
+        awaitAll( futures );
+        for ( Variable var : vars ) {
+            assert var.isRecordsPrepared();
+        }
+        executor.shutdown();
+        assert Arrays.equals( new short[] { (short) 100, (short) 200,
+                                            (short) 300 },
+                              (short[]) readShapedRecord( vars[ 2 ], 0,
+                                                          true ) );
+        content.close();
+
+        // Closing cancels warm-up tasks that have not started.
+        executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch blockLatch = new CountDownLatch( 1 );
+        executor.execute( new Runnable() {
+            public void run() {
+                try {
+                    blockLatch.await();
+                }
+                catch ( InterruptedException e ) {
+                }
+            }
+        } );
+        content = new CdfContent( new CdfReader( testFile ) );
+        futures = content.warmUp( executor, null );
+        content.close();
+        blockLatch.countDown();
+        for ( Future<Variable> future : futures ) {
+            assert future.isCancelled();
+        }
+        executor.shutdown();
+
+        // Closing while warm-up tasks are running waits for them,
+        // rather than unmapping buffers in use.
+        executor = Executors.newFixedThreadPool( 4 );
+        for ( int i = 0; i < 20; i++ ) {
+            content = new CdfContent( new CdfReader( testFile ) );
+            futures = content.warmUp( executor, null );
+            content.close();
+            for ( Future<Variable> future : futures ) {
+                try {
+                    future.get();
+                }
+                catch ( CancellationException e ) {
+                }
+                catch ( ExecutionException e ) {
+                    assert e.getCause() instanceof IOException;
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    private static void awaitAll( List<Future<Variable>> futures )
+            throws InterruptedException {
+        for ( Future<Variable> future : futures ) {
+            try {
+                future.get();
+            }
+            catch ( ExecutionException e ) {
+                throw new RuntimeException( e );
+            }
+        }
+    }
+
+    public void testConcurrentReads( File testFile )
+            throws IOException, InterruptedException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        final Variable[] vars = content.getVariables();
+        final Object[][] expected = readAllRecords( vars );
+
+        // Start with fresh variables, so that the threads also race to
+        // build the record maps.  Virtual threads are used if the JVM
+        // has them, in which case a JFR event stream is used to check
+        // that none of them is pinned to its carrier thread.
+        content.close();
+        content = new CdfContent( new CdfReader( testFile ) );
+        final Variable[] vars2 = content.getVariables();
+        ThreadFactory thFact = createVirtualThreadFactory();
+        AtomicInteger nPinned = new AtomicInteger();
+        Object pinStream = null;
+        int nthread;
+        if ( thFact == null ) {
+            thFact = Executors.defaultThreadFactory();
+            nthread = 64;
+        }
+        else {
+            pinStream = startPinCounter( nPinned );
+            nthread = 2000;
+        }
+        final AtomicInteger nFail = new AtomicInteger();
+        Thread[] threads = new Thread[ nthread ];
+        for ( int it = 0; it < nthread; it++ ) {
+            threads[ it ] = thFact.newThread( new Runnable() {
+                public void run() {
+                    try {
+                        if ( ! Arrays.deepEquals( expected,
+                                                  readAllRecords( vars2 ) ) ) {
+                            nFail.incrementAndGet();
+                        }
+                    }
+                    catch ( Throwable e ) {
+                        nFail.incrementAndGet();
+                    }
+                }
+            } );
+        }
+        for ( Thread th : threads ) {
+            th.start();
+        }
+        for ( Thread th : threads ) {
+            th.join();
+        }
+        assert nFail.get() == 0;
+        if ( pinStream != null ) {
+            stopPinCounter( pinStream );
+            assert nPinned.get() == 0 : nPinned.get() + " pinned threads";
+        }
+        content.close();
+    }
+
+    private static Object[][] readAllRecords( Variable[] vars )
+            throws IOException {
+        Object[][] values = new Object[ vars.length ][];
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            int nrec = var.getRecordCount();
+            values[ iv ] = new Object[ nrec ];
+            for ( int ir = 0; ir < nrec; ir++ ) {
+                values[ iv ][ ir ] =
+                    var.readShapedRecord( ir, true,
+                                          var.createRawValueArray() );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns a factory for virtual threads, or null if the JVM
+     * does not provide them.  Reflection is used so that this
+     * compiles on older JVMs.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod( "ofVirtual" )
+                                         .invoke( null );
+            Method factMethod = Class.forName( "java.lang.Thread$Builder" )
+                                     .getMethod( "factory" );
+            return (ThreadFactory) factMethod.invoke( builder );
+        }
+        catch ( Exception e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts counting virtual thread pinning events from a JFR
+     * event stream, if the JVM can provide them.
+     * Reflection is used so that this compiles on older JVMs.
+     *
+     * @param  counter  incremented for each pinning event
+     * @return  running event stream to pass to {@link #stopPinCounter},
+     *          or null if pinning cannot be monitored
+     */
+    private static Object startPinCounter( final AtomicInteger counter ) {
+        String evName = "jdk.VirtualThreadPinned";
+        try {
+            Class<?> rsClazz =
+                Class.forName( "jdk.jfr.consumer.RecordingStream" );
+            Object stream = rsClazz.getConstructor().newInstance();
+            Object settings = rsClazz.getMethod( "enable", String.class )
+                                     .invoke( stream, evName );
+            Class.forName( "jdk.jfr.EventSettings" )
+                 .getMethod( "withThreshold", Duration.class )
+                 .invoke( settings, Duration.ZERO );
+            rsClazz.getMethod( "onEvent", String.class, Consumer.class )
+                   .invoke( stream, evName, new Consumer<Object>() {
+                public void accept( Object event ) {
+                    counter.incrementAndGet();
+                }
+            } );
+            rsClazz.getMethod( "startAsync" ).invoke( stream );
+            return stream;
+        }
+        catch ( Exception e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops an event stream started by {@link #startPinCounter},
+     * delivering any pending events first.
+     *
+     * @param  stream  running event stream
+     */
+    private static void stopPinCounter( Object stream ) {
+        Class<?> rsClazz = stream.getClass();
+        try {
+
+            // RecordingStream.stop, which flushes, is only in JDK 20+;
+            // virtual threads are final only at JDK 21.
+            rsClazz.getMethod( "stop" ).invoke( stream );
+            rsClazz.getMethod( "close" ).invoke( stream );
+        }
+        catch ( Exception e ) {
+            throw new RuntimeException( "Failed to stop JFR stream", e );
+        }
+    }
+
+    public void testPublisher( File testFile )
+            throws IOException, InterruptedException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable[] vars = content.getVariables();
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+        for ( Variable var : new Variable[] { vars[ 2 ], vars[ 9 ] } ) {
+            int nrec = var.getRecordCount();
+            int leng = var.getShapedRecordLength();
+            Object expected = var.createShapedValueArray( nrec );
+            var.readShapedRecords( 0, nrec, true, var.createRawValueArray(),
+                                   expected, 0 );
+            for ( int batchSize : new int[] { 1, 3, 100 } ) {
+                BatchCollector collector = new BatchCollector( 1, -1 );
+                new RecordPublisher( var, 0, nrec, batchSize, 2, true,
+                                     executor )
+                   .subscribe( collector );
+                collector.await();
+                assert collector.error_ == null;
+                assert collector.isComplete_;
+                Object actual = var.createShapedValueArray( nrec );
+                int irec = 0;
+                for ( RecordBatch batch : collector.batches_ ) {
+                    assert batch.getFirstRecord() == irec;
+                    assert batch.getRecordCount() <= batchSize;
+                    System.arraycopy( batch.getValues(), 0, actual,
+                                      irec * leng,
+                                      batch.getRecordCount() * leng );
+                    irec += batch.getRecordCount();
+                }
+                assert irec == nrec;
+                assert Arrays.deepEquals( new Object[] { expected },
+                                          new Object[] { actual } );
+            }
+        }
+
+        // Cancellation stops delivery.  Running the tasks in this thread
+        // until none are left means that no late delivery can be missed.
+        ManualExecutor cancelExecutor = new ManualExecutor();
+        BatchCollector cancelCollector = new BatchCollector( 5, 2 );
+        new RecordPublisher( vars[ 2 ], 1, true, cancelExecutor )
+           .subscribe( cancelCollector );
+        cancelExecutor.runAll();
+        cancelCollector.await();
+        assert cancelCollector.batches_.size() == 2;
+        assert ! cancelCollector.isComplete_;
+        assert cancelCollector.error_ == null;
+
+        // Non-positive requests are errors.
+        BatchCollector badCollector = new BatchCollector( 0, -1 );
+        new RecordPublisher( vars[ 2 ], 1, true, executor )
+           .subscribe( badCollector );
+        badCollector.await();
+        assert badCollector.error_ instanceof IllegalArgumentException;
+        assert badCollector.batches_.size() == 0;
+        executor.shutdown();
+        content.close();
+
+        // Decoding runs no more than the prefetch count ahead of demand.
+        // Once the subscriber has its first batch and the publisher
+        // is idle, close the file and request the rest: only the
+        // batches already decoded arrive before the read error.
+        for ( int prefetch = 1; prefetch <= 3; prefetch++ ) {
+            CdfContent bpContent =
+                new CdfContent( new CdfReader( testFile ) );
+            Variable bpVar = bpContent.getVariables()[ 2 ];
+            assert bpVar.getRecordCount() == 20;
+            ManualExecutor bpExecutor = new ManualExecutor();
+            BatchCollector bpCollector = new BatchCollector( 1, -1 ) {
+                @Override
+                public synchronized void onNext( RecordBatch batch ) {
+                    batches_.add( batch );
+                }
+            };
+            new RecordPublisher( bpVar, 0, 20, 2, prefetch, true,
+                                 bpExecutor )
+               .subscribe( bpCollector );
+            bpExecutor.runAll();
+            assert bpCollector.batches_.size() == 1;
+            bpContent.close();
+            bpCollector.sub_.request( Long.MAX_VALUE );
+            bpExecutor.runAll();
+            assert bpCollector.batches_.size() == 1 + prefetch;
+            assert bpCollector.error_ instanceof IOException;
+            assert ! bpCollector.isComplete_;
+        }
+
+        // An executor that stops accepting tasks terminates the stream
+        // with an error, rather than throwing from request or hanging.
+        CdfContent rejContent = new CdfContent( new CdfReader( testFile ) );
+        Variable rejVar = rejContent.getVariables()[ 2 ];
+        for ( int nAccept = 0; nAccept < 8; nAccept++ ) {
+            ManualExecutor rejExecutor = new ManualExecutor( nAccept );
+            BatchCollector rejCollector = new BatchCollector( 1, -1 );
+            new RecordPublisher( rejVar, 0, 20, 2, 2, true, rejExecutor )
+               .subscribe( rejCollector );
+            rejExecutor.runAll();
+            rejCollector.await();
+            assert rejCollector.error_ instanceof RejectedExecutionException;
+            assert ! rejCollector.isComplete_;
+            assert rejCollector.batches_.size() < 10;
+            int nbatch = rejCollector.batches_.size();
+            rejCollector.sub_.request( 1 );
+            rejExecutor.runAll();
+            assert rejCollector.batches_.size() == nbatch;
+        }
+        rejContent.close();
+    }
+
+    /**
+     * Executor that queues tasks until asked to run them
+     * in the calling thread.  It can be limited to accept only
+     * a given number of tasks, rejecting any more.
+     */
+    private static class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks_ = new ArrayDeque<Runnable>();
+        private int nAccept_;
+        ManualExecutor() {
+            this( Integer.MAX_VALUE );
+        }
+        ManualExecutor( int nAccept ) {
+            nAccept_ = nAccept;
+        }
+        public void execute( Runnable task ) {
+            if ( nAccept_-- <= 0 ) {
+                throw new RejectedExecutionException();
+            }
+            tasks_.add( task );
+        }
+        void runAll() {
+            for ( Runnable task; ( task = tasks_.poll() ) != null; ) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Subscriber that stores received batches, requesting a fixed
+     * number at a time.  The latch is released on completion, error
+     * or cancellation.
+     */
+    private static class BatchCollector
+            implements Flow.Subscriber<RecordBatch> {
+        final List<RecordBatch> batches_ = new ArrayList<RecordBatch>();
+        final CountDownLatch latch_ = new CountDownLatch( 1 );
+        final int nreq_;
+        final int ncancel_;
+        Flow.Subscription sub_;
+        volatile boolean isComplete_;
+        volatile Throwable error_;
+
+        /**
+         * @param  nreq  number of batches requested at a time
+         * @param  ncancel  cancel after this many batches, or -1
+         */
+        BatchCollector( int nreq, int ncancel ) {
+            nreq_ = nreq;
+            ncancel_ = ncancel;
+        }
+        public void onSubscribe( Flow.Subscription sub ) {
+            sub_ = sub;
+            sub.request( nreq_ );
+        }
+        public synchronized void onNext( RecordBatch batch ) {
+            batches_.add( batch );
+            if ( batches_.size() == ncancel_ ) {
+                sub_.cancel();
+                latch_.countDown();
+            }
+            else if ( batches_.size() % nreq_ == 0 ) {
+                sub_.request( nreq_ );
+            }
+        }
+        public void onError( Throwable error ) {
+            error_ = error;
+            latch_.countDown();
+        }
+        public void onComplete() {
+            isComplete_ = true;
+            latch_.countDown();
+        }
+        void await() throws InterruptedException {
+            boolean isDone = latch_.await( 10, TimeUnit.SECONDS );
+            assert isDone;
+        }
+    }
+
+    public void testStreams( File testFile ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        for ( Variable var : content.getVariables() ) {
+            int nrec = var.getRecordCount();
+            int leng = var.getShapedRecordLength();
+            Object expected = var.createShapedValueArray( nrec );
+            var.readShapedRecords( 0, nrec, true, var.createRawValueArray(),
+                                   expected, 0 );
+            List<Object> recs = RecordStreams.records( var, true ).parallel()
+                               .collect( Collectors.toList() );
+            assert recs.size() == nrec;
+            Object actual = var.createShapedValueArray( nrec );
+            for ( int ir = 0; ir < nrec; ir++ ) {
+                System.arraycopy( recs.get( ir ), 0, actual, ir * leng, leng );
+            }
+            assert Arrays.deepEquals( new Object[] { expected },
+                                      new Object[] { actual } );
+            int ngrp = var.getDataType().getGroupSize();
+            int nitem = nrec * leng / ngrp;
+            DoubleReader drdr = var.getDoubleReader();
+            if ( drdr != null ) {
+                double[] dvals = RecordStreams.doubles( var, true )
+                                .parallel().toArray();
+                assert dvals.length == nitem;
+                for ( int i = 0; i < nitem; i++ ) {
+                    assert Double.compare( dvals[ i ],
+                                           drdr.getDouble( expected,
+                                                           i * ngrp ) ) == 0;
+                }
+            }
+            LongReader lrdr = var.getLongReader();
+            if ( lrdr != null ) {
+                long sum = 0;
+                for ( int i = 0; i < nitem; i++ ) {
+                    sum += lrdr.getLong( expected, i * ngrp );
+                }
+                assert RecordStreams.longs( var, true ).parallel().sum()
+                       == sum;
+            }
+        }
+        content.close();
+    }
+
+    public void testDataset( File ex1, File ex2 ) throws IOException {
+        CdfDataset dset =
+            new CdfDataset( new File[] { ex1, ex2 }, 1, "Time",
+                            new ReadOptions() );
+        assert dset.getFileCount() == 2;
+        CdfDataset.DatasetVariable tvar = dset.getVariable( "Time" );
+        assert tvar.getRecordCount() == 26;
+        assert tvar.getFileStart( 1 ) == 2;
+        int[] times = (int[]) tvar.createShapedValueArray( 4 );
+        tvar.readShapedRecords( 0, 4, true, times, 0 );
+        assert Arrays.equals( new int[] { 23, 24, 0, 100 }, times );
+        assert dset.getFirstTime( 1 ) == 0;
+        assert dset.getLastTime( 1 ) == 2300;
+        assert Arrays.equals( new int[] { 1 },
+                              dset.getFilesInTimeRange( 550, 1050 ) );
+        assert Arrays.equals( new int[] { 0, 1 },
+                              dset.getFilesInTimeRange( 20, 30 ) );
+        assert Arrays.equals( new long[] { 8, 13 },
+                              dset.getTimeRecordRange( 550, 1050 ) );
+        assert Arrays.equals( new long[] { 8, 13 },
+                              dset.getTimeRecordRange( 600, 1000 ) );
+        assert dset.getVariable( "Temperature" ).getRecordCount() == 24;
+        assert dset.getVariable( "Image" ).getRecordCount() == 3;
+        assert dset.getVariable( "NoSuchVariable" ) == null;
+
+        // Latitude has different types in the two files.
+        CdfDataset.DatasetVariable latVar = dset.getVariable( "Latitude" );
+        Object lats = latVar.createShapedValueArray( 2 );
+        try {
+            latVar.readShapedRecords( 0, 2, true, lats, 0 );
+            assert false;
+        }
+        catch ( CdfFormatException e ) {
+        }
+        try {
+            tvar.readShapedRecords( 25, 2, true, times, 0 );
+            assert false;
+        }
+        catch ( IllegalArgumentException e ) {
+        }
+        dset.close();
+
+        // Time range queries bisect over the file list, opening only
+        // the files probed and the files in range.  The ex1 times all
+        // precede the end of the ex2 times.
+        File[] files = new File[ 64 ];
+        Arrays.fill( files, 0, 32, ex1 );
+        Arrays.fill( files, 32, 64, ex2 );
+        CdfDataset bigSet =
+            new CdfDataset( files, 2, "Time", new ReadOptions() );
+        assert bigSet.getFilesInTimeRange( 2400, 2500 ).length == 0;
+        assert bigSet.getSummarizedFileCount() <= 8;
+        int[] ifiles = bigSet.getFilesInTimeRange( 100, 200 );
+        assert ifiles.length == 32;
+        assert ifiles[ 0 ] == 32 && ifiles[ 31 ] == 63;
+        assert bigSet.getSummarizedFileCount() < 64;
+        bigSet.close();
+
+        File[] globbed =
+            CdfDataset.globFiles( new File( ex1.getParentFile(), "ex*1.c?f" )
+                                 .getPath() );
+        assert globbed.length == 1;
+        assert globbed[ 0 ].getName().equals( ex1.getName() );
+    }
+
+    public void testCatalog( File ex1, File ex2, File testFile )
+            throws IOException, InterruptedException {
+        File dir = File.createTempFile( "cat", ".d" );
+        dir.delete();
+        File subdir = new File( dir, "sub" );
+        subdir.mkdirs();
+        File f1 = copyFile( ex1, new File( dir, "ex1.cdf" ) );
+        copyFile( ex2, new File( subdir, "ex2.cdf" ) );
+        File ft = copyFile( testFile, new File( subdir, "test.cdf" ) );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            checkCatalog( dir, subdir, f1, ft, executor );
+        }
+        finally {
+            executor.shutdown();
+            for ( File f : new File[] { ft, f1, new File( dir, "index.dat" ),
+                                        new File( subdir, "ex2.cdf" ),
+                                        subdir, dir } ) {
+                f.delete();
+            }
+        }
+    }
+
+    private void checkCatalog( File dir, File subdir, File f1, File ft,
+                               ExecutorService executor )
+            throws IOException, InterruptedException {
+        File index = new File( dir, "index.dat" );
+        CdfCatalog cat = new CdfCatalog();
+        assert cat.update( new File[] { dir }, executor ) == 3;
+        assert cat.getEntries().length == 3;
+        assert cat.update( new File[] { dir }, executor ) == 0;
+        cat.writeIndex( index );
+        cat = CdfCatalog.readIndex( index );
+        assert cat.getEntries().length == 3;
+
+        CdfCatalog.FileEntry ent1 = cat.getEntry( f1 );
+        CdfCatalog.VarInfo image = ent1.getVariable( "Image" );
+        assert "INT4".equals( image.getTypeName() );
+        assert Arrays.equals( new int[] { 10, 20 }, image.getDims() );
+        assert image.getRecordCount() == 3;
+        assert Double.isNaN( ent1.getStartMillis() );
+        assert cat.findFiles( "Time" ).length == 3;
+        assert cat.findFiles( "NoSuchVariable" ).length == 0;
+
+        // The test file's first time variable is an EPOCH.
+        CdfCatalog.FileEntry entT = cat.getEntry( ft );
+        double t0 = entT.getStartMillis();
+        double t1 = entT.getEndMillis();
+        assert t0 <= t1;
+        assert cat.findFiles( "Temp", t0, t0 ).length == 1;
+        assert cat.findFiles( "Temp", t1 + 1, t1 + 2 ).length == 0;
+        assert cat.findFiles( "Time", t0, t1 ).length == 1;
+
+        // Incremental update picks up only changed and removed files.
+        assert ft.setLastModified( ft.lastModified() - 10000 );
+        assert cat.update( new File[] { dir }, executor ) == 1;
+        assert new File( subdir, "ex2.cdf" ).delete();
+        assert cat.update( new File[] { dir }, executor ) == 0;
+        assert cat.getEntries().length == 2;
+    }
+
+    public void testDatasetTimeTypes( File testFile ) throws IOException {
+        File dir = File.createTempFile( "dset", ".d" );
+        dir.delete();
+        dir.mkdirs();
+        File ftt = copyWithEmptyVariables( testFile, new File( dir, "tt.cdf" ),
+                                           new String[] { "ep", "ep16" } );
+        File f16 = copyWithEmptyVariables( testFile, new File( dir, "16.cdf" ),
+                                           new String[] { "ep" } );
+        try {
+            checkDefaultTimeVariable( ftt, "tt2000" );
+            checkDefaultTimeVariable( f16, "ep16" );
+        }
+        finally {
+            ftt.delete();
+            f16.delete();
+            dir.delete();
+        }
+    }
+
+    private static void checkDefaultTimeVariable( File file, String tname )
+            throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        Variable tvar = null;
+        for ( Variable var : content.getVariables() ) {
+            if ( var.getName().equals( tname ) ) {
+                tvar = var;
+            }
+        }
+        double[] times = new double[ 2 ];
+        int[] irecs = { 0, tvar.getRecordCount() - 1 };
+        Object work = tvar.createRawValueArray();
+        for ( int i = 0; i < 2; i++ ) {
+            tvar.readRawRecord( irecs[ i ], work );
+            if ( work instanceof long[] ) {
+                times[ i ] = ((long[]) work)[ 0 ];
+            }
+            else {
+                double[] secPicos = (double[]) work;
+                times[ i ] = secPicos[ 0 ] + secPicos[ 1 ] * 1e-12;
+            }
+        }
+        content.close();
+        CdfDataset dset = new CdfDataset( new File[] { file }, 1 );
+        assert dset.getFirstTime( 0 ) == times[ 0 ];
+        assert dset.getLastTime( 0 ) == times[ 1 ];
+        double tmin = Math.min( times[ 0 ], times[ 1 ] );
+        double tmax = Math.max( times[ 0 ], times[ 1 ] );
+        assert Arrays.equals( new int[] { 0 },
+                              dset.getFilesInTimeRange( tmin, tmax ) );
+        dset.close();
+    }
+
+    public void testDatasetFill( File testFile ) throws IOException {
+        File dir = File.createTempFile( "dset", ".d" );
+        dir.delete();
+        dir.mkdirs();
+        File ftt = copyWithEmptyVariables( testFile, new File( dir, "tt.cdf" ),
+                                           new String[] { "ep", "ep16" } );
+        File fep = copyFile( testFile, new File( dir, "ep.cdf" ) );
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        try {
+            Variable ttVar = getVariable( content, "tt2000" );
+            Variable epVar = getVariable( content, "ep" );
+            long[] tt = new long[ ttVar.getRecordCount() ];
+            long[] work = new long[ 1 ];
+            for ( int i = 0; i < tt.length; i++ ) {
+                ttVar.readRawRecord( i, work );
+                tt[ i ] = work[ 0 ];
+            }
+            double[] ep = new double[ 1 ];
+            epVar.readRawRecord( 0, ep );
+            double ep0 = ep[ 0 ];
+
+            // TIME_TT2000 values are compared exactly, though adjacent
+            // longs are not distinguishable as doubles at this epoch.
+            assert (double) ( tt[ 2 ] + 1 ) == (double) tt[ 2 ];
+            CdfDataset dset = new CdfDataset( new File[] { ftt }, 1 );
+            assert Arrays.equals( new long[] { 2, 3 },
+                                  dset.getTimeRecordRange( tt[ 2 ],
+                                                           tt[ 2 ] ) );
+            long[] gap = dset.getTimeRecordRange( tt[ 2 ] + 1, tt[ 3 ] - 1 );
+            assert gap[ 0 ] == 3 && gap[ 1 ] == 3;
+            assert dset.getFilesInTimeRange( tt[ 5 ] + 1, tt[ 5 ] + 2 )
+                       .length == 0;
+            dset.close();
+
+            // Fill and pad values are unknown times.  Patch the last
+            // record to fill and the one before to pad, and a middle one
+            // to pad, so the file range ends at an earlier record and
+            // bisection skips over the unknown values.
+            patchTimeRecord( ftt, ttVar, 5, new long[] { Long.MIN_VALUE } );
+            patchTimeRecord( ftt, ttVar, 4,
+                             new long[] { Long.MIN_VALUE + 1 } );
+            patchTimeRecord( ftt, ttVar, 2,
+                             new long[] { Long.MIN_VALUE + 1 } );
+            dset = new CdfDataset( new File[] { ftt }, 1 );
+            assert dset.getFirstTime( 0 ) == tt[ 0 ];
+            assert dset.getLastTime( 0 ) == tt[ 3 ];
+            assert Arrays.equals( new int[] { 0 },
+                                  dset.getFilesInTimeRange( tt[ 3 ],
+                                                            tt[ 3 ] ) );
+            assert dset.getFilesInTimeRange( tt[ 3 ] + 1, Long.MAX_VALUE )
+                       .length == 0;
+            assert Arrays.equals( new long[] { 3, 4 },
+                                  dset.getTimeRecordRange( tt[ 3 ],
+                                                           tt[ 3 ] ) );
+            assert Arrays.equals( new long[] { 1, 4 },
+                                  dset.getTimeRecordRange( tt[ 1 ],
+                                                           tt[ 3 ] ) );
+            dset.close();
+
+            // An EPOCH fill value at the end of the file.
+            patchTimeRecord( fep, epVar, 1, new double[] { -1e31 } );
+            dset = new CdfDataset( new File[] { fep }, 1 );
+            assert dset.getFirstTime( 0 ) == ep0;
+            assert dset.getLastTime( 0 ) == ep0;
+            assert Arrays.equals( new int[] { 0 },
+                                  dset.getFilesInTimeRange( ep0, ep0 ) );
+            assert Arrays.equals( new long[] { 0, 1 },
+                                  dset.getTimeRecordRange( ep0, ep0 ) );
+            dset.close();
+        }
+        finally {
+            content.close();
+            ftt.delete();
+            fep.delete();
+            dir.delete();
+        }
+    }
+
+    public void testCatalogTt2000( File testFile )
+            throws IOException, InterruptedException {
+        File dir = File.createTempFile( "cat", ".d" );
+        dir.delete();
+        dir.mkdirs();
+        File ftt = copyWithEmptyVariables( testFile, new File( dir, "tt.cdf" ),
+                                           new String[] { "ep", "ep16" } );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            CdfContent content = new CdfContent( new CdfReader( ftt ) );
+            Variable ttVar = null;
+            for ( Variable var : content.getVariables() ) {
+                if ( var.getName().equals( "tt2000" ) ) {
+                    ttVar = var;
+                }
+            }
+            assert ttVar.getDataType().isTt2000();
+            assert ttVar.getDataType() != DataType.TIME_TT2000;
+            long[] tt = new long[ 1 ];
+            ttVar.readRawRecord( 0, tt );
+            double ta = UnixTimeConverter.tt2000ToUnixNanos( tt[ 0 ] ) * 1e-6;
+            ttVar.readRawRecord( ttVar.getRecordCount() - 1, tt );
+            double tb = UnixTimeConverter.tt2000ToUnixNanos( tt[ 0 ] ) * 1e-6;
+            content.close();
+
+            CdfCatalog cat = new CdfCatalog();
+            assert cat.update( new File[] { dir }, executor ) == 1;
+            CdfCatalog.FileEntry ent = cat.getEntry( ftt );
+            assert ent.getStartMillis() == Math.min( ta, tb );
+            assert ent.getEndMillis() == Math.max( ta, tb );
+            assert cat.findFiles( "tt2000", ta, ta ).length == 1;
+            assert cat.findFiles( "tt2000", ent.getEndMillis() + 1,
+                                  ent.getEndMillis() + 2 ).length == 0;
+        }
+        finally {
+            executor.shutdown();
+            ftt.delete();
+            dir.delete();
+        }
+    }
+
+    public void testCatalogFill( File testFile )
+            throws IOException, InterruptedException {
+        File dir = File.createTempFile( "cat", ".d" );
+        dir.delete();
+        dir.mkdirs();
+        File fep = copyFile( testFile, new File( dir, "ep.cdf" ) );
+        File f16 = copyWithEmptyVariables( testFile, new File( dir, "16.cdf" ),
+                                           new String[] { "ep" } );
+        File ftt = copyWithEmptyVariables( testFile, new File( dir, "tt.cdf" ),
+                                           new String[] { "ep", "ep16" } );
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            Variable epVar = getVariable( content, "ep" );
+            Variable ep16Var = getVariable( content, "ep16" );
+            Variable ttVar = getVariable( content, "tt2000" );
+            double[] ep = new double[ 1 ];
+            epVar.readRawRecord( 0, ep );
+            double epMillis = ep[ 0 ] + EpochFormatter.AD0_UNIX_MILLIS;
+            double[] ep16 = new double[ 2 ];
+            ep16Var.readRawRecord( 1, ep16 );
+            long[] nanos = new long[ 1 ];
+            UnixTimeConverter.epoch16ToUnixNanos( ep16, 0, nanos, 0, 1 );
+            double ep16Millis = nanos[ 0 ] * 1e-6;
+            long[] tt = new long[ 1 ];
+            ttVar.readRawRecord( 0, tt );
+            double ttMillis0 = UnixTimeConverter.tt2000ToUnixNanos( tt[ 0 ] )
+                             * 1e-6;
+            ttVar.readRawRecord( 4, tt );
+            double ttMillis4 = UnixTimeConverter.tt2000ToUnixNanos( tt[ 0 ] )
+                             * 1e-6;
+
+            // Fill and pad values at the ends of the time variables
+            // are skipped in favour of the nearest known times.
+            patchTimeRecord( fep, epVar, 1, new double[] { -1e31 } );
+            patchTimeRecord( f16, ep16Var, 0, new double[] { 0, 0 } );
+            patchTimeRecord( f16, ep16Var, 2, new double[] { -1e31, -1e31 } );
+            patchTimeRecord( ftt, ttVar, 5, new long[] { Long.MIN_VALUE } );
+            CdfCatalog cat = new CdfCatalog();
+            assert cat.update( new File[] { dir }, executor ) == 3;
+            CdfCatalog.FileEntry entEp = cat.getEntry( fep );
+            assert entEp.getStartMillis() == epMillis;
+            assert entEp.getEndMillis() == epMillis;
+            CdfCatalog.FileEntry ent16 = cat.getEntry( f16 );
+            assert ent16.getStartMillis() == ep16Millis;
+            assert ent16.getEndMillis() == ep16Millis;
+            CdfCatalog.FileEntry entTt = cat.getEntry( ftt );
+            assert entTt.getStartMillis() == ttMillis0;
+            assert entTt.getEndMillis() == ttMillis4;
+            assert Arrays.asList( cat.findFiles( "tt2000", ttMillis4,
+                                                 ttMillis4 ) )
+                         .contains( entTt );
+            assert ! Arrays.asList( cat.findFiles( "tt2000", ttMillis4 + 1,
+                                                   ttMillis4 + 2 ) )
+                           .contains( entTt );
+        }
+        finally {
+            executor.shutdown();
+            content.close();
+            fep.delete();
+            f16.delete();
+            ftt.delete();
+            dir.delete();
+        }
+    }
+
+    private static Variable getVariable( CdfContent content, String name ) {
+        for ( Variable var : content.getVariables() ) {
+            if ( var.getName().equals( name ) ) {
+                return var;
+            }
+        }
+        throw new IllegalArgumentException( "No variable " + name );
+    }
+
+    /**
+     * Copies a v3 CDF file, giving the named variables no records.
+     */
+    private static File copyWithEmptyVariables( File in, File out,
+                                                String[] names )
+            throws IOException {
+        copyFile( in, out );
+        List<String> nameList = Arrays.asList( names );
+        CdfContent content = new CdfContent( new CdfReader( in ) );
+        RandomAccessFile raf = new RandomAccessFile( out, "rw" );
+        try {
+            for ( Variable var : content.getVariables() ) {
+                if ( nameList.contains( var.getName() ) ) {
+
+                    // In a v3 VDR, maxRec follows the 8-byte vdrNext
+                    // and 4-byte dataType fields.
+                    raf.seek( var.getDescriptor().getContentOffset() + 12 );
+                    raf.writeInt( -1 );
+                }
+            }
+        }
+        finally {
+            raf.close();
+            content.close();
+        }
+        CdfContent outContent = new CdfContent( new CdfReader( out ) );
+        for ( Variable var : outContent.getVariables() ) {
+            assert var.getRecordCount() == 0
+                || ! nameList.contains( var.getName() );
+        }
+        outContent.close();
+        return out;
+    }
+
+    private static File copyFile( File in, File out ) throws IOException {
+        FileInputStream fin = new FileInputStream( in );
+        FileOutputStream fout = new FileOutputStream( out );
+        byte[] buf = new byte[ 8192 ];
+        for ( int n; ( n = fin.read( buf ) ) >= 0; ) {
+            fout.write( buf, 0, n );
+        }
+        fin.close();
+        fout.close();
+        return out;
+    }
+
+    public void testClose( File testFile ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable longVar = content.getVariables()[ 2 ];
+        Object work = longVar.createRawValueArray();
+        longVar.readRawRecord( 0, work );
+        content.close();
+        content.close();
+        try {
+            longVar.readRawRecord( 1, work );
+            assert false;
+        }
+        catch ( IOException e ) {
+        }
+    }
+
+    /**
+     * Appends records to a copy of a file while it is open, as an
+     * acquisition system would, and checks that refreshing makes them
+     * visible and releases the superseded mapping.
+     */
+    public void testRefresh( File testFile ) throws IOException {
+        File file = File.createTempFile( "refresh", ".cdf" );
+        copyFile( testFile, file );
+        try {
+            CdfReader crdr = new CdfReader( file );
+            CdfContent content = new CdfContent( crdr );
+            Variable tempVar = content.getVariables()[ 9 ];
+            Variable dpVar = content.getVariables()[ 14 ];
+            assert tempVar.getName().equals( "Temp" );
+            assert dpVar.getName().equals( "dp" );
+            float[] temp12 = (float[]) tempVar.createRawValueArray();
+            double[] dp0 = (double[]) dpVar.createRawValueArray();
+            tempVar.readRawRecord( 12, temp12 );
+            dpVar.readRawRecord( 0, dp0 );
+            assert tempVar.getRecordCount() == 13;
+            RecordFactory recFact = crdr.getRecordFactory();
+            RecordMap map0 =
+                RecordMap.createRecordMap( tempVar.getDescriptor(),
+                                           recFact, 12 );
+            assert map0.getEntryCount() == 3;
+            assert ! content.refresh();
+
+            // Append a VVR holding records 13 and 14 of Temp,
+            // and add it to the spare fourth slot of Temp's only VXR.
+            float[] newValues = { 1.5f, 2.5f, 3.5f, 4.5f, 5.5f, 6.5f };
+            long vxrOffset = tempVar.getDescriptor().vxrHead;
+            RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            try {
+                long vvrOffset = raf.length();
+                ByteBuffer vvr =
+                    ByteBuffer.allocate( 12 + 4 * newValues.length );
+                vvr.putLong( vvr.capacity() );
+                vvr.putInt( 7 );
+                vvr.order( ByteOrder.LITTLE_ENDIAN );
+                for ( float f : newValues ) {
+                    vvr.putFloat( f );
+                }
+                raf.seek( vvrOffset );
+                raf.write( vvr.array() );
+
+                // The VXR has 7 entries; nUsedEntries is at +24,
+                // then First[7], Last[7] and Offset[7].
+                raf.seek( vxrOffset + 28 + 3 * 4 );
+                raf.writeInt( 13 );
+                raf.seek( vxrOffset + 56 + 3 * 4 );
+                raf.writeInt( 14 );
+                raf.seek( vxrOffset + 84 + 3 * 8 );
+                raf.writeLong( vvrOffset );
+                raf.seek( vxrOffset + 24 );
+                raf.writeInt( 4 );
+                raf.seek( tempVar.getDescriptor().getContentOffset() + 12 );
+                raf.writeInt( 14 );
+            }
+            finally {
+                raf.close();
+            }
+
+            // Refresh the high-level view; variables are updated in place
+            // and the old mapping is released.
+            Buf oldBuf = crdr.getBuf();
+            assert content.refresh();
+            assert crdr.getBuf() != oldBuf;
+            assert crdr.getBuf().getLength() == file.length();
+            try {
+                oldBuf.readDataBytes( 0, 1, new byte[ 1 ] );
+                assert false;
+            }
+            catch ( IOException e ) {
+            }
+            assert tempVar.getRecordCount() == 15;
+            float[] work = (float[]) tempVar.createRawValueArray();
+            tempVar.readRawRecord( 12, work );
+            assert Arrays.equals( temp12, work );
+            tempVar.readRawRecord( 13, work );
+            assert Arrays.equals( new float[] { 1.5f, 2.5f, 3.5f }, work );
+            tempVar.readRawRecord( 14, work );
+            assert Arrays.equals( new float[] { 4.5f, 5.5f, 6.5f }, work );
+            double[] dwork = (double[]) dpVar.createRawValueArray();
+            dpVar.readRawRecord( 0, dwork );
+            assert Arrays.equals( dp0, dwork );
+
+            // Extending the original map picks up only the new entry.
+            VariableDescriptorRecord vdr1 = tempVar.getDescriptor();
+            RecordMap map1 =
+                RecordMap.extendRecordMap( map0, vdr1, recFact, 12 );
+            assert map1.getEntryCount() == 4;
+            assert map1.getEntryIndex( 13 ) == 3;
+            assert map1.getEntryIndex( 14 ) == 3;
+            assert map1.getEntryIndex( 12 ) == 2;
+            for ( int ie = 0; ie < 4; ie++ ) {
+                assert map1.getBuf( ie ) == vdr1.getBuf();
+            }
+            assert RecordMap.extendRecordMap( map1, vdr1, recFact, 12 )
+                   == map1;
+            assert ! content.refresh();
+            content.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Checks record map entry lookup against a linear scan for maps
+     * with many entries, for regular layouts which are calculated
+     * directly and for irregular ones which use a search tree.
+     */
+    public void testRecordMapLookup( File testFile ) throws IOException {
+        Random rnd = new Random( 602214 );
+
+        // Regular, with a short final entry.
+        checkRecordMapLookup( testFile, createLayout( 3000, 10, 10, 5 ),
+                              rnd );
+        checkRecordMapLookup( testFile, createLayout( 1, 7, 7, 0 ), rnd );
+
+        // Almost regular, but with gaps between entries.
+        checkRecordMapLookup( testFile, createLayout( 2500, 10, 8, 0 ),
+                              rnd );
+
+        // Regular except for one short entry in the middle.
+        int[][] layout = createLayout( 2000, 4, 4, 100 );
+        layout[ 1 ][ 1000 ]--;
+        checkRecordMapLookup( testFile, layout, rnd );
+
+        // Random lengths and gaps, presented in shuffled order.
+        for ( int nent : new int[] { 2, 3, 1023, 1024, 2999 } ) {
+            int[] firsts = new int[ nent ];
+            int[] lasts = new int[ nent ];
+            int irec = rnd.nextInt( 20 );
+            for ( int ie = 0; ie < nent; ie++ ) {
+                firsts[ ie ] = irec;
+                lasts[ ie ] = irec + rnd.nextInt( 12 );
+                irec = lasts[ ie ] + 1 + ( rnd.nextBoolean()
+                                           ? 0 : rnd.nextInt( 5 ) );
+            }
+            checkRecordMapLookup( testFile, new int[][] { firsts, lasts },
+                                  rnd );
+        }
+    }
+
+    /**
+     * Returns first and last record arrays for a layout in which
+     * entries are <code>step</code> records apart and each holds
+     * <code>leng</code> records, except the last which holds
+     * <code>leng-shortfall</code>.
+     */
+    private static int[][] createLayout( int nent, int step, int leng,
+                                         int shortfall ) {
+        int[] firsts = new int[ nent ];
+        int[] lasts = new int[ nent ];
+        for ( int ie = 0; ie < nent; ie++ ) {
+            firsts[ ie ] = 5 + ie * step;
+            lasts[ ie ] = firsts[ ie ] + leng - 1;
+        }
+        lasts[ nent - 1 ] -= Math.min( shortfall, leng - 1 );
+        return new int[][] { firsts, lasts };
+    }
+
+    /**
+     * Builds a record map with a given layout, by giving the Temp
+     * variable of an in-memory copy of test.cdf a new chain of VXRs,
+     * and checks its lookups against a linear scan.
+     * All the entries refer to the same VVR, which is not read.
+     */
+    private static void checkRecordMapLookup( File testFile, int[][] layout,
+                                              Random rnd )
+            throws IOException {
+        int[] firsts = layout[ 0 ];
+        int[] lasts = layout[ 1 ];
+        int nent = firsts.length;
+        byte[] cdfBytes = new byte[ (int) testFile.length() ];
+        RandomAccessFile raf = new RandomAccessFile( testFile, "r" );
+        try {
+            raf.readFully( cdfBytes );
+        }
+        finally {
+            raf.close();
+        }
+        CdfContent content0 = new CdfContent( new CdfReader( testFile ) );
+        VariableDescriptorRecord vdr0 =
+            content0.getVariables()[ 9 ].getDescriptor();
+        content0.close();
+
+        // Shuffle the entries and write them into VXRs of up to 100
+        // entries each.  In a v3 VXR, First, Last and Offset arrays
+        // follow 28 bytes of header.
+        List<Integer> order = new ArrayList<Integer>();
+        for ( int ie = 0; ie < nent; ie++ ) {
+            order.add( ie );
+        }
+        Collections.shuffle( order, rnd );
+        ByteBuffer bbuf = ByteBuffer.allocate( cdfBytes.length + 28 * nent
+                                                               + 16 * nent );
+        bbuf.put( cdfBytes );
+        long vvrOffset = ByteBuffer.wrap( cdfBytes )
+                                   .getLong( (int) vdr0.vxrHead + 84 );
+        int nPerVxr = 100;
+        long headOffset = bbuf.position();
+        long tailOffset = 0;
+        for ( int i0 = 0; i0 < nent; i0 += nPerVxr ) {
+            int n = Math.min( nPerVxr, nent - i0 );
+            tailOffset = bbuf.position();
+            long size = 28 + 16 * n;
+            bbuf.putLong( size );
+            bbuf.putInt( 6 );
+            bbuf.putLong( i0 + n < nent ? tailOffset + size : 0 );
+            bbuf.putInt( n );
+            bbuf.putInt( n );
+            for ( int i = 0; i < n; i++ ) {
+                bbuf.putInt( firsts[ order.get( i0 + i ) ] );
+            }
+            for ( int i = 0; i < n; i++ ) {
+                bbuf.putInt( lasts[ order.get( i0 + i ) ] );
+            }
+            for ( int i = 0; i < n; i++ ) {
+                bbuf.putLong( vvrOffset );
+            }
+        }
+        int vdrOff = (int) vdr0.getContentOffset();
+        bbuf.putLong( vdrOff + 16, headOffset );
+        bbuf.putLong( vdrOff + 24, tailOffset );
+        bbuf.flip();
+
+        CdfReader crdr =
+            new CdfReader( new SimpleNioBuf( bbuf, true, true ) );
+        CdfContent content = new CdfContent( crdr );
+        RecordMap recMap =
+            RecordMap.createRecordMap( content.getVariables()[ 9 ]
+                                             .getDescriptor(),
+                                       crdr.getRecordFactory(), 12 );
+        assert recMap.getEntryCount() == nent;
+
+        // Check every record in and around the covered range,
+        // in order and then in random order, and some extreme values.
+        int lo = firsts[ 0 ] - 3;
+        int hi = lasts[ nent - 1 ] + 3;
+        for ( int irec = lo; irec <= hi; irec++ ) {
+            assert recMap.getEntryIndex( irec )
+                == linearEntryIndex( firsts, lasts, irec ) : irec;
+        }
+        for ( int i = 0; i < 2000; i++ ) {
+            int irec = lo + rnd.nextInt( hi - lo + 1 );
+            assert recMap.getEntryIndex( irec )
+                == linearEntryIndex( firsts, lasts, irec ) : irec;
+        }
+        for ( int irec : new int[] { Integer.MIN_VALUE, -1,
+                                     Integer.MAX_VALUE } ) {
+            assert recMap.getEntryIndex( irec )
+                == linearEntryIndex( firsts, lasts, irec ) : irec;
+        }
+        content.close();
+    }
+
+    /**
+     * Reference implementation of RecordMap.getEntryIndex,
+     * for entries sorted by first record.
+     */
+    private static int linearEntryIndex( int[] firsts, int[] lasts,
+                                         int irec ) {
+        int ifr = -1;
+        for ( int ie = 0; ie < firsts.length && firsts[ ie ] <= irec;
+              ie++ ) {
+            ifr = ie;
+        }
+        return ifr < 0 ? -1
+                       : ( irec <= lasts[ ifr ] ? ifr : -ifr - 2 );
+    }
+
+    public void testZoneMap( File testFile ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( testFile ) );
+        Variable[] vars = content.getVariables();
+        Variable tempVar = vars[ 9 ];
+        Variable longVar = vars[ 2 ];
+        assert tempVar.getName().equals( "Temp" );
+        assert longVar.getName().equals( "Longitude" );
+        double tfill = (float) -1e30;
+        ZoneMap tzmap = tempVar.getZoneMap( tfill );
+        assert tzmap.getZoneCount() == 5;
+        assert tempVar.getZoneMap( tfill ) == tzmap;
+        assert Double.isNaN( tzmap.getMin( 1 ) );
+        assert tzmap.getFillCount( 1 ) > 0;
+        assert tzmap.getFillCount( 2 ) == 0;
+        checkZoneMap( tempVar, tzmap );
+        ZoneMap lzmap = longVar.getZoneMap( Double.NaN );
+        assert longVar.getZoneMap( Double.NaN ) == lzmap;
+        assert longVar.getZoneMap( -32768 ) != lzmap;
+        lzmap = longVar.getZoneMap( Double.NaN );
+        checkZoneMap( longVar, lzmap );
+
+        File sidecar = File.createTempFile( "zones", ".dat" );
+        try {
+            assert ZoneMap.writeSidecar( sidecar, testFile, content ) >= 2;
+
+            // The sidecar is written via a temporary file which replaces
+            // the existing one.
+            assert ! new File( sidecar.getPath() + ".tmp" ).exists();
+            CdfContent c2 = new CdfContent( new CdfReader( testFile ) );
+            assert ZoneMap.readSidecar( sidecar, testFile, c2 ) >= 2;
+            ZoneMap tz2 = c2.getVariables()[ 9 ].getZoneMap( tfill );
+            assert tz2.getZoneCount() == tzmap.getZoneCount();
+            for ( int iz = 0; iz < tzmap.getZoneCount(); iz++ ) {
+                assert tz2.getFirstRecord( iz ) == tzmap.getFirstRecord( iz );
+                assert tz2.getEndRecord( iz ) == tzmap.getEndRecord( iz );
+                assert Double.compare( tz2.getMin( iz ),
+                                       tzmap.getMin( iz ) ) == 0;
+                assert Double.compare( tz2.getMax( iz ),
+                                       tzmap.getMax( iz ) ) == 0;
+                assert tz2.getNanCount( iz ) == tzmap.getNanCount( iz );
+                assert tz2.getFillCount( iz ) == tzmap.getFillCount( iz );
+            }
+            CdfContent c3 = new CdfContent( new CdfReader( testFile ) );
+            assert ZoneMap.readSidecar( sidecar, sidecar, c3 ) == 0;
+        }
+        finally {
+            sidecar.delete();
+        }
+    }
+
+    private static void checkZoneMap( Variable var, ZoneMap zmap )
+            throws IOException {
+        DoubleReader rdr = var.getDoubleReader();
+        int ngrp = var.getDataType().getGroupSize();
+        int leng = var.getShapedRecordLength();
+        double fill = zmap.getFillValue();
+        int nz = zmap.getZoneCount();
+        assert zmap.getRecordCount() == var.getRecordCount();
+        assert nz == 0 || zmap.getEndRecord( nz - 1 ) == var.getRecordCount();
+        double lo = Double.NaN;
+        double hi = Double.NaN;
+        for ( int iz = 0; iz < nz; iz++ ) {
+            int irec = zmap.getFirstRecord( iz );
+            int nrec = zmap.getEndRecord( iz ) - irec;
+            assert irec == ( iz == 0 ? 0 : zmap.getEndRecord( iz - 1 ) );
+            Object data = var.createShapedValueArray( nrec );
+            var.readShapedRecords( irec, nrec, true,
+                                   var.createRawValueArray(), data, 0 );
+            double min = Double.NaN;
+            double max = Double.NaN;
+            long nNan = 0;
+            long nFill = 0;
+            for ( int i = 0; i < nrec * leng; i += ngrp ) {
+                double d = rdr.getDouble( data, i );
+                if ( Double.isNaN( d ) ) {
+                    nNan++;
+                }
+                else if ( d == fill ) {
+                    nFill++;
+                }
+                else {
+                    min = Double.isNaN( min ) ? d : Math.min( min, d );
+                    max = Double.isNaN( max ) ? d : Math.max( max, d );
+                }
+            }
+            assert Double.compare( min, zmap.getMin( iz ) ) == 0;
+            assert Double.compare( max, zmap.getMax( iz ) ) == 0;
+            assert nNan == zmap.getNanCount( iz );
+            assert nFill == zmap.getFillCount( iz );
+            if ( ! Double.isNaN( min ) ) {
+                lo = Double.isNaN( lo ) ? min : Math.min( lo, min );
+                hi = Double.isNaN( hi ) ? max : Math.max( hi, max );
+            }
+        }
+        if ( ! Double.isNaN( lo ) ) {
+            double above = hi + Math.abs( hi ) + 1;
+            double below = lo - Math.abs( lo ) - 1;
+            assert zmap.getCandidateZones( above, 2 * above ).length == 0;
+            assert zmap.getCandidateZones( 2 * below, below ).length == 0;
+            for ( int iz = 0; iz < nz; iz++ ) {
+                double mid = zmap.getMin( iz );
+                if ( ! Double.isNaN( mid ) ) {
+                    int[] izs = zmap.getCandidateZones( mid, mid );
+                    assert Arrays.binarySearch( izs, iz ) >= 0;
+                    for ( int jz : izs ) {
+                        assert zmap.getMin( jz ) <= mid
+                            && zmap.getMax( jz ) >= mid;
+                    }
+                }
+            }
+        }
+    }
+
+    public void testStats( File file ) throws IOException {
+        CdfContent content = new CdfContent( new CdfReader( file ) );
+        Variable[] vars = content.getVariables();
+        VariableAttribute[] vatts = content.getVariableAttributes();
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for ( int nbin : new int[] { 2, 7, 64 } ) {
+                VariableStats[] stats =
+                    VariableStats.calculate( content, nbin, pool );
+                assert stats.length == vars.length;
+                int nstat = 0;
+                for ( int iv = 0; iv < vars.length; iv++ ) {
+                    Variable var = vars[ iv ];
+                    assert ( stats[ iv ] == null )
+                        == ( var.getDoubleReader() == null );
+                    if ( stats[ iv ] != null ) {
+                        assert stats[ iv ].getVariable() == var;
+                        checkStats( stats[ iv ], nbin,
+                                    ValidityTester.createTester( var,
+                                                                 vatts ) );
+                        nstat++;
+                    }
+                }
+                assert nstat > 0;
+            }
+            try {
+                VariableStats.calculate( content, 1, pool );
+                assert false;
+            }
+            catch ( IllegalArgumentException e ) {
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testStatsMerge( File testFile ) throws IOException {
+
+        // Give the real blocks of the Temp variable widely separated
+        // magnitudes, so that partial histograms with bin width
+        // exponents differing by more than 64 are merged.
+        File file = File.createTempFile( "stats", ".cdf" );
+        copyFile( testFile, file );
+        try {
+            CdfContent content = new CdfContent( new CdfReader( testFile ) );
+            Variable tempVar = content.getVariables()[ 9 ];
+            assert tempVar.getName().equals( "Temp" );
+            patchFloatRecord( file, tempVar, 0,
+                              new float[] { 1e-10f, 2e-10f, 1.5e-10f } );
+            patchFloatRecord( file, tempVar, 5,
+                              new float[] { 1e10f, 2e10f, 1.5e10f } );
+            for ( int irec = 10; irec < 13; irec++ ) {
+                patchFloatRecord( file, tempVar, irec,
+                                  new float[] { 1.1e10f, 1.9e10f, 1.2e10f } );
+            }
+            content.close();
+            CdfContent pContent = new CdfContent( new CdfReader( file ) );
+            Variable pVar = pContent.getVariables()[ 9 ];
+            ValidityTester tester =
+                new ValidityTester( pVar.getDataType(), null,
+                                    new AttributeEntry( DataType.REAL8,
+                                                        new double[] { -1 },
+                                                        1 ),
+                                    null );
+            ForkJoinPool pool = new ForkJoinPool( 4 );
+            try {
+                for ( int nbin : new int[] { 2, 7, 10, 64 } ) {
+                    VariableStats stats =
+                        VariableStats.calculate( new Variable[] { pVar },
+                                                 new ValidityTester[] {
+                                                     tester },
+                                                 nbin, pool )[ 0 ];
+                    assert stats.getCount() == 15;
+                    assert stats.getMin() == 1e-10f;
+                    assert stats.getMax() == 2e10f;
+                    checkStats( stats, nbin, tester );
+                }
+            }
+            finally {
+                pool.shutdown();
+                pContent.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Overwrites the stored values of a FLOAT record in a copy of
+     * a little-endian CDF file, locating it by its current values.
+     */
+    private static void patchFloatRecord( File file, Variable var, int irec,
+                                          float[] values )
+            throws IOException {
+        float[] old = (float[]) var.createRawValueArray();
+        var.readRawRecord( irec, old );
+        ByteBuffer oldBytes = ByteBuffer.allocate( 4 * old.length )
+                                        .order( ByteOrder.LITTLE_ENDIAN );
+        ByteBuffer newBytes = ByteBuffer.allocate( 4 * values.length )
+                                        .order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < old.length; i++ ) {
+            oldBytes.putFloat( old[ i ] );
+            newBytes.putFloat( values[ i ] );
+        }
+        replaceBytes( file, oldBytes.array(), newBytes.array() );
+    }
+
+    /**
+     * Overwrites the stored values of a time record (long[] or double[]
+     * raw values) in a copy of a little-endian CDF file,
+     * locating it by its current values.
+     */
+    private static void patchTimeRecord( File file, Variable var, int irec,
+                                         Object values )
+            throws IOException {
+        Object old = var.createRawValueArray();
+        var.readRawRecord( irec, old );
+        int n = Array.getLength( old );
+        ByteBuffer oldBytes = ByteBuffer.allocate( 8 * n )
+                                        .order( ByteOrder.LITTLE_ENDIAN );
+        ByteBuffer newBytes = ByteBuffer.allocate( 8 * n )
+                                        .order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < n; i++ ) {
+            if ( old instanceof long[] ) {
+                oldBytes.putLong( ((long[]) old)[ i ] );
+                newBytes.putLong( ((long[]) values)[ i ] );
+            }
+            else {
+                oldBytes.putDouble( ((double[]) old)[ i ] );
+                newBytes.putDouble( ((double[]) values)[ i ] );
+            }
+        }
+        replaceBytes( file, oldBytes.array(), newBytes.array() );
+    }
+
+    /**
+     * Overwrites the single occurrence of a byte sequence in a file.
+     */
+    private static void replaceBytes( File file, byte[] pattern,
+                                      byte[] replacement )
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            byte[] data = new byte[ (int) raf.length() ];
+            raf.readFully( data );
+            int ifound = -1;
+            int np = pattern.length;
+            for ( int i = 0; i + np <= data.length; i++ ) {
+                if ( Arrays.equals( pattern,
+                                    Arrays.copyOfRange( data, i, i + np ) ) ) {
+                    assert ifound < 0;
+                    ifound = i;
+                }
+            }
+            assert ifound >= 0;
+            raf.seek( ifound );
+            raf.write( replacement );
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static void checkStats( VariableStats stats, int nbin,
+                                    ValidityTester tester )
+            throws IOException {
+        Variable var = stats.getVariable();
+        DoubleReader rdr = var.getDoubleReader();
+        int ngrp = var.getDataType().getGroupSize();
+        int leng = var.getShapedRecordLength();
+        long nitem = 0;
+        long nNonFinite = 0;
+        long nInvalid = 0;
+        List<Double> vals = new ArrayList<Double>();
+        Object rec = var.createShapedValueArray( 1 );
+        for ( int irec = 0; irec < var.getRecordCount(); irec++ ) {
+            var.readShapedRecord( irec, true, var.createRawValueArray(),
+                                  rec, 0 );
+            for ( int i = 0; i < leng; i += ngrp ) {
+                double d = rdr.getDouble( rec, i );
+                nitem++;
+                if ( Double.isNaN( d ) || Double.isInfinite( d ) ) {
+                    nNonFinite++;
+                }
+                else if ( tester.hasLimits() && ! tester.isValid( rec, i ) ) {
+                    nInvalid++;
+                }
+                else {
+                    vals.add( d );
+                }
+            }
+        }
+        assert stats.getItemCount() == nitem;
+        assert stats.getNonFiniteCount() == nNonFinite;
+        assert stats.getInvalidCount() == nInvalid;
+        assert stats.getCount() == vals.size();
+        long[] bins = stats.getHistogram();
+        if ( vals.isEmpty() ) {
+            assert Double.isNaN( stats.getMin() );
+            assert Double.isNaN( stats.getMean() );
+            assert bins.length == 0;
+            return;
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for ( double d : vals ) {
+            min = Math.min( min, d );
+            max = Math.max( max, d );
+            sum += d;
+        }
+        double mean = sum / vals.size();
+        double ss = 0;
+        for ( double d : vals ) {
+            ss += ( d - mean ) * ( d - mean );
+        }
+        assert stats.getMin() == min;
+        assert stats.getMax() == max;
+        assert approxEquals( stats.getMean(), mean );
+        if ( vals.size() > 1 ) {
+            assert approxEquals( stats.getStdDev(),
+                                 Math.sqrt( ss / ( vals.size() - 1 ) ) );
+        }
+        else {
+            assert Double.isNaN( stats.getStdDev() );
+        }
+        assert bins.length >= 1 && bins.length <= nbin;
+        double width = stats.getHistogramBinWidth();
+        long origin = (long) Math.floor( stats.getHistogramStart() / width );
+        assert origin * width == stats.getHistogramStart();
+        long[] counts = new long[ bins.length ];
+        for ( double d : vals ) {
+            counts[ (int) ( (long) Math.floor( d / width ) - origin ) ]++;
+        }
+        assert Arrays.equals( counts, bins );
+    }
+
+    private static boolean approxEquals( double d1, double d2 ) {
+        return Math.abs( d1 - d2 )
+            <= 1e-9 * Math.max( 1, Math.max( Math.abs( d1 ),
+                                             Math.abs( d2 ) ) );
+    }
+
+    public void testCompactUnsigned( File testFile ) throws IOException {
+        ReadOptions opts = new ReadOptions();
+        opts.setCompactUnsigned( true );
+        CdfContent content = new CdfContent( new CdfReader( testFile ), opts );
+
+        // Array values are same-width, scalar values are widened as usual.
+        AttributeEntry[] tents = content.getGlobalAttributes()[ 2 ]
+                                .getEntries();
+        assert tents[ 11 ].getDataType() == DataType.UINT4_COMPACT;
+        assert tents[ 11 ].getDataType().isUnsigned();
+        assert ((Long) tents[ 11 ].getShapedValue()).longValue() == 4294967295L;
+        assert Arrays.equals( (int[]) tents[ 12 ].getShapedValue(),
+                              new int[] { -1, Integer.MIN_VALUE } );
+        LongReader lrdr = tents[ 12 ].getDataType().getLongReader();
+        assert lrdr.getLong( tents[ 12 ].getRawValue(), 1 ) == 2147483648L;
+        assert ((Integer) tents[ 13 ].getShapedValue()).intValue() == 65535;
+        assert Arrays.equals( (short[]) tents[ 14 ].getShapedValue(),
+                              new short[] { (short) -1, (short) -2 } );
+        assert ((Short) tents[ 15 ].getShapedValue()).shortValue() == 255;
+        assert Arrays.equals( (byte[]) tents[ 16 ].getShapedValue(),
+                              new byte[] { (byte) -1, (byte) -2 } );
+        assert "254".equals( tents[ 16 ].getDataType()
+                            .formatArrayValue( tents[ 16 ].getRawValue(),
+                                               1 ) );
+
+        Variable lat1Var = content.getVariables()[ 1 ];
+        assert lat1Var.getDataType() == DataType.UINT1_COMPACT;
+        byte[] lats = (byte[]) readShapedRecord( lat1Var, 2, true );
+        assert Arrays.equals( new byte[] { (byte) 100, (byte) 128,
+                                           (byte) 255 }, lats );
+        assert lat1Var.getDoubleReader().getDouble( lats, 2 ) == 255.0;
+        assert ! DataType.UINT1.isUnsigned();
+    }
+
+    /**
+     * Checks shaping of raw arrays into either majority against a
+     * direct index calculation, and that shaping back again recovers
+     * the raw values, for various dimensionalities and element types.
+     */
+    public void testShaper() {
+        DataType[] dtypes = {
+            DataType.INT1, DataType.UINT1, DataType.INT2, DataType.INT4,
+            DataType.INT8, DataType.REAL4, DataType.REAL8, DataType.EPOCH16,
+            DataType.CHAR,
+        };
+        int[][] dimsList = {
+            { 6 }, { 7, 5 }, { 40, 35 }, { 3, 4, 5 }, { 33, 1, 34 },
+            { 2, 70, 3 },
+        };
+        for ( DataType dtype : dtypes ) {
+            for ( int[] dims : dimsList ) {
+                int ndim = dims.length;
+                boolean[] allVary = new boolean[ ndim ];
+                Arrays.fill( allVary, true );
+                boolean[] someVary = allVary.clone();
+                someVary[ 0 ] = ndim == 1;
+                for ( boolean rawRowMajor : new boolean[] { true, false } ) {
+                    for ( boolean rowMajor : new boolean[] { true, false } ) {
+                        checkShaper( dtype, dims, allVary,
+                                     rawRowMajor, rowMajor );
+                        checkShaper( dtype, dims, someVary,
+                                     rawRowMajor, rowMajor );
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkShaper( DataType dtype, int[] dims,
+                                     boolean[] dimVarys, boolean rawRowMajor,
+                                     boolean rowMajor ) {
+        Shaper shaper =
+            Shaper.createShaper( dtype, dims, dimVarys, rawRowMajor );
+        Class<?> clazz = dtype.getArrayElementClass();
+        int g = dtype.getGroupSize();
+        int ndim = dims.length;
+        int nraw = shaper.getRawItemCount();
+        int nshaped = shaper.getShapedItemCount();
+        int nrec = 3;
+        int off = 2;
+        Object raws = Array.newInstance( clazz, nrec * nraw * g );
+        for ( int i = 0; i < nrec * nraw * g; i++ ) {
+            Array.set( raws, i, createElement( clazz, i + 1 ) );
+        }
+        Object raw = Array.newInstance( clazz, nraw * g );
+        System.arraycopy( raws, 0, raw, 0, nraw * g );
+        Object shaped = shaper.shape( raw, rowMajor );
+        assert Array.getLength( shaped ) == nshaped * g;
+        Object dest = Array.newInstance( clazz, off + nrec * nshaped * g );
+        shaper.shapeRecords( raws, nrec, rowMajor, dest, off );
+
+        // Work out the raw index of each shaped item's coordinates.
+        int[] coords = new int[ ndim ];
+        for ( int is = 0; is < nshaped; is++ ) {
+            int rem = is;
+            for ( int j = 0; j < ndim; j++ ) {
+                int idim = rowMajor ? ndim - 1 - j : j;
+                coords[ idim ] = rem % dims[ idim ];
+                rem /= dims[ idim ];
+            }
+            int ir = 0;
+            int stride = 1;
+            for ( int j = 0; j < ndim; j++ ) {
+                int idim = rawRowMajor ? ndim - 1 - j : j;
+                if ( dimVarys[ idim ] ) {
+                    ir += coords[ idim ] * stride;
+                    stride *= dims[ idim ];
+                }
+            }
+            assert shaper.getArrayIndex( coords ) == ir * g;
+            for ( int k = 0; k < g; k++ ) {
+                assert Array.get( shaped, is * g + k )
+                      .equals( Array.get( raw, ir * g + k ) );
+                for ( int irec = 0; irec < nrec; irec++ ) {
+                    assert Array.get( dest,
+                                      off + ( irec * nshaped + is ) * g + k )
+                          .equals( Array.get( raws,
+                                              ( irec * nraw + ir ) * g + k ) );
+                }
+            }
+        }
+
+        // Where all dimensions vary, the shaped array is the raw array
+        // of the other majority, so shaping it back recovers the input.
+        if ( nraw == nshaped ) {
+            Shaper backShaper =
+                Shaper.createShaper( dtype, dims, dimVarys, rowMajor );
+            Object back = backShaper.shape( shaped, rawRowMajor );
+            for ( int i = 0; i < nraw * g; i++ ) {
+                assert Array.get( back, i ).equals( Array.get( raw, i ) );
+            }
+        }
+    }
+
+    private static Object createElement( Class<?> clazz, int value ) {
+        if ( clazz == byte.class ) {
+            return Byte.valueOf( (byte) value );
+        }
+        else if ( clazz == short.class ) {
+            return Short.valueOf( (short) value );
+        }
+        else if ( clazz == int.class ) {
+            return Integer.valueOf( value );
+        }
+        else if ( clazz == long.class ) {
+            return Long.valueOf( value * 1000000007L );
+        }
+        else if ( clazz == float.class ) {
+            return Float.valueOf( value + 0.25f );
+        }
+        else if ( clazz == double.class ) {
+            return Double.valueOf( value + 0.125 );
+        }
+        else {
+            return "s" + value;
+        }
+    }
+
+    public void testCharModes( File testFile ) throws IOException {
+
+        // Byte-backed mode.
+        ReadOptions opts = new ReadOptions();
+        opts.setCharMode( ReadOptions.CharMode.BYTES );
+        CdfContent content = new CdfContent( new CdfReader( testFile ), opts );
+        AttributeEntry sent = content.getGlobalAttributes()[ 2 ]
+                             .getEntries()[ 10 ];
+        CharSlice sval = (CharSlice) sent.getShapedValue();
+        assert "This is a string".equals( sval.toString() );
+        assert sval.hashCode() == "This is a string".hashCode();
+        Variable nameVar = content.getVariables()[ 8 ];
+        CharSlice[] names = (CharSlice[]) readShapedRecord( nameVar, 0 );
+        assert "123456789 ".equals( names[ 0 ].toString() );
+        assert "13579     ".equals( names[ 1 ].toString() );
+        assert names[ 0 ].getBytes() == names[ 1 ].getBytes();
+        assert names[ 1 ].charAt( 2 ) == '5';
+        assert "579".equals( names[ 1 ].subSequence( 2, 5 ).toString() );
+
+        // Dictionary mode.
+        opts.setCharMode( ReadOptions.CharMode.DICTIONARY );
+        content = new CdfContent( new CdfReader( testFile ), opts );
+        nameVar = content.getVariables()[ 8 ];
+        String[] names1 = (String[]) readShapedRecord( nameVar, 0 );
+        String[] names2 = (String[]) readShapedRecord( nameVar, 0 );
+        assert Arrays.equals( new String[] { "123456789 ", "13579     " },
+                              names1 );
+        assert names1[ 0 ] == names2[ 0 ];
+        assert names1[ 1 ] == names2[ 1 ];
+    }
+
     private Object readShapedRecord( Variable var, int irec, boolean rowMajor )
             throws IOException {
-        return var.readShapedRecord( irec, rowMajor,
-                                     var.createRawValueArray() );
+        Object shaped = var.readShapedRecord( irec, rowMajor,
+                                              var.createRawValueArray() );
+
+        // Check that the non-allocating variant gives the same values.
+        if ( shaped != null ) {
+            int leng = var.getShapedRecordLength();
+            Object dest = var.createShapedValueArray( 2 );
+            var.readShapedRecord( irec, rowMajor, var.createRawValueArray(),
+                                  dest, leng );
+            if ( shaped.getClass().isArray() ) {
+                assert Array.getLength( shaped ) == leng;
+                for ( int i = 0; i < leng; i++ ) {
+                    assert Array.get( shaped, i )
+                          .equals( Array.get( dest, leng + i ) );
+                }
+            }
+            else {
+                assert leng == 1;
+                assert shaped.equals( Array.get( dest, leng ) );
+            }
+        }
+        return shaped;
     }
 
     private Object readShapedRecord( Variable var, int irec )
@@ -329,7 +2524,8 @@ public class ExampleTest {
      * <p>Tests are made using java assertions, so this test must be
      * run with java assertions enabled.  If it's not, it will fail anyway.
      */
-    public static void main( String[] args ) throws IOException {
+    public static void main( String[] args )
+            throws IOException, InterruptedException {
         assert checkAssertions();
         if ( ! assertionsOn_ ) {
             throw new RuntimeException( "Assertions disabled - bit pointless" );
@@ -351,5 +2547,32 @@ public class ExampleTest {
         extest.testExample1( ex1 );
         extest.testExample2( ex2 );
         extest.testTest( test );
+        extest.testRecordRuns( test );
+        extest.testDedupCache( test );
+        extest.testClose( test );
+        extest.testRefresh( test );
+        extest.testRecordMapLookup( test );
+        extest.testCache( ex1, ex2, test );
+        extest.testCacheError( test );
+        extest.testWarmUp( test );
+        extest.testConcurrentReads( ex1 );
+        extest.testConcurrentReads( test );
+        extest.testPublisher( test );
+        extest.testStreams( ex1 );
+        extest.testStreams( ex2 );
+        extest.testStreams( test );
+        extest.testDataset( ex1, ex2 );
+        extest.testDatasetTimeTypes( test );
+        extest.testDatasetFill( test );
+        extest.testCatalog( ex1, ex2, test );
+        extest.testCatalogTt2000( test );
+        extest.testCatalogFill( test );
+        extest.testZoneMap( test );
+        extest.testStats( ex2 );
+        extest.testStats( test );
+        extest.testStatsMerge( test );
+        extest.testCompactUnsigned( test );
+        extest.testCharModes( test );
+        extest.testShaper();
     }
 }
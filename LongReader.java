@@ -0,0 +1,25 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * Reads integer values from a value array as primitive longs,
+ * without the overhead of creating wrapper objects.
+ * Instances are obtained from {@link DataType#getLongReader}.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public interface LongReader {
+
+    /**
+     * Returns the value at a given position in a value array as a long.
+     *
+     * <p>The <code>arrayIndex</code> argument is the index into the
+     * array object, not necessarily the item index -
+     * see the {@link DataType#getArrayIndex DataType.getArrayIndex} method.
+     *
+     * @param   valueArray  array filled with data for the relevant data type
+     * @param   arrayIndex  index into array at which the item is found
+     * @return  integer value
+     */
+    long getLong( Object valueArray, int arrayIndex );
+}
@@ -23,11 +23,13 @@ public enum NumericEncoding {
     ALPHAOSF1( Boolean.FALSE ),
     ALPHAVMSi( Boolean.FALSE ),
 
-    VAX( null ),
-    ALPHAVMSd( null ),
-    ALPHAVMSg( null );
+    VAX( null, true, false ),
+    ALPHAVMSd( null, true, false ),
+    ALPHAVMSg( null, true, true );
 
     private final Boolean isBigendian_;
+    private final boolean isVax_;
+    private final boolean isGFloat_;
 
     /**
      * Constructor.
@@ -37,7 +39,24 @@ public enum NumericEncoding {
      *                      null for something else
      */
     NumericEncoding( Boolean isBigendian ) {
+        this( isBigendian, false, false );
+    }
+
+    /**
+     * Constructor with VAX float options.
+     *
+     * @param  isBigendian  TRUE for simple big-endian,
+     *                      FALSE for simple little-endian,
+     *                      null for something else
+     * @param  isVax  true for little-endian integers with
+     *                VAX floating point formats
+     * @param  isGFloat  true if 8-byte floating point values are G_FLOAT
+     *                   rather than D_FLOAT; only relevant for VAX
+     */
+    NumericEncoding( Boolean isBigendian, boolean isVax, boolean isGFloat ) {
         isBigendian_ = isBigendian;
+        isVax_ = isVax;
+        isGFloat_ = isGFloat;
     }
 
     /**
@@ -56,6 +75,28 @@ public enum NumericEncoding {
         return isBigendian_;
     }
 
+    /**
+     * Indicates whether this encoding uses VAX floating point formats.
+     * If so, integers are little-endian, 4-byte floating point values
+     * are F_FLOAT, and 8-byte values are D_FLOAT or G_FLOAT according
+     * to {@link #isGFloat}.  Such data can be read using a {@link VaxBuf}.
+     *
+     * @return  true for VAX floating point
+     */
+    public boolean isVax() {
+        return isVax_;
+    }
+
+    /**
+     * Indicates whether 8-byte floating point values in a VAX encoding
+     * use G_FLOAT rather than D_FLOAT format.
+     *
+     * @return  true for G_FLOAT, false for D_FLOAT or non-VAX encodings
+     */
+    public boolean isGFloat() {
+        return isGFloat_;
+    }
+
     /**
      * Returns the encoding corresponding to the value of the
      * <code>encoding</code> field of the CDF Descriptor Record.
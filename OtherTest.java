@@ -5,8 +5,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.bristol.star.cdf.TtScaler;
 import uk.ac.bristol.star.cdf.EpochFormatter;
+import uk.ac.bristol.star.cdf.EpochParser;
+import uk.ac.bristol.star.cdf.UnixTimeConverter;
 import uk.ac.bristol.star.cdf.util.LogUtil;
 
 public class OtherTest {
@@ -65,6 +69,15 @@ public class OtherTest {
         assertTt( Long.MIN_VALUE, "9999-12-31T23:59:59.999999999" );
         assertTt( Long.MIN_VALUE + 1, "0000-01-01T00:00:00.000000000" );
 
+        // EPOCH and EPOCH16, including dates formatted the slow way.
+        assert "2009-01-01T00:00:00.001"
+              .equals( epf_.formatEpoch( 63397987200001.0 ) );
+        assert "1066-03-02T12:00:00.000"
+              .equals( epf_.formatEpoch( 33645499200000.0 ) );
+        assert "2009-01-01T00:00:00.000000000042"
+              .equals( epf_.formatEpoch16( 63397987200.0, 42.0 ) );
+        assert "??".equals( epf_.formatEpoch16( 63397987200.0, -1.0 ) );
+
         // Systematic tests for all scaler ranges except the last.
         TtScaler[] scalers = TtScaler.getTtScalers();
         int ns = scalers.length;
@@ -95,6 +108,131 @@ public class OtherTest {
         checkWithNasa( 9223370000000000000L );
     }
 
+    public void testUnixTimeConverter() {
+
+        // Spot tests either side of, and during, a leap second.
+        // Like Unix time, the leap second repeats the following second.
+        assertUnix( 284040064183000000L, 1230767998999000000L );
+        assertUnix( 284040065307456789L, 1230768000123456789L );
+        assertUnix( 284040066184000000L, 1230768000000000000L );
+        assertUnix( 284040066185000023L, 1230768000001000023L );
+        assertUnix( Long.MIN_VALUE, UnixTimeConverter.TT2000_FILL_UNIX_NANOS );
+        assertUnix( Long.MIN_VALUE + 1,
+                    UnixTimeConverter.TT2000_FILL_UNIX_NANOS );
+
+        // Bulk conversion must match single conversion,
+        // for sorted values straddling each scaler boundary
+        // and for unsorted values.
+        TtScaler[] scalers = TtScaler.getTtScalers();
+        int ns = scalers.length;
+        long[] tts = new long[ ns * 4 ];
+        for ( int i = 0; i < ns; i++ ) {
+            long from = scalers[ i ].getFromTt2kMillis();
+            if ( from == Long.MIN_VALUE ) {
+                from = scalers[ i ].getToTt2kMillis() - 86400000L;
+            }
+            tts[ i * 4 + 0 ] = from * 1000000 - 1;
+            tts[ i * 4 + 1 ] = from * 1000000;
+            tts[ i * 4 + 2 ] = from * 1000000 + 999999999L;
+            tts[ i * 4 + 3 ] = from * 1000000 + 86400000000000L;
+        }
+        tts[ 6 ] = Long.MIN_VALUE;
+        checkBulkUnix( tts );
+        long[] revs = new long[ tts.length ];
+        for ( int i = 0; i < tts.length; i++ ) {
+            revs[ i ] = tts[ tts.length - 1 - i ];
+        }
+        checkBulkUnix( revs );
+
+        // EPOCH and EPOCH16.
+        double[] epochs = { 63397987200000.0, 0.0 };
+        UnixTimeConverter.epochToUnixMillis( epochs, 0, epochs, 0, 1 );
+        assert epochs[ 0 ] == 1230768000000.0;
+        double[] epoch16s = { 0, 0, 63397987200.0, 123456789012.0 };
+        long[] unixNanos = new long[ 1 ];
+        UnixTimeConverter.epoch16ToUnixNanos( epoch16s, 2, unixNanos, 0, 1 );
+        assert unixNanos[ 0 ] == 1230768000123456789L;
+    }
+
+    public void testEpochParser() {
+        EpochParser parser = new EpochParser();
+
+        // Spot tests.
+        assert parser.parseTimeTt2000( "2008-12-31T23:59:60.123456789" )
+            == 284040065307456789L;
+        assert parser.parseTimeTt2000( "2009-01-01T00:00:00.001Z" )
+            == 284040066185000000L;
+        assert parser.parseTimeTt2000( " 2009-01-01 " )
+            == 284040066184000000L;
+        assert parser.parseTimeTt2000( "9999-12-31T23:59:59.999999999" )
+            == Long.MIN_VALUE;
+        assert parser.parseTimeTt2000( "0000-01-01T00:00:00.000000000" )
+            == Long.MIN_VALUE + 1;
+        assert parser.parseEpoch( "2009-01-01T00:00:00.001" )
+            == 63397987200001.0;
+        double[] ep16 = new double[ 3 ];
+        parser.parseEpoch16( "2009-01-01T00:00:00.000000000042", ep16, 1 );
+        assert ep16[ 1 ] == 63397987200.0 && ep16[ 2 ] == 42.0;
+
+        // Bad strings.
+        String[] bads = {
+            "2009-02-29", "2009-1-01", "2009-01-01T00:00:00.",
+            "2009-01-01T24:00", "2009-01-01T12:00:60", "2009/01/01", "",
+        };
+        for ( String bad : bads ) {
+            try {
+                parser.parseTimeTt2000( bad );
+                assert false : bad;
+            }
+            catch ( IllegalArgumentException e ) {
+            }
+        }
+
+        // Round trip with formatter for times either side of, and during,
+        // each leap second since 1972, in bulk and singly.
+        TtScaler[] scalers = TtScaler.getTtScalers();
+        List<String> txtList = new ArrayList<String>();
+        List<Long> ttList = new ArrayList<Long>();
+        for ( int i = 1; i < scalers.length; i++ ) {
+            long from = scalers[ i ].getFromTt2kMillis();
+            if ( i > 1 && scalers[ i - 1 ].hasFixedOffset()
+                       && scalers[ i ].hasFixedOffset() ) {
+                for ( long dt = -1500000001L; dt < 1500000000L;
+                      dt += 250000001L ) {
+                    long tt = from * 1000000 + dt;
+                    String txt = epf_.formatTimeTt2000( tt );
+                    assert parser.parseTimeTt2000( txt ) == tt : txt;
+                    txtList.add( txt );
+                    ttList.add( tt );
+                }
+            }
+        }
+        int nt = txtList.size();
+        long[] tts = new long[ nt ];
+        parser.parseTimeTt2000( txtList.toArray( new String[ 0 ] ), 0,
+                                tts, 0, nt );
+        for ( int i = 0; i < nt; i++ ) {
+            assert tts[ i ] == ttList.get( i ).longValue();
+        }
+    }
+
+    private void assertUnix( long tt2kNanos, long unixNanos ) {
+        assert UnixTimeConverter.tt2000ToUnixNanos( tt2kNanos ) == unixNanos;
+        long[] array = new long[] { tt2kNanos };
+        UnixTimeConverter.tt2000ToUnixNanos( array, 0, array, 0, 1 );
+        assert array[ 0 ] == unixNanos;
+    }
+
+    private void checkBulkUnix( long[] tts ) {
+        int n = tts.length;
+        long[] unixes = new long[ n + 1 ];
+        UnixTimeConverter.tt2000ToUnixNanos( tts, 0, unixes, 1, n );
+        for ( int i = 0; i < n; i++ ) {
+            assert unixes[ i + 1 ] == UnixTimeConverter
+                                     .tt2000ToUnixNanos( tts[ i ] );
+        }
+    }
+
     private void checkWithNasa( long tt2kNanos ) {
         assert epf_.formatTimeTt2000( tt2kNanos )
               .equals( nasaFormatTimeTt2000( tt2kNanos ) )
@@ -103,6 +241,20 @@ public class OtherTest {
 
     private void assertTt( long tt2kNanos, String text ) {
         assert text.equals( epf_.formatTimeTt2000( tt2kNanos ) );
+
+        // Check buffer variants write the same thing.
+        int leng = text.length();
+        char[] cbuf = new char[ EpochFormatter.MAX_LENGTH + 1 ];
+        assert epf_.formatTimeTt2000( tt2kNanos, cbuf, 1 ) == leng;
+        assert text.equals( new String( cbuf, 1, leng ) );
+        byte[] bbuf = new byte[ EpochFormatter.MAX_LENGTH + 1 ];
+        assert epf_.formatTimeTt2000( tt2kNanos, bbuf, 1 ) == leng;
+        for ( int i = 0; i < leng; i++ ) {
+            assert bbuf[ 1 + i ] == text.charAt( i );
+        }
+        StringBuilder sbuf = new StringBuilder( "t=" );
+        epf_.formatTimeTt2000( tt2kNanos, sbuf );
+        assert sbuf.toString().equals( "t=" + text );
     }
 
     private static String nasaFormatTimeTt2000( long tt2knanos ) {
@@ -151,6 +303,61 @@ public class OtherTest {
         return true;
     }
 
+    // Formats from several threads with one shared formatter, as the
+    // DataType epoch types do, and checks against serial results.
+    public void testConcurrentFormat() {
+        final EpochFormatter fmt = new EpochFormatter();
+        Random rnd = new Random( 88442 );
+        int nval = 2000;
+        final long[] tts = new long[ nval ];
+        final double[] epochs = new double[ nval ];
+        final String[] expected = new String[ 3 * nval ];
+        for ( int i = 0; i < nval; i++ ) {
+            tts[ i ] = ( rnd.nextLong() >> 4 );
+
+            // Include dates before 1582, which take the slow path.
+            epochs[ i ] = rnd.nextDouble() * 8e13;
+            expected[ 3 * i + 0 ] = fmt.formatTimeTt2000( tts[ i ] );
+            expected[ 3 * i + 1 ] = fmt.formatEpoch( epochs[ i ] );
+            expected[ 3 * i + 2 ] =
+                fmt.formatEpoch16( Math.floor( epochs[ i ] * 1e-3 ), i );
+        }
+        final AtomicInteger nbad = new AtomicInteger();
+        Thread[] threads = new Thread[ 4 ];
+        for ( int it = 0; it < threads.length; it++ ) {
+            threads[ it ] = new Thread() {
+                public void run() {
+                    for ( int irep = 0; irep < 10; irep++ ) {
+                        for ( int i = 0; i < tts.length; i++ ) {
+                            String[] results = {
+                                fmt.formatTimeTt2000( tts[ i ] ),
+                                fmt.formatEpoch( epochs[ i ] ),
+                                fmt.formatEpoch16( Math.floor( epochs[ i ]
+                                                             * 1e-3 ), i ),
+                            };
+                            for ( int j = 0; j < 3; j++ ) {
+                                if ( ! results[ j ]
+                                      .equals( expected[ 3 * i + j ] ) ) {
+                                    nbad.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            threads[ it ].start();
+        }
+        for ( Thread th : threads ) {
+            try {
+                th.join();
+            }
+            catch ( InterruptedException e ) {
+                throw new RuntimeException( e );
+            }
+        }
+        assert nbad.get() == 0;
+    }
+
     private static void runTests() {
             assert checkAssertions();
         if ( ! assertionsOn_ ) {
@@ -159,6 +366,9 @@ public class OtherTest {
         OtherTest test = new OtherTest();
         test.testTtScaler();
         test.testTtFormatter();
+        test.testUnixTimeConverter();
+        test.testEpochParser();
+        test.testConcurrentFormat();
     }
 
     private static String reportFormats( long tt2kNanos ) {
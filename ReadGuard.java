@@ -0,0 +1,155 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of reads in progress on a buf, so that the resources
+ * it holds, such as mapped memory, are only released when no thread
+ * is using them.
+ * Reading from an unmapped buffer can crash the JVM, so a buf
+ * that may be closed by one thread while others are reading
+ * must bracket each access with {@link #enter} and {@link #exit}.
+ *
+ * <p>Closing does not block.  If reads are in progress when
+ * {@link #close} is called, the resources are released by the
+ * last of them to finish.  Reads starting after the close fail.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+abstract class ReadGuard {
+
+    /** Twice the number of active reads, plus one if closed. */
+    private final AtomicInteger state_;
+    private final AtomicBoolean isReleased_;
+
+    private static final Logger logger_ =
+        Logger.getLogger( ReadGuard.class.getName() );
+
+    /**
+     * Constructor.
+     */
+    protected ReadGuard() {
+        state_ = new AtomicInteger();
+        isReleased_ = new AtomicBoolean();
+    }
+
+    /**
+     * Releases the guarded resources.
+     * Called at most once, when this guard is closed and no reads
+     * are in progress.
+     */
+    protected abstract void release() throws IOException;
+
+    /**
+     * Marks the start of a read.
+     * If this method completes normally, {@link #exit} must be called
+     * when the read is finished.
+     *
+     * @throws  ClosedChannelException  if this guard has been closed
+     */
+    public void enter() throws ClosedChannelException {
+        if ( ( state_.addAndGet( 2 ) & 1 ) != 0 ) {
+            exit();
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Marks the end of a read.
+     */
+    public void exit() {
+        if ( state_.addAndGet( -2 ) == 1 ) {
+            try {
+                doRelease();
+            }
+            catch ( IOException e ) {
+                logger_.log( Level.WARNING, "Error releasing buf", e );
+            }
+        }
+    }
+
+    /**
+     * Closes this guard.  Resources are released now if no reads are
+     * in progress, otherwise when the last one exits.
+     * Calling this method more than once has no further effect.
+     */
+    public void close() throws IOException {
+        int state;
+        do {
+            state = state_.get();
+            if ( ( state & 1 ) != 0 ) {
+                return;
+            }
+        } while ( ! state_.compareAndSet( state, state | 1 ) );
+        if ( state == 0 ) {
+            doRelease();
+        }
+    }
+
+    /**
+     * Indicates whether this guard has been closed.
+     *
+     * @return  true iff closed
+     */
+    public boolean isClosed() {
+        return ( state_.get() & 1 ) != 0;
+    }
+
+    /**
+     * Returns an input stream whose reads are guarded by this object.
+     *
+     * @param  in  base input stream
+     * @return  guarded stream
+     */
+    public InputStream guardStream( InputStream in ) {
+        return new FilterInputStream( in ) {
+            @Override
+            public int read() throws IOException {
+                enter();
+                try {
+                    return super.read();
+                }
+                finally {
+                    exit();
+                }
+            }
+            @Override
+            public int read( byte[] b, int off, int len ) throws IOException {
+                enter();
+                try {
+                    return super.read( b, off, len );
+                }
+                finally {
+                    exit();
+                }
+            }
+            @Override
+            public long skip( long n ) throws IOException {
+                enter();
+                try {
+                    return super.skip( n );
+                }
+                finally {
+                    exit();
+                }
+            }
+        };
+    }
+
+    /**
+     * Calls {@link #release} if it has not been called already.
+     */
+    private void doRelease() throws IOException {
+        if ( isReleased_.compareAndSet( false, true ) ) {
+            release();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * Options controlling how data values are represented when read
+ * from a CDF file.
+ * The default settings give the behaviour of earlier versions
+ * of this library.
+ *
+ * <p>An instance is supplied to the {@link CdfContent} constructor,
+ * which takes a copy, so changing its settings afterwards
+ * has no effect on CdfContents already constructed.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class ReadOptions {
+
+    private boolean compactUnsigned_;
+    private CharMode charMode_ = CharMode.STRING;
+
+    /**
+     * Constructs an options object with default settings.
+     */
+    public ReadOptions() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param  opts  template options
+     */
+    public ReadOptions( ReadOptions opts ) {
+        compactUnsigned_ = opts.compactUnsigned_;
+        charMode_ = opts.charMode_;
+    }
+
+    /**
+     * Sets whether unsigned integer data is read into arrays of the
+     * same width as the stored values.
+     * If false (the default), UINT1, UINT2 and UINT4 values are
+     * widened to <code>short</code>, <code>int</code> and <code>long</code>
+     * respectively, so that the array elements have the correct values.
+     * If true, they are read into <code>byte</code>, <code>short</code>
+     * and <code>int</code> arrays, which saves memory and time,
+     * and the corresponding data types report
+     * {@link DataType#isUnsigned isUnsigned}=true.
+     * In that case array elements must be interpreted as unsigned,
+     * for instance by using the data type's
+     * {@link DataType#getLongReader LongReader}.
+     * Scalar values are in any case returned as the wider type.
+     *
+     * @param  compactUnsigned  true for same-width unsigned arrays
+     */
+    public void setCompactUnsigned( boolean compactUnsigned ) {
+        compactUnsigned_ = compactUnsigned;
+    }
+
+    /**
+     * Indicates whether unsigned integer data is read into arrays of the
+     * same width as the stored values.
+     *
+     * @return  true for same-width unsigned arrays
+     */
+    public boolean isCompactUnsigned() {
+        return compactUnsigned_;
+    }
+
+    /**
+     * Sets how CHAR and UCHAR data values are represented.
+     *
+     * @param  charMode  character data mode, not null
+     */
+    public void setCharMode( CharMode charMode ) {
+        if ( charMode == null ) {
+            throw new NullPointerException();
+        }
+        charMode_ = charMode;
+    }
+
+    /**
+     * Returns how CHAR and UCHAR data values are represented.
+     *
+     * @return  character data mode
+     */
+    public CharMode getCharMode() {
+        return charMode_;
+    }
+
+    /**
+     * Enumerates the ways that character data values can be represented.
+     */
+    public enum CharMode {
+
+        /**
+         * Each value is a new String; this is the default.
+         */
+        STRING,
+
+        /**
+         * Values are {@link CharSlice} views of a byte array
+         * shared by all the values read at once.
+         */
+        BYTES,
+
+        /**
+         * Each value is a String, but repeated values within a variable
+         * or attribute share the same String instance.
+         * This saves memory when values repeat,
+         * as for status flags or mode names.
+         * To bound memory use, only the first few thousand distinct
+         * values in each variable are retained for sharing.
+         */
+        DICTIONARY;
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * A run of consecutive records read from a variable,
+ * with their shaped values stored one after the other in a single
+ * primitive (or String) array.
+ * The record index is the outermost dimension of the values array,
+ * and each record occupies {@link Variable#getShapedRecordLength}
+ * elements, laid out as by
+ * {@link Variable#readShapedRecords(int,int,boolean,Object,Object,int)
+ *        Variable.readShapedRecords}.
+ *
+ * <p>The values array is not copied or retained by the producer,
+ * so the recipient may use or modify it as it likes.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ * @see   RecordPublisher
+ */
+public class RecordBatch {
+
+    private final Variable var_;
+    private final int irec_;
+    private final int nrec_;
+    private final boolean rowMajor_;
+    private final Object values_;
+
+    /**
+     * Constructor.
+     *
+     * @param  var  variable from which the records were read
+     * @param  irec  index of the first record
+     * @param  nrec  number of records
+     * @param  rowMajor  majority of the values within each record
+     * @param  values  array of nrec*var.getShapedRecordLength()
+     *                 shaped values
+     */
+    public RecordBatch( Variable var, int irec, int nrec, boolean rowMajor,
+                        Object values ) {
+        var_ = var;
+        irec_ = irec;
+        nrec_ = nrec;
+        rowMajor_ = rowMajor;
+        values_ = values;
+    }
+
+    /**
+     * Returns the variable from which the records were read.
+     *
+     * @return  variable
+     */
+    public Variable getVariable() {
+        return var_;
+    }
+
+    /**
+     * Returns the index of the first record in this batch.
+     *
+     * @return  first record index
+     */
+    public int getFirstRecord() {
+        return irec_;
+    }
+
+    /**
+     * Returns the number of records in this batch.
+     *
+     * @return  record count
+     */
+    public int getRecordCount() {
+        return nrec_;
+    }
+
+    /**
+     * Indicates the majority of the values within each record.
+     * This only has an effect for dimensionality &gt;=2.
+     *
+     * @return  true for row major, false for column major
+     */
+    public boolean isRowMajor() {
+        return rowMajor_;
+    }
+
+    /**
+     * Returns the shaped values of all the records in this batch.
+     * This is an array of the variable data type's
+     * {@link DataType#getArrayElementClass array element class}.
+     *
+     * @return  values array
+     */
+    public Object getValues() {
+        return values_;
+    }
+
+    @Override
+    public String toString() {
+        return var_.getName() + "[" + irec_ + ".." + ( irec_ + nrec_ - 1 )
+             + "]";
+    }
+}
@@ -0,0 +1,268 @@
+package uk.ac.bristol.star.cdf;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache which shares shaped record values between records with
+ * identical content.
+ * This is useful for record-varying variables whose values only
+ * change occasionally, such as energy tables or look directions,
+ * for which most records are the same as many others.
+ * Each raw record is hashed as it is read, and if a record with the
+ * same content has been shaped before, the earlier shaped instance
+ * is returned rather than a new one.
+ *
+ * <p>Memory use is bounded by a maximum number of distinct records;
+ * the least recently used are discarded when that is exceeded.
+ * Hit and miss counts are available so that the effectiveness
+ * of the cache can be monitored.
+ *
+ * <p>Instances are obtained from {@link Variable#getDedupCache};
+ * this class is thread-safe.  It uses a {@link ReentrantLock}
+ * rather than monitors, so virtual threads do not pin their carriers.
+ * Records are hashed and shaped outside the lock, so concurrent readers
+ * only contend for the map lookup itself.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class RecordDedupCache {
+
+    private final int maxSize_;
+    private final Map<Key,Object[]> map_;
+    private long nHit_;
+    private long nMiss_;
+    private final Lock lock_ = new ReentrantLock();
+
+    /**
+     * Constructor.
+     *
+     * @param  maxSize  maximum number of distinct records retained
+     */
+    RecordDedupCache( final int maxSize ) {
+        maxSize_ = maxSize;
+        map_ = new LinkedHashMap<Key,Object[]>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Key,Object[]> e ) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the shaped value for a raw record, shared with any
+     * earlier record of the same content.
+     *
+     * @param  rawValueArray  raw value array containing record data;
+     *                        not retained
+     * @param  rowMajor  required majority of output
+     * @param  shaper   shaper for the variable
+     * @return  shaped value, possibly shared
+     */
+    Object getShapedValue( Object rawValueArray, boolean rowMajor,
+                           Shaper shaper ) {
+
+        // Hash before taking the lock, and only hold it for the lookup.
+        Key key = new Key( rawValueArray );
+        int im = rowMajor ? 0 : 1;
+        lock_.lock();
+        try {
+            Object[] shaped = map_.get( key );
+            if ( shaped != null && shaped[ im ] != null ) {
+                nHit_++;
+                return shaped[ im ];
+            }
+            nMiss_++;
+        }
+        finally {
+            lock_.unlock();
+        }
+
+        // Shape without the lock.  If another thread has stored a value
+        // for the same content meanwhile, return that one instead,
+        // so that all callers share a single instance.
+        Object value = shaper.shape( rawValueArray, rowMajor );
+        Key storeKey = new Key( copyArray( rawValueArray ), key.hash_ );
+        lock_.lock();
+        try {
+            Object[] shaped = map_.get( key );
+            if ( shaped == null ) {
+                shaped = new Object[ 2 ];
+                map_.put( storeKey, shaped );
+            }
+            if ( shaped[ im ] == null ) {
+                shaped[ im ] = value;
+            }
+            return shaped[ im ];
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of distinct records retained.
+     *
+     * @return  maximum size
+     */
+    public int getMaxSize() {
+        return maxSize_;
+    }
+
+    /**
+     * Returns the number of distinct records currently retained.
+     *
+     * @return  current size
+     */
+    public int getSize() {
+        lock_.lock();
+        try {
+            return map_.size();
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads for which a shared value was returned.
+     *
+     * @return  hit count
+     */
+    public long getHitCount() {
+        lock_.lock();
+        try {
+            return nHit_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads for which a new value had to be shaped.
+     *
+     * @return  miss count
+     */
+    public long getMissCount() {
+        lock_.lock();
+        try {
+            return nMiss_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the proportion of reads for which a shared value
+     * was returned.
+     *
+     * @return  hit rate in the range 0..1, or NaN if there have been no reads
+     */
+    public double getHitRate() {
+        lock_.lock();
+        try {
+            long ntot = nHit_ + nMiss_;
+            return ntot == 0 ? Double.NaN : nHit_ / (double) ntot;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Discards all retained records and resets the hit and miss counts.
+     */
+    public void clear() {
+        lock_.lock();
+        try {
+            map_.clear();
+            nHit_ = 0;
+            nMiss_ = 0;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock_.lock();
+        try {
+            return "RecordDedupCache(size=" + map_.size() + "/" + maxSize_
+                 + ", hits=" + nHit_ + ", misses=" + nMiss_ + ")";
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns a shallow copy of an array.
+     *
+     * @param  array  primitive or object array
+     * @return  copy
+     */
+    private static Object copyArray( Object array ) {
+        if ( array instanceof Object[] ) {
+            return ((Object[]) array).clone();
+        }
+        int leng = Array.getLength( array );
+        Object copy = Array.newInstance( array.getClass().getComponentType(),
+                                         leng );
+        System.arraycopy( array, 0, copy, 0, leng );
+        return copy;
+    }
+
+    /**
+     * Map key which compares raw value arrays by content.
+     */
+    private static class Key {
+        final Object array_;
+        final int hash_;
+
+        /**
+         * Constructs a key, calculating its hash.
+         *
+         * @param  array  raw value array
+         */
+        Key( Object array ) {
+            this( array, Arrays.deepHashCode( new Object[] { array } ) );
+        }
+
+        /**
+         * Constructs a key with a known hash.
+         *
+         * @param  array  raw value array
+         * @param  hash   hash code of array content
+         */
+        Key( Object array, int hash ) {
+            array_ = array;
+            hash_ = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash_;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( o instanceof Key ) {
+                Key other = (Key) o;
+                return other.hash_ == this.hash_
+                    && Arrays.deepEquals( new Object[] { other.array_ },
+                                          new Object[] { this.array_ } );
+            }
+            else {
+                return false;
+            }
+        }
+    }
+}
@@ -3,7 +3,10 @@ package uk.ac.bristol.star.cdf.record;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import uk.ac.bristol.star.cdf.CdfFormatException;
 
 /**
@@ -29,9 +32,15 @@ public class RecordMap {
     private final int[] firsts_;
     private final int[] lasts_;
     private final Buf[] bufs_;
+    private final Buf fileBuf_;
     private final long[] offsets_;
     private final int recSize_;
-    private Block lastBlock_;
+    private final int regularStep_;
+    private final int[] eytzFirsts_;
+    private final int[] eytzIndices_;
+    private final long headVxrOffset_;
+    private final long tailVxrOffset_;
+    private int iLastEnt_;
 
     /**
      * Constructor.
@@ -39,9 +48,16 @@ public class RecordMap {
      * @param   array of entries containing stored variable record blocks,
      *          need not be sorted
      * @param   recSize   size of each variable record in bytes
+     * @param   fileBuf   buffer containing the file's records
+     * @param   headVxrOffset  offset of the first VXR in the top-level list
+     * @param   tailVxrOffset  offset of the last VXR in the top-level list
      */
-    private RecordMap( Entry[] entries, int recSize ) {
+    private RecordMap( Entry[] entries, int recSize, Buf fileBuf,
+                       long headVxrOffset, long tailVxrOffset ) {
         recSize_ = recSize;
+        fileBuf_ = fileBuf;
+        headVxrOffset_ = headVxrOffset;
+        tailVxrOffset_ = tailVxrOffset;
 
         // Sort entries into order of record data.
         Arrays.sort( entries );
@@ -59,10 +75,23 @@ public class RecordMap {
             bufs_[ ie ] = entry.buf_;
             offsets_[ ie ] = entry.offset_;
         }
-
-        // Initialise the most recently used block value
-        lastBlock_ = nent_ > 0 ? calculateBlock( 0 )
-                               : new Block( -1, -1, -1 );
+        assert isSorted( firsts_ );
+
+        // Many writers lay out the data in blocks of a fixed number of
+        // records each, in which case the entry for a record can be
+        // calculated directly.  Otherwise, prepare a search tree
+        // for the first-record-of-entry list.
+        regularStep_ = getRegularStep( firsts_, lasts_ );
+        if ( regularStep_ > 0 ) {
+            eytzFirsts_ = null;
+            eytzIndices_ = null;
+        }
+        else {
+            eytzFirsts_ = new int[ nent_ + 1 ];
+            eytzIndices_ = new int[ nent_ + 1 ];
+            fillEytzinger( firsts_, eytzFirsts_, eytzIndices_, 0, 1 );
+        }
+        iLastEnt_ = 0;
     }
 
     /**
@@ -90,17 +119,60 @@ public class RecordMap {
      * @return  index of entry covering <code>irec</code>, or a negative
      *          value if no entry covers it
      */
-    public synchronized int getEntryIndex( int irec ) {
+    public int getEntryIndex( int irec ) {
+
+        // If the layout is regular, the answer can be calculated directly.
+        if ( regularStep_ > 0 ) {
+            long roff = (long) irec - firsts_[ 0 ];
+            if ( roff < 0 ) {
+                return -1;
+            }
+            long ient = roff / regularStep_;
+            if ( ient >= nent_ ) {
+                return -nent_ - 1;
+            }
+            int ie = (int) ient;
+            return irec <= lasts_[ ie ] ? ie : -ie - 2;
+        }
 
         // There's a good chance that the answer is the same as the last
         // time somebody asked, so first of all do the cheap test to find
         // out if that's the case.  If so, return the cached one.
+        // This is not synchronized, so the cached value might have been
+        // updated by another thread; that doesn't matter, since any
+        // value we see is the index of a real entry.
+        int ilast = iLastEnt_;
+        if ( ilast < nent_ && irec >= firsts_[ ilast ]
+                           && irec <= lasts_[ ilast ] ) {
+            return ilast;
+        }
+
         // Otherwise, do the work to find out the right answer.
-        if ( ! lastBlock_.contains( irec ) ) {
-            lastBlock_ = calculateBlock( irec );
+        int ient = calculateEntryIndex( irec );
+        if ( ient >= 0 ) {
+            iLastEnt_ = ient;
         }
-        assert lastBlock_.contains( irec );
-        return lastBlock_.ient_;
+        return ient;
+    }
+
+    /**
+     * Returns the index of the first record in a given entry.
+     *
+     * @param  ient  non-negative entry index
+     * @return  first record index, inclusive
+     */
+    public int getFirstRecord( int ient ) {
+        return firsts_[ ient ];
+    }
+
+    /**
+     * Returns the index of the last record in a given entry.
+     *
+     * @param  ient  non-negative entry index
+     * @return  last record index, inclusive
+     */
+    public int getLastRecord( int ient ) {
+        return lasts_[ ient ];
     }
 
     /**
@@ -141,73 +213,76 @@ public class RecordMap {
      */
     public long getFinalOffsetInEntry( int ient ) {
         return offsets_[ ient ]
-             + ( lasts_[ ient ] - firsts_[ ient ] + 1 ) * recSize_;
+             + (long) ( lasts_[ ient ] - firsts_[ ient ] ) * recSize_;
     }
 
     /**
-     * Examines this map's lookup tables to determine the block covering
-     * a given record.
-     *
-     * @param  irec   record index
-     * @return   block containing irec
+     * Closes all the data buffers referenced by this map.
+     * This includes buffers of uncompressed data owned by the map,
+     * and also the main buffer of the file, so it should only be
+     * called when the whole file is being closed.
      */
-    private Block calculateBlock( int irec ) {
-
-        // Look for the record in the first-record-of-entry list.
-        int firstIndex = binarySearch( firsts_, irec );
-
-        // If found, irec is in the corresponding block.
-        if ( firstIndex >= 0 ) {
-            return new Block( firstIndex,
-                              firsts_[ firstIndex ], lasts_[ firstIndex ] );
-        }
-
-        // If it's located before the start, it's in a sparse block
-        // before the first actual record.
-        else if ( firstIndex == -1 ) {
-            return new Block( -firstIndex - 2, 0, firsts_[ 0 ] - 1 );
-        }
-
-        // Otherwise, record the first entry it's after the start of.
-        else {
-            firstIndex = -2 - firstIndex;
-        }
-
-        // Look for the record in the last-record-of-entry list.
-        int lastIndex = binarySearch( lasts_, irec );
-
-        // If found, irec is in the corresponding block.
-        if ( lastIndex >= 0 ) {
-            return new Block( lastIndex,
-                              firsts_[ lastIndex ], lasts_[ lastIndex ] );
+    public void close() throws IOException {
+        Set<Buf> done =
+            Collections.newSetFromMap( new IdentityHashMap<Buf,Boolean>() );
+        for ( Buf buf : bufs_ ) {
+            if ( done.add( buf ) ) {
+                buf.close();
+            }
         }
+    }
 
-        // If it's located after the end, it's in a sparse block
-        // after the last actual record.
-        else if ( lastIndex == - nent_ - 1 ) {
-            return new Block( lastIndex,
-                              lasts_[ nent_ - 1 ], Integer.MAX_VALUE );
+    /**
+     * Closes the buffers of uncompressed data owned by this map
+     * which are not used by a map that has superseded it.
+     * The main buffer of the file is not closed.
+     *
+     * @param  successor  map replacing this one for the same variable
+     */
+    public void closeUnshared( RecordMap successor ) throws IOException {
+        Set<Buf> keep =
+            Collections.newSetFromMap( new IdentityHashMap<Buf,Boolean>() );
+        keep.add( fileBuf_ );
+        keep.addAll( Arrays.asList( successor.bufs_ ) );
+        for ( Buf buf : bufs_ ) {
+            if ( keep.add( buf ) ) {
+                buf.close();
+            }
         }
+    }
 
-        // Otherwise, record the last entry it's before the end of.
-        else {
-            lastIndex = -1 - lastIndex;
+    /**
+     * Examines this map's lookup tables to determine the entry index
+     * for a given record, as documented for {@link #getEntryIndex}.
+     *
+     * @param  irec   record index
+     * @return   entry index if irec is stored, otherwise negative value
+     */
+    private int calculateEntryIndex( int irec ) {
+
+        // Find the number of entries whose first record is not after irec.
+        // The search tree is stored in Eytzinger (breadth-first) order,
+        // so the first few levels share a few cache lines and the
+        // descent has no unpredictable branches.  On exit, k identifies
+        // the first entry starting after irec, or is 0 if there is none.
+        int[] eytz = eytzFirsts_;
+        int k = 1;
+        while ( k <= nent_ ) {
+            k = ( k << 1 ) + ( eytz[ k ] <= irec ? 1 : 0 );
         }
+        k >>= Integer.numberOfTrailingZeros( ~k ) + 1;
+        int ifr = ( k == 0 ? nent_ : eytzIndices_[ k ] ) - 1;
 
-        // If it's after the first record and before the last record
-        // of a single block, that's the one.
-        if ( firstIndex == lastIndex ) {
-            return new Block( firstIndex,
-                              firsts_[ firstIndex ], lasts_[ firstIndex ] );
+        // If it's located before the start, it's in a sparse block
+        // before the first actual record.
+        if ( ifr < 0 ) {
+            return -1;
         }
 
-        // Otherwise, it's in a sparse block between
-        // the end of the entry it's after the first record of, and
-        // the start of the entry it's before the last record of.
+        // Otherwise it's either in the entry it's after the start of,
+        // or in a sparse block following that one.
         else {
-            return new Block( -firstIndex - 2,
-                              lasts_[ firstIndex ] + 1,
-                              firsts_[ lastIndex ] - 1 );
+            return irec <= lasts_[ ifr ] ? ifr : -ifr - 2;
         }
     }
 
@@ -228,17 +303,106 @@ public class RecordMap {
 
         // Walk the entry linked list to assemble a list of entries.
         List<Entry> entryList = new ArrayList<Entry>();
+        long tailOffset = 0;
         for ( long vxrOffset = vdr.vxrHead; vxrOffset != 0; ) {
             VariableIndexRecord vxr =
                 recFact.createRecord( buf, vxrOffset,
                                       VariableIndexRecord.class );
-            readEntries( vxr, buf, recFact, recSize, compress, entryList );
+            readEntries( vxr, buf, recFact, recSize, compress,
+                         Integer.MIN_VALUE, entryList );
+            tailOffset = vxrOffset;
             vxrOffset = vxr.vxrNext;
         }
         Entry[] entries = entryList.toArray( new Entry[ 0 ] );
 
         // Make a RecordMap out of it.
-        return new RecordMap( entries, recSize );
+        return new RecordMap( entries, recSize, buf, vdr.vxrHead,
+                              tailOffset );
+    }
+
+    /**
+     * Returns a record map for a variable whose data may have been
+     * appended to since an earlier record map was created for it.
+     * This is intended for use with files that are growing because
+     * they are still being written.
+     *
+     * <p>Where possible, only the tail of the VXR list is examined,
+     * and the entries of the existing map are reused without being
+     * re-read (or, for compressed variables, re-uncompressed).
+     * If the VXR structure appears to have been reorganised rather than
+     * just extended, the map is rebuilt from scratch.
+     * If the file has been remapped since the existing map was created,
+     * the returned map refers only to the new mapping.
+     *
+     * @param  recMap   record map previously created for the same variable
+     * @param  vdr  up to date variable descriptor record
+     * @param  recFact  record factory
+     * @param  recSize  size in bytes of each variable value record
+     * @return  record map reflecting the current state of vdr
+     */
+    public static RecordMap extendRecordMap( RecordMap recMap,
+                                             VariableDescriptorRecord vdr,
+                                             RecordFactory recFact,
+                                             int recSize )
+            throws IOException {
+        int nent = recMap.nent_;
+        if ( nent == 0 || recMap.recSize_ != recSize ||
+             recMap.tailVxrOffset_ == 0 ||
+             recMap.headVxrOffset_ != vdr.vxrHead ) {
+            return createRecordMap( vdr, recFact, recSize );
+        }
+        Compression compress = getCompression( vdr, recFact );
+        Buf buf = vdr.getBuf();
+
+        // Walk the entry linked list starting from the previous tail,
+        // picking up only entries that extend beyond the last record
+        // we already know about.
+        int lastRec = recMap.lasts_[ nent - 1 ];
+        List<Entry> newList = new ArrayList<Entry>();
+        long tailOffset = recMap.tailVxrOffset_;
+        for ( long vxrOffset = tailOffset; vxrOffset != 0; ) {
+            VariableIndexRecord vxr =
+                recFact.createRecord( buf, vxrOffset,
+                                      VariableIndexRecord.class );
+            readEntries( vxr, buf, recFact, recSize, compress, lastRec,
+                         newList );
+            tailOffset = vxrOffset;
+            vxrOffset = vxr.vxrNext;
+        }
+
+        // If the file has been remapped, entries that refer to the
+        // old mapping are moved to the new one, so that the old one
+        // can be released.
+        boolean isRemapped = buf != recMap.fileBuf_;
+        if ( newList.isEmpty() && ! isRemapped ) {
+            return recMap;
+        }
+
+        // Keep the existing entries, except for any that have been
+        // superseded by new ones (typically a final entry whose
+        // VVR has since had more records written into it).
+        int newFirst = Integer.MAX_VALUE;
+        for ( Entry entry : newList ) {
+            newFirst = Math.min( newFirst, entry.first_ );
+        }
+        List<Entry> entryList = new ArrayList<Entry>( nent + newList.size() );
+        for ( int ie = 0; ie < nent; ie++ ) {
+            if ( recMap.lasts_[ ie ] < newFirst ) {
+                Buf entryBuf = recMap.bufs_[ ie ];
+                entryList.add( new Entry( recMap.firsts_[ ie ],
+                                          recMap.lasts_[ ie ],
+                                          entryBuf == recMap.fileBuf_
+                                              ? buf : entryBuf,
+                                          recMap.offsets_[ ie ] ) );
+            }
+            else if ( recMap.firsts_[ ie ] < newFirst ) {
+                return createRecordMap( vdr, recFact, recSize );
+            }
+        }
+        entryList.addAll( newList );
+        Entry[] entries = entryList.toArray( new Entry[ 0 ] );
+        return new RecordMap( entries, recSize, buf, vdr.vxrHead,
+                              tailOffset );
     }
 
     /**
@@ -272,11 +436,14 @@ public class RecordMap {
      * @param  recFact  record factory
      * @param  recSize  size in bytes of each variable value record
      * @param  compress  compression type
+     * @param  minLast  entries whose last record is not greater than
+     *                  this value are ignored
      * @param   list  list into which any entries found are added
      */
     private static void readEntries( VariableIndexRecord vxr, Buf buf,
                                      RecordFactory recFact, int recSize,
-                                     Compression compress, List<Entry> list )
+                                     Compression compress, int minLast,
+                                     List<Entry> list )
             throws IOException {
 
         // Go through each entry in the VXR.
@@ -292,21 +459,31 @@ public class RecordMap {
             int last = vxr.last[ ie ];
             Record rec = recFact.createRecord( buf, vxr.offset[ ie ] );
 
+            // VVRs and CVVRs ending no later than minLast are already
+            // known about, so they are skipped.  Subordinate VXRs are
+            // always followed, whatever their first/last values say.
+            boolean isKnown = last <= minLast;
+
             // VVR: turn it directly into a new Entry and add to the list.
             if ( rec instanceof VariableValuesRecord ) {
-                VariableValuesRecord vvr = (VariableValuesRecord) rec;
-                list.add( new Entry( first, last, buf,
-                                     vvr.getRecordsOffset() ) );
+                if ( ! isKnown ) {
+                    VariableValuesRecord vvr = (VariableValuesRecord) rec;
+                    list.add( new Entry( first, last, buf,
+                                         vvr.getRecordsOffset() ) );
+                }
             }
 
             // CVVR: uncompress and turn it into a new Entry and add to list.
             else if ( rec instanceof CompressedVariableValuesRecord ) {
-                CompressedVariableValuesRecord cvvr =
-                    (CompressedVariableValuesRecord) rec;
-                int uncompressedSize = ( last - first + 1 ) * recSize;
-                Buf cBuf = Bufs.uncompress( compress, buf, cvvr.getDataOffset(),
-                                            uncompressedSize );
-                list.add( new Entry( first, last, cBuf, 0L ) );
+                if ( ! isKnown ) {
+                    CompressedVariableValuesRecord cvvr =
+                        (CompressedVariableValuesRecord) rec;
+                    int uncompressedSize = ( last - first + 1 ) * recSize;
+                    Buf cBuf = Bufs.uncompress( compress, buf,
+                                                cvvr.getDataOffset(),
+                                                uncompressedSize );
+                    list.add( new Entry( first, last, cBuf, 0L ) );
+                }
             }
 
             // VXR: this is a reference to another sub-tree of entries.
@@ -320,13 +497,14 @@ public class RecordMap {
                 // seen at least one file where it happens
                 // (STEREO_STA_L1_MAG_20070708_V03.cdf).
                 VariableIndexRecord subVxr = (VariableIndexRecord) rec;
-                readEntries( subVxr, buf, recFact, recSize, compress, list );
+                readEntries( subVxr, buf, recFact, recSize, compress,
+                             minLast, list );
                 for ( long nextVxrOff = subVxr.vxrNext; nextVxrOff != 0; ) {
                     VariableIndexRecord nextVxr =
                         recFact.createRecord( buf, nextVxrOff,
                                               VariableIndexRecord.class );
                     readEntries( nextVxr, buf, recFact, recSize, compress,
-                                 list );
+                                 minLast, list );
                     nextVxrOff = nextVxr.vxrNext;
                 }
             }
@@ -383,67 +561,64 @@ public class RecordMap {
     }
 
     /**
-     * Represents a block of records, that is a contiguous sequence of records.
-     * This may corrrespond to an actual data-bearing Entry, or it may
-     * correspond to a gap where no Entry exists, before the first entry,
-     * or after the last, or between entries if the records are sparse.
-     *
-     * <p>The <code>ient</code> member gives the index of the corresponding
-     * Entry.
-     * If there is no corresponding entry (the record is in a sparse
-     * region), the value is <code>(-fr-2)</code>, where <code>fr</code>
-     * is the index of the previous entry.
-     * A value of -1 indicates that the requested record is
-     * in a sparse region before the first stored record.
-     *
-     * <p>Note that following the usage in VXR fields, the low and
-     * high values are inclusive, so the number of records represented
-     * by this entry is <code>high-low+1</code>.
+     * Determines whether entries with the given first and last record
+     * indices form a regular layout, that is whether each entry holds
+     * the same number of records, following on directly from the
+     * previous one.  The final entry is permitted to be shorter.
      *
+     * @param  firsts  sorted first-record-of-entry values
+     * @param  lasts   corresponding last-record-of-entry values
+     * @return  number of records per entry for a regular layout,
+     *          or 0 if the layout is not regular
      */
-    private static class Block {
-        final int ient_;
-        final int low_;
-        final int high_;
-
-        /**
-         * Constructor.
-         *
-         * @param   ient  index of Entry containing this block's data;
-         *                negative value means sparse
-         * @param   low   lowest record index contained in this block
-         * @param   high  highest record index contained in this block
-         */
-        Block( int ient, int low, int high ) {
-            ient_ = ient;
-            low_ = low;
-            high_ = high;
+    private static int getRegularStep( int[] firsts, int[] lasts ) {
+        int nent = firsts.length;
+        if ( nent == 0 ) {
+            return 0;
         }
-     
-        /**
-         * Indicates whether a given record falls within this block.
-         *
-         * @param  irec  record index
-         * @return  true iff irec is covered by this block
-         */
-        boolean contains( int irec ) {
-            return irec >= low_ && irec <= high_;
+        long step = (long) lasts[ 0 ] - firsts[ 0 ] + 1;
+        if ( step <= 0 || step > Integer.MAX_VALUE ) {
+            return 0;
+        }
+        for ( int ie = 0; ie < nent; ie++ ) {
+            long first = firsts[ 0 ] + ie * step;
+            long last = lasts[ ie ];
+            if ( firsts[ ie ] != first ||
+                 last < first ||
+                 last > first + step - 1 ||
+                 ( ie < nent - 1 && last != first + step - 1 ) ) {
+                return 0;
+            }
         }
+        return (int) step;
     }
 
     /**
-     * Performs a binary search on an array.
-     * Calls Arrays.binarySearch to do the work.
+     * Recursively populates arrays giving a sorted array in
+     * Eytzinger order, that is the breadth-first layout of
+     * the implicit binary search tree.
+     * Element 0 of the output arrays is not used.
      *
-     * @param  array   array in ascending sorted order
-     * @param  key   value to search for
-     * @return  index of the search key, if it is contained in the list;
-     *          otherwise, (-(insertion point) - 1). 
-     * @see   java.util.Arrays#binarySearch(int[],int)
+     * @param  sorted  input array in ascending order
+     * @param  eytz    output array, one element longer than sorted,
+     *                 to receive the values of sorted in Eytzinger order
+     * @param  indices output array, one element longer than sorted,
+     *                 to receive the index into sorted of each
+     *                 element of eytz
+     * @param  i   index of next element of sorted to use
+     * @param  k   index of tree node to fill
+     * @return   index of next element of sorted to use on exit
      */
-    private static int binarySearch( int[] array, int key ) {
-        assert isSorted( array );
-        return Arrays.binarySearch( array, key );
+    private static int fillEytzinger( int[] sorted, int[] eytz, int[] indices,
+                                      int i, int k ) {
+        if ( k <= sorted.length ) {
+            i = fillEytzinger( sorted, eytz, indices, i, 2 * k );
+            eytz[ k ] = sorted[ i ];
+            indices[ k ] = i;
+            i++;
+            i = fillEytzinger( sorted, eytz, indices, i, 2 * k + 1 );
+        }
+        return i;
     }
 
     /**
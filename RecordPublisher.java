@@ -0,0 +1,417 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reactive Streams publisher that emits the records of a variable
+ * as a sequence of {@link RecordBatch}es.
+ * Each subscriber receives all the requested records, in order,
+ * independently of any other subscribers.
+ *
+ * <p>Demand signalled by {@link Flow.Subscription#request request}
+ * is honoured: a batch is only delivered when it has been requested.
+ * Decoding is done by tasks on a supplied executor, which runs ahead
+ * of the subscriber by a fixed number of prefetched batches,
+ * so that while the subscriber processes one batch the next is
+ * being read.  Memory use is therefore bounded by the batch size
+ * and prefetch count, however slow the subscriber.
+ * Subscriber methods are also called from executor threads,
+ * one at a time.
+ * For decoding to overlap with processing the executor needs
+ * at least two threads.
+ *
+ * <p>A read error is reported by <code>onError</code>, after any
+ * batches already decoded have been delivered.
+ * If the executor rejects a task, for instance because it has been
+ * shut down, the subscriber is sent the
+ * {@link RejectedExecutionException} by <code>onError</code>
+ * straight away; that signal may come from the thread calling
+ * <code>request</code>.
+ *
+ * <p>Unlike the rest of this library, this class requires Java 9
+ * or later.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class RecordPublisher implements Flow.Publisher<RecordBatch> {
+
+    private final Variable var_;
+    private final int irec0_;
+    private final int nrec_;
+    private final int batchSize_;
+    private final int prefetch_;
+    private final boolean rowMajor_;
+    private final Executor executor_;
+
+    /**
+     * Constructs a publisher for all the records of a variable,
+     * prefetching a single batch.
+     *
+     * @param  var  variable
+     * @param  batchSize  maximum number of records per batch
+     * @param  rowMajor  required majority of output arrays
+     * @param  executor  executor for decoding and delivery
+     */
+    public RecordPublisher( Variable var, int batchSize, boolean rowMajor,
+                            Executor executor ) {
+        this( var, 0, var.getRecordCount(), batchSize, 1, rowMajor,
+              executor );
+    }
+
+    /**
+     * Constructs a publisher for a run of records.
+     *
+     * @param  var  variable
+     * @param  irec  index of first record
+     * @param  nrec  number of records
+     * @param  batchSize  maximum number of records per batch
+     * @param  prefetch  maximum number of batches decoded before
+     *                   they have been requested
+     * @param  rowMajor  required majority of output arrays
+     * @param  executor  executor for decoding and delivery
+     * @throws  IllegalArgumentException  if the record range or
+     *          sizes are not sensible
+     */
+    public RecordPublisher( Variable var, int irec, int nrec, int batchSize,
+                            int prefetch, boolean rowMajor,
+                            Executor executor ) {
+        if ( irec < 0 || nrec < 0 ||
+             (long) irec + nrec > var.getRecordCount() ) {
+            throw new IllegalArgumentException( "Bad record range" );
+        }
+        if ( batchSize < 1 || prefetch < 1 ) {
+            throw new IllegalArgumentException( "Bad batch size/prefetch" );
+        }
+        var_ = var;
+        irec0_ = irec;
+        nrec_ = nrec;
+        batchSize_ = batchSize;
+        prefetch_ = prefetch;
+        rowMajor_ = rowMajor;
+        executor_ = executor;
+    }
+
+    /**
+     * Returns the variable whose records are published.
+     *
+     * @return  variable
+     */
+    public Variable getVariable() {
+        return var_;
+    }
+
+    public void subscribe( Flow.Subscriber<? super RecordBatch> subscriber ) {
+        if ( subscriber == null ) {
+            throw new NullPointerException();
+        }
+        BatchSubscription sub = new BatchSubscription( subscriber );
+        subscriber.onSubscribe( sub );
+        sub.start();
+    }
+
+    /**
+     * Subscription for one subscriber.
+     * State is guarded by a lock, which is never held while calling
+     * the subscriber or the executor, or reading data.  Delivery is serialized by a
+     * work-in-progress counter, so that only one delivery task runs
+     * at a time.
+     */
+    private class BatchSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super RecordBatch> subscriber_;
+        private final Lock lock_;
+        private final Queue<RecordBatch> queue_;
+        private final AtomicInteger wip_;
+        private long demand_;
+        private int nextRec_;
+        private boolean isDecoding_;
+        private boolean isCancelled_;
+        private boolean isTerminated_;
+        private Throwable readError_;
+        private Throwable abortError_;
+
+        /**
+         * Constructor.
+         *
+         * @param  subscriber  subscriber
+         */
+        BatchSubscription( Flow.Subscriber<? super RecordBatch> subscriber ) {
+            subscriber_ = subscriber;
+            lock_ = new ReentrantLock();
+            queue_ = new ArrayDeque<RecordBatch>();
+            wip_ = new AtomicInteger();
+            nextRec_ = irec0_;
+        }
+
+        public void request( long n ) {
+            lock_.lock();
+            try {
+                if ( n <= 0 ) {
+                    abort( new IllegalArgumentException(
+                               "Non-positive request " + n ) );
+                }
+                else {
+                    demand_ = demand_ + n < 0 ? Long.MAX_VALUE
+                                              : demand_ + n;
+                }
+            }
+            finally {
+                lock_.unlock();
+            }
+            drain();
+        }
+
+        public void cancel() {
+            lock_.lock();
+            try {
+                isCancelled_ = true;
+                queue_.clear();
+            }
+            finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Begins prefetching.  Called after onSubscribe.
+         */
+        void start() {
+            Runnable task;
+            lock_.lock();
+            try {
+                task = scheduleDecode();
+            }
+            finally {
+                lock_.unlock();
+            }
+            submitDecode( task );
+            drain();
+        }
+
+        /**
+         * Prepares a task to decode the next batch if there is room
+         * for it and no decode is already in progress.
+         * Must be called while holding the lock; the returned task
+         * must then be passed to {@link #submitDecode} after
+         * the lock has been released.
+         *
+         * @return  decode task, or null if none is required
+         */
+        private Runnable scheduleDecode() {
+            int iend = irec0_ + nrec_;
+            if ( ! isDecoding_ && ! isCancelled_ && ! isTerminated_ &&
+                 readError_ == null && nextRec_ < iend &&
+                 queue_.size() < prefetch_ ) {
+                final int irec = nextRec_;
+                final int nrec = Math.min( batchSize_, iend - irec );
+                nextRec_ += nrec;
+                isDecoding_ = true;
+                return new Runnable() {
+                    public void run() {
+                        decode( irec, nrec );
+                    }
+                };
+            }
+            else {
+                return null;
+            }
+        }
+
+        /**
+         * Passes a decode task to the executor.
+         * If the executor rejects it, the rejection is recorded
+         * as a terminal error, to be delivered by the next drain.
+         * Must not be called while holding the lock.
+         *
+         * @param  task  task from scheduleDecode, or null
+         */
+        private void submitDecode( Runnable task ) {
+            if ( task != null ) {
+                try {
+                    executor_.execute( task );
+                }
+                catch ( RejectedExecutionException e ) {
+                    lock_.lock();
+                    try {
+                        isDecoding_ = false;
+                        abort( e );
+                    }
+                    finally {
+                        lock_.unlock();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Records an error that terminates the subscription
+         * without waiting for queued batches to be delivered.
+         * Must be called while holding the lock.
+         *
+         * @param  error  error
+         */
+        private void abort( Throwable error ) {
+            if ( abortError_ == null ) {
+                abortError_ = error;
+            }
+        }
+
+        /**
+         * Reads a batch and queues it for delivery.
+         *
+         * @param  irec  first record
+         * @param  nrec  record count
+         */
+        private void decode( int irec, int nrec ) {
+            RecordBatch batch = null;
+            Throwable error = null;
+            try {
+                Object values = var_.createShapedValueArray( nrec );
+                var_.readShapedRecords( irec, nrec, rowMajor_,
+                                        var_.createRawValueArray(),
+                                        values, 0 );
+                batch = new RecordBatch( var_, irec, nrec, rowMajor_,
+                                         values );
+            }
+            catch ( IOException e ) {
+                error = e;
+            }
+            catch ( RuntimeException e ) {
+                error = e;
+            }
+            Runnable task = null;
+            lock_.lock();
+            try {
+                isDecoding_ = false;
+                if ( error != null ) {
+                    readError_ = error;
+                }
+                else if ( ! isCancelled_ && ! isTerminated_ ) {
+                    queue_.add( batch );
+                    task = scheduleDecode();
+                }
+            }
+            finally {
+                lock_.unlock();
+            }
+            submitDecode( task );
+            drain();
+        }
+
+        /**
+         * Ensures that a delivery task will run.
+         * If the executor rejects it, the rejection is delivered
+         * as an error from the calling thread, which owns the
+         * delivery loop at that point.
+         */
+        private void drain() {
+            if ( wip_.getAndIncrement() == 0 ) {
+                try {
+                    executor_.execute( new Runnable() {
+                        public void run() {
+                            deliver();
+                        }
+                    } );
+                }
+                catch ( RejectedExecutionException e ) {
+                    lock_.lock();
+                    try {
+                        abort( e );
+                    }
+                    finally {
+                        lock_.unlock();
+                    }
+                    deliver();
+                }
+            }
+        }
+
+        /**
+         * Delivers as many batches as are ready and requested,
+         * and the terminal signal if appropriate.
+         * Only one invocation runs at a time.
+         */
+        private void deliver() {
+            int missed = 1;
+            while ( true ) {
+                while ( deliverOne() ) {
+                }
+                missed = wip_.addAndGet( -missed );
+                if ( missed == 0 ) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Makes at most one call to the subscriber.
+         *
+         * @return  true if there may be more to do
+         */
+        private boolean deliverOne() {
+            RecordBatch batch = null;
+            Throwable error = null;
+            boolean complete = false;
+            Runnable task = null;
+            lock_.lock();
+            try {
+                if ( isCancelled_ || isTerminated_ ) {
+                    return false;
+                }
+                if ( abortError_ != null ) {
+                    error = abortError_;
+                    queue_.clear();
+                    isTerminated_ = true;
+                }
+                else if ( demand_ > 0 && ! queue_.isEmpty() ) {
+                    batch = queue_.remove();
+                    if ( demand_ != Long.MAX_VALUE ) {
+                        demand_--;
+                    }
+                    task = scheduleDecode();
+                }
+                else if ( queue_.isEmpty() && ! isDecoding_ ) {
+                    if ( readError_ != null ) {
+                        error = readError_;
+                        isTerminated_ = true;
+                    }
+                    else if ( nextRec_ >= irec0_ + nrec_ ) {
+                        complete = true;
+                        isTerminated_ = true;
+                    }
+                }
+            }
+            finally {
+                lock_.unlock();
+            }
+            submitDecode( task );
+            if ( batch != null ) {
+                try {
+                    subscriber_.onNext( batch );
+                }
+                catch ( Throwable e ) {
+                    cancel();
+                    subscriber_.onError( e );
+                    return false;
+                }
+                return true;
+            }
+            else if ( error != null ) {
+                subscriber_.onError( error );
+            }
+            else if ( complete ) {
+                subscriber_.onComplete();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package uk.ac.bristol.star.cdf;
+
+import java.util.Arrays;
+
+/**
+ * Describes which of a variable's records are real, that is backed by
+ * data stored in the file, and which are virtual, that is
+ * filled in with pad or previous values.
+ * Each run is a maximal range of consecutive records of the same kind,
+ * so that real and virtual runs alternate.
+ * Run boundaries are available as primitive arrays of inclusive
+ * first and last record indices, which lets callers skip over
+ * virtual gaps wholesale without examining every record.
+ *
+ * <p>Instances are immutable, and are obtained from
+ * {@link Variable#getRecordRuns}.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class RecordRuns {
+
+    private final int nrec_;
+    private final int[] realFirsts_;
+    private final int[] realLasts_;
+    private final int[] virtFirsts_;
+    private final int[] virtLasts_;
+
+    /**
+     * Constructor.  The supplied arrays give record ranges in order;
+     * ranges that touch are merged, and records at or beyond
+     * the record count are discarded.
+     *
+     * @param  nrec  number of records in the variable
+     * @param  firsts  inclusive first record of each stored range
+     * @param  lasts   inclusive last record of each stored range
+     * @param  n   number of ranges to use from the arrays
+     */
+    RecordRuns( int nrec, int[] firsts, int[] lasts, int n ) {
+        nrec_ = nrec;
+        int[] rFirsts = new int[ n ];
+        int[] rLasts = new int[ n ];
+        int nr = 0;
+        for ( int i = 0; i < n; i++ ) {
+            int first = Math.max( firsts[ i ], 0 );
+            int last = Math.min( lasts[ i ], nrec - 1 );
+            if ( first <= last ) {
+                if ( nr > 0 && first <= rLasts[ nr - 1 ] + 1 ) {
+                    rLasts[ nr - 1 ] = Math.max( rLasts[ nr - 1 ], last );
+                }
+                else {
+                    rFirsts[ nr ] = first;
+                    rLasts[ nr ] = last;
+                    nr++;
+                }
+            }
+        }
+        realFirsts_ = Arrays.copyOf( rFirsts, nr );
+        realLasts_ = Arrays.copyOf( rLasts, nr );
+
+        // The virtual runs are the gaps between the real ones.
+        int[] vFirsts = new int[ nr + 1 ];
+        int[] vLasts = new int[ nr + 1 ];
+        int nv = 0;
+        int next = 0;
+        for ( int ir = 0; ir <= nr; ir++ ) {
+            int end = ir < nr ? realFirsts_[ ir ] : nrec;
+            if ( end > next ) {
+                vFirsts[ nv ] = next;
+                vLasts[ nv ] = end - 1;
+                nv++;
+            }
+            if ( ir < nr ) {
+                next = realLasts_[ ir ] + 1;
+            }
+        }
+        virtFirsts_ = Arrays.copyOf( vFirsts, nv );
+        virtLasts_ = Arrays.copyOf( vLasts, nv );
+    }
+
+    /**
+     * Returns the total number of records covered,
+     * as given by {@link Variable#getRecordCount}.
+     *
+     * @return  record count
+     */
+    public int getRecordCount() {
+        return nrec_;
+    }
+
+    /**
+     * Returns the number of runs of real records.
+     *
+     * @return  real run count
+     */
+    public int getRealRunCount() {
+        return realFirsts_.length;
+    }
+
+    /**
+     * Returns the first record index of each real run.
+     *
+     * @return  new array of inclusive run start indices, in ascending order
+     */
+    public int[] getRealFirsts() {
+        return realFirsts_.clone();
+    }
+
+    /**
+     * Returns the last record index of each real run.
+     *
+     * @return  new array of inclusive run end indices, in ascending order
+     */
+    public int[] getRealLasts() {
+        return realLasts_.clone();
+    }
+
+    /**
+     * Returns the number of runs of virtual records.
+     *
+     * @return  virtual run count
+     */
+    public int getVirtualRunCount() {
+        return virtFirsts_.length;
+    }
+
+    /**
+     * Returns the first record index of each virtual run.
+     *
+     * @return  new array of inclusive run start indices, in ascending order
+     */
+    public int[] getVirtualFirsts() {
+        return virtFirsts_.clone();
+    }
+
+    /**
+     * Returns the last record index of each virtual run.
+     *
+     * @return  new array of inclusive run end indices, in ascending order
+     */
+    public int[] getVirtualLasts() {
+        return virtLasts_.clone();
+    }
+
+    /**
+     * Returns the total number of real records.
+     *
+     * @return  number of records backed by stored data
+     */
+    public long getRealRecordCount() {
+        long n = 0;
+        for ( int ir = 0; ir < realFirsts_.length; ir++ ) {
+            n += realLasts_[ ir ] - realFirsts_[ ir ] + 1;
+        }
+        return n;
+    }
+
+    /**
+     * Indicates whether a given record is real.
+     * This gives the same result as {@link Variable#hasRecord}
+     * for records in the range covered.
+     *
+     * @param  irec  record index
+     * @return  true iff irec lies in a real run
+     */
+    public boolean isReal( int irec ) {
+        int ir = Arrays.binarySearch( realFirsts_, irec );
+        if ( ir < 0 ) {
+            ir = -ir - 2;
+        }
+        return ir >= 0 && irec <= realLasts_[ ir ];
+    }
+
+    @Override
+    public String toString() {
+        return "RecordRuns(" + nrec_ + " records, "
+             + getRealRunCount() + " real runs, "
+             + getVirtualRunCount() + " virtual runs)";
+    }
+}
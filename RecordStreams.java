@@ -0,0 +1,416 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Provides java.util.stream access to the records of a variable.
+ *
+ * <p>The streams are backed by spliterators that split along the
+ * boundaries of the variable's stored record blocks and the virtual
+ * gaps between them, so that in a parallel stream each worker
+ * reads whole blocks, looking up each block's location once and
+ * sharing no mutable state with the other workers.
+ * A single large block is split in the middle if required.
+ * Records are read a block at a time into a primitive array,
+ * and the primitive streams read their elements directly from that,
+ * so no boxing is done.
+ *
+ * <p>I/O errors during stream traversal are thrown as
+ * {@link java.io.UncheckedIOException}s.
+ *
+ * <p>Unlike the rest of this library, this class requires Java 8
+ * or later.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class RecordStreams {
+
+    /** Maximum number of array elements read at once. */
+    private static final int BLOCK_ELEMENTS = 64 * 1024;
+
+    /**
+     * Private constructor prevents instantiation.
+     */
+    private RecordStreams() {
+    }
+
+    /**
+     * Returns a stream of a variable's records.
+     * Each element is a new array of the variable data type's
+     * {@link DataType#getArrayElementClass array element class}
+     * with {@link Variable#getShapedRecordLength} elements,
+     * containing the shaped values of one record.
+     *
+     * @param  var  variable
+     * @param  rowMajor  required majority of output arrays
+     * @return  new sequential stream of records
+     */
+    public static Stream<Object> records( Variable var, boolean rowMajor )
+            throws IOException {
+        return StreamSupport
+              .stream( new RecordSpliterator( var, rowMajor ), false );
+    }
+
+    /**
+     * Returns a stream of the flattened numeric items of a variable,
+     * record by record.
+     * Each record contributes <code>shaper.getShapedItemCount()</code>
+     * elements, in the requested majority.
+     *
+     * @param  var  variable
+     * @param  rowMajor  majority in which each record's items are streamed
+     * @return  new sequential stream of values
+     * @throws  IllegalArgumentException  if the data type is not numeric
+     */
+    public static DoubleStream doubles( Variable var, boolean rowMajor )
+            throws IOException {
+        DoubleReader rdr = var.getDoubleReader();
+        if ( rdr == null ) {
+            throw new IllegalArgumentException( "Not numeric: "
+                                              + var.getDataType() );
+        }
+        return StreamSupport
+              .doubleStream( new DoubleItemSpliterator( var, rowMajor, rdr ),
+                             false );
+    }
+
+    /**
+     * Returns a stream of the flattened integer items of a variable,
+     * record by record.
+     * Each record contributes <code>shaper.getShapedItemCount()</code>
+     * elements, in the requested majority.
+     *
+     * @param  var  variable
+     * @param  rowMajor  majority in which each record's items are streamed
+     * @return  new sequential stream of values
+     * @throws  IllegalArgumentException  if the data type is not integer
+     */
+    public static LongStream longs( Variable var, boolean rowMajor )
+            throws IOException {
+        LongReader rdr = var.getLongReader();
+        if ( rdr == null ) {
+            throw new IllegalArgumentException( "Not integer: "
+                                              + var.getDataType() );
+        }
+        return StreamSupport
+              .longStream( new LongItemSpliterator( var, rowMajor, rdr ),
+                           false );
+    }
+
+    /**
+     * Partial spliterator implementation that manages a range of records
+     * and reads them into a buffer a block at a time.
+     * Stream elements may be records or items within records.
+     */
+    private static abstract class BlockSpliterator {
+
+        final Variable var_;
+        final boolean rowMajor_;
+        final int[] starts_;
+        final int elPerRec_;
+        final int recLeng_;
+        final int blockRecs_;
+        int irec_;
+        int iend_;
+        Object block_;
+        Object work_;
+        int blockEls_;
+        int blockPos_;
+
+        /**
+         * Constructs a spliterator for all the records of a variable.
+         *
+         * @param  var  variable
+         * @param  rowMajor  required majority
+         * @param  elPerRec  number of stream elements per record
+         */
+        BlockSpliterator( Variable var, boolean rowMajor, int elPerRec )
+                throws IOException {
+            this( var, rowMajor, elPerRec, var.getChunkStarts(),
+                  0, var.getRecordCount() );
+        }
+
+        /**
+         * Constructs a spliterator for a range of records.
+         *
+         * @param  var  variable
+         * @param  rowMajor  required majority
+         * @param  elPerRec  number of stream elements per record
+         * @param  starts   chunk starts as from Variable.getChunkStarts
+         * @param  irec   first record
+         * @param  iend   record after last
+         */
+        BlockSpliterator( Variable var, boolean rowMajor, int elPerRec,
+                          int[] starts, int irec, int iend ) {
+            var_ = var;
+            rowMajor_ = rowMajor;
+            elPerRec_ = elPerRec;
+            starts_ = starts;
+            irec_ = irec;
+            iend_ = iend;
+            recLeng_ = var.getShapedRecordLength();
+            blockRecs_ =
+                Math.max( 1, BLOCK_ELEMENTS / Math.max( 1, recLeng_ ) );
+        }
+
+        /**
+         * Returns a spliterator of the same kind as this one
+         * for a range of records.
+         *
+         * @param  irec  first record
+         * @param  iend  record after last
+         * @return  new spliterator
+         */
+        abstract BlockSpliterator createSplit( int irec, int iend );
+
+        /**
+         * Ensures that the buffer contains an unread element if possible.
+         *
+         * @return  true iff there is another element
+         */
+        boolean ensureElement() {
+            if ( blockPos_ < blockEls_ ) {
+                return true;
+            }
+            if ( irec_ >= iend_ ) {
+                return false;
+            }
+
+            // Read up to the end of the current chunk.
+            int ic = Arrays.binarySearch( starts_, irec_ + 1 );
+            int chunkEnd = starts_[ ic >= 0 ? ic : -ic - 1 ];
+            int nrec = Math.min( Math.min( chunkEnd, iend_ ) - irec_,
+                                 blockRecs_ );
+            if ( block_ == null ) {
+                int nblock = Math.min( blockRecs_, iend_ - irec_ );
+                block_ = var_.createShapedValueArray( nblock );
+                work_ = var_.createRawValueBlock( nblock );
+            }
+            try {
+                var_.readChunk( irec_, nrec, rowMajor_, work_, block_, 0 );
+            }
+            catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+            irec_ += nrec;
+            blockEls_ = nrec * elPerRec_;
+            blockPos_ = 0;
+            return true;
+        }
+
+        /**
+         * Splits off a prefix of this spliterator's records,
+         * preferably at a chunk boundary.
+         *
+         * @return  prefix spliterator, or null
+         */
+        BlockSpliterator splitPrefix() {
+
+            // Records already buffered cannot be split off.
+            if ( blockPos_ < blockEls_ ) {
+                return null;
+            }
+            int lo = irec_;
+            int hi = iend_;
+            if ( hi - lo < 2 ) {
+                return null;
+            }
+            int mid = lo + ( hi - lo ) / 2;
+            int ic = Arrays.binarySearch( starts_, mid );
+            if ( ic < 0 ) {
+                ic = -ic - 1;
+            }
+            int split = -1;
+            for ( int jc = ic - 1; jc <= ic; jc++ ) {
+                if ( jc >= 0 && jc < starts_.length ) {
+                    int s = starts_[ jc ];
+                    if ( s > lo && s < hi &&
+                         ( split < 0 ||
+                           Math.abs( s - mid ) < Math.abs( split - mid ) ) ) {
+                        split = s;
+                    }
+                }
+            }
+            if ( split < 0 ) {
+                if ( hi - lo < 2 * blockRecs_ ) {
+                    return null;
+                }
+                split = mid;
+            }
+            irec_ = split;
+            return createSplit( lo, split );
+        }
+
+        /**
+         * Returns the number of elements not yet traversed.
+         *
+         * @return  remaining element count
+         */
+        long remaining() {
+            return (long) ( iend_ - irec_ ) * elPerRec_
+                 + ( blockEls_ - blockPos_ );
+        }
+
+        /**
+         * Returns the spliterator characteristics.
+         *
+         * @return  characteristics flags
+         */
+        int flags() {
+            return Spliterator.ORDERED | Spliterator.SIZED
+                 | Spliterator.SUBSIZED | Spliterator.NONNULL
+                 | Spliterator.IMMUTABLE;
+        }
+    }
+
+    /**
+     * Spliterator whose elements are per-record arrays.
+     */
+    private static class RecordSpliterator extends BlockSpliterator
+                                           implements Spliterator<Object> {
+        RecordSpliterator( Variable var, boolean rowMajor )
+                throws IOException {
+            super( var, rowMajor, 1 );
+        }
+        RecordSpliterator( RecordSpliterator parent, int irec, int iend ) {
+            super( parent.var_, parent.rowMajor_, 1, parent.starts_,
+                   irec, iend );
+        }
+        BlockSpliterator createSplit( int irec, int iend ) {
+            return new RecordSpliterator( this, irec, iend );
+        }
+        public boolean tryAdvance( Consumer<? super Object> action ) {
+            if ( ! ensureElement() ) {
+                return false;
+            }
+            Object rec =
+                Array.newInstance( block_.getClass().getComponentType(),
+                                   recLeng_ );
+            System.arraycopy( block_, blockPos_++ * recLeng_, rec, 0,
+                              recLeng_ );
+            action.accept( rec );
+            return true;
+        }
+        public Spliterator<Object> trySplit() {
+            return (RecordSpliterator) splitPrefix();
+        }
+        public long estimateSize() {
+            return remaining();
+        }
+        public int characteristics() {
+            return flags();
+        }
+    }
+
+    /**
+     * Spliterator whose elements are record items as doubles.
+     */
+    private static class DoubleItemSpliterator
+            extends BlockSpliterator implements Spliterator.OfDouble {
+        private final DoubleReader rdr_;
+        private final int ngrp_;
+        DoubleItemSpliterator( Variable var, boolean rowMajor,
+                               DoubleReader rdr ) throws IOException {
+            super( var, rowMajor, var.getShaper().getShapedItemCount() );
+            rdr_ = rdr;
+            ngrp_ = var.getDataType().getGroupSize();
+        }
+        DoubleItemSpliterator( DoubleItemSpliterator parent,
+                               int irec, int iend ) {
+            super( parent.var_, parent.rowMajor_, parent.elPerRec_,
+                   parent.starts_, irec, iend );
+            rdr_ = parent.rdr_;
+            ngrp_ = parent.ngrp_;
+        }
+        BlockSpliterator createSplit( int irec, int iend ) {
+            return new DoubleItemSpliterator( this, irec, iend );
+        }
+        public boolean tryAdvance( DoubleConsumer action ) {
+            if ( ! ensureElement() ) {
+                return false;
+            }
+            action.accept( rdr_.getDouble( block_, blockPos_++ * ngrp_ ) );
+            return true;
+        }
+        @Override
+        public void forEachRemaining( DoubleConsumer action ) {
+            while ( ensureElement() ) {
+                for ( ; blockPos_ < blockEls_; blockPos_++ ) {
+                    action.accept( rdr_.getDouble( block_,
+                                                   blockPos_ * ngrp_ ) );
+                }
+            }
+        }
+        public Spliterator.OfDouble trySplit() {
+            return (DoubleItemSpliterator) splitPrefix();
+        }
+        public long estimateSize() {
+            return remaining();
+        }
+        public int characteristics() {
+            return flags();
+        }
+    }
+
+    /**
+     * Spliterator whose elements are record items as longs.
+     */
+    private static class LongItemSpliterator
+            extends BlockSpliterator implements Spliterator.OfLong {
+        private final LongReader rdr_;
+        private final int ngrp_;
+        LongItemSpliterator( Variable var, boolean rowMajor, LongReader rdr )
+                throws IOException {
+            super( var, rowMajor, var.getShaper().getShapedItemCount() );
+            rdr_ = rdr;
+            ngrp_ = var.getDataType().getGroupSize();
+        }
+        LongItemSpliterator( LongItemSpliterator parent,
+                             int irec, int iend ) {
+            super( parent.var_, parent.rowMajor_, parent.elPerRec_,
+                   parent.starts_, irec, iend );
+            rdr_ = parent.rdr_;
+            ngrp_ = parent.ngrp_;
+        }
+        BlockSpliterator createSplit( int irec, int iend ) {
+            return new LongItemSpliterator( this, irec, iend );
+        }
+        public boolean tryAdvance( LongConsumer action ) {
+            if ( ! ensureElement() ) {
+                return false;
+            }
+            action.accept( rdr_.getLong( block_, blockPos_++ * ngrp_ ) );
+            return true;
+        }
+        @Override
+        public void forEachRemaining( LongConsumer action ) {
+            while ( ensureElement() ) {
+                for ( ; blockPos_ < blockEls_; blockPos_++ ) {
+                    action.accept( rdr_.getLong( block_,
+                                                 blockPos_ * ngrp_ ) );
+                }
+            }
+        }
+        public Spliterator.OfLong trySplit() {
+            return (LongItemSpliterator) splitPrefix();
+        }
+        public long estimateSize() {
+            return remaining();
+        }
+        public int characteristics() {
+            return flags();
+        }
+    }
+}
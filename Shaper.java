@@ -77,6 +77,47 @@ public abstract class Shaper {
      */
     public abstract Object shape( Object rawValue, boolean rowMajor );
 
+    /**
+     * Takes a raw value array and writes the elements of the corresponding
+     * shaped value into a supplied array.
+     * This does the same job as {@link #shape(Object,boolean)},
+     * but avoids allocating a new object.
+     * The destination is a 1-dimensional array of the data type's
+     * array element class (not a wrapper object, even for scalars),
+     * and <code>getShapedItemCount()*groupSize</code> elements are
+     * written into it starting at <code>destOffset</code>.
+     *
+     * @param   rawValue  input raw value array
+     * @param   rowMajor  required majority for result;
+     *                    true for row major, false for column major
+     * @param   dest   destination array
+     * @param   destOffset  index of first element in dest to write
+     */
+    public void shape( Object rawValue, boolean rowMajor,
+                       Object dest, int destOffset ) {
+        shapeRecords( rawValue, 1, rowMajor, dest, destOffset );
+    }
+
+    /**
+     * Takes an array containing raw values for a number of consecutive
+     * records, and writes their shaped values into a supplied array.
+     * The raw array holds <code>nrec</code> raw value arrays end to end,
+     * and the output is written in the same way, so that the record
+     * index is the outermost (slowest-varying) dimension of the result.
+     * Each shaped record occupies
+     * <code>getShapedItemCount()*groupSize</code> elements.
+     *
+     * @param   rawValues  input array containing nrec raw value arrays
+     * @param   nrec   number of records
+     * @param   rowMajor  required majority for result;
+     *                    true for row major, false for column major
+     * @param   dest   destination array
+     * @param   destOffset  index of first element in dest to write
+     */
+    public abstract void shapeRecords( Object rawValues, int nrec,
+                                       boolean rowMajor,
+                                       Object dest, int destOffset );
+
     /**
      * Returns the index into the raw value array at which the value for
      * the given element of the notional array can be found.
@@ -153,6 +194,12 @@ public abstract class Shaper {
         public Object shape( Object rawValue, boolean rowMajor ) {
             return dataType_.getScalar( rawValue, 0 );
         }
+        public void shapeRecords( Object rawValues, int nrec,
+                                  boolean rowMajor,
+                                  Object dest, int destOffset ) {
+            System.arraycopy( rawValues, 0, dest, destOffset,
+                              nrec * dataType_.getGroupSize() );
+        }
         public int getArrayIndex( int[] coords ) {
             for ( int i = 0; i < coords.length; i++ ) {
                 if ( coords[ i ] != 0 ) {
@@ -198,13 +245,20 @@ public abstract class Shaper {
             return shapeClass_;
         }
         public Object shape( Object rawValue, boolean rowMajor ) {
+            int count = itemCount_ * step_;
             Object out = Array.newInstance( dataType_.getArrayElementClass(),
-                                            itemCount_ );
+                                            count );
 
             // Contract requires that we return a new object.
-            System.arraycopy( rawValue, 0, out, 0, itemCount_ );
+            System.arraycopy( rawValue, 0, out, 0, count );
             return out;
         }
+        public void shapeRecords( Object rawValues, int nrec,
+                                  boolean rowMajor,
+                                  Object dest, int destOffset ) {
+            System.arraycopy( rawValues, 0, dest, destOffset,
+                              nrec * itemCount_ * step_ );
+        }
         public int getArrayIndex( int[] coords ) {
             return coords[ 0 ] * step_;
         }
@@ -225,7 +279,9 @@ public abstract class Shaper {
         private final int[] strides_;
         private final int itemSize_;
         private final Class<?> shapeClass_;
-        
+        private Transposer rowMajorTransposer_;
+        private Transposer colMajorTransposer_;
+
         /**
          * Constructor.
          *
@@ -287,20 +343,46 @@ public abstract class Shaper {
         public Object shape( Object rawValue, boolean rowMajor ) {
             Object out = Array.newInstance( dataType_.getArrayElementClass(),
                                             shapedItemCount_ * itemSize_ );
-            int[] coords = new int[ ndim_ ];
-            Arrays.fill( coords, -1 );
-            for ( int ix = 0; ix < shapedItemCount_; ix++ ) {
-                for ( int idim = 0; idim < ndim_; idim++ ) {
-                    int jdim = rowMajor ? ndim_ - idim - 1 : idim;
-                    coords[ jdim ] = ( coords[ jdim ] + 1 ) % dimSizes_[ jdim ];
-                    if ( coords[ jdim ] != 0 ) {
-                        break;
-                    }
+            getTransposer( rowMajor ).copy( rawValue, 0, out, 0 );
+            return out;
+        }
+
+        public void shapeRecords( Object rawValues, int nrec,
+                                  boolean rowMajor,
+                                  Object dest, int destOffset ) {
+            Transposer transposer = getTransposer( rowMajor );
+            int rawLeng = rawItemCount_ * itemSize_;
+            int shapedLeng = shapedItemCount_ * itemSize_;
+            for ( int irec = 0; irec < nrec; irec++ ) {
+                transposer.copy( rawValues, irec * rawLeng,
+                                 dest, destOffset + irec * shapedLeng );
+            }
+        }
+
+        /**
+         * Returns an object which can copy raw values into a shaped
+         * array of a given majority.
+         * These are created lazily and retained, so that the index
+         * tables are calculated only once for all records.
+         * Races are harmless, since the transposers are immutable.
+         *
+         * @param  rowMajor  majority of shaped output array
+         * @return  transposer
+         */
+        Transposer getTransposer( boolean rowMajor ) {
+            Transposer transposer = rowMajor ? rowMajorTransposer_
+                                             : colMajorTransposer_;
+            if ( transposer == null ) {
+                transposer = new Transposer( dimSizes_, strides_, rowMajor,
+                                             itemSize_ );
+                if ( rowMajor ) {
+                    rowMajorTransposer_ = transposer;
+                }
+                else {
+                    colMajorTransposer_ = transposer;
                 }
-                System.arraycopy( rawValue, getArrayIndex( coords ),
-                                  out, ix * itemSize_, itemSize_ );
             }
-            return out;
+            return transposer;
         }
     }
 
@@ -339,14 +421,24 @@ public abstract class Shaper {
                 return out;
             }
             else {
-                // Probably there's a more efficient way to do this -
-                // it's an n-dimensional generalisation of transposing
-                // a matrix (though don't forget to keep units of
-                // groupSize intact).
                 return super.shape( rawValue, rowMajor );
             }
         }
 
+        public void shapeRecords( Object rawValues, int nrec,
+                                  boolean rowMajor,
+                                  Object dest, int destOffset ) {
+            if ( rowMajor == rowMajor_ ) {
+                System.arraycopy( rawValues, 0, dest, destOffset,
+                                  nrec * getRawItemCount()
+                                       * dataType_.getGroupSize() );
+            }
+            else {
+                super.shapeRecords( rawValues, nrec, rowMajor,
+                                    dest, destOffset );
+            }
+        }
+
         /**
          * Utility method that returns a boolean array of a given size
          * populated with true values.
@@ -361,6 +453,255 @@ public abstract class Shaper {
         }
     }
 
+    /**
+     * Copies items from a raw value array into a shaped value array,
+     * where the two arrays may have different majorities and the raw array
+     * may be missing some dimensions (those with false dimension variance).
+     * Each item consists of a fixed number of adjacent array elements
+     * (the data type's group size), which are copied together.
+     *
+     * <p>The copy is organised as a loop over a table of start offsets
+     * for all but two of the (non-unit) dimensions, calculated at
+     * construction time.  The remaining two dimensions are the one
+     * contiguous in the output array (A) and the one contiguous
+     * in the input array (B); these are traversed in square tiles
+     * so that both the reads and the writes stay within cache
+     * for large arrays, as for a blocked matrix transpose.
+     * If A and B are the same dimension, the inner loop is a simple
+     * strided copy.
+     */
+    private static class Transposer {
+
+        private final int groupSize_;
+        private final int nA_;
+        private final int rawStrideA_;
+        private final int nB_;
+        private final int outStrideB_;
+        private final int rawStrideB_;
+        private final int[] outBases_;
+        private final int[] rawBases_;
+
+        /** Tile edge in items. */
+        private static final int TILE = 32;
+
+        /**
+         * Constructor.
+         *
+         * @param  dimSizes  dimensions of shaped array
+         * @param  rawStrides  for each dimension, the step in items between
+         *                     adjacent elements of the raw array
+         *                     (zero for non-varying dimensions)
+         * @param  rowMajor  majority of the shaped output array
+         * @param  groupSize   number of array elements per item
+         */
+        Transposer( int[] dimSizes, int[] rawStrides, boolean rowMajor,
+                    int groupSize ) {
+            groupSize_ = groupSize;
+            int ndim = dimSizes.length;
+
+            /* Work out output strides, and identify the dimensions
+             * contiguous in output and input arrays.
+             * Dimensions of size 1 can be ignored throughout. */
+            int[] outStrides = new int[ ndim ];
+            int outStride = 1;
+            int iA = -1;
+            int iB = -1;
+            for ( int i = 0; i < ndim; i++ ) {
+                int idim = rowMajor ? ndim - i - 1 : i;
+                outStrides[ idim ] = outStride;
+                if ( dimSizes[ idim ] > 1 ) {
+                    if ( iA < 0 ) {
+                        iA = idim;
+                    }
+                    if ( rawStrides[ idim ] == 1 ) {
+                        iB = idim;
+                    }
+                }
+                outStride *= dimSizes[ idim ];
+            }
+            if ( iB == iA ) {
+                iB = -1;
+            }
+            nA_ = iA >= 0 ? dimSizes[ iA ] : 1;
+            rawStrideA_ = iA >= 0 ? rawStrides[ iA ] : 0;
+            nB_ = iB >= 0 ? dimSizes[ iB ] : 1;
+            outStrideB_ = iB >= 0 ? outStrides[ iB ] : 0;
+            rawStrideB_ = iB >= 0 ? rawStrides[ iB ] : 0;
+
+            /* Tabulate start offsets for all combinations of coordinates
+             * in the remaining dimensions, ordered so that output offsets
+             * increase. */
+            int nm = 1;
+            int[] mdims = new int[ ndim ];
+            int nmdim = 0;
+            for ( int i = 0; i < ndim; i++ ) {
+                int idim = rowMajor ? ndim - i - 1 : i;
+                if ( idim != iA && idim != iB && dimSizes[ idim ] > 1 ) {
+                    mdims[ nmdim++ ] = idim;
+                    nm *= dimSizes[ idim ];
+                }
+            }
+            outBases_ = new int[ nm ];
+            rawBases_ = new int[ nm ];
+            int[] coords = new int[ nmdim ];
+            int outBase = 0;
+            int rawBase = 0;
+            for ( int im = 0; im < nm; im++ ) {
+                outBases_[ im ] = outBase;
+                rawBases_[ im ] = rawBase;
+                for ( int j = 0; j < nmdim; j++ ) {
+                    int idim = mdims[ j ];
+                    outBase += outStrides[ idim ];
+                    rawBase += rawStrides[ idim ];
+                    if ( ++coords[ j ] < dimSizes[ idim ] ) {
+                        break;
+                    }
+                    coords[ j ] = 0;
+                    outBase -= outStrides[ idim ] * dimSizes[ idim ];
+                    rawBase -= rawStrides[ idim ] * dimSizes[ idim ];
+                }
+            }
+        }
+
+        /**
+         * Copies the items of one record from a raw array to a
+         * shaped array.
+         *
+         * @param  raw  raw value array
+         * @param  rawOff  element offset of the record start in raw
+         * @param  out  shaped value array, same type as raw
+         * @param  outOff  element offset of the record start in out
+         */
+        void copy( Object raw, int rawOff, Object out, int outOff ) {
+            int g = groupSize_;
+            int tileA = nB_ > 1 ? TILE : nA_;
+            int nm = outBases_.length;
+            for ( int im = 0; im < nm; im++ ) {
+                int ob = outOff + g * outBases_[ im ];
+                int rb = rawOff + g * rawBases_[ im ];
+                for ( int b0 = 0; b0 < nB_; b0 += TILE ) {
+                    int b1 = Math.min( b0 + TILE, nB_ );
+                    for ( int a0 = 0; a0 < nA_; a0 += tileA ) {
+                        int na = Math.min( tileA, nA_ - a0 );
+                        for ( int ib = b0; ib < b1; ib++ ) {
+                            copyRun( raw, rb + g * ( ib * rawStrideB_
+                                                   + a0 * rawStrideA_ ),
+                                     out, ob + g * ( ib * outStrideB_ + a0 ),
+                                     na );
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copies a run of items along dimension A, which are contiguous
+         * in the output array and <code>rawStrideA_</code> items apart
+         * in the raw array.
+         * Loops are specialised for the common array types,
+         * since a generic per-item copy is several times slower.
+         *
+         * @param  raw  raw value array
+         * @param  r   element offset in raw of the first item
+         * @param  out  shaped value array, same type as raw
+         * @param  o   element offset in out of the first item
+         * @param  n   number of items
+         */
+        private void copyRun( Object raw, int r, Object out, int o, int n ) {
+            int g = groupSize_;
+            int rs = g * rawStrideA_;
+            if ( rs == g ) {
+                System.arraycopy( raw, r, out, o, n * g );
+            }
+            else if ( g == 1 ) {
+                if ( raw instanceof double[] ) {
+                    double[] in = (double[]) raw;
+                    double[] dst = (double[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof float[] ) {
+                    float[] in = (float[]) raw;
+                    float[] dst = (float[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof long[] ) {
+                    long[] in = (long[]) raw;
+                    long[] dst = (long[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof int[] ) {
+                    int[] in = (int[]) raw;
+                    int[] dst = (int[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof short[] ) {
+                    short[] in = (short[]) raw;
+                    short[] dst = (short[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof byte[] ) {
+                    byte[] in = (byte[]) raw;
+                    byte[] dst = (byte[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else if ( raw instanceof Object[] ) {
+                    Object[] in = (Object[]) raw;
+                    Object[] dst = (Object[]) out;
+                    for ( int i = 0; i < n; i++ ) {
+                        dst[ o + i ] = in[ r + i * rs ];
+                    }
+                }
+                else {
+                    copyGroups( raw, r, rs, out, o, n );
+                }
+            }
+
+            // EPOCH16 values are pairs of doubles.
+            else if ( g == 2 && raw instanceof double[] ) {
+                double[] in = (double[]) raw;
+                double[] dst = (double[]) out;
+                for ( int i = 0; i < n; i++ ) {
+                    int ri = r + i * rs;
+                    dst[ o + 2 * i ] = in[ ri ];
+                    dst[ o + 2 * i + 1 ] = in[ ri + 1 ];
+                }
+            }
+            else {
+                copyGroups( raw, r, rs, out, o, n );
+            }
+        }
+
+        /**
+         * Copies a run of items of any size and array type.
+         *
+         * @param  raw  raw value array
+         * @param  r   element offset in raw of the first item
+         * @param  rs  element step between items in raw
+         * @param  out  shaped value array, same type as raw
+         * @param  o   element offset in out of the first item
+         * @param  n   number of items
+         */
+        private void copyGroups( Object raw, int r, int rs,
+                                 Object out, int o, int n ) {
+            int g = groupSize_;
+            for ( int i = 0; i < n; i++ ) {
+                System.arraycopy( raw, r + i * rs, out, o + i * g, g );
+            }
+        }
+    }
+
     /**
      * Returns the array class corresponding to a given scalar class.
      *
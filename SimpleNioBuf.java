@@ -21,8 +21,10 @@ public class SimpleNioBuf implements Buf {
 
     private final ByteBuffer byteBuf_;
     private final ByteBuffer dataBuf_;
-    private boolean isBit64_;
-    private boolean isBigendian_;
+    private final boolean isOwned_;
+    private final ReadGuard guard_;
+    private volatile boolean isBit64_;
+    private volatile boolean isBigendian_;
 
     /**
      * Constructor.
@@ -33,8 +35,30 @@ public class SimpleNioBuf implements Buf {
      */
     public SimpleNioBuf( ByteBuffer byteBuf, boolean isBit64,
                          boolean isBigendian ) {
+        this( byteBuf, isBit64, isBigendian, false );
+    }
+
+    /**
+     * Constructor with ownership flag.
+     *
+     * @param  byteBuf  NIO byte buffer containing the byte data
+     * @param  isBit64  64bit-ness of this buf
+     * @param  isBigendian  true for big-endian, false for little-endian
+     * @param  isOwned  true if byteBuf is a mapped or direct buffer
+     *                  that should be released when this buf is closed
+     */
+    SimpleNioBuf( ByteBuffer byteBuf, boolean isBit64, boolean isBigendian,
+                  boolean isOwned ) {
         byteBuf_ = byteBuf;
         dataBuf_ = byteBuf.duplicate();
+        isOwned_ = isOwned;
+        guard_ = new ReadGuard() {
+            protected void release() {
+                if ( isOwned_ ) {
+                    Bufs.unmap( byteBuf_ );
+                }
+            }
+        };
         setBit64( isBit64 );
         setEncoding( isBigendian );
     }
@@ -43,31 +67,56 @@ public class SimpleNioBuf implements Buf {
         return byteBuf_.capacity();
     }
 
-    public int readUnsignedByte( Pointer ptr ) {
-        return byteBuf_.get( toInt( ptr.getAndIncrement( 1 ) ) ) & 0xff;
+    public int readUnsignedByte( Pointer ptr ) throws IOException {
+        guard_.enter();
+        try {
+            return byteBuf_.get( toInt( ptr.getAndIncrement( 1 ) ) ) & 0xff;
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public int readInt( Pointer ptr ) {
-        return byteBuf_.getInt( toInt( ptr.getAndIncrement( 4 ) ) );
+    public int readInt( Pointer ptr ) throws IOException {
+        guard_.enter();
+        try {
+            return byteBuf_.getInt( toInt( ptr.getAndIncrement( 4 ) ) );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public long readOffset( Pointer ptr ) {
-        return isBit64_
-             ? byteBuf_.getLong( toInt( ptr.getAndIncrement( 8 ) ) )
-             : (long) byteBuf_.getInt( toInt( ptr.getAndIncrement( 4 ) ) );
+    public long readOffset( Pointer ptr ) throws IOException {
+        guard_.enter();
+        try {
+            return isBit64_
+                 ? byteBuf_.getLong( toInt( ptr.getAndIncrement( 8 ) ) )
+                 : (long) byteBuf_.getInt( toInt( ptr.getAndIncrement( 4 ) ) );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public String readAsciiString( Pointer ptr, int nbyte ) {
-        return Bufs.readAsciiString( byteBuf_,
-                                     toInt( ptr.getAndIncrement( nbyte ) ),
-                                     nbyte );
+    public String readAsciiString( Pointer ptr, int nbyte )
+            throws IOException {
+        guard_.enter();
+        try {
+            return Bufs.readAsciiString( byteBuf_,
+                                         toInt( ptr.getAndIncrement( nbyte ) ),
+                                         nbyte );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public synchronized void setBit64( boolean isBit64 ) {
+    public void setBit64( boolean isBit64 ) {
         isBit64_ = isBit64;
     }
 
-    public synchronized void setEncoding( boolean bigend ) {
+    public void setEncoding( boolean bigend ) {
 
         // NIO buffers can do all the hard work - just tell them the
         // endianness of the data buffer.  Note however that the
@@ -86,34 +135,77 @@ public class SimpleNioBuf implements Buf {
         return isBit64_;
     }
 
-    public void readDataBytes( long offset, int count, byte[] array ) {
-        Bufs.readBytes( dataBuf_, toInt( offset ), count, array );
+    public void readDataBytes( long offset, int count, byte[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readBytes( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public void readDataShorts( long offset, int count, short[] array ) {
-        Bufs.readShorts( dataBuf_, toInt( offset ), count, array );
+    public void readDataShorts( long offset, int count, short[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readShorts( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public void readDataInts( long offset, int count, int[] array ) {
-        Bufs.readInts( dataBuf_, toInt( offset ), count, array );
+    public void readDataInts( long offset, int count, int[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readInts( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public void readDataLongs( long offset, int count, long[] array ) {
-        Bufs.readLongs( dataBuf_, toInt( offset ), count, array );
+    public void readDataLongs( long offset, int count, long[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readLongs( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public void readDataFloats( long offset, int count, float[] array ) {
-        Bufs.readFloats( dataBuf_, toInt( offset ), count, array );
+    public void readDataFloats( long offset, int count, float[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readFloats( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
-    public void readDataDoubles( long offset, int count, double[] array ) {
-        Bufs.readDoubles( dataBuf_, toInt( offset ), count, array );
+    public void readDataDoubles( long offset, int count, double[] array )
+            throws IOException {
+        guard_.enter();
+        try {
+            Bufs.readDoubles( dataBuf_, toInt( offset ), count, array );
+        }
+        finally {
+            guard_.exit();
+        }
     }
 
     public InputStream createInputStream( long offset ) {
         ByteBuffer strmBuf = byteBuf_.duplicate();
         strmBuf.position( (int) offset );
-        return Bufs.createByteBufferInputStream( strmBuf );
+        return guard_.guardStream( Bufs
+                                  .createByteBufferInputStream( strmBuf ) );
     }
 
     public Buf fillNewBuf( long count, InputStream in ) throws IOException {
@@ -129,7 +221,11 @@ public class SimpleNioBuf implements Buf {
                 icount -= nr;
             }
         }
-        return new SimpleNioBuf( bbuf, isBit64_, isBigendian_ );
+        return new SimpleNioBuf( bbuf, isBit64_, isBigendian_, true );
+    }
+
+    public void close() throws IOException {
+        guard_.close();
     }
 
     /**
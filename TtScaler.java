@@ -155,6 +155,66 @@ public abstract class TtScaler {
                                  fixOffset_, scaleBase_, scaleFactor_ );
     }
 
+    /**
+     * Converts time in milliseconds from UTC since 1970 to TT since J2000
+     * for this scaler.
+     * This is the inverse of {@link #tt2kToUnixMillis(long)}.
+     *
+     * @param  unixMillis  UTC milliseconds since Unix epoch
+     * @return  TT milliseconds since J2000
+     */
+    public double unixToTt2kMillis( long unixMillis ) {
+        return unixToTt2kMillis( unixMillis,
+                                 fixOffset_, scaleBase_, scaleFactor_ );
+    }
+
+    /**
+     * Converts time in nanoseconds from TT since J2000 to UTC since 1970
+     * for this scaler.
+     * For scalers with a fixed offset this is exact;
+     * otherwise the millisecond part is calculated as for
+     * {@link #tt2kToUnixMillis}, consistent with {@link EpochFormatter}.
+     *
+     * @param  timeTt2k  TT nanoseconds since J2000 (TIME_TT2000 value)
+     * @return  UTC nanoseconds since Unix epoch
+     */
+    public long tt2kToUnixNanos( long timeTt2k ) {
+        if ( hasFixedOffset() ) {
+            return timeTt2k + getUnixNanosOffset();
+        }
+        long tt2kMillis = timeTt2k / 1000000;
+        long plusNanos = timeTt2k % 1000000;
+        if ( plusNanos < 0 ) {
+            tt2kMillis--;
+            plusNanos += 1000000;
+        }
+        long unixMillis = (long) tt2kToUnixMillis( tt2kMillis );
+        return unixMillis * 1000000 + plusNanos;
+    }
+
+    /**
+     * Indicates whether the difference between TT and UTC is constant
+     * throughout the validity range of this scaler.
+     * This is the case for all dates since 1972.
+     *
+     * @return  true iff UTC = TT + constant offset for this scaler
+     */
+    public boolean hasFixedOffset() {
+        return scaleFactor_ == 0;
+    }
+
+    /**
+     * Returns the value which must be added to a TIME_TT2000 value
+     * in this scaler's range to give Unix time in nanoseconds.
+     * Only meaningful if {@link #hasFixedOffset} returns true.
+     *
+     * @return   Unix nanoseconds minus TT2000 nanoseconds
+     */
+    public long getUnixNanosOffset() {
+        return ( (long) J2000_UNIXMILLIS - (long) TT_TAI_MILLIS ) * 1000000
+             - Math.round( fixOffset_ * 1e9 );
+    }
+
     /**
      * Returns the start of the validity range of this scaler
      * in TT milliseconds since J2000.
@@ -0,0 +1,211 @@
+package uk.ac.bristol.star.cdf;
+
+/**
+ * Converts arrays of CDF time values to Unix time in bulk.
+ * These methods are intended for processing whole time columns;
+ * they are much faster than formatting or converting values one by one.
+ *
+ * <p>TIME_TT2000 conversion exploits the fact that time columns are
+ * usually sorted: the input is split into runs that fall within a single
+ * leap second interval (as given by {@link TtScaler#getTtScalers}),
+ * and for each run a fixed offset is added in a tight loop.
+ * Unsorted input gives correct results, just more slowly.
+ *
+ * <p>All methods are static and thread-safe.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class UnixTimeConverter {
+
+    private static final TtScaler[] TT_SCALERS = TtScaler.getTtScalers();
+    private static final long[] SCALER_LO_NANOS;
+    private static final long[] SCALER_HI_NANOS;
+    static {
+        int ns = TT_SCALERS.length;
+        SCALER_LO_NANOS = new long[ ns ];
+        SCALER_HI_NANOS = new long[ ns ];
+        for ( int is = 0; is < ns; is++ ) {
+            long from = TT_SCALERS[ is ].getFromTt2kMillis();
+            long to = TT_SCALERS[ is ].getToTt2kMillis();
+
+            // The first range excludes the special TIME_TT2000
+            // fill and pad values.
+            SCALER_LO_NANOS[ is ] = from == Long.MIN_VALUE
+                                  ? Long.MIN_VALUE + 2
+                                  : from * 1000000;
+            SCALER_HI_NANOS[ is ] = to == Long.MAX_VALUE
+                                  ? Long.MAX_VALUE
+                                  : to * 1000000;
+        }
+    }
+
+    /** Unix time in nanoseconds used for TIME_TT2000 fill and pad values. */
+    public static final long TT2000_FILL_UNIX_NANOS = Long.MIN_VALUE;
+
+    /**
+     * Private constructor prevents instantiation.
+     */
+    private UnixTimeConverter() {
+    }
+
+    /**
+     * Converts a single TIME_TT2000 value to Unix time in nanoseconds.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @return  nanoseconds since 1970-01-01T00:00:00 UTC,
+     *          or {@link #TT2000_FILL_UNIX_NANOS} for fill/pad values
+     */
+    public static long tt2000ToUnixNanos( long timeTt2k ) {
+        if ( isTt2000Special( timeTt2k ) ) {
+            return TT2000_FILL_UNIX_NANOS;
+        }
+        int is = TtScaler.getScalerIndex( floorMillis( timeTt2k ),
+                                          TT_SCALERS, -1 );
+        return TT_SCALERS[ is ].tt2kToUnixNanos( timeTt2k );
+    }
+
+    /**
+     * Converts an array of TIME_TT2000 values to Unix times in nanoseconds.
+     * The special TIME_TT2000 fill and pad values are converted to
+     * {@link #TT2000_FILL_UNIX_NANOS}.
+     * Values during a leap second are mapped in the same way as by
+     * {@link TtScaler#tt2kToUnixMillis}.
+     * The input and output arrays may be the same.
+     *
+     * @param  in   input array of TIME_TT2000 values
+     * @param  inOff  index of first element of in to convert
+     * @param  out  output array of Unix nanosecond values
+     * @param  outOff  index of first element of out to write
+     * @param  n   number of values to convert
+     */
+    public static void tt2000ToUnixNanos( long[] in, int inOff,
+                                          long[] out, int outOff, int n ) {
+        int is = -1;
+        int i = 0;
+        while ( i < n ) {
+            long tt = in[ inOff + i ];
+            if ( isTt2000Special( tt ) ) {
+                out[ outOff + i++ ] = TT2000_FILL_UNIX_NANOS;
+            }
+            else {
+                is = TtScaler.getScalerIndex( floorMillis( tt ),
+                                              TT_SCALERS, is );
+                TtScaler scaler = TT_SCALERS[ is ];
+                out[ outOff + i++ ] = scaler.tt2kToUnixNanos( tt );
+
+                // Convert any following values in the same interval
+                // by adding a constant.
+                if ( scaler.hasFixedOffset() ) {
+                    long offset = scaler.getUnixNanosOffset();
+                    long lo = SCALER_LO_NANOS[ is ];
+                    long hi = SCALER_HI_NANOS[ is ];
+                    for ( ; i < n; i++ ) {
+                        long t = in[ inOff + i ];
+                        if ( t < lo || t >= hi ) {
+                            break;
+                        }
+                        out[ outOff + i ] = t + offset;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts an array of CDF EPOCH values to Unix times in milliseconds.
+     * The input and output arrays may be the same.
+     *
+     * @param  in   input array of EPOCH values (milliseconds since 0 AD)
+     * @param  inOff  index of first element of in to convert
+     * @param  out  output array of Unix millisecond values
+     * @param  outOff  index of first element of out to write
+     * @param  n   number of values to convert
+     */
+    public static void epochToUnixMillis( double[] in, int inOff,
+                                          double[] out, int outOff, int n ) {
+        double ad0 = EpochFormatter.AD0_UNIX_MILLIS;
+        for ( int i = 0; i < n; i++ ) {
+            out[ outOff + i ] = in[ inOff + i ] + ad0;
+        }
+    }
+
+    /**
+     * Converts an array of CDF EPOCH16 values to Unix times in nanoseconds.
+     * The input array contains (seconds since 0 AD, picoseconds) pairs,
+     * so the input index advances twice as fast as the output index.
+     * Sub-nanosecond precision is truncated.
+     * Results are only meaningful for dates within a few hundred years
+     * of 1970, since outside that range they overflow a long.
+     *
+     * @param  in   input array of EPOCH16 value pairs
+     * @param  inOff  index of first element of in to convert;
+     *                this is an array index, not an item index
+     * @param  out  output array of Unix nanosecond values
+     * @param  outOff  index of first element of out to write
+     * @param  n   number of EPOCH16 values to convert
+     */
+    public static void epoch16ToUnixNanos( double[] in, int inOff,
+                                           long[] out, int outOff, int n ) {
+        long ad0Sec = EpochFormatter.AD0_UNIX_MILLIS / 1000;
+        for ( int i = 0; i < n; i++ ) {
+            int j = inOff + 2 * i;
+            long sec = (long) in[ j ] + ad0Sec;
+            long nanos = (long) ( in[ j + 1 ] * 0.001 );
+            out[ outOff + i ] = sec * 1000000000 + nanos;
+        }
+    }
+
+    /**
+     * Indicates whether an item of a time data type is one of the
+     * special fill or pad values, which do not represent real times.
+     * For TIME_TT2000 these are <code>Long.MIN_VALUE</code> and
+     * <code>Long.MIN_VALUE+1</code>.
+     * For EPOCH they are -1e31 and 0, and for EPOCH16 (-1e31,-1e31)
+     * and (0,0); since these types count from the year 0,
+     * any value whose (seconds) part is not positive is treated
+     * as special.  For other data types false is returned.
+     *
+     * @param  dataType  data type
+     * @param  array   value array for dataType
+     * @param  arrayIndex  index into array at which the item is found
+     * @return  true iff the item is a time fill or pad value
+     */
+    public static boolean isSpecialTime( DataType dataType, Object array,
+                                         int arrayIndex ) {
+        if ( dataType.isTt2000() ) {
+            return isTt2000Special( dataType.getLongReader()
+                                            .getLong( array, arrayIndex ) );
+        }
+        else if ( dataType == DataType.EPOCH ||
+                  dataType == DataType.EPOCH16 ) {
+            return ! ( ((double[]) array)[ arrayIndex ] > 0 );
+        }
+        else {
+            return false;
+        }
+    }
+
+    /**
+     * Indicates whether a TIME_TT2000 value is one of the special
+     * fill or pad values.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @return  true iff value is a fill or pad value
+     */
+    private static boolean isTt2000Special( long timeTt2k ) {
+        return timeTt2k == Long.MIN_VALUE || timeTt2k == Long.MIN_VALUE + 1;
+    }
+
+    /**
+     * Returns the TT2000 millisecond value containing a given TT2000
+     * nanosecond value.
+     *
+     * @param  timeTt2k  TIME_TT2000 value
+     * @return  TT milliseconds since J2000, rounded down
+     */
+    private static long floorMillis( long timeTt2k ) {
+        long millis = timeTt2k / 1000000;
+        return timeTt2k % 1000000 < 0 ? millis - 1 : millis;
+    }
+}
@@ -0,0 +1,350 @@
+package uk.ac.bristol.star.cdf;
+
+import java.lang.reflect.Array;
+import java.util.BitSet;
+
+/**
+ * Determines whether data values are valid according to the ISTP
+ * conventions for fill values and valid ranges.
+ * A value is considered invalid if it equals the fill value,
+ * or if it falls outside the range given by the valid minimum
+ * and maximum.  Any of these limits may be absent.
+ *
+ * <p>Instances of this class can be passed to the
+ * {@link Variable#readShapedRecords(int,int,boolean,Object,Object,int,
+ *                                   ValidityTester,BitSet)
+ * Variable.readShapedRecords} method
+ * to obtain a validity bitmap at the same time as the values are read.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class ValidityTester {
+
+    private final DataType dataType_;
+    private final int groupSize_;
+    private final int mode_;
+    private final LongReader longReader_;
+    private final DoubleReader doubleReader_;
+    private final boolean hasFill_;
+    private final boolean hasMin_;
+    private final boolean hasMax_;
+    private final long lFill_;
+    private final long lMin_;
+    private final long lMax_;
+    private final double dFill_;
+    private final double dMin_;
+    private final double dMax_;
+    private final boolean nanFill_;
+    private final Object oFill_;
+    private final Object oMin_;
+    private final Object oMax_;
+
+    /** Name of the ISTP fill value variable attribute. */
+    public static final String FILLVAL_NAME = "FILLVAL";
+
+    /** Name of the ISTP valid minimum variable attribute. */
+    public static final String VALIDMIN_NAME = "VALIDMIN";
+
+    /** Name of the ISTP valid maximum variable attribute. */
+    public static final String VALIDMAX_NAME = "VALIDMAX";
+
+    private static final int MODE_LONG = 1;
+    private static final int MODE_DOUBLE = 2;
+    private static final int MODE_OBJECT = 3;
+
+    /**
+     * Constructor.
+     * Limits are supplied as attribute entries, whose values are
+     * converted to the variable's data type if required.
+     * Entries which are null, empty or unusable are ignored.
+     *
+     * @param  dataType  data type of the values to be tested
+     * @param  fillEntry  fill value entry, or null
+     * @param  minEntry   valid minimum entry, or null
+     * @param  maxEntry   valid maximum entry, or null
+     */
+    public ValidityTester( DataType dataType, AttributeEntry fillEntry,
+                           AttributeEntry minEntry, AttributeEntry maxEntry ) {
+        dataType_ = dataType;
+        groupSize_ = dataType.getGroupSize();
+        longReader_ = dataType.getLongReader();
+        doubleReader_ = dataType.getDoubleReader();
+        if ( longReader_ != null && isLongCompatible( fillEntry )
+                                 && isLongCompatible( minEntry )
+                                 && isLongCompatible( maxEntry ) ) {
+            mode_ = MODE_LONG;
+        }
+        else if ( doubleReader_ != null && isDoubleCompatible( fillEntry )
+                                        && isDoubleCompatible( minEntry )
+                                        && isDoubleCompatible( maxEntry ) ) {
+            mode_ = MODE_DOUBLE;
+        }
+        else {
+            mode_ = MODE_OBJECT;
+        }
+        boolean isLong = mode_ == MODE_LONG;
+        boolean isDouble = mode_ == MODE_DOUBLE;
+        boolean isObject = mode_ == MODE_OBJECT;
+
+        // Ranges are not meaningful for string data.
+        boolean isRanged = ! dataType.hasMultipleElementsPerItem();
+        AttributeEntry minEnt = isRanged ? minEntry : null;
+        AttributeEntry maxEnt = isRanged ? maxEntry : null;
+        oFill_ = isObject ? getGroup( fillEntry ) : null;
+        oMin_ = isObject ? getGroup( minEnt ) : null;
+        oMax_ = isObject ? getGroup( maxEnt ) : null;
+        hasFill_ = isObject ? oFill_ != null : hasValue( fillEntry );
+        hasMin_ = isObject ? oMin_ != null : hasValue( minEnt );
+        hasMax_ = isObject ? oMax_ != null : hasValue( maxEnt );
+        lFill_ = hasFill_ && isLong ? getLong( fillEntry ) : 0;
+        lMin_ = hasMin_ && isLong ? getLong( minEnt ) : Long.MIN_VALUE;
+        lMax_ = hasMax_ && isLong ? getLong( maxEnt ) : Long.MAX_VALUE;
+        dFill_ = hasFill_ && isDouble ? getDouble( fillEntry ) : Double.NaN;
+        dMin_ = hasMin_ && isDouble ? getDouble( minEnt )
+                                    : Double.NEGATIVE_INFINITY;
+        dMax_ = hasMax_ && isDouble ? getDouble( maxEnt )
+                                    : Double.POSITIVE_INFINITY;
+        nanFill_ = hasFill_ && isDouble && Double.isNaN( dFill_ );
+    }
+
+    /**
+     * Returns a tester for a given variable based on the ISTP
+     * FILLVAL, VALIDMIN and VALIDMAX attributes, if present.
+     *
+     * @param  variable  variable
+     * @param  vatts   variable attributes in the CDF
+     * @return  validity tester for variable
+     */
+    public static ValidityTester createTester( Variable variable,
+                                               VariableAttribute[] vatts ) {
+        AttributeEntry fill = null;
+        AttributeEntry min = null;
+        AttributeEntry max = null;
+        for ( int ia = 0; ia < vatts.length; ia++ ) {
+            VariableAttribute vatt = vatts[ ia ];
+            String name = vatt.getName();
+            if ( FILLVAL_NAME.equals( name ) ) {
+                fill = vatt.getEntry( variable );
+            }
+            else if ( VALIDMIN_NAME.equals( name ) ) {
+                min = vatt.getEntry( variable );
+            }
+            else if ( VALIDMAX_NAME.equals( name ) ) {
+                max = vatt.getEntry( variable );
+            }
+        }
+        return new ValidityTester( variable.getDataType(), fill, min, max );
+    }
+
+    /**
+     * Returns the data type of values tested by this object.
+     *
+     * @return  data type
+     */
+    public DataType getDataType() {
+        return dataType_;
+    }
+
+    /**
+     * Indicates whether this tester can ever report a value as invalid.
+     *
+     * @return  true iff a fill value or range limit is in effect
+     */
+    public boolean hasLimits() {
+        return hasFill_ || hasMin_ || hasMax_;
+    }
+
+    /**
+     * Tests whether a single item in a value array is valid.
+     *
+     * <p>The <code>arrayIndex</code> argument is the index into the
+     * array object, not necessarily the item index -
+     * see the {@link DataType#getArrayIndex DataType.getArrayIndex} method.
+     *
+     * @param  array  value array for this tester's data type
+     * @param  arrayIndex  index into array at which the item is found
+     * @return  true iff the item is valid
+     */
+    public boolean isValid( Object array, int arrayIndex ) {
+        if ( mode_ == MODE_LONG ) {
+            long v = longReader_.getLong( array, arrayIndex );
+            return ! ( hasFill_ && v == lFill_ ) && v >= lMin_ && v <= lMax_;
+        }
+        else if ( mode_ == MODE_DOUBLE ) {
+            double v = doubleReader_.getDouble( array, arrayIndex );
+            return ! ( hasFill_ && v == dFill_ ) && ! ( nanFill_ && v != v )
+                && ! ( v < dMin_ ) && ! ( v > dMax_ );
+        }
+        else {
+            return ! ( hasFill_ && compareGroup( array, arrayIndex,
+                                                 oFill_ ) == 0 )
+                && ! ( hasMin_ && compareGroup( array, arrayIndex,
+                                                oMin_ ) < 0 )
+                && ! ( hasMax_ && compareGroup( array, arrayIndex,
+                                                oMax_ ) > 0 );
+        }
+    }
+
+    /**
+     * Tests a run of items in a value array, recording the results
+     * in a bit set.  The bit for each valid item is set, and the bit
+     * for each invalid item is cleared.
+     *
+     * @param  array   value array for this tester's data type
+     * @param  arrayIndex  array index of the first item to test
+     * @param  nitem   number of items to test
+     * @param  valid   bit set to receive results
+     * @param  ibit    index of the bit corresponding to the first item
+     * @return  number of invalid items found
+     */
+    public int testItems( Object array, int arrayIndex, int nitem,
+                          BitSet valid, int ibit ) {
+        if ( ! hasLimits() ) {
+            valid.set( ibit, ibit + nitem );
+            return 0;
+        }
+        int nbad = 0;
+        if ( mode_ == MODE_LONG ) {
+            for ( int i = 0; i < nitem; i++ ) {
+                long v = longReader_.getLong( array, arrayIndex + i );
+                boolean ok = ! ( hasFill_ && v == lFill_ )
+                          && v >= lMin_ && v <= lMax_;
+                valid.set( ibit + i, ok );
+                if ( ! ok ) {
+                    nbad++;
+                }
+            }
+        }
+        else if ( mode_ == MODE_DOUBLE ) {
+            for ( int i = 0; i < nitem; i++ ) {
+                double v = doubleReader_.getDouble( array, arrayIndex + i );
+                boolean ok = ! ( hasFill_ && v == dFill_ )
+                          && ! ( nanFill_ && v != v )
+                          && ! ( v < dMin_ ) && ! ( v > dMax_ );
+                valid.set( ibit + i, ok );
+                if ( ! ok ) {
+                    nbad++;
+                }
+            }
+        }
+        else {
+            for ( int i = 0; i < nitem; i++ ) {
+                boolean ok = isValid( array, arrayIndex + i * groupSize_ );
+                valid.set( ibit + i, ok );
+                if ( ! ok ) {
+                    nbad++;
+                }
+            }
+        }
+        return nbad;
+    }
+
+    /**
+     * Compares an item in a value array with a reference group.
+     * Elements are compared in order, so for EPOCH16 this gives
+     * a time ordering.  String elements are only tested for equality;
+     * unequal strings compare as greater.
+     *
+     * @param  array  value array
+     * @param  arrayIndex  index of the first element of the item
+     * @param  group  groupSize-element array of the same type
+     * @return  negative, zero or positive as the item is less than,
+     *          equal to or greater than the reference
+     */
+    private int compareGroup( Object array, int arrayIndex, Object group ) {
+        for ( int i = 0; i < groupSize_; i++ ) {
+            Object v = Array.get( array, arrayIndex + i );
+            Object r = Array.get( group, i );
+            if ( v instanceof Double ) {
+                int c = Double.compare( ((Double) v).doubleValue(),
+                                        ((Double) r).doubleValue() );
+                if ( c != 0 ) {
+                    return c;
+                }
+            }
+            else if ( v == null ? r != null : ! v.equals( r ) ) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Indicates whether an entry has a value.
+     *
+     * @param  entry  entry, may be null
+     * @return  true iff entry contains at least one item
+     */
+    private static boolean hasValue( AttributeEntry entry ) {
+        return entry != null && entry.getItemCount() > 0;
+    }
+
+    /**
+     * Indicates whether an entry's value can be read as a long.
+     *
+     * @param  entry  entry, may be null
+     * @return  true iff entry is absent or has an integer type
+     */
+    private static boolean isLongCompatible( AttributeEntry entry ) {
+        return ! hasValue( entry )
+            || entry.getDataType().getLongReader() != null;
+    }
+
+    /**
+     * Indicates whether an entry's value can be read as a double.
+     *
+     * @param  entry  entry, may be null
+     * @return  true iff entry is absent or has a simple numeric type
+     */
+    private static boolean isDoubleCompatible( AttributeEntry entry ) {
+        return ! hasValue( entry )
+            || entry.getDataType().getDoubleReader() != null;
+    }
+
+    /**
+     * Returns the first item of an entry as a long.
+     *
+     * @param  entry  entry with integer type
+     * @return  value
+     */
+    private static long getLong( AttributeEntry entry ) {
+        return entry.getDataType().getLongReader()
+                    .getLong( entry.getRawValue(), 0 );
+    }
+
+    /**
+     * Returns the first item of an entry as a double.
+     *
+     * @param  entry  entry with simple numeric type
+     * @return  value
+     */
+    private static double getDouble( AttributeEntry entry ) {
+        return entry.getDataType().getDoubleReader()
+                    .getDouble( entry.getRawValue(), 0 );
+    }
+
+    /**
+     * Returns the first item of an entry as a group array compatible
+     * with this tester's data type, or null if there is no value or
+     * the types don't match.
+     *
+     * @param  entry  entry, may be null
+     * @return  groupSize-element array, or null
+     */
+    private Object getGroup( AttributeEntry entry ) {
+        if ( ! hasValue( entry ) ) {
+            return null;
+        }
+        Object raw = entry.getRawValue();
+        if ( raw.getClass().getComponentType()
+             != dataType_.getArrayElementClass() ||
+             Array.getLength( raw ) < groupSize_ ) {
+            return null;
+        }
+        Object group = Array.newInstance( dataType_.getArrayElementClass(),
+                                          groupSize_ );
+        System.arraycopy( raw, 0, group, 0, groupSize_ );
+        return group;
+    }
+}
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.List;
 import uk.ac.bristol.star.cdf.record.Buf;
 import uk.ac.bristol.star.cdf.record.DataReader;
@@ -26,13 +29,21 @@ import uk.ac.bristol.star.cdf.record.VariableDescriptorRecord;
  * {@link #readShapedRecord readShapedRecord} (which may have to copy and
  * possibly re-order the array, and may not be so efficient).
  *
+ * <p>The read methods may be called concurrently from any number of
+ * threads.  They hold no monitors while reading:
+ * once a variable's record map has been built,
+ * reads take no locks at all, and the map is built under a
+ * {@link java.util.concurrent.locks.ReentrantLock}.
+ * This means that virtual threads reading data do not pin their
+ * carrier threads, even when page faults on mapped files make the
+ * reads block.
+ *
  * @author   Mark Taylor
  * @since    20 Jun 2013
  */
 public class Variable {
 
-    private final VariableDescriptorRecord vdr_;
-    private final Buf buf_;
+    private volatile VariableDescriptorRecord vdr_;
     private final RecordFactory recFact_;
     private final boolean isZVariable_;
     private final boolean recordVariance_;
@@ -40,11 +51,17 @@ public class Variable {
     private final int rvaleng_;
     private final DataType dataType_;
     private final DataReader dataReader_;
+    private final boolean isRawShaped_;
     private final Object padRawValueArray_;
     private final Object shapedPadValueRowMajor_;
     private final Object shapedPadValueColumnMajor_;
     private final String summaryTxt_;
-    private RecordReader recordReader_;
+    private final boolean rowMajor_;
+    private RecordMap recordMap_;
+    private volatile RecordReader recordReader_;
+    private final Lock lock_ = new ReentrantLock();
+    private volatile RecordDedupCache dedupCache_;
+    private volatile ZoneMap zoneMap_;
 
     /**
      * Constructor.
@@ -58,7 +75,7 @@ public class Variable {
 
         // Prepare state for reading data.
         vdr_ = vdr;
-        buf_ = vdr.getBuf();
+        Buf buf = vdr.getBuf();
         recFact_ = recFact;
         isZVariable_ = vdr.getRecordType() == 8;
         dataType_ = DataType.getDataType( vdr.dataType, cdfInfo );
@@ -66,6 +83,7 @@ public class Variable {
         int[] dimSizes = isZVariable_ ? vdr.zDimSizes : cdfInfo.getRDimSizes();
         boolean[] dimVarys = vdr.dimVarys;
         boolean rowMajor = cdfInfo.getRowMajor();
+        rowMajor_ = rowMajor;
         int numElems = vdr.numElems;
 
         // As far as I understand the internal formats document, only
@@ -77,13 +95,17 @@ public class Variable {
         dataReader_ = new DataReader( dataType_, numElems, nraw );
         rvaleng_ = Array.getLength( dataReader_.createValueArray() );
 
+        // Scalar and simple vector shaping leaves the raw layout unchanged.
+        isRawShaped_ = nraw == shaper_.getShapedItemCount()
+                    && ( nraw == 1 || dimSizes.length == 1 );
+
         // Read pad value if present.
         long padOffset = vdr.getPadValueOffset();
         if ( padOffset >= 0 ) {
             DataReader padReader = new DataReader( dataType_, numElems, 1 );
             assert vdr.getPadValueSize() == padReader.getRecordSize();
             Object padValueArray = padReader.createValueArray();
-            padReader.readValue( buf_, padOffset, padValueArray );
+            padReader.readValue( buf, padOffset, padValueArray );
             Object rva = dataReader_.createValueArray();
             int ngrp = dataType_.getGroupSize();
             for ( int i = 0; i < nraw; i++ ) {
@@ -184,6 +206,30 @@ public class Variable {
         return dataType_;
     }
 
+    /**
+     * Returns an object which can read elements of this variable's
+     * raw or shaped value arrays as primitive doubles.
+     * This is a convenience method that returns the same as
+     * <code>getDataType().getDoubleReader()</code>.
+     *
+     * @return  double reader, or null for non-numeric data types
+     */
+    public DoubleReader getDoubleReader() {
+        return dataType_.getDoubleReader();
+    }
+
+    /**
+     * Returns an object which can read elements of this variable's
+     * raw or shaped value arrays as primitive longs.
+     * This is a convenience method that returns the same as
+     * <code>getDataType().getLongReader()</code>.
+     *
+     * @return  long reader, or null for non-integer data types
+     */
+    public LongReader getLongReader() {
+        return dataType_.getLongReader();
+    }
+
     /**
      * Returns an object that knows about the array dimensions
      * of the data values.
@@ -236,6 +282,47 @@ public class Variable {
         return dataReader_.createValueArray();
     }
 
+    /**
+     * Creates a workspace array with room for the raw values of
+     * a given number of records, end to end.
+     * A block holding a single record is the same as the result of
+     * {@link #createRawValueArray}.
+     *
+     * @param  nrec  number of records
+     * @return  raw value workspace
+     * @see   #readChunk
+     */
+    Object createRawValueBlock( int nrec ) {
+        return Array.newInstance( dataType_.getArrayElementClass(),
+                                  nrec * rvaleng_ );
+    }
+
+    /**
+     * Creates an array suitable for use as the destination of this
+     * variable's shaped reading methods that write into a supplied array.
+     * The returned array is a 1-dimensional array of a primitive type
+     * or of String, with enough room for the shaped values of
+     * a given number of records.
+     *
+     * @param  nrec  number of records
+     * @return   destination array for shaped data reading
+     * @see   #readShapedRecords
+     */
+    public Object createShapedValueArray( int nrec ) {
+        return Array.newInstance( dataType_.getArrayElementClass(),
+                                  nrec * getShapedRecordLength() );
+    }
+
+    /**
+     * Returns the number of array elements occupied by a single record
+     * when written by the methods that shape into a supplied array.
+     *
+     * @return  shaped element count per record
+     */
+    public int getShapedRecordLength() {
+        return shaper_.getShapedItemCount() * dataType_.getGroupSize();
+    }
+
     /**
      * Indicates whether a real distinct file-based record exists for
      * the given index.
@@ -249,6 +336,170 @@ public class Variable {
         return getRecordReader().hasRecord( irec );
     }
 
+    /**
+     * Returns a description of which records of this variable are real,
+     * that is backed by stored data, and which are virtual.
+     * This is worked out from the variable's record index alone,
+     * without reading any record data, so it is cheap even for
+     * very sparse variables.
+     * The runs cover records from zero up to the
+     * {@link #getRecordCount record count}.
+     *
+     * <p>Virtual runs can be filled in a single operation using
+     * {@link #fillVirtualRecords fillVirtualRecords}.
+     *
+     * @return  record run description
+     */
+    public RecordRuns getRecordRuns() throws IOException {
+        return getRecordReader().getRecordRuns();
+    }
+
+    /**
+     * Writes the values of a run of virtual records into a supplied array,
+     * as for {@link #readShapedRecords(int,int,boolean,Object,Object,int)
+     *                                  readShapedRecords}.
+     * All the records in the run must have the same value, which is
+     * the case if they lie within a single virtual run as reported by
+     * {@link #getRecordRuns}; depending on the variable's sparse
+     * record type that value is the pad value, or the value of the
+     * last real record preceding the run.
+     * The value is read once and replicated, so the cost does not
+     * depend much on the run length.
+     *
+     * @param  irec  index of first record to fill
+     * @param  nrec  number of records to fill
+     * @param  rowMajor  required majority of output array
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  dest  destination array
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     * @throws  IllegalArgumentException  if the records are not all
+     *                                    within the same virtual run
+     */
+    public void fillVirtualRecords( int irec, int nrec, boolean rowMajor,
+                                    Object rawValueArrayWorkspace,
+                                    Object dest, int destOffset )
+            throws IOException {
+        if ( nrec <= 0 ) {
+            return;
+        }
+        RecordReader rrdr = getRecordReader();
+        if ( ! rrdr.isVirtualRun( irec, nrec ) ) {
+            throw new IllegalArgumentException( "Records " + irec + "+" + nrec
+                                              + " not a virtual run" );
+        }
+        rrdr.readRawRecord( irec, rawValueArrayWorkspace );
+        shaper_.shape( rawValueArrayWorkspace, rowMajor, dest, destOffset );
+
+        // Replicate the first record by doubling the filled region.
+        int leng = getShapedRecordLength();
+        int nfill = leng * nrec;
+        for ( int nd = leng; nd < nfill; nd *= 2 ) {
+            System.arraycopy( dest, destOffset, dest, destOffset + nd,
+                              Math.min( nd, nfill - nd ) );
+        }
+    }
+
+    /**
+     * Returns the record indices at which this variable's storage
+     * layout may change, that is the boundaries between record map
+     * entries and the virtual gaps between them.
+     * The records between each pair of adjacent elements lie either
+     * within a single entry or within a single virtual run,
+     * so can be read by {@link #readChunk readChunk}.
+     *
+     * @return  ascending array of chunk start indices, starting with 0
+     *          and ending with the record count
+     */
+    int[] getChunkStarts() throws IOException {
+        int nrec = getRecordCount();
+        if ( ! recordVariance_ || nrec == 0 ) {
+            return nrec == 0 ? new int[] { 0 } : new int[] { 0, nrec };
+        }
+        RecordMap recMap = getRecordReader().getRecordMap();
+        int nent = recMap.getEntryCount();
+        int[] starts = new int[ 2 * nent + 2 ];
+        int ns = 0;
+        starts[ ns++ ] = 0;
+        for ( int ie = 0; ie < nent; ie++ ) {
+            int[] bounds = { recMap.getFirstRecord( ie ),
+                             recMap.getLastRecord( ie ) + 1 };
+            for ( int b : bounds ) {
+                if ( b > starts[ ns - 1 ] && b < nrec ) {
+                    starts[ ns++ ] = b;
+                }
+            }
+        }
+        starts[ ns++ ] = nrec;
+        return Arrays.copyOf( starts, ns );
+    }
+
+    /**
+     * Reads a run of records lying within a single chunk,
+     * as defined by {@link #getChunkStarts}, into a supplied array.
+     * The effect is the same as for
+     * {@link #readShapedRecords(int,int,boolean,Object,Object,int)
+     *                          readShapedRecords}, but the record map
+     * lookup is only done once, so that threads reading different
+     * chunks concurrently do not contend for its cached state.
+     * Stored records are contiguous within a chunk, so the raw values
+     * of the whole run are read in a single operation and then shaped
+     * together.  For scalar and 1-dimensional variables, whose shaped
+     * and raw layouts are the same, a run written at the start of the
+     * destination array is read straight into it.
+     *
+     * <p>The workspace should come from
+     * {@link #createRawValueBlock createRawValueBlock}; if it is too small
+     * to hold the raw values of <code>nrec</code> records,
+     * a larger one is allocated for the call.
+     *
+     * @param  irec  index of first record to read
+     * @param  nrec  number of records to read
+     * @param  rowMajor  required majority of output array
+     * @param  rawValueArrayWorkspace  workspace array with room for the
+     *                                 raw values of one or more records
+     * @param  dest  destination array
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     */
+    void readChunk( int irec, int nrec, boolean rowMajor,
+                    Object rawValueArrayWorkspace, Object dest,
+                    int destOffset )
+            throws IOException {
+        if ( nrec <= 0 ) {
+            return;
+        }
+        RecordReader rrdr = getRecordReader();
+        RecordMap recMap = rrdr.getRecordMap();
+        int ilast = irec + nrec - 1;
+        int ient = recordVariance_ ? recMap.getEntryIndex( irec ) : -1;
+        if ( ient >= 0 && ilast <= recMap.getLastRecord( ient ) &&
+             ilast < getRecordCount() ) {
+            Buf buf = recMap.getBuf( ient );
+            long offset = recMap.getOffset( ient, irec );
+            if ( isRawShaped_ && destOffset == 0 ) {
+                dataReader_.readValues( buf, offset, nrec, dest );
+            }
+            else {
+                boolean hasRoom = Array.getLength( rawValueArrayWorkspace )
+                               >= nrec * rvaleng_;
+                Object raw = hasRoom ? rawValueArrayWorkspace
+                                     : createRawValueBlock( nrec );
+                dataReader_.readValues( buf, offset, nrec, raw );
+                shaper_.shapeRecords( raw, nrec, rowMajor, dest, destOffset );
+            }
+        }
+        else if ( recordVariance_ && rrdr.isVirtualRun( irec, nrec ) ) {
+            fillVirtualRecords( irec, nrec, rowMajor, rawValueArrayWorkspace,
+                                dest, destOffset );
+        }
+        else {
+            readShapedRecords( irec, nrec, rowMajor, rawValueArrayWorkspace,
+                               dest, destOffset );
+        }
+    }
+
     /**
      * Reads the data from a single record into a supplied raw value array.
      * The values are read into the supplied array in the order in which
@@ -293,8 +544,448 @@ public class Variable {
     public Object readShapedRecord( int irec, boolean rowMajor,
                                     Object rawValueArrayWorkspace )
              throws IOException {
-         return getRecordReader()
-               .readShapedRecord( irec, rowMajor, rawValueArrayWorkspace );
+         RecordReader rrdr = getRecordReader();
+         RecordDedupCache cache = dedupCache_;
+         if ( cache == null || rrdr.isPadRecord( irec ) ) {
+             return rrdr.readShapedRecord( irec, rowMajor,
+                                           rawValueArrayWorkspace );
+         }
+         else {
+             rrdr.readRawRecord( irec, rawValueArrayWorkspace );
+             return cache.getShapedValue( rawValueArrayWorkspace, rowMajor,
+                                          shaper_ );
+         }
+    }
+
+    /**
+     * Configures a cache which shares the results of
+     * {@link #readShapedRecord(int,boolean,Object)} between records
+     * with identical content.
+     * This saves time and memory for record-varying variables whose
+     * values seldom change, such as support data used as DEPEND_i.
+     * When the cache is in use, the arrays returned from that method
+     * may be shared between calls, so callers must not modify them.
+     *
+     * <p>By default there is no cache.
+     *
+     * @param  maxRecords  maximum number of distinct records retained
+     *                     by the cache; zero or negative to remove any cache
+     */
+    public void setDedupCacheSize( int maxRecords ) {
+        dedupCache_ = maxRecords > 0 ? new RecordDedupCache( maxRecords )
+                                     : null;
+    }
+
+    /**
+     * Returns the record deduplication cache in use for this variable,
+     * if any.  Its hit and miss counts can be used to monitor its
+     * effectiveness.
+     *
+     * @return  dedup cache, or null if none has been configured
+     * @see   #setDedupCacheSize
+     */
+    public RecordDedupCache getDedupCache() {
+        return dedupCache_;
+    }
+
+    /**
+     * Returns a zone map giving value statistics for each of this
+     * variable's stored record blocks.
+     * The first call reads all the data; the result is cached,
+     * and recalculated only if the fill value or record count changes.
+     *
+     * @param  fillValue  value to exclude from minima and maxima,
+     *                    or NaN for none
+     * @return  zone map
+     * @throws  IllegalArgumentException  if this variable is not numeric
+     */
+    public ZoneMap getZoneMap( double fillValue ) throws IOException {
+        ZoneMap zmap = zoneMap_;
+        if ( zmap == null ||
+             Double.compare( zmap.getFillValue(), fillValue ) != 0 ||
+             zmap.getRecordCount() != getRecordCount() ) {
+            zmap = ZoneMap.createZoneMap( this, fillValue );
+            zoneMap_ = zmap;
+        }
+        return zmap;
+    }
+
+    /**
+     * Returns the cached zone map without calculating it.
+     *
+     * @return  zone map, or null
+     */
+    ZoneMap getCachedZoneMap() {
+        return zoneMap_;
+    }
+
+    /**
+     * Installs a zone map in the cache.
+     *
+     * @param  zmap  zone map
+     */
+    void setZoneMap( ZoneMap zmap ) {
+        zoneMap_ = zmap;
+    }
+
+    /**
+     * Reads the data from a single record and writes its shaped elements
+     * into a supplied array.
+     * This does the same job as
+     * {@link #readShapedRecord(int,boolean,Object)},
+     * but no new objects are allocated.
+     * The elements written are the same as those of the array that
+     * method would return, or for scalar variables the array elements
+     * corresponding to the scalar value.
+     * If there is no file-based record for the given index,
+     * the values are the same as would be returned from
+     * {@link #readRawRecord readRawRecord}.
+     *
+     * @param  irec  record index
+     * @param  rowMajor  required majority of output array; true for row major,
+     *                   false for column major; only has an effect for
+     *                   dimensionality &gt;=2
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  dest  destination array, an array of the data type's
+     *               array element class, for instance as created by
+     *               the <code>createShapedValueArray</code> method
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     */
+    public void readShapedRecord( int irec, boolean rowMajor,
+                                  Object rawValueArrayWorkspace,
+                                  Object dest, int destOffset )
+            throws IOException {
+        getRecordReader().readRawRecord( irec, rawValueArrayWorkspace );
+        shaper_.shape( rawValueArrayWorkspace, rowMajor, dest, destOffset );
+    }
+
+    /**
+     * Reads the data from a run of consecutive records and writes their
+     * shaped elements into a supplied array, one after the other.
+     * The record index is therefore the outermost dimension of the
+     * result, and each record occupies
+     * {@link #getShapedRecordLength} elements.
+     * No new objects are allocated.
+     *
+     * @param  irec  index of first record to read
+     * @param  nrec  number of records to read
+     * @param  rowMajor  required majority of output array; true for row major,
+     *                   false for column major; only has an effect for
+     *                   dimensionality &gt;=2
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  dest  destination array, an array of the data type's
+     *               array element class, for instance as created by
+     *               the <code>createShapedValueArray</code> method
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     * @see   #readShapedRecord(int,boolean,Object,Object,int)
+     */
+    public void readShapedRecords( int irec, int nrec, boolean rowMajor,
+                                   Object rawValueArrayWorkspace,
+                                   Object dest, int destOffset )
+            throws IOException {
+        RecordReader rrdr = getRecordReader();
+        int leng = getShapedRecordLength();
+        for ( int i = 0; i < nrec; i++ ) {
+            rrdr.readRawRecord( irec + i, rawValueArrayWorkspace );
+            shaper_.shape( rawValueArrayWorkspace, rowMajor,
+                           dest, destOffset + i * leng );
+        }
+    }
+
+    /**
+     * Reads the data from a single record into a supplied array,
+     * and at the same time records which of the values are valid.
+     * This behaves like
+     * {@link #readShapedRecords(int,int,boolean,Object,Object,int,
+     *                           ValidityTester,BitSet) readShapedRecords}
+     * with a record count of 1.
+     *
+     * @param  irec  record index
+     * @param  rowMajor  required majority of output array
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  dest  destination array
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     * @param  tester  validity tester, or null to flag only pad records
+     * @param  valid   bit set to receive per-item validity flags
+     * @return  number of invalid items
+     */
+    public int readShapedRecord( int irec, boolean rowMajor,
+                                 Object rawValueArrayWorkspace,
+                                 Object dest, int destOffset,
+                                 ValidityTester tester, BitSet valid )
+            throws IOException {
+        return readShapedRecords( irec, 1, rowMajor, rawValueArrayWorkspace,
+                                  dest, destOffset, tester, valid );
+    }
+
+    /**
+     * Reads the data from a run of consecutive records into a supplied
+     * array as for
+     * {@link #readShapedRecords(int,int,boolean,Object,Object,int)
+     *                           readShapedRecords},
+     * and at the same time records which of the values are valid
+     * in a bitmap.
+     * Each item is tested as soon as it has been decoded,
+     * so no second pass over the data is required.
+     *
+     * <p>An item is marked invalid if it comes from a virtual record
+     * containing only pad values (see {@link #hasRecord hasRecord}),
+     * or if the supplied tester reports it invalid, for instance
+     * because it matches the FILLVAL attribute.
+     * Bits are indexed by item rather than by array element,
+     * so bit <code>destOffset/groupSize+i</code> corresponds to the
+     * <code>i</code>'th item written; the bit is set for valid items
+     * and cleared for invalid ones.
+     *
+     * @param  irec  index of first record to read
+     * @param  nrec  number of records to read
+     * @param  rowMajor  required majority of output array
+     * @param  rawValueArrayWorkspace  workspace array, as created by the
+     *                                 <code>createRawValueArray</code> method
+     * @param  dest  destination array
+     * @param  destOffset  index in dest at which the first element
+     *                     is written
+     * @param  tester  validity tester, or null to flag only pad records
+     * @param  valid   bit set to receive per-item validity flags
+     * @return  number of invalid items
+     * @see   ValidityTester#createTester
+     */
+    public int readShapedRecords( int irec, int nrec, boolean rowMajor,
+                                  Object rawValueArrayWorkspace,
+                                  Object dest, int destOffset,
+                                  ValidityTester tester, BitSet valid )
+            throws IOException {
+        RecordReader rrdr = getRecordReader();
+        int leng = getShapedRecordLength();
+        int nitem = shaper_.getShapedItemCount();
+        int ngrp = dataType_.getGroupSize();
+        int nbad = 0;
+        for ( int i = 0; i < nrec; i++ ) {
+            int jrec = irec + i;
+            int off = destOffset + i * leng;
+            int ibit = off / ngrp;
+            rrdr.readRawRecord( jrec, rawValueArrayWorkspace );
+            shaper_.shape( rawValueArrayWorkspace, rowMajor, dest, off );
+            if ( rrdr.isPadRecord( jrec ) ) {
+                valid.clear( ibit, ibit + nitem );
+                nbad += nitem;
+            }
+            else if ( tester != null ) {
+                nbad += tester.testItems( dest, off, nitem, valid, ibit );
+            }
+            else {
+                valid.set( ibit, ibit + nitem );
+            }
+        }
+        return nbad;
+    }
+
+    /**
+     * Reads a hyperslab of data, that is a regularly sampled subset
+     * of records and of array elements within each record,
+     * into a supplied array.
+     * This is like the CDF library's HyperRead function, and the
+     * results are in the CDF's own majority.
+     *
+     * @param  recStart  index of first record
+     * @param  recCount  number of records
+     * @param  recStride  step between records (1 for contiguous)
+     * @param  dimStart  per-dimension index of first element
+     * @param  dimCount  per-dimension number of elements
+     * @param  dimStride  per-dimension step between elements
+     *                    (1 for contiguous)
+     * @param  dest  destination array
+     * @see   #hyperRead(int,int,int,int[],int[],int[],boolean,Object)
+     */
+    public void hyperRead( int recStart, int recCount, int recStride,
+                           int[] dimStart, int[] dimCount, int[] dimStride,
+                           Object dest )
+            throws IOException {
+        hyperRead( recStart, recCount, recStride, dimStart, dimCount,
+                   dimStride, rowMajor_, dest );
+    }
+
+    /**
+     * Reads a hyperslab of data, that is a regularly sampled subset
+     * of records and of array elements within each record,
+     * into a supplied array with a given majority.
+     * Only the required elements are read from the data stream,
+     * so selecting a small part of each record is much cheaper than
+     * reading whole records.
+     *
+     * <p>Dimension indices refer to the notional shaped array,
+     * as described by the {@link #getShaper Shaper};
+     * values along dimensions with false dimension variance are
+     * duplicated as for {@link #readShapedRecord readShapedRecord}.
+     * Results are written to <code>dest</code> starting at index zero,
+     * with the record index outermost and the selected array elements
+     * following in the requested majority.
+     * The destination must be an array of the data type's array element
+     * class with at least
+     * <code>recCount*product(dimCount)*groupSize</code> elements.
+     * Records without file-based values yield the same values that
+     * {@link #readRawRecord readRawRecord} would give.
+     *
+     * @param  recStart  index of first record
+     * @param  recCount  number of records
+     * @param  recStride  step between records (1 for contiguous)
+     * @param  dimStart  per-dimension index of first element
+     * @param  dimCount  per-dimension number of elements
+     * @param  dimStride  per-dimension step between elements
+     *                    (1 for contiguous)
+     * @param  rowMajor  required majority of output array; true for row major,
+     *                   false for column major
+     * @param  dest  destination array
+     * @throws  IllegalArgumentException  if the selection is not
+     *          within the bounds of this variable
+     */
+    public void hyperRead( int recStart, int recCount, int recStride,
+                           int[] dimStart, int[] dimCount, int[] dimStride,
+                           boolean rowMajor, Object dest )
+            throws IOException {
+        int[] dimSizes = shaper_.getDimSizes();
+        int ndim = dimSizes.length;
+        if ( dimStart.length != ndim || dimCount.length != ndim ||
+             dimStride.length != ndim ) {
+            throw new IllegalArgumentException( "Dimensionality mismatch" );
+        }
+        if ( recStart < 0 || recCount < 0 || recStride < 1 ) {
+            throw new IllegalArgumentException( "Bad record selection" );
+        }
+        int g = dataType_.getGroupSize();
+        int nsel = 1;
+        for ( int idim = 0; idim < ndim; idim++ ) {
+            int start = dimStart[ idim ];
+            int count = dimCount[ idim ];
+            int stride = dimStride[ idim ];
+            if ( start < 0 || count < 0 || stride < 1 ||
+                 ( count > 0 &&
+                   start + (long) ( count - 1 ) * stride
+                   >= dimSizes[ idim ] ) ) {
+                throw new IllegalArgumentException( "Bad selection for "
+                                                  + "dimension " + idim );
+            }
+            nsel *= count;
+        }
+        if ( recCount == 0 || nsel == 0 ) {
+            return;
+        }
+        if ( Array.getLength( dest ) < recCount * nsel * g ) {
+            throw new IllegalArgumentException( "Destination too small" );
+        }
+
+        // Work out element strides in the raw array and item strides
+        // in the output array for each dimension.
+        int[] rawStrides = new int[ ndim ];
+        int[] outStrides = new int[ ndim ];
+        int[] coords = new int[ ndim ];
+        int outStride = 1;
+        for ( int i = 0; i < ndim; i++ ) {
+            int idim = rowMajor ? ndim - i - 1 : i;
+            coords[ idim ] = 1;
+            rawStrides[ idim ] = shaper_.getArrayIndex( coords );
+            coords[ idim ] = 0;
+            outStrides[ idim ] = outStride;
+            outStride *= dimCount[ idim ];
+        }
+
+        // Identify a dimension, if any, along which the selected elements
+        // are contiguous in the data stream, so they can be read in runs.
+        int irun = -1;
+        for ( int idim = 0; idim < ndim; idim++ ) {
+            if ( rawStrides[ idim ] == g && dimStride[ idim ] == 1 &&
+                 dimCount[ idim ] > 1 &&
+                 ( irun < 0 || dimCount[ idim ] > dimCount[ irun ] ) ) {
+                irun = idim;
+            }
+        }
+        int nrun = irun >= 0 ? dimCount[ irun ] : 1;
+        int outRunStride = irun >= 0 ? outStrides[ irun ] : 1;
+        int ncall = nsel / nrun;
+
+        // Tabulate raw element and output item offsets for the start of
+        // each run; these are the same for every record.
+        int[] rawOffs = new int[ ncall ];
+        int[] outOffs = new int[ ncall ];
+        int rawOff = 0;
+        for ( int idim = 0; idim < ndim; idim++ ) {
+            rawOff += dimStart[ idim ] * rawStrides[ idim ];
+        }
+        int outOff = 0;
+        for ( int ic = 0; ic < ncall; ic++ ) {
+            rawOffs[ ic ] = rawOff;
+            outOffs[ ic ] = outOff;
+            for ( int i = 0; i < ndim; i++ ) {
+                int idim = rowMajor ? ndim - i - 1 : i;
+                if ( idim != irun ) {
+                    int rstep = dimStride[ idim ] * rawStrides[ idim ];
+                    rawOff += rstep;
+                    outOff += outStrides[ idim ];
+                    if ( ++coords[ idim ] < dimCount[ idim ] ) {
+                        break;
+                    }
+                    coords[ idim ] = 0;
+                    rawOff -= rstep * dimCount[ idim ];
+                    outOff -= outStrides[ idim ] * dimCount[ idim ];
+                }
+            }
+        }
+
+        // Read the data record by record.
+        RecordReader rrdr = getRecordReader();
+        RecordMap recMap = rrdr.getRecordMap();
+        int nelPerItem = vdr_.numElems;
+        int itemBytes = dataReader_.getRecordSize()
+                      / shaper_.getRawItemCount();
+        Object runWork = Array.newInstance( dataType_.getArrayElementClass(),
+                                            nrun * g );
+        Object recWork = null;
+        for ( int ir = 0; ir < recCount; ir++ ) {
+            int irec = recStart + ir * recStride;
+            int recOut = ir * nsel;
+            int ient = rrdr.hasRecord( irec ) ? recMap.getEntryIndex( irec )
+                                              : -1;
+            Buf buf = null;
+            long recOffset = 0;
+            if ( ient >= 0 ) {
+                buf = recMap.getBuf( ient );
+                recOffset = recMap.getOffset( ient, irec );
+            }
+            else {
+                if ( recWork == null ) {
+                    recWork = createRawValueArray();
+                }
+                rrdr.readRawRecord( irec, recWork );
+            }
+            for ( int ic = 0; ic < ncall; ic++ ) {
+                if ( buf != null ) {
+                    long off = recOffset
+                             + ( rawOffs[ ic ] / g ) * (long) itemBytes;
+                    dataType_.readValues( buf, off, nelPerItem,
+                                          runWork, nrun );
+                }
+                else {
+                    System.arraycopy( recWork, rawOffs[ ic ],
+                                      runWork, 0, nrun * g );
+                }
+                int iout = recOut + outOffs[ ic ];
+                if ( outRunStride == 1 ) {
+                    System.arraycopy( runWork, 0, dest, iout * g, nrun * g );
+                }
+                else {
+                    for ( int j = 0; j < nrun; j++ ) {
+                        System.arraycopy( runWork, j * g, dest,
+                                          ( iout + j * outRunStride ) * g, g );
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -305,22 +996,118 @@ public class Variable {
      *
      * @return  record reader
      */
-    private synchronized RecordReader getRecordReader() throws IOException {
-        if ( recordReader_ == null ) {
-            recordReader_ = createRecordReader();
+    private RecordReader getRecordReader() throws IOException {
+
+        // Once built, the reader is returned without locking.
+        // Otherwise build it under this variable's lock, so that only
+        // one thread does the work, and only callers wanting this
+        // variable wait for it.  The lock is a ReentrantLock rather than
+        // a monitor so that virtual threads waiting on it, or doing the
+        // I/O while holding it, do not pin their carrier threads.
+        RecordReader rrdr = recordReader_;
+        if ( rrdr != null ) {
+            return rrdr;
+        }
+        lock_.lock();
+        try {
+            if ( recordReader_ == null ) {
+                recordMap_ = RecordMap.createRecordMap( vdr_, recFact_,
+                                                        dataReader_
+                                                       .getRecordSize() );
+                recordReader_ = createRecordReader( recordMap_ );
+            }
+            return recordReader_;
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Prepares this variable for reading record data.
+     * This involves reading the variable's record index,
+     * and uncompressing its data if it is compressed,
+     * which otherwise happens lazily on the first read.
+     * Calling it in advance, for instance from a background thread
+     * using {@link CdfContent#warmUp CdfContent.warmUp},
+     * hides that cost from later readers.
+     * If it is already in progress in another thread,
+     * this method waits for it to complete.
+     */
+    public void prepareRecords() throws IOException {
+        getRecordReader();
+    }
+
+    /**
+     * Indicates whether this variable has been prepared for reading
+     * record data, so that reads will not incur the cost of building
+     * the record index.
+     *
+     * @return  true iff the record index is ready
+     * @see  #prepareRecords
+     */
+    public boolean isRecordsPrepared() {
+        return recordReader_ != null;
+    }
+
+    /**
+     * Updates this variable to reflect a new version of its descriptor
+     * record, as read from a file that has grown since this object
+     * was constructed.  Any existing record map is extended to take
+     * account of newly written records, and moved to the buffer of the
+     * new descriptor record, so that the previous buffer is no longer used.
+     *
+     * @param  vdr  up to date variable descriptor record for this variable
+     */
+    void refresh( VariableDescriptorRecord vdr ) throws IOException {
+        lock_.lock();
+        try {
+            if ( vdr.num != vdr_.num || vdr.dataType != vdr_.dataType ) {
+                throw new CdfFormatException( "Variable " + getName()
+                                            + " has changed identity" );
+            }
+            vdr_ = vdr;
+            if ( recordReader_ != null ) {
+                RecordMap oldMap = recordMap_;
+                recordMap_ =
+                    RecordMap.extendRecordMap( oldMap, vdr, recFact_,
+                                               dataReader_.getRecordSize() );
+                if ( recordMap_ != oldMap ) {
+                    recordReader_ = createRecordReader( recordMap_ );
+                    oldMap.closeUnshared( recordMap_ );
+                }
+            }
+        }
+        finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Releases resources held by this variable's record map,
+     * such as buffers of uncompressed record data.
+     * Subsequent reads of record data will fail.
+     */
+    void close() throws IOException {
+        lock_.lock();
+        try {
+            if ( recordMap_ != null ) {
+                recordMap_.close();
+            }
+        }
+        finally {
+            lock_.unlock();
         }
-        return recordReader_;
     }
 
     /**
      * Constructs a record reader.
      *
+     * @param  recMap  record map
      * @return  new record reader
      */
-    private RecordReader createRecordReader() throws IOException {
-        RecordMap recMap =
-            RecordMap.createRecordMap( vdr_, recFact_,
-                                       dataReader_.getRecordSize() );
+    private RecordReader createRecordReader( RecordMap recMap )
+            throws IOException {
         if ( ! recordVariance_ ) {
             return new NoVaryRecordReader( recMap );
         }
@@ -349,6 +1136,24 @@ public class Variable {
         }
     }
 
+    /**
+     * Returns the record runs for a sparse variable
+     * as given by its record map.
+     *
+     * @param  recMap  record map
+     * @return  record runs
+     */
+    private RecordRuns createMapRuns( RecordMap recMap ) {
+        int nent = recMap.getEntryCount();
+        int[] firsts = new int[ nent ];
+        int[] lasts = new int[ nent ];
+        for ( int ie = 0; ie < nent; ie++ ) {
+            firsts[ ie ] = recMap.getFirstRecord( ie );
+            lasts[ ie ] = recMap.getLastRecord( ie );
+        }
+        return new RecordRuns( getRecordCount(), firsts, lasts, nent );
+    }
+
     /**
      * Object which can read record values for this variable.
      * This provides the implementations of several of the Variable methods.
@@ -364,6 +1169,39 @@ public class Variable {
          */
         boolean hasRecord( int irec );
 
+        /**
+         * Indicates whether the values for a given record index are
+         * just pad values, rather than being derived from file-based data.
+         *
+         * @param  irec  record index
+         * @return  true iff record irec is a virtual padding record
+         */
+        boolean isPadRecord( int irec );
+
+        /**
+         * Returns the record map used by this reader.
+         *
+         * @return  record map
+         */
+        RecordMap getRecordMap();
+
+        /**
+         * Returns the real and virtual record runs.
+         *
+         * @return  record runs
+         */
+        RecordRuns getRecordRuns();
+
+        /**
+         * Indicates whether a range of records are all virtual
+         * and all have the same value.
+         *
+         * @param  irec  first record index
+         * @param  nrec  number of records, at least 1
+         * @return  true iff the records form (part of) a single virtual run
+         */
+        boolean isVirtualRun( int irec, int nrec );
+
         /**
          * Reads the data from a single record into a supplied raw value array.
          *
@@ -391,6 +1229,7 @@ public class Variable {
      * RecordReader implementation for non-record-varying variables.
      */
     private class NoVaryRecordReader implements RecordReader {
+        private final RecordMap recMap_;
         private final Object rawValue_;
         private final Object rowMajorValue_;
         private final Object colMajorValue_;
@@ -406,6 +1245,7 @@ public class Variable {
             // to be located where you would otherwise expect to find record #0.
             // Read it once and store it in raw, row-major and column-major
             // versions for later use.
+            recMap_ = recMap;
             RecordReader rt = new UnsparseRecordReader( recMap );
             rawValue_ = createRawValueArray();
             rt.readRawRecord( 0, rawValue_ );
@@ -415,6 +1255,19 @@ public class Variable {
         public boolean hasRecord( int irec ) {
             return false;
         }
+        public boolean isPadRecord( int irec ) {
+            return false;
+        }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public RecordRuns getRecordRuns() {
+            return new RecordRuns( getRecordCount(), new int[ 0 ],
+                                   new int[ 0 ], 0 );
+        }
+        public boolean isVirtualRun( int irec, int nrec ) {
+            return true;
+        }
         public void readRawRecord( int irec, Object rawValueArray ) {
             System.arraycopy( rawValue_, 0, rawValueArray, 0, rvaleng_ );
         }
@@ -445,6 +1298,19 @@ public class Variable {
         public boolean hasRecord( int irec ) {
             return irec < nrec_;
         }
+        public boolean isPadRecord( int irec ) {
+            return ! hasRecord( irec );
+        }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public RecordRuns getRecordRuns() {
+            return new RecordRuns( nrec_, new int[] { 0 },
+                                   new int[] { nrec_ - 1 }, 1 );
+        }
+        public boolean isVirtualRun( int irec, int nrec ) {
+            return irec >= nrec_;
+        }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
             if ( hasRecord( irec ) ) {
@@ -491,6 +1357,23 @@ public class Variable {
         public boolean hasRecord( int irec ) {
             return hasRecord( irec, recMap_.getEntryIndex( irec ) );
         }
+        public boolean isPadRecord( int irec ) {
+            return ! hasRecord( irec );
+        }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public RecordRuns getRecordRuns() {
+            return createMapRuns( recMap_ );
+        }
+        public boolean isVirtualRun( int irec, int nrec ) {
+
+            // All virtual records have the pad value.
+            int ient0 = recMap_.getEntryIndex( irec );
+            int ient1 = recMap_.getEntryIndex( irec + nrec - 1 );
+            return irec >= getRecordCount()
+                || ( ient0 < 0 && ient0 == ient1 );
+        }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
             int ient = recMap_.getEntryIndex( irec );
@@ -547,6 +1430,23 @@ public class Variable {
             return recMap_.getEntryIndex( irec ) >= 0
                 && irec < getRecordCount();
         }
+        public boolean isPadRecord( int irec ) {
+            return recMap_.getEntryIndex( irec ) == -1;
+        }
+        public RecordMap getRecordMap() {
+            return recMap_;
+        }
+        public RecordRuns getRecordRuns() {
+            return createMapRuns( recMap_ );
+        }
+        public boolean isVirtualRun( int irec, int nrec ) {
+
+            // Virtual records between the same pair of entries
+            // all have the value of the last record in the earlier one.
+            int ient0 = recMap_.getEntryIndex( irec );
+            int ient1 = recMap_.getEntryIndex( irec + nrec - 1 );
+            return ient0 < 0 && ient0 == ient1;
+        }
         public void readRawRecord( int irec, Object rawValueArray )
                 throws IOException {
             int ient = recMap_.getEntryIndex( irec );
@@ -583,8 +1483,7 @@ public class Variable {
             else {
                 int iPrevEnt = -ient - 2;
                 long offset = recMap_.getFinalOffsetInEntry( iPrevEnt );
-                dataReader_.readValue( recMap_.getBuf( ient ),
-                                       recMap_.getOffset( ient, irec ),
+                dataReader_.readValue( recMap_.getBuf( iPrevEnt ), offset,
                                        work );
                 return shaper_.shape( work, rowMajor );
             }
@@ -0,0 +1,718 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Summary statistics for the values of a numeric variable.
+ *
+ * <p>Statistics for all the variables of a file are calculated
+ * together by the static <code>calculate</code> methods,
+ * which submit a single task to a fork/join pool.
+ * Each variable is split along the boundaries of its stored
+ * record blocks, and large blocks are split further,
+ * so that the pool's workers read and decode disjoint blocks
+ * in bulk.  Each stored byte is read once;
+ * a run of virtual records, or a non-record-variant variable,
+ * is evaluated from a single record.
+ * Partial results are merged using numerically stable combiners
+ * for the mean and variance.
+ *
+ * <p>Each value is classified as non-finite (NaN or infinite),
+ * invalid (rejected by a {@link ValidityTester}, for instance
+ * because it equals the fill value), or valid.
+ * Only valid values contribute to the count, extrema, moments and
+ * histogram.
+ *
+ * <p>The histogram has at most a requested number of bins.
+ * Bin widths are powers of two and bin edges are multiples of the
+ * width, which allows partial histograms to be merged exactly.
+ * Since a range straddling zero always needs two such bins,
+ * at least two must be allowed.
+ *
+ * <p>Unlike the rest of this library, this class requires Java 8
+ * or later.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class VariableStats {
+
+    private final Variable var_;
+    private final long nitem_;
+    private final long nNonFinite_;
+    private final long nInvalid_;
+    private final long count_;
+    private final double min_;
+    private final double max_;
+    private final double mean_;
+    private final double m2_;
+    private final int binExp_;
+    private final long binOrigin_;
+    private final long[] bins_;
+
+    /** Maximum number of array elements read at once. */
+    private static final int BLOCK_ELEMENTS = 64 * 1024;
+
+    /**
+     * Constructor.
+     *
+     * @param  var  variable
+     * @param  acc  accumulated statistics
+     */
+    private VariableStats( Variable var, Accumulator acc ) {
+        var_ = var;
+        nitem_ = acc.nitem_;
+        nNonFinite_ = acc.nNonFinite_;
+        nInvalid_ = acc.nInvalid_;
+        count_ = acc.count_;
+        min_ = acc.count_ > 0 ? acc.min_ : Double.NaN;
+        max_ = acc.count_ > 0 ? acc.max_ : Double.NaN;
+        mean_ = acc.count_ > 0 ? acc.mean_ : Double.NaN;
+        m2_ = acc.m2_;
+        binExp_ = acc.binExp_;
+        binOrigin_ = acc.binOrigin_;
+        bins_ = acc.bins_ == null ? new long[ 0 ] : acc.bins_;
+    }
+
+    /**
+     * Returns the variable these statistics describe.
+     *
+     * @return  variable
+     */
+    public Variable getVariable() {
+        return var_;
+    }
+
+    /**
+     * Returns the total number of items examined.
+     *
+     * @return  item count, including invalid and non-finite values
+     */
+    public long getItemCount() {
+        return nitem_;
+    }
+
+    /**
+     * Returns the number of NaN or infinite values.
+     *
+     * @return  non-finite count
+     */
+    public long getNonFiniteCount() {
+        return nNonFinite_;
+    }
+
+    /**
+     * Returns the number of values rejected by the validity tester,
+     * that is fill values and values outside the valid range.
+     *
+     * @return  invalid count
+     */
+    public long getInvalidCount() {
+        return nInvalid_;
+    }
+
+    /**
+     * Returns the fraction of items rejected by the validity tester.
+     *
+     * @return  invalid count divided by item count, or NaN if no items
+     */
+    public double getInvalidFraction() {
+        return nitem_ > 0 ? nInvalid_ / (double) nitem_ : Double.NaN;
+    }
+
+    /**
+     * Returns the number of valid values.
+     *
+     * @return  valid count
+     */
+    public long getCount() {
+        return count_;
+    }
+
+    /**
+     * Returns the minimum valid value.
+     *
+     * @return  minimum, or NaN if there are no valid values
+     */
+    public double getMin() {
+        return min_;
+    }
+
+    /**
+     * Returns the maximum valid value.
+     *
+     * @return  maximum, or NaN if there are no valid values
+     */
+    public double getMax() {
+        return max_;
+    }
+
+    /**
+     * Returns the mean of the valid values.
+     *
+     * @return  mean, or NaN if there are no valid values
+     */
+    public double getMean() {
+        return mean_;
+    }
+
+    /**
+     * Returns the sample standard deviation of the valid values.
+     *
+     * @return  standard deviation, or NaN if there are fewer than two
+     *          valid values
+     */
+    public double getStdDev() {
+        return count_ > 1 ? Math.sqrt( m2_ / ( count_ - 1 ) ) : Double.NaN;
+    }
+
+    /**
+     * Returns the histogram counts of the valid values.
+     * Bin <code>i</code> covers the half-open interval
+     * <code>[start+i*width, start+(i+1)*width)</code>.
+     *
+     * @return  new array of bin counts; empty if there are no valid values
+     */
+    public long[] getHistogram() {
+        return bins_.clone();
+    }
+
+    /**
+     * Returns the lower edge of the first histogram bin.
+     *
+     * @return  histogram start
+     */
+    public double getHistogramStart() {
+        return Math.scalb( (double) binOrigin_, binExp_ );
+    }
+
+    /**
+     * Returns the width of each histogram bin.
+     * This is always a power of two.
+     *
+     * @return  bin width
+     */
+    public double getHistogramBinWidth() {
+        return Math.scalb( 1.0, binExp_ );
+    }
+
+    @Override
+    public String toString() {
+        return var_.getName() + ": n=" + count_ + ", min=" + min_
+             + ", max=" + max_ + ", mean=" + mean_
+             + ", sd=" + getStdDev()
+             + ", invalid=" + getInvalidFraction();
+    }
+
+    /**
+     * Calculates statistics for all the numeric variables of a file.
+     * Fill values and valid ranges are taken from the ISTP
+     * FILLVAL, VALIDMIN and VALIDMAX attributes where present.
+     *
+     * @param  content  file content
+     * @param  nbin  maximum number of histogram bins, at least 2
+     * @param  pool  fork/join pool in which to run
+     * @return  array with an element for each variable in the file;
+     *          elements for non-numeric variables are null
+     */
+    public static VariableStats[] calculate( CdfContent content, int nbin,
+                                             ForkJoinPool pool )
+            throws IOException {
+        Variable[] vars = content.getVariables();
+        VariableAttribute[] vatts = content.getVariableAttributes();
+        ValidityTester[] testers = new ValidityTester[ vars.length ];
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            testers[ iv ] = ValidityTester.createTester( vars[ iv ], vatts );
+        }
+        return calculate( vars, testers, nbin, pool );
+    }
+
+    /**
+     * Calculates statistics for a given list of variables.
+     *
+     * @param  vars  variables
+     * @param  testers  validity tester for each variable;
+     *                  the array or its elements may be null
+     * @param  nbin  maximum number of histogram bins, at least 2
+     * @param  pool  fork/join pool in which to run
+     * @return  array with an element for each input variable;
+     *          elements for non-numeric variables are null
+     * @throws  IllegalArgumentException  if nbin is less than 2
+     */
+    public static VariableStats[] calculate( Variable[] vars,
+                                             ValidityTester[] testers,
+                                             int nbin, ForkJoinPool pool )
+            throws IOException {
+        if ( nbin < 2 ) {
+            throw new IllegalArgumentException( "Bad bin count " + nbin );
+        }
+        List<VarJob> jobs = new ArrayList<VarJob>();
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            Variable var = vars[ iv ];
+            if ( var.getDoubleReader() != null ) {
+                ValidityTester tester = testers == null ? null
+                                                        : testers[ iv ];
+                if ( tester != null && ! tester.hasLimits() ) {
+                    tester = null;
+                }
+                jobs.add( new VarJob( iv, var, tester, nbin ) );
+            }
+        }
+        Accumulator[] accs;
+        try {
+            accs = pool.invoke( new FileTask( jobs ) );
+        }
+        catch ( UncheckedIOException e ) {
+            for ( Throwable t = e; t != null; t = t.getCause() ) {
+                if ( t instanceof IOException ) {
+                    throw (IOException) t;
+                }
+            }
+            throw e;
+        }
+        VariableStats[] stats = new VariableStats[ vars.length ];
+        for ( int ij = 0; ij < jobs.size(); ij++ ) {
+            VarJob job = jobs.get( ij );
+            stats[ job.ivar_ ] = new VariableStats( job.var_, accs[ ij ] );
+        }
+        return stats;
+    }
+
+    /**
+     * Fixed information about reading one variable.
+     */
+    private static class VarJob {
+        final int ivar_;
+        final Variable var_;
+        final ValidityTester tester_;
+        final int nbin_;
+        final DoubleReader rdr_;
+        final int ngrp_;
+        final int nitem_;
+        final int blockRecs_;
+        final boolean isVary_;
+        int[] starts_;
+        RecordRuns runs_;
+
+        /**
+         * Constructor.
+         *
+         * @param  ivar  index of variable in input list
+         * @param  var  numeric variable
+         * @param  tester  validity tester, or null
+         * @param  nbin  maximum histogram bin count
+         */
+        VarJob( int ivar, Variable var, ValidityTester tester, int nbin ) {
+            ivar_ = ivar;
+            var_ = var;
+            tester_ = tester;
+            nbin_ = nbin;
+            rdr_ = var.getDoubleReader();
+            ngrp_ = var.getDataType().getGroupSize();
+            int leng = var.getShapedRecordLength();
+            nitem_ = leng / ngrp_;
+            blockRecs_ = Math.max( 1, BLOCK_ELEMENTS / Math.max( 1, leng ) );
+            isVary_ = var.getRecordVariance();
+        }
+
+        /**
+         * Reads the record layout.  Called from a worker thread,
+         * so that variables are prepared in parallel.
+         */
+        void prepare() throws IOException {
+            starts_ = var_.getChunkStarts();
+            runs_ = isVary_ ? var_.getRecordRuns() : null;
+        }
+
+        /**
+         * Indicates whether all the records in the chunk starting
+         * at a given record have the same value.
+         *
+         * @param  irec  first record of chunk
+         * @return  true for a virtual or non-varying chunk
+         */
+        boolean isUniform( int irec ) {
+            return ! isVary_ || ! runs_.isReal( irec );
+        }
+
+        /**
+         * Reads and accumulates a run of records within a single chunk.
+         *
+         * @param  irec  first record
+         * @param  nrec  record count
+         * @return  statistics for the records
+         */
+        Accumulator readBlock( int irec, int nrec ) throws IOException {
+            Object data = var_.createShapedValueArray( nrec );
+            var_.readChunk( irec, nrec, true, var_.createRawValueBlock( nrec ),
+                            data, 0 );
+            int nel = nrec * nitem_;
+            double[] vals = new double[ nel ];
+            Accumulator acc = new Accumulator( nbin_ );
+            acc.nitem_ = nel;
+            int n = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for ( int i = 0; i < nel; i++ ) {
+                int ix = i * ngrp_;
+                double d = rdr_.getDouble( data, ix );
+                if ( Double.isNaN( d ) || Double.isInfinite( d ) ) {
+                    acc.nNonFinite_++;
+                }
+                else if ( tester_ != null && ! tester_.isValid( data, ix ) ) {
+                    acc.nInvalid_++;
+                }
+                else {
+                    vals[ n++ ] = d;
+                    sum += d;
+                    min = Math.min( min, d );
+                    max = Math.max( max, d );
+                }
+            }
+            if ( n > 0 ) {
+                double mean = sum / n;
+                double m2 = 0;
+                for ( int i = 0; i < n; i++ ) {
+                    double dd = vals[ i ] - mean;
+                    m2 += dd * dd;
+                }
+                acc.count_ = n;
+                acc.min_ = min;
+                acc.max_ = max;
+                acc.mean_ = mean;
+                acc.m2_ = m2;
+                acc.fillBins( vals, n );
+            }
+            return acc;
+        }
+    }
+
+    /**
+     * Task that calculates the statistics for all the variables of a file.
+     */
+    private static class FileTask extends RecursiveTask<Accumulator[]> {
+        private static final long serialVersionUID = 1L;
+        private final List<VarJob> jobs_;
+
+        /**
+         * Constructor.
+         *
+         * @param  jobs  variable jobs
+         */
+        FileTask( List<VarJob> jobs ) {
+            jobs_ = jobs;
+        }
+
+        protected Accumulator[] compute() {
+            List<VarTask> tasks = new ArrayList<VarTask>();
+            for ( VarJob job : jobs_ ) {
+                tasks.add( new VarTask( job ) );
+            }
+            ForkJoinTask.invokeAll( tasks );
+            Accumulator[] accs = new Accumulator[ tasks.size() ];
+            for ( int i = 0; i < accs.length; i++ ) {
+                accs[ i ] = tasks.get( i ).join();
+            }
+            return accs;
+        }
+    }
+
+    /**
+     * Task that calculates the statistics for one variable.
+     */
+    private static class VarTask extends RecursiveTask<Accumulator> {
+        private static final long serialVersionUID = 1L;
+        private final VarJob job_;
+
+        /**
+         * Constructor.
+         *
+         * @param  job  variable job
+         */
+        VarTask( VarJob job ) {
+            job_ = job;
+        }
+
+        protected Accumulator compute() {
+            try {
+                job_.prepare();
+            }
+            catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+            int nchunk = job_.starts_.length - 1;
+            return nchunk > 0
+                 ? new ChunkTask( job_, 0, nchunk, 0, job_.starts_[ nchunk ] )
+                  .compute()
+                 : new Accumulator( job_.nbin_ );
+        }
+    }
+
+    /**
+     * Task that calculates the statistics for a range of chunks,
+     * or for a range of records within one chunk.
+     */
+    private static class ChunkTask extends RecursiveTask<Accumulator> {
+        private static final long serialVersionUID = 1L;
+        private final VarJob job_;
+        private final int iz0_;
+        private final int iz1_;
+        private final int irec_;
+        private final int iend_;
+
+        /**
+         * Constructor.
+         *
+         * @param  job  variable job
+         * @param  iz0  index of first chunk
+         * @param  iz1  index after last chunk
+         * @param  irec  first record
+         * @param  iend  record after last
+         */
+        ChunkTask( VarJob job, int iz0, int iz1, int irec, int iend ) {
+            job_ = job;
+            iz0_ = iz0;
+            iz1_ = iz1;
+            irec_ = irec;
+            iend_ = iend;
+        }
+
+        protected Accumulator compute() {
+            int[] starts = job_.starts_;
+            final ChunkTask t1;
+            final ChunkTask t2;
+            if ( iz1_ - iz0_ > 1 ) {
+                int izMid = ( iz0_ + iz1_ ) >>> 1;
+                t1 = new ChunkTask( job_, iz0_, izMid,
+                                    starts[ iz0_ ], starts[ izMid ] );
+                t2 = new ChunkTask( job_, izMid, iz1_,
+                                    starts[ izMid ], starts[ iz1_ ] );
+            }
+            else if ( job_.isUniform( irec_ ) ) {
+                Accumulator acc = readBlock( irec_, 1 );
+                acc.scale( iend_ - irec_ );
+                return acc;
+            }
+            else if ( iend_ - irec_ > job_.blockRecs_ ) {
+                int iMid = ( irec_ + iend_ ) >>> 1;
+                t1 = new ChunkTask( job_, iz0_, iz1_, irec_, iMid );
+                t2 = new ChunkTask( job_, iz0_, iz1_, iMid, iend_ );
+            }
+            else {
+                return readBlock( irec_, iend_ - irec_ );
+            }
+            t1.fork();
+            Accumulator acc2 = t2.compute();
+            Accumulator acc1 = t1.join();
+            acc1.add( acc2 );
+            return acc1;
+        }
+
+        /**
+         * Reads a block, rethrowing I/O errors unchecked.
+         *
+         * @param  irec  first record
+         * @param  nrec  record count
+         * @return  block statistics
+         */
+        private Accumulator readBlock( int irec, int nrec ) {
+            try {
+                return job_.readBlock( irec, nrec );
+            }
+            catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+
+    /**
+     * Mutable partial statistics that can be merged.
+     * The histogram covers bins <code>binOrigin_</code> onwards
+     * of width <code>2^binExp_</code>, and is null if there are
+     * no valid values.
+     */
+    private static class Accumulator {
+        final int nbin_;
+        long nitem_;
+        long nNonFinite_;
+        long nInvalid_;
+        long count_;
+        double min_;
+        double max_;
+        double mean_;
+        double m2_;
+        int binExp_;
+        long binOrigin_;
+        long[] bins_;
+
+        /**
+         * Constructs an empty accumulator.
+         *
+         * @param  nbin  maximum histogram bin count
+         */
+        Accumulator( int nbin ) {
+            nbin_ = nbin;
+        }
+
+        /**
+         * Initialises the histogram from valid values,
+         * using the smallest bin width that covers the current range.
+         * The count, minimum and maximum must already be set.
+         *
+         * @param  vals  valid values
+         * @param  n  number of values
+         */
+        void fillBins( double[] vals, int n ) {
+
+            // Bin indices never need to exceed the 53-bit mantissa,
+            // which keeps them well inside the range of a long.
+            double range = max_ - min_;
+            double mag = Math.max( Math.abs( min_ ), Math.abs( max_ ) );
+            int exp = Math.getExponent( mag ) - 53;
+            if ( range > 0 ) {
+                exp = Math.max( exp, Math.getExponent( range / nbin_ ) );
+            }
+            while ( binIndex( max_, exp ) - binIndex( min_, exp ) >= nbin_ ) {
+                exp++;
+            }
+            binExp_ = exp;
+            binOrigin_ = binIndex( min_, exp );
+            bins_ = new long[ (int) ( binIndex( max_, exp ) - binOrigin_ )
+                              + 1 ];
+            for ( int i = 0; i < n; i++ ) {
+                bins_[ (int) ( binIndex( vals[ i ], exp ) - binOrigin_ ) ]++;
+            }
+        }
+
+        /**
+         * Multiplies all counts by a factor,
+         * as if each value had been seen that many times.
+         *
+         * @param  mult  multiplier
+         */
+        void scale( long mult ) {
+            nitem_ *= mult;
+            nNonFinite_ *= mult;
+            nInvalid_ *= mult;
+            count_ *= mult;
+            m2_ *= mult;
+            if ( bins_ != null ) {
+                for ( int i = 0; i < bins_.length; i++ ) {
+                    bins_[ i ] *= mult;
+                }
+            }
+        }
+
+        /**
+         * Merges another accumulator into this one.
+         *
+         * @param  other  accumulator to merge
+         */
+        void add( Accumulator other ) {
+            nitem_ += other.nitem_;
+            nNonFinite_ += other.nNonFinite_;
+            nInvalid_ += other.nInvalid_;
+            if ( other.count_ == 0 ) {
+                return;
+            }
+            if ( count_ == 0 ) {
+                count_ = other.count_;
+                min_ = other.min_;
+                max_ = other.max_;
+                mean_ = other.mean_;
+                m2_ = other.m2_;
+                binExp_ = other.binExp_;
+                binOrigin_ = other.binOrigin_;
+                bins_ = other.bins_.clone();
+                return;
+            }
+
+            // Pairwise update of Chan, Golub and LeVeque.
+            long n = count_ + other.count_;
+            double delta = other.mean_ - mean_;
+            mean_ += delta * other.count_ / n;
+            m2_ += other.m2_ + delta * delta * count_ / n * other.count_;
+            count_ = n;
+            min_ = Math.min( min_, other.min_ );
+            max_ = Math.max( max_, other.max_ );
+
+            // Coarsen both histograms to a common power-of-two width
+            // wide enough to cover their union; bins merge exactly.
+            int exp = Math.max( binExp_, other.binExp_ );
+            long lo = Math.min( coarsen( binOrigin_, exp - binExp_ ),
+                                coarsen( other.binOrigin_,
+                                         exp - other.binExp_ ) );
+            long hi = Math.max( coarsen( binOrigin_ + bins_.length - 1,
+                                         exp - binExp_ ),
+                                coarsen( other.binOrigin_
+                                         + other.bins_.length - 1,
+                                         exp - other.binExp_ ) );
+            while ( hi - lo >= nbin_ ) {
+                exp++;
+                lo >>= 1;
+                hi >>= 1;
+            }
+            long[] bins = new long[ (int) ( hi - lo ) + 1 ];
+            addBins( bins, lo, exp, bins_, binOrigin_, binExp_ );
+            addBins( bins, lo, exp, other.bins_, other.binOrigin_,
+                     other.binExp_ );
+            binExp_ = exp;
+            binOrigin_ = lo;
+            bins_ = bins;
+        }
+
+        /**
+         * Adds the counts of a histogram to a coarser one.
+         *
+         * @param  dest  destination bins
+         * @param  destOrigin  bin index of first destination bin
+         * @param  destExp  destination bin width exponent
+         * @param  src  source bins
+         * @param  srcOrigin  bin index of first source bin
+         * @param  srcExp  source bin width exponent, not greater
+         *                 than destExp
+         */
+        private static void addBins( long[] dest, long destOrigin,
+                                     int destExp, long[] src,
+                                     long srcOrigin, int srcExp ) {
+            int shift = destExp - srcExp;
+            for ( int i = 0; i < src.length; i++ ) {
+                dest[ (int) ( coarsen( srcOrigin + i, shift )
+                              - destOrigin ) ] += src[ i ];
+            }
+        }
+
+        /**
+         * Returns the index of the bin containing a given bin
+         * in a histogram whose bins are a power of two wider.
+         * Unlike the <code>&gt;&gt;</code> operator, this works for
+         * shifts of 64 or more, which Java would take modulo 64.
+         *
+         * @param  index  bin index
+         * @param  shift  non-negative difference in bin width exponents
+         * @return  floor(index / 2^shift)
+         */
+        private static long coarsen( long index, int shift ) {
+            return shift < 64 ? index >> shift
+                              : ( index < 0 ? -1 : 0 );
+        }
+
+        /**
+         * Returns the index of the bin containing a value.
+         *
+         * @param  d  finite value
+         * @param  exp  bin width exponent
+         * @return  floor(d / 2^exp)
+         */
+        private static long binIndex( double d, int exp ) {
+            return (long) Math.floor( Math.scalb( d, -exp ) );
+        }
+    }
+}
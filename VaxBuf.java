@@ -0,0 +1,182 @@
+package uk.ac.bristol.star.cdf.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buf implementation for data in the VAX/VMS numeric encodings.
+ * Integers are little-endian, as for the base buf,
+ * but floating point values are in the VAX F_FLOAT (4-byte)
+ * and D_FLOAT or G_FLOAT (8-byte) formats.
+ * The <code>readDataFloats</code> and <code>readDataDoubles</code>
+ * methods read the raw bits as little-endian integers from the base buf
+ * and convert the whole array to IEEE 754 in a single loop.
+ *
+ * <p>D_FLOAT has three more bits of mantissa than IEEE double precision;
+ * these are rounded away.  The VAX reserved operand
+ * (sign bit set, zero exponent) is converted to NaN.
+ * VAX formats have no infinities or subnormals.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class VaxBuf extends WrapperBuf {
+
+    private final Buf base_;
+    private final boolean isGFloat_;
+
+    private static final long SIGN_MASK = 0x8000000000000000L;
+    private static final long D_FRAC_MASK = 0x007fffffffffffffL;
+    private static final long G_FRAC_MASK = 0x000fffffffffffffL;
+
+    /**
+     * Constructor.
+     * The base buf is set to little-endian encoding.
+     *
+     * @param  base  base buf
+     * @param  isGFloat  true for G_FLOAT 8-byte values,
+     *                   false for D_FLOAT
+     */
+    public VaxBuf( Buf base, boolean isGFloat ) {
+        super( base );
+        base_ = base;
+        isGFloat_ = isGFloat;
+        base.setEncoding( false );
+    }
+
+    /**
+     * Indicates which 8-byte floating point format is in use.
+     *
+     * @return  true for G_FLOAT, false for D_FLOAT
+     */
+    public boolean isGFloat() {
+        return isGFloat_;
+    }
+
+    @Override
+    public void readDataFloats( long offset, int count, float[] array )
+            throws IOException {
+        int[] bits = new int[ count ];
+        base_.readDataInts( offset, count, bits );
+        decodeFFloats( bits, array, count );
+    }
+
+    @Override
+    public void readDataDoubles( long offset, int count, double[] array )
+            throws IOException {
+        long[] bits = new long[ count ];
+        base_.readDataLongs( offset, count, bits );
+        if ( isGFloat_ ) {
+            decodeGFloats( bits, array, count );
+        }
+        else {
+            decodeDFloats( bits, array, count );
+        }
+    }
+
+    @Override
+    public Buf fillNewBuf( long count, InputStream in ) throws IOException {
+        return new VaxBuf( base_.fillNewBuf( count, in ), isGFloat_ );
+    }
+
+    /**
+     * Converts VAX F_FLOAT values to floats.
+     *
+     * @param  leBits  input array of F_FLOAT values
+     *                 read as little-endian 4-byte integers
+     * @param  out   output array
+     * @param  n   number of values to convert
+     */
+    public static void decodeFFloats( int[] leBits, float[] out, int n ) {
+        for ( int i = 0; i < n; i++ ) {
+
+            // Swap 16-bit words to get sign, exponent, fraction order.
+            // The value is the same as IEEE with the same bits divided by 4,
+            // except at the very bottom of the exponent range.
+            int w = Integer.rotateLeft( leBits[ i ], 16 );
+            int exp = ( w >>> 23 ) & 0xff;
+            if ( exp > 2 ) {
+                out[ i ] = Float.intBitsToFloat( w - ( 2 << 23 ) );
+            }
+            else if ( exp == 0 ) {
+                out[ i ] = w < 0 ? Float.NaN : 0f;
+            }
+            else {
+                int mant = ( w & 0x7fffff ) | 0x800000;
+                float mag = Math.scalb( (float) mant, exp - 152 );
+                out[ i ] = w < 0 ? -mag : mag;
+            }
+        }
+    }
+
+    /**
+     * Converts VAX D_FLOAT values to doubles.
+     * The mantissa is rounded to the nearest IEEE value.
+     *
+     * @param  leBits  input array of D_FLOAT values
+     *                 read as little-endian 8-byte integers
+     * @param  out   output array
+     * @param  n   number of values to convert
+     */
+    public static void decodeDFloats( long[] leBits, double[] out, int n ) {
+        for ( int i = 0; i < n; i++ ) {
+            long v = reverseWords( leBits[ i ] );
+            int exp = (int) ( v >>> 55 ) & 0xff;
+            if ( exp != 0 ) {
+
+                // Rebias the 8-bit exponent for 11 bits, and round the
+                // 55-bit fraction to 52 bits; a carry out of the fraction
+                // correctly increments the exponent.
+                long ieee = ( (long) ( exp + 894 ) << 52 )
+                          + ( ( ( v & D_FRAC_MASK ) + 4 ) >>> 3 );
+                out[ i ] = Double.longBitsToDouble( ( v & SIGN_MASK )
+                                                  | ieee );
+            }
+            else {
+                out[ i ] = v < 0 ? Double.NaN : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Converts VAX G_FLOAT values to doubles.
+     *
+     * @param  leBits  input array of G_FLOAT values
+     *                 read as little-endian 8-byte integers
+     * @param  out   output array
+     * @param  n   number of values to convert
+     */
+    public static void decodeGFloats( long[] leBits, double[] out, int n ) {
+        for ( int i = 0; i < n; i++ ) {
+            long v = reverseWords( leBits[ i ] );
+            int exp = (int) ( v >>> 52 ) & 0x7ff;
+            if ( exp > 2 ) {
+                out[ i ] = Double.longBitsToDouble( v - ( 2L << 52 ) );
+            }
+            else if ( exp == 0 ) {
+                out[ i ] = v < 0 ? Double.NaN : 0.0;
+            }
+            else {
+                double mag = Math.scalb( (double) ( ( v & G_FRAC_MASK )
+                                                  | ( 1L << 52 ) ),
+                                         exp - 1077 );
+                out[ i ] = v < 0 ? -mag : mag;
+            }
+        }
+    }
+
+    /**
+     * Reverses the order of the four 16-bit words in a long.
+     * VAX 8-byte values have the most significant word first,
+     * but little-endian byte order within each word.
+     *
+     * @param  x  input value
+     * @return  word-reversed value
+     */
+    private static long reverseWords( long x ) {
+        return ( x << 48 )
+             | ( ( x << 16 ) & 0x0000ffff00000000L )
+             | ( ( x >>> 16 ) & 0x00000000ffff0000L )
+             | ( x >>> 48 );
+    }
+}
@@ -96,4 +96,8 @@ public class WrapperBuf implements Buf {
     public Buf fillNewBuf( long count, InputStream in ) throws IOException {
         return base_.fillNewBuf( count, in );
     }
+
+    public void close() throws IOException {
+        base_.close();
+    }
 }
@@ -0,0 +1,418 @@
+package uk.ac.bristol.star.cdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Summary statistics for the values of a numeric variable
+ * in each of its stored record blocks.
+ * Each zone covers the records of one record map entry
+ * (corresponding to a VVR or CVVR in the file),
+ * or one run of virtual records between entries.
+ * For each zone the minimum and maximum values are recorded,
+ * along with the number of NaN values and of values equal to a
+ * given fill value, which are excluded from the minimum and maximum.
+ *
+ * <p>These statistics allow queries on value ranges to skip
+ * whole zones without reading them:
+ * {@link #getCandidateZones getCandidateZones} returns the only
+ * zones that may contain values in a given range.
+ *
+ * <p>Zone maps are obtained from {@link Variable#getZoneMap},
+ * which caches them in memory.  The zone maps for a file's variables
+ * can be saved to and restored from a sidecar file using the
+ * {@link #writeSidecar writeSidecar} and {@link #readSidecar readSidecar}
+ * methods; the sidecar records the CDF file's size and modification
+ * time, and is ignored if they have changed.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author   Mark Taylor
+ * @since    18 Oct 2026
+ */
+public class ZoneMap {
+
+    private final int nrec_;
+    private final double fillValue_;
+    private final int[] firsts_;
+    private final int[] ends_;
+    private final double[] mins_;
+    private final double[] maxs_;
+    private final long[] nanCounts_;
+    private final long[] fillCounts_;
+
+    private static final int MAGIC = 0x4a435a4d;  // "JCZM"
+    private static final int VERSION = 1;
+    private static final int BLOCK_ELEMENTS = 64 * 1024;
+
+    /**
+     * Constructor.
+     *
+     * @param  nrec  record count of the variable
+     * @param  fillValue  fill value, or NaN
+     * @param  firsts  first record of each zone
+     * @param  ends  record after the last of each zone
+     * @param  mins  minimum valid value in each zone, or NaN
+     * @param  maxs  maximum valid value in each zone, or NaN
+     * @param  nanCounts  number of NaN values in each zone
+     * @param  fillCounts  number of fill values in each zone
+     */
+    private ZoneMap( int nrec, double fillValue, int[] firsts, int[] ends,
+                     double[] mins, double[] maxs, long[] nanCounts,
+                     long[] fillCounts ) {
+        nrec_ = nrec;
+        fillValue_ = fillValue;
+        firsts_ = firsts;
+        ends_ = ends;
+        mins_ = mins;
+        maxs_ = maxs;
+        nanCounts_ = nanCounts;
+        fillCounts_ = fillCounts;
+    }
+
+    /**
+     * Calculates the zone map for a variable by reading all its data.
+     * Virtual zones are evaluated from a single record.
+     *
+     * @param  var  numeric variable
+     * @param  fillValue  value to count as fill, or NaN for none
+     * @return  new zone map
+     * @throws  IllegalArgumentException  if the variable is not numeric
+     */
+    static ZoneMap createZoneMap( Variable var, double fillValue )
+            throws IOException {
+        DoubleReader rdr = var.getDoubleReader();
+        if ( rdr == null ) {
+            throw new IllegalArgumentException( "Not numeric: "
+                                              + var.getDataType() );
+        }
+        int ngrp = var.getDataType().getGroupSize();
+        int nitem = var.getShapedRecordLength() / ngrp;
+        int[] starts = var.getChunkStarts();
+        boolean isVary = var.getRecordVariance();
+        RecordRuns runs = isVary ? var.getRecordRuns() : null;
+        int nz = starts.length - 1;
+        int nrec = starts[ nz ];
+        int[] firsts = new int[ nz ];
+        int[] ends = new int[ nz ];
+        double[] mins = new double[ nz ];
+        double[] maxs = new double[ nz ];
+        long[] nanCounts = new long[ nz ];
+        long[] fillCounts = new long[ nz ];
+        int leng = Math.max( 1, var.getShapedRecordLength() );
+        int blockRecs = Math.max( 1, BLOCK_ELEMENTS / leng );
+        Object work = null;
+        Object block = null;
+        for ( int iz = 0; iz < nz; iz++ ) {
+            int irec = starts[ iz ];
+            int iend = starts[ iz + 1 ];
+            firsts[ iz ] = irec;
+            ends[ iz ] = iend;
+            double min = Double.NaN;
+            double max = Double.NaN;
+            long nNan = 0;
+            long nFill = 0;
+
+            // A virtual run, or a non-record-variant variable,
+            // has the same value in every record, so read one
+            // and scale the counts.
+            boolean isUniform = ! isVary || ! runs.isReal( irec );
+            int mult = isUniform ? iend - irec : 1;
+            int readEnd = isUniform ? irec + 1 : iend;
+            while ( irec < readEnd ) {
+                int n = Math.min( blockRecs, readEnd - irec );
+                if ( block == null ) {
+                    block = var.createShapedValueArray( blockRecs );
+                    work = var.createRawValueBlock( blockRecs );
+                }
+                var.readChunk( irec, n, true, work, block, 0 );
+                int nel = n * nitem;
+                for ( int i = 0; i < nel; i++ ) {
+                    double d = rdr.getDouble( block, i * ngrp );
+                    if ( Double.isNaN( d ) ) {
+                        nNan++;
+                    }
+                    else if ( d == fillValue ) {
+                        nFill++;
+                    }
+                    else {
+                        if ( ! ( d >= min ) ) {
+                            min = d;
+                        }
+                        if ( ! ( d <= max ) ) {
+                            max = d;
+                        }
+                    }
+                }
+                irec += n;
+            }
+            mins[ iz ] = min;
+            maxs[ iz ] = max;
+            nanCounts[ iz ] = nNan * mult;
+            fillCounts[ iz ] = nFill * mult;
+        }
+        return new ZoneMap( nrec, fillValue, firsts, ends, mins, maxs,
+                            nanCounts, fillCounts );
+    }
+
+    /**
+     * Returns the number of records covered by this map.
+     * If the variable has grown since the map was calculated,
+     * this will be less than its current record count.
+     *
+     * @return  record count
+     */
+    public int getRecordCount() {
+        return nrec_;
+    }
+
+    /**
+     * Returns the fill value excluded from the minimum and maximum.
+     *
+     * @return  fill value, or NaN
+     */
+    public double getFillValue() {
+        return fillValue_;
+    }
+
+    /**
+     * Returns the number of zones.
+     *
+     * @return  zone count
+     */
+    public int getZoneCount() {
+        return firsts_.length;
+    }
+
+    /**
+     * Returns the index of the first record in a zone.
+     *
+     * @param  iz  zone index
+     * @return  first record index, inclusive
+     */
+    public int getFirstRecord( int iz ) {
+        return firsts_[ iz ];
+    }
+
+    /**
+     * Returns the index of the record following the last one in a zone.
+     *
+     * @param  iz  zone index
+     * @return  end record index, exclusive
+     */
+    public int getEndRecord( int iz ) {
+        return ends_[ iz ];
+    }
+
+    /**
+     * Returns the minimum value in a zone, excluding NaNs and fill values.
+     *
+     * @param  iz  zone index
+     * @return  minimum, or NaN if there are no valid values
+     */
+    public double getMin( int iz ) {
+        return mins_[ iz ];
+    }
+
+    /**
+     * Returns the maximum value in a zone, excluding NaNs and fill values.
+     *
+     * @param  iz  zone index
+     * @return  maximum, or NaN if there are no valid values
+     */
+    public double getMax( int iz ) {
+        return maxs_[ iz ];
+    }
+
+    /**
+     * Returns the number of NaN values in a zone.
+     *
+     * @param  iz  zone index
+     * @return  NaN count
+     */
+    public long getNanCount( int iz ) {
+        return nanCounts_[ iz ];
+    }
+
+    /**
+     * Returns the number of fill values in a zone.
+     *
+     * @param  iz  zone index
+     * @return  fill value count
+     */
+    public long getFillCount( int iz ) {
+        return fillCounts_[ iz ];
+    }
+
+    /**
+     * Returns the indices of the zones which may contain valid values
+     * in a given range.  Other zones need not be read.
+     *
+     * @param  lo  lower bound of range, inclusive
+     * @param  hi  upper bound of range, inclusive
+     * @return  ascending array of zone indices
+     */
+    public int[] getCandidateZones( double lo, double hi ) {
+        int nz = firsts_.length;
+        int[] izs = new int[ nz ];
+        int n = 0;
+        for ( int iz = 0; iz < nz; iz++ ) {
+            if ( maxs_[ iz ] >= lo && mins_[ iz ] <= hi ) {
+                izs[ n++ ] = iz;
+            }
+        }
+        return Arrays.copyOf( izs, n );
+    }
+
+    /**
+     * Writes the cached zone maps of a file's variables to a sidecar file.
+     * Variables with no cached zone map are omitted.
+     * The file is written to a temporary file which is then renamed,
+     * so that readers never see a partly written sidecar.
+     *
+     * @param  sidecar  file to write
+     * @param  cdfFile  CDF file whose identity is recorded
+     * @param  content  content of cdfFile
+     * @return  number of zone maps written
+     */
+    public static int writeSidecar( File sidecar, File cdfFile,
+                                    CdfContent content )
+            throws IOException {
+        Variable[] vars = content.getVariables();
+        ZoneMap[] zmaps = new ZoneMap[ vars.length ];
+        int nz = 0;
+        for ( int iv = 0; iv < vars.length; iv++ ) {
+            zmaps[ iv ] = vars[ iv ].getCachedZoneMap();
+            if ( zmaps[ iv ] != null ) {
+                nz++;
+            }
+        }
+        File tmp = new File( sidecar.getPath() + ".tmp" );
+        OutputStream fout = new FileOutputStream( tmp );
+        try {
+            DataOutputStream out =
+                new DataOutputStream( new BufferedOutputStream( fout ) );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( cdfFile.length() );
+            out.writeLong( cdfFile.lastModified() );
+            out.writeInt( nz );
+            for ( int iv = 0; iv < vars.length; iv++ ) {
+                ZoneMap zmap = zmaps[ iv ];
+                if ( zmap != null ) {
+                    out.writeUTF( vars[ iv ].getName() );
+                    out.writeInt( zmap.nrec_ );
+                    out.writeDouble( zmap.fillValue_ );
+                    int nzone = zmap.getZoneCount();
+                    out.writeInt( nzone );
+                    for ( int iz = 0; iz < nzone; iz++ ) {
+                        out.writeInt( zmap.firsts_[ iz ] );
+                        out.writeInt( zmap.ends_[ iz ] );
+                        out.writeDouble( zmap.mins_[ iz ] );
+                        out.writeDouble( zmap.maxs_[ iz ] );
+                        out.writeLong( zmap.nanCounts_[ iz ] );
+                        out.writeLong( zmap.fillCounts_[ iz ] );
+                    }
+                }
+            }
+            out.flush();
+        }
+        finally {
+            fout.close();
+        }
+        if ( ! tmp.renameTo( sidecar ) ) {
+            sidecar.delete();
+            if ( ! tmp.renameTo( sidecar ) ) {
+                throw new IOException( "Failed to rename " + tmp
+                                     + " to " + sidecar );
+            }
+        }
+        return nz;
+    }
+
+    /**
+     * Reads zone maps from a sidecar file and installs them in the
+     * in-memory cache of a file's variables.
+     * Nothing is installed if the sidecar does not exist,
+     * or if the CDF file's size or modification time differ from
+     * those recorded, or for variables whose record counts have changed.
+     *
+     * @param  sidecar  file to read
+     * @param  cdfFile  CDF file whose identity is checked
+     * @param  content  content of cdfFile
+     * @return  number of zone maps installed
+     * @throws  CdfFormatException  if the file is not a zone map sidecar
+     */
+    public static int readSidecar( File sidecar, File cdfFile,
+                                   CdfContent content )
+            throws IOException {
+        if ( ! sidecar.exists() ) {
+            return 0;
+        }
+        InputStream fin = new FileInputStream( sidecar );
+        try {
+            DataInputStream in =
+                new DataInputStream( new BufferedInputStream( fin ) );
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                throw new CdfFormatException( "Not a zone map sidecar: "
+                                            + sidecar );
+            }
+            if ( in.readLong() != cdfFile.length() ||
+                 in.readLong() != cdfFile.lastModified() ) {
+                return 0;
+            }
+            int nvar = in.readInt();
+            int nInstalled = 0;
+            for ( int iv = 0; iv < nvar; iv++ ) {
+                String name = in.readUTF();
+                int nrec = in.readInt();
+                double fillValue = in.readDouble();
+                int nz = in.readInt();
+                int[] firsts = new int[ nz ];
+                int[] ends = new int[ nz ];
+                double[] mins = new double[ nz ];
+                double[] maxs = new double[ nz ];
+                long[] nanCounts = new long[ nz ];
+                long[] fillCounts = new long[ nz ];
+                for ( int iz = 0; iz < nz; iz++ ) {
+                    firsts[ iz ] = in.readInt();
+                    ends[ iz ] = in.readInt();
+                    mins[ iz ] = in.readDouble();
+                    maxs[ iz ] = in.readDouble();
+                    nanCounts[ iz ] = in.readLong();
+                    fillCounts[ iz ] = in.readLong();
+                }
+                for ( Variable var : content.getVariables() ) {
+                    if ( var.getName().equals( name ) &&
+                         var.getRecordCount() == nrec ) {
+                        var.setZoneMap( new ZoneMap( nrec, fillValue,
+                                                     firsts, ends,
+                                                     mins, maxs,
+                                                     nanCounts,
+                                                     fillCounts ) );
+                        nInstalled++;
+                    }
+                }
+            }
+            return nInstalled;
+        }
+        finally {
+            fin.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneMap(" + getZoneCount() + " zones, " + nrec_
+             + " records)";
+    }
+}